@@ -63,6 +63,11 @@ public class ComponentManagerImpl implements ComponentManager {
    * its a resolvable URI.
    */
   private static final String DEFAULT_COMPONENTS = "components";
+  /**
+   * The name of the property containing the maximum number of components that
+   * may be prepared or started at the same time.
+   */
+  private static final String COMPONENT_START_THREADS = "component.start.threads";
   /**
    * The kernel that this component manager services.
    */
@@ -80,6 +85,16 @@ public class ComponentManagerImpl implements ComponentManager {
    */
   private Map<String, ComponentSpecification> startedComponents = new ConcurrentHashMap<String, ComponentSpecification>();
   private Map<ComponentSpecification, ClassLoader> classloaders = new ConcurrentHashMap<ComponentSpecification, ClassLoader>();
+  /**
+   * Locks held while a component is prepared or started, so that two
+   * components starting concurrently cant both start a shared dependency.
+   */
+  private ConcurrentHashMap<ComponentSpecification, Object> startLocks = new ConcurrentHashMap<ComponentSpecification, Object>();
+  /**
+   * The maximum number of components that are prepared or started at the same
+   * time.
+   */
+  private int startThreads = Runtime.getRuntime().availableProcessors();
 
   /**
    * create the component manager with a reference to the kernel.
@@ -119,21 +134,26 @@ public class ComponentManagerImpl implements ComponentManager {
     if (classloaders.containsKey(spec)) {
       return true;
     }
+    synchronized (getStartLock(spec)) {
+      if (classloaders.containsKey(spec)) {
+        return true;
+      }
 
-    ClassLoader componentClassloader = Thread.currentThread()
-        .getContextClassLoader();
+      ClassLoader componentClassloader = Thread.currentThread()
+          .getContextClassLoader();
 
-    ClassLoaderService classLoaderService = kernel.getServiceManager()
-        .getService(new ServiceSpec(ClassLoaderService.class));
-    if (classLoaderService != null) {
-      componentClassloader = classLoaderService.getComponentClassLoader(spec);
-    }
+      ClassLoaderService classLoaderService = kernel.getServiceManager()
+          .getService(new ServiceSpec(ClassLoaderService.class));
+      if (classLoaderService != null) {
+        componentClassloader = classLoaderService.getComponentClassLoader(spec);
+      }
 
-    classloaders.put(spec, componentClassloader);
+      classloaders.put(spec, componentClassloader);
 
-    for (Artifact dependant : spec.getComponentDependencies()) {
-      if (!dependant.isManaged()) {
-        prepareStartComponent(componentsByName.get(dependant.toString()));
+      for (Artifact dependant : spec.getComponentDependencies()) {
+        if (!dependant.isManaged()) {
+          prepareStartComponent(componentsByName.get(dependant.toString()));
+        }
       }
     }
 
@@ -154,14 +174,32 @@ public class ComponentManagerImpl implements ComponentManager {
    * @see org.sakaiproject.kernel.api.ComponentManager#startComponent(org.sakaiproject
    *      .kernel.api.ComponentSpecification)
    */
-  @SuppressWarnings("unchecked")
   public boolean startComponent(ComponentSpecification spec)
       throws KernelConfigurationException, ComponentSpecificationException {
 
     if (components.containsKey(spec)) {
       return true;
     }
+    synchronized (getStartLock(spec)) {
+      if (components.containsKey(spec)) {
+        return true;
+      }
+      return doStartComponent(spec);
+    }
+  }
 
+  /**
+   * Start the component, the caller holds the start lock for the component.
+   *
+   * @param spec
+   *          the specification of a component to be started.
+   * @return true if the component started.
+   * @throws KernelConfigurationException
+   * @throws ComponentSpecificationException
+   */
+  @SuppressWarnings("unchecked")
+  private boolean doStartComponent(ComponentSpecification spec)
+      throws KernelConfigurationException, ComponentSpecificationException {
     LOG.info("==============> Starting Component " + spec.getName());
     ClassLoader componentClassloader = classloaders.get(spec);
     ClassLoader currentClassloader = Thread.currentThread()
@@ -218,6 +256,22 @@ public class ComponentManagerImpl implements ComponentManager {
     }
   }
 
+  /**
+   * @param spec
+   * @return the lock object for the component.
+   */
+  private Object getStartLock(ComponentSpecification spec) {
+    Object lock = startLocks.get(spec);
+    if (lock == null) {
+      Object newLock = new Object();
+      lock = startLocks.putIfAbsent(spec, newLock);
+      if (lock == null) {
+        lock = newLock;
+      }
+    }
+    return lock;
+  }
+
   /**
    * Start a default set of components, how the default set is specified is an
    * implementation detail.
@@ -244,6 +298,10 @@ public class ComponentManagerImpl implements ComponentManager {
         }
       }
       String dc = p.getProperty(DEFAULT_COMPONENTS);
+      String threads = p.getProperty(COMPONENT_START_THREADS);
+      if (threads != null && threads.trim().length() > 0) {
+        startThreads = Integer.parseInt(threads.trim());
+      }
       List<ComponentSpecification> toStart = new ArrayList<ComponentSpecification>();
       LOG.info("Starting " + dc);
       if (dc != null) {
@@ -325,6 +383,17 @@ public class ComponentManagerImpl implements ComponentManager {
     if (unstable.size() > 0) {
       message
           .append("\n\tERROR:There is a cyclic dependency between components, that must be removed\n");
+      List<ComponentSpecification> cycle = findCycle(toStart);
+      if (cycle != null) {
+        message.append("\t\tDependency cycle ");
+        for (int i = 0; i < cycle.size(); i++) {
+          if (i > 0) {
+            message.append(" -> ");
+          }
+          message.append(cycle.get(i).getName());
+        }
+        message.append("\n");
+      }
       for (ComponentSpecification cs : unstable) {
         message.append("\t\tUnstable Component ").append(
             cs.getDependencyDescription()).append("\n");
@@ -404,6 +473,61 @@ public class ComponentManagerImpl implements ComponentManager {
 
   }
 
+  /**
+   * Find a cycle in the dependencies of a set of components.
+   *
+   * @param toStart
+   *          the components to search from.
+   * @return the components in the cycle, starting and ending with the same
+   *         component, or null if there is no cycle.
+   */
+  private List<ComponentSpecification> findCycle(
+      List<ComponentSpecification> toStart) {
+    Map<ComponentSpecification, Boolean> visiting = new HashMap<ComponentSpecification, Boolean>();
+    for (ComponentSpecification spec : toStart) {
+      List<ComponentSpecification> cycle = findCycle(spec, visiting,
+          new ArrayList<ComponentSpecification>());
+      if (cycle != null) {
+        return cycle;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Depth first search for a cycle, components in visiting are TRUE while
+   * they are on the path and FALSE once all their dependencies are known to be
+   * free of cycles.
+   */
+  private List<ComponentSpecification> findCycle(ComponentSpecification spec,
+      Map<ComponentSpecification, Boolean> visiting,
+      List<ComponentSpecification> path) {
+    Boolean state = visiting.get(spec);
+    if (Boolean.FALSE.equals(state)) {
+      return null;
+    }
+    if (Boolean.TRUE.equals(state)) {
+      List<ComponentSpecification> cycle = new ArrayList<ComponentSpecification>(
+          path.subList(path.indexOf(spec), path.size()));
+      cycle.add(spec);
+      return cycle;
+    }
+    visiting.put(spec, Boolean.TRUE);
+    path.add(spec);
+    for (Artifact d : spec.getComponentDependencies()) {
+      ComponentSpecification cs = componentsByName.get(d.toString());
+      if (cs != null) {
+        List<ComponentSpecification> cycle = findCycle(cs, visiting, path);
+        if (cycle != null) {
+          return cycle;
+        }
+      }
+    }
+    path.remove(path.size() - 1);
+    visiting.put(spec, Boolean.FALSE);
+    return null;
+  }
+
   /**
    * Stop all components.
    *
@@ -492,11 +616,21 @@ public class ComponentManagerImpl implements ComponentManager {
       throws ComponentSpecificationException, KernelConfigurationException {
     loadComponents(specs);
     List<ComponentSpecification> sortedSpecs = getStartOrder(specs);
-    for (ComponentSpecification spec : sortedSpecs) {
-      prepareStartComponent(spec);
-    }
-    for (ComponentSpecification spec : sortedSpecs) {
-      startComponent(spec);
-    }
+    ComponentStartScheduler scheduler = new ComponentStartScheduler(
+        sortedSpecs, componentsByName, startThreads);
+    // every component is prepared before any is activated, so all the exports
+    // are registered before the first activator runs.
+    scheduler.run("Prepare", new ComponentStartScheduler.ComponentTask() {
+      public void execute(ComponentSpecification spec)
+          throws ComponentSpecificationException {
+        prepareStartComponent(spec);
+      }
+    });
+    scheduler.run("Start", new ComponentStartScheduler.ComponentTask() {
+      public void execute(ComponentSpecification spec)
+          throws ComponentSpecificationException {
+        startComponent(spec);
+      }
+    });
   }
 }
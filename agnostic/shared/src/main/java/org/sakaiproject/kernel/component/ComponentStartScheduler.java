@@ -0,0 +1,373 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.component;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.kernel.api.Artifact;
+import org.sakaiproject.kernel.api.ComponentSpecification;
+import org.sakaiproject.kernel.api.ComponentSpecificationException;
+import org.sakaiproject.kernel.api.KernelConfigurationException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a task over a set of components as a dependency graph rather than a
+ * list. A component is handed to a bounded pool as soon as all of its
+ * dependencies in the set have completed, so independent components run
+ * concurrently. The first failure stops any further components being
+ * scheduled, the tasks already running are allowed to finish, and the failure
+ * is re-thrown to the caller. Each run records how long each component took
+ * and the critical path, being the chain of dependencies that gated the last
+ * component to finish.
+ */
+public class ComponentStartScheduler {
+
+  /**
+   * The logger
+   */
+  private static final Log LOG = LogFactory
+      .getLog(ComponentStartScheduler.class);
+
+  /**
+   * The work to be performed on each component.
+   */
+  public interface ComponentTask {
+    /**
+     * @param spec
+     *          the component to perform the task on, all of its dependencies
+     *          in the set will have completed.
+     * @throws ComponentSpecificationException
+     */
+    void execute(ComponentSpecification spec)
+        throws ComponentSpecificationException;
+  }
+
+  /**
+   * The components in the set, in start order.
+   */
+  private final List<ComponentSpecification> specs;
+  /**
+   * The dependencies of each component that are also in the set.
+   */
+  private final Map<ComponentSpecification, List<ComponentSpecification>> dependencies = new HashMap<ComponentSpecification, List<ComponentSpecification>>();
+  /**
+   * The components in the set that depend on each component.
+   */
+  private final Map<ComponentSpecification, List<ComponentSpecification>> dependants = new HashMap<ComponentSpecification, List<ComponentSpecification>>();
+  /**
+   * The maximum number of threads to use.
+   */
+  private final int threads;
+  /**
+   * The start and end of each component in the last run, in nanoseconds.
+   */
+  private final Map<ComponentSpecification, long[]> timings = new ConcurrentHashMap<ComponentSpecification, long[]>();
+  /**
+   * The critical path of the last run.
+   */
+  private List<ComponentSpecification> criticalPath = new ArrayList<ComponentSpecification>();
+
+  /**
+   * @param specs
+   *          the components to schedule, components already started should not
+   *          be in the list.
+   * @param componentsByName
+   *          all the known components, indexed by name, used to resolve
+   *          dependencies.
+   * @param threads
+   *          the maximum number of components to run at the same time.
+   */
+  public ComponentStartScheduler(List<ComponentSpecification> specs,
+      Map<String, ComponentSpecification> componentsByName, int threads) {
+    this.specs = new ArrayList<ComponentSpecification>(specs);
+    this.threads = Math.max(1, threads);
+    Set<ComponentSpecification> inSet = new HashSet<ComponentSpecification>(
+        specs);
+    for (ComponentSpecification spec : this.specs) {
+      dependencies.put(spec, new ArrayList<ComponentSpecification>());
+      dependants.put(spec, new ArrayList<ComponentSpecification>());
+    }
+    for (ComponentSpecification spec : this.specs) {
+      for (Artifact d : spec.getComponentDependencies()) {
+        ComponentSpecification cs = componentsByName.get(d.toString());
+        // dependencies outside the set are already started, or will be
+        // started by the component that needs them.
+        if (cs != null && cs != spec && inSet.contains(cs)
+            && !dependencies.get(spec).contains(cs)) {
+          dependencies.get(spec).add(cs);
+          dependants.get(cs).add(spec);
+        }
+      }
+    }
+  }
+
+  /**
+   * Run the task over all the components, respecting the dependencies between
+   * them.
+   *
+   * @param phase
+   *          the name of the phase, used for logging and thread names.
+   * @param task
+   *          the task to run on each component.
+   * @throws ComponentSpecificationException
+   *           if the task failed with a ComponentSpecificationException, or
+   *           the components could not all be scheduled.
+   * @throws KernelConfigurationException
+   *           if the task failed with any other exception.
+   */
+  public void run(String phase, final ComponentTask task)
+      throws ComponentSpecificationException, KernelConfigurationException {
+    timings.clear();
+    criticalPath = new ArrayList<ComponentSpecification>();
+    if (specs.size() == 0) {
+      return;
+    }
+    int poolSize = Math.min(threads, specs.size());
+    ExecutorService executor = Executors.newFixedThreadPool(poolSize,
+        new StartThreadFactory(phase, Thread.currentThread()
+            .getContextClassLoader()));
+    CompletionService<ComponentSpecification> completion = new ExecutorCompletionService<ComponentSpecification>(
+        executor);
+    Map<ComponentSpecification, Integer> waiting = new HashMap<ComponentSpecification, Integer>();
+    long phaseStart = System.nanoTime();
+    int submitted = 0;
+    int completed = 0;
+    Throwable failure = null;
+    ComponentSpecification failed = null;
+    try {
+      for (ComponentSpecification spec : specs) {
+        int n = dependencies.get(spec).size();
+        waiting.put(spec, n);
+        if (n == 0) {
+          submit(completion, spec, task);
+          submitted++;
+        }
+      }
+      while (completed < submitted) {
+        Future<ComponentSpecification> f = completion.take();
+        completed++;
+        ComponentSpecification done = null;
+        try {
+          done = f.get();
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+          continue;
+        }
+        if (failure != null) {
+          // fail fast, let the running tasks drain, but schedule nothing new.
+          continue;
+        }
+        for (ComponentSpecification dependant : dependants.get(done)) {
+          int n = waiting.get(dependant) - 1;
+          waiting.put(dependant, n);
+          if (n == 0) {
+            submit(completion, dependant, task);
+            submitted++;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      executor.shutdownNow();
+      throw new KernelConfigurationException(phase
+          + " of components was interrupted ", e);
+    } finally {
+      executor.shutdown();
+    }
+
+    if (failure != null) {
+      LOG.error(phase + " of components stopped after " + completed + " of "
+          + specs.size() + " component(s), cause: " + failure.getMessage());
+      if (failure instanceof ComponentSpecificationException) {
+        throw (ComponentSpecificationException) failure;
+      }
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      throw new KernelConfigurationException(phase + " of components failed "
+          + failure.getMessage(), failure);
+    }
+    if (completed < specs.size()) {
+      StringBuilder sb = new StringBuilder();
+      for (ComponentSpecification spec : specs) {
+        if (waiting.get(spec) > 0) {
+          sb.append("\n\t\t").append(spec.getName());
+        }
+      }
+      throw new ComponentSpecificationException(phase
+          + " of components could not schedule the following components, "
+          + "their dependencies are cyclic " + sb.toString());
+    }
+
+    long phaseEnd = System.nanoTime();
+    findCriticalPath();
+    report(phase, poolSize, phaseStart, phaseEnd);
+  }
+
+  /**
+   * @param spec
+   * @return the time the component took in the last run, in milliseconds, or
+   *         -1 if the component did not run.
+   */
+  public long getElapsed(ComponentSpecification spec) {
+    long[] t = timings.get(spec);
+    if (t == null) {
+      return -1;
+    }
+    return (t[1] - t[0]) / 1000000L;
+  }
+
+  /**
+   * @return the critical path of the last run, starting with the component
+   *         that had no dependencies and ending with the last component to
+   *         finish.
+   */
+  public List<ComponentSpecification> getCriticalPath() {
+    return Collections.unmodifiableList(criticalPath);
+  }
+
+  /**
+   * Submit a component to the pool, recording its timings.
+   */
+  private void submit(CompletionService<ComponentSpecification> completion,
+      final ComponentSpecification spec, final ComponentTask task) {
+    completion.submit(new Callable<ComponentSpecification>() {
+
+      public ComponentSpecification call() throws Exception {
+        long begin = System.nanoTime();
+        try {
+          task.execute(spec);
+        } finally {
+          timings.put(spec, new long[] { begin, System.nanoTime() });
+        }
+        return spec;
+      }
+
+    });
+  }
+
+  /**
+   * Walk back from the last component to finish, following the dependency
+   * that finished last, which is the one that held the component back.
+   */
+  private void findCriticalPath() {
+    ComponentSpecification last = null;
+    for (ComponentSpecification spec : specs) {
+      if (last == null || timings.get(spec)[1] > timings.get(last)[1]) {
+        last = spec;
+      }
+    }
+    List<ComponentSpecification> path = new ArrayList<ComponentSpecification>();
+    while (last != null) {
+      path.add(0, last);
+      ComponentSpecification gate = null;
+      for (ComponentSpecification d : dependencies.get(last)) {
+        if (gate == null || timings.get(d)[1] > timings.get(gate)[1]) {
+          gate = d;
+        }
+      }
+      last = gate;
+    }
+    criticalPath = path;
+  }
+
+  /**
+   * Log the timings of the run.
+   */
+  private void report(String phase, int poolSize, long phaseStart,
+      long phaseEnd) {
+    LOG.info("==============> " + phase + " of " + specs.size()
+        + " component(s) took " + (phaseEnd - phaseStart) / 1000000L
+        + "ms using " + poolSize + " thread(s)");
+    for (ComponentSpecification spec : specs) {
+      long[] t = timings.get(spec);
+      LOG.info(phase + " " + spec.getName() + " took " + (t[1] - t[0])
+          / 1000000L + "ms, finished at " + (t[1] - phaseStart) / 1000000L
+          + "ms");
+    }
+    StringBuilder sb = new StringBuilder();
+    long total = 0;
+    for (ComponentSpecification spec : criticalPath) {
+      long[] t = timings.get(spec);
+      total += t[1] - t[0];
+      if (sb.length() > 0) {
+        sb.append(" -> ");
+      }
+      sb.append(spec.getName()).append(" (").append((t[1] - t[0]) / 1000000L)
+          .append("ms)");
+    }
+    LOG.info(phase + " critical path " + total / 1000000L + "ms: "
+        + sb.toString());
+  }
+
+  /**
+   * Names the pool threads after the phase, and gives them the context
+   * classloader of the thread that started the phase, as the components would
+   * have seen when started inline.
+   */
+  private static class StartThreadFactory implements ThreadFactory {
+
+    private final String phase;
+    private final ClassLoader contextClassLoader;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @param phase
+     * @param contextClassLoader
+     */
+    StartThreadFactory(String phase, ClassLoader contextClassLoader) {
+      this.phase = phase;
+      this.contextClassLoader = contextClassLoader;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+     */
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "Component" + phase + "-"
+          + count.incrementAndGet());
+      t.setDaemon(true);
+      t.setContextClassLoader(contextClassLoader);
+      return t;
+    }
+  }
+}
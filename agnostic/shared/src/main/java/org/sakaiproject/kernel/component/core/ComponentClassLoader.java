@@ -26,23 +26,64 @@ import org.sakaiproject.kernel.component.model.DependencyImpl;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * The Component Classloader is used for components, and will resolve classes
  * exported from other Classloaders into the package registry service. In
  * addition it acts exactly in the same way the URLClassloader operates,
  * resolving to the parent.
+ * <p>
+ * Class loading locks on the class name rather than the classloader, and where
+ * the JVM supports it the classloader is registered as parallel capable, so
+ * that threads loading different classes do not wait on each other. Names that
+ * could not be found are remembered with the exporter that was tried, and fail
+ * fast until the package registry resolves them to a different exporter.
  */
 public class ComponentClassLoader extends URLClassLoader implements
     Exporter {
 
   private static final Log LOG = LogFactory.getLog(ComponentClassLoader.class);
   private static final boolean debug = LOG.isDebugEnabled();
+  /**
+   * The maximum number of class names that are remembered as not found.
+   */
+  private static final int MAX_MISSES = 10000;
+  /**
+   * Recorded as the exporter for misses where there was no exporter.
+   */
+  private static final Object NO_EXPORTER = new Object();
+
+  static {
+    // registerAsParallelCapable is protected and was added in Java 7, so it is
+    // invoked reflectively where it is available.
+    try {
+      Method register = ClassLoader.class
+          .getDeclaredMethod("registerAsParallelCapable");
+      register.setAccessible(true);
+      register.invoke(null);
+    } catch (Exception e) {
+      if (debug) {
+        LOG.debug("Component classloaders are not parallel capable: " + e);
+      }
+    }
+  }
+
+  /**
+   * A lock object per class name.
+   */
+  private final ConcurrentMap<String, Object> classLoadingLocks = new ConcurrentHashMap<String, Object>();
+  /**
+   * Class names that were not found, with the exporter that was tried.
+   */
+  private final ConcurrentMap<String, Object> misses = new ConcurrentHashMap<String, Object>();
   private PackageRegistryService packageRegistryService;
   private Artifact artifact;
   private static final ThreadLocal<String> spacing = new ThreadLocal<String>() {
@@ -73,13 +114,35 @@ public class ComponentClassLoader extends URLClassLoader implements
    * @see java.lang.ClassLoader#loadClass(java.lang.String, boolean)
    */
   @Override
-  protected synchronized Class<?> loadClass(String name, boolean resolve)
+  protected Class<?> loadClass(String name, boolean resolve)
+      throws ClassNotFoundException {
+    synchronized (getLoadingLock(name)) {
+      return loadClassLocked(name, resolve);
+    }
+  }
+
+  /**
+   * Load the class, with the lock for the class name held.
+   *
+   * @param name
+   * @param resolve
+   * @return the class.
+   * @throws ClassNotFoundException
+   */
+  private Class<?> loadClassLocked(String name, boolean resolve)
       throws ClassNotFoundException {
     Class<?> c = findLoadedClass(name);
     ClassNotFoundException ex = null;
+    Object tried = NO_EXPORTER;
 
     if ( c == null && packageRegistryService != null) {
       Exporter exporter = packageRegistryService.findClassloader(name);
+      if (exporter != null) {
+        tried = exporter;
+      }
+      if (misses.get(name) == tried) {
+        throw new ClassNotFoundException(name);
+      }
       if (exporter != null) {
         try {
 
@@ -126,8 +189,15 @@ public class ComponentClassLoader extends URLClassLoader implements
     if (debug) {
       LOG.debug("Resolved " + name + " as " + c);
     }
-    if (c == null)
+    if (c == null) {
+      if (packageRegistryService != null) {
+        if (misses.size() >= MAX_MISSES) {
+          misses.clear();
+        }
+        misses.put(name, tried);
+      }
       throw ex;
+    }
 
     if (resolve) {
       resolveClass(c);
@@ -146,11 +216,30 @@ public class ComponentClassLoader extends URLClassLoader implements
    * @see org.sakaiproject.kernel.api.Exporter#loadExportedClass(java.lang.String)
    */
   public Class<?> loadExportedClass(String name) throws ClassNotFoundException {
-    Class<?> c = findLoadedClass(name);
-    if (c == null) {
-        c = this.findClass(name);
+    synchronized (getLoadingLock(name)) {
+      Class<?> c = findLoadedClass(name);
+      if (c == null) {
+          c = this.findClass(name);
+      }
+      return c;
     }
-    return c;
+  }
+
+  /**
+   * @param name
+   *          the class name
+   * @return the lock object for the class name.
+   */
+  private Object getLoadingLock(String name) {
+    Object lock = classLoadingLocks.get(name);
+    if (lock == null) {
+      Object newLock = new Object();
+      lock = classLoadingLocks.putIfAbsent(name, newLock);
+      if (lock == null) {
+        lock = newLock;
+      }
+    }
+    return lock;
   }
 
 
@@ -32,15 +32,30 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Provides a tree implementation of the package register
+ * Provides a tree implementation of the package register. Class lookups are
+ * cached by package, so that a class load does not split the class name and
+ * walk the tree; the cache is cleared whenever the tree changes.
  */
 public class PackageRegistryServiceImpl implements PackageRegistryService {
 
   protected static final Log LOG = LogFactory
       .getLog(PackageRegistryService.class);
   private PackageExport root = new PackageExport("root", null);
+  /**
+   * The point in the tree that each package resolves to, including packages
+   * that resolve to no exporter.
+   */
+  private final ConcurrentMap<String, PackageLookup> packageCache = new ConcurrentHashMap<String, PackageLookup>();
+  /**
+   * Incremented on every change to the tree, so that a lookup that raced with
+   * a change is not left in the cache.
+   */
+  private final AtomicInteger generation = new AtomicInteger();
 
   /**
    * {@inheritDoc}
@@ -49,7 +64,7 @@ public class PackageRegistryServiceImpl implements PackageRegistryService {
    * @see org.sakaiproject.kernel.api.ExportedPackagedRegistryService#addExport(java.lang.String,
    *      java.lang.ClassLoader)
    */
-  public void addExport(String stub, Exporter exporter) {
+  public synchronized void addExport(String stub, Exporter exporter) {
     String[] elements = StringUtils.split(stub, '.');
     PackageExport p = root;
     if (elements != null) {
@@ -63,6 +78,7 @@ public class PackageRegistryServiceImpl implements PackageRegistryService {
       }
     }
     p.setClassExporter(exporter);
+    invalidate();
   }
 
   /**
@@ -72,7 +88,7 @@ public class PackageRegistryServiceImpl implements PackageRegistryService {
    * @see org.sakaiproject.kernel.api.ExportedPackagedRegistryService#addExport(java.lang.String,
    *      java.lang.ClassLoader)
    */
-  public void addResource(String stub, Exporter exporter) {
+  public synchronized void addResource(String stub, Exporter exporter) {
     String[] elements = StringUtils.split(stub, '/');
     PackageExport p = root;
     if (elements != null) {
@@ -86,6 +102,9 @@ public class PackageRegistryServiceImpl implements PackageRegistryService {
       }
     }
     p.addResourceExporter(exporter);
+    // new nodes take the class exporter of their parent, which changes the
+    // class lookup for any package below them.
+    invalidate();
   }
 
   /**
@@ -96,7 +115,48 @@ public class PackageRegistryServiceImpl implements PackageRegistryService {
    * @see org.sakaiproject.kernel.api.ExportedPackagedRegistryService#findClassloader(java.lang.String)
    */
   public Exporter findClassloader(String packageName) {
-    return findExporter(StringUtils.split(packageName, '.'));
+    int lastDot = packageName.lastIndexOf('.');
+    String stub = lastDot < 0 ? "" : packageName.substring(0, lastDot);
+    PackageLookup lookup = packageCache.get(stub);
+    if (lookup == null) {
+      int startGeneration = generation.get();
+      lookup = lookupPackage(StringUtils.split(stub, '.'));
+      packageCache.put(stub, lookup);
+      if (generation.get() != startGeneration) {
+        // the tree changed during the lookup, which may now be stale.
+        packageCache.remove(stub);
+      }
+    }
+    return lookup.getClassExporter(packageName.substring(lastDot + 1));
+  }
+
+  /**
+   * Walk the tree for a package.
+   *
+   * @param elements
+   *          the elements of the package name.
+   * @return the point in the tree that the package resolves to.
+   */
+  private PackageLookup lookupPackage(String[] elements) {
+    PackageExport p = root;
+    if (elements != null) {
+      for (String element : elements) {
+        PackageExport np = p.get(element);
+        if (np == null) {
+          return new PackageLookup(p, false);
+        }
+        p = np;
+      }
+    }
+    return new PackageLookup(p, true);
+  }
+
+  /**
+   * Clear the package cache after a change to the tree.
+   */
+  private void invalidate() {
+    generation.incrementAndGet();
+    packageCache.clear();
   }
 
   /**
@@ -134,7 +194,7 @@ public class PackageRegistryServiceImpl implements PackageRegistryService {
    *
    * @see org.sakaiproject.kernel.api.ExportedPackagedRegistryService#removeExport(java.lang.String)
    */
-  public void removeExport(String stub) {
+  public synchronized void removeExport(String stub) {
     String[] elements = StringUtils.split(stub, '.');
     PackageExport p = root;
     PackageExport container = root;
@@ -168,6 +228,7 @@ public class PackageRegistryServiceImpl implements PackageRegistryService {
         LOG.warn("Located a null child at a key that should have contained a PackageExport Key was:"+key);
       }
     }
+    invalidate();
   }
 
   /**
@@ -266,4 +327,41 @@ public class PackageRegistryServiceImpl implements PackageRegistryService {
 
   }
 
+  /**
+   * The point in the tree that a package resolves to. If the whole package
+   * matched, a class in the package may still match a child of the node, eg
+   * when a single class or a package given as a class name has been exported.
+   */
+  private static class PackageLookup {
+
+    private final PackageExport node;
+    private final boolean complete;
+
+    /**
+     * @param node
+     *          the deepest node that matched the package.
+     * @param complete
+     *          true if every element of the package matched.
+     */
+    PackageLookup(PackageExport node, boolean complete) {
+      this.node = node;
+      this.complete = complete;
+    }
+
+    /**
+     * @param name
+     *          the last element of the class or package name.
+     * @return the exporter for the class, or null if there is none.
+     */
+    Exporter getClassExporter(String name) {
+      if (complete) {
+        PackageExport child = node.get(name);
+        if (child != null) {
+          return child.getClassExporter();
+        }
+      }
+      return node.getClassExporter();
+    }
+  }
+
 }
@@ -55,7 +55,7 @@ public class SharedClassLoader extends ComponentClassLoader {
    * @param classifier
    * @throws ComponentSpecificationException 
    */
-  public void addDependency(Artifact classpathDependency) throws ComponentSpecificationException {
+  public synchronized void addDependency(Artifact classpathDependency) throws ComponentSpecificationException {
     URL classPathUrl = artifactResolverService.resolve(getURLs(),
         classpathDependency);
     if (classPathUrl != null) {
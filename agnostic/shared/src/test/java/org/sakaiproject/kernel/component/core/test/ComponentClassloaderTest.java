@@ -21,6 +21,7 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.reset;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
@@ -31,6 +32,7 @@ import org.easymock.EasyMock;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.sakaiproject.kernel.api.Artifact;
 import org.sakaiproject.kernel.api.ComponentSpecificationException;
 import org.sakaiproject.kernel.api.DependencyScope;
 import org.sakaiproject.kernel.api.Exporter;
@@ -134,6 +136,29 @@ public class ComponentClassloaderTest {
 
   }
 
+  @Test
+  public void testMissesAreCached() throws Exception {
+    String name = "org.sakaiproject.kernel.virtual.VirtualClass";
+    CountingExporter missing = new CountingExporter(null);
+    packageRegistryService.addExport("org.sakaiproject.kernel.virtual",
+        missing);
+    for (int i = 0; i < 3; i++) {
+      try {
+        componentClassloader.loadClass(name);
+        fail();
+      } catch (ClassNotFoundException e) {
+      }
+    }
+    // only the first load should have gone to the exporter
+    assertEquals(1, missing.loads);
+
+    // a new exporter for the package should be tried
+    CountingExporter found = new CountingExporter(String.class);
+    packageRegistryService.addExport("org.sakaiproject.kernel.virtual", found);
+    assertSame(String.class, componentClassloader.loadClass(name));
+    assertEquals(1, found.loads);
+  }
+
   @Test
   public void testGetResorceAsStream() throws IOException {
     // load from the component classloader
@@ -201,4 +226,37 @@ public class ComponentClassloaderTest {
     verify(mockExporter);
 
   }
+
+  /**
+   * An exporter that counts class loads, and exports a single class or none.
+   */
+  private static class CountingExporter implements Exporter {
+    private Class<?> exported;
+    private int loads;
+
+    CountingExporter(Class<?> exported) {
+      this.exported = exported;
+    }
+
+    public Class<?> loadExportedClass(String name)
+        throws ClassNotFoundException {
+      loads++;
+      if (exported == null) {
+        throw new ClassNotFoundException(name);
+      }
+      return exported;
+    }
+
+    public InputStream getExportedResourceAsStream(String name) {
+      return null;
+    }
+
+    public Artifact getArtifact() {
+      return new MockArtifact("counting");
+    }
+
+    public Enumeration<URL> findExportedResources(String name) {
+      return new Vector<URL>().elements();
+    }
+  }
 }
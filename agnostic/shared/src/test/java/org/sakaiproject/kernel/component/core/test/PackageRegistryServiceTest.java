@@ -184,6 +184,38 @@ public class PackageRegistryServiceTest {
             .findClassloader("org.sakaiproject.kernel.api.something.special.somewhere.else.Test213"));
   }
 
+  /**
+   * Lookups are cached by package, check that the cache follows changes to
+   * the exports, and that exports of single classes are still honoured.
+   */
+  @Test
+  public void testCachedLookups() {
+    registry.addExport("org.sakaiproject.kernel.api", apiLoader);
+    assertSame(apiLoader, registry
+        .findClassloader("org.sakaiproject.kernel.api.user.User"));
+    assertSame(apiLoader, registry
+        .findClassloader("org.sakaiproject.kernel.api.user.User"));
+
+    registry.addExport("org.sakaiproject.kernel.api.user", special);
+    assertSame(special, registry
+        .findClassloader("org.sakaiproject.kernel.api.user.User"));
+
+    registry.removeExport("org.sakaiproject.kernel.api.user");
+    assertSame(apiLoader, registry
+        .findClassloader("org.sakaiproject.kernel.api.user.User"));
+
+    registry.addExport("org.sakaiproject.kernel.api.user.Special",
+        specialsomewhere);
+    assertSame(apiLoader, registry
+        .findClassloader("org.sakaiproject.kernel.api.user.User"));
+    assertSame(specialsomewhere, registry
+        .findClassloader("org.sakaiproject.kernel.api.user.Special"));
+
+    registry.removeExport("org.sakaiproject.kernel.api");
+    assertNull(registry
+        .findClassloader("org.sakaiproject.kernel.api.user.User"));
+  }
+
   /**
    * Test method for
    * {@link org.sakaiproject.kernel.component.core.PackageRegistryServiceImpl#addExport(java.lang.String, java.lang.ClassLoader)}
@@ -19,6 +19,7 @@ package org.sakaiproject.kernel.component.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import org.apache.commons.logging.Log;
@@ -203,6 +204,8 @@ public class ComponentManagerImplTest {
       fail("Should have found a cyclic dependency ");
     } catch (Exception ex) {
       LOG.info("Sucess Found cyclic dependency "+ex.getMessage());
+      // the message names the components in the cycle, closing the loop
+      assertTrue(ex.getMessage(), ex.getMessage().indexOf("Dependency cycle") >= 0);
     }
     cm.stop();
   }
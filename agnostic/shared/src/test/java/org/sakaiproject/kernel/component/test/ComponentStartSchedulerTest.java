@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.component.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.kernel.api.Artifact;
+import org.sakaiproject.kernel.api.ComponentSpecification;
+import org.sakaiproject.kernel.api.ComponentSpecificationException;
+import org.sakaiproject.kernel.component.ComponentStartScheduler;
+import org.sakaiproject.kernel.component.URLComponentSpecificationImpl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the scheduler over the good component set, where 1 depends on 3 and 4,
+ * 3 on 2, 2 on 4, and 0 and 4 have no dependencies.
+ */
+public class ComponentStartSchedulerTest {
+
+  private static final String BASE = "res://org/sakaiproject/kernel/component/test/componentset";
+  private List<ComponentSpecification> specs;
+  private Map<String, ComponentSpecification> componentsByName;
+
+  @Before
+  public void before() throws Exception {
+    specs = new ArrayList<ComponentSpecification>();
+    componentsByName = new HashMap<String, ComponentSpecification>();
+    for (int i = 0; i < 5; i++) {
+      ComponentSpecification spec = new URLComponentSpecificationImpl(null,
+          BASE + "-good-" + i + ".xml");
+      specs.add(spec);
+      componentsByName.put(spec.getName(), spec);
+    }
+  }
+
+  @Test
+  public void testDependenciesCompleteFirst() throws Exception {
+    final List<ComponentSpecification> completed = Collections
+        .synchronizedList(new ArrayList<ComponentSpecification>());
+    ComponentStartScheduler scheduler = new ComponentStartScheduler(specs,
+        componentsByName, 4);
+    scheduler.run("Test", new ComponentStartScheduler.ComponentTask() {
+      public void execute(ComponentSpecification spec)
+          throws ComponentSpecificationException {
+        for (Artifact d : spec.getComponentDependencies()) {
+          assertTrue(spec.getName() + " started before " + d,
+              completed.contains(componentsByName.get(d.toString())));
+        }
+        sleep(20);
+        completed.add(spec);
+      }
+    });
+    assertEquals(5, completed.size());
+    for (ComponentSpecification spec : specs) {
+      assertTrue(scheduler.getElapsed(spec) >= 0);
+    }
+
+    List<ComponentSpecification> criticalPath = scheduler.getCriticalPath();
+    assertEquals(4, criticalPath.size());
+    assertEquals(specs.get(4), criticalPath.get(0));
+    assertEquals(specs.get(2), criticalPath.get(1));
+    assertEquals(specs.get(3), criticalPath.get(2));
+    assertEquals(specs.get(1), criticalPath.get(3));
+  }
+
+  @Test
+  public void testIndependentComponentsRunConcurrently() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    ComponentStartScheduler scheduler = new ComponentStartScheduler(specs,
+        componentsByName, 4);
+    scheduler.run("Test", new ComponentStartScheduler.ComponentTask() {
+      public void execute(ComponentSpecification spec)
+          throws ComponentSpecificationException {
+        int n = running.incrementAndGet();
+        synchronized (maxRunning) {
+          if (n > maxRunning.get()) {
+            maxRunning.set(n);
+          }
+        }
+        sleep(100);
+        running.decrementAndGet();
+      }
+    });
+    // 0 and 4 have no dependencies
+    assertTrue(maxRunning.get() >= 2);
+  }
+
+  @Test
+  public void testFailFast() throws Exception {
+    final List<ComponentSpecification> executed = Collections
+        .synchronizedList(new ArrayList<ComponentSpecification>());
+    ComponentStartScheduler scheduler = new ComponentStartScheduler(specs,
+        componentsByName, 4);
+    try {
+      scheduler.run("Test", new ComponentStartScheduler.ComponentTask() {
+        public void execute(ComponentSpecification spec)
+            throws ComponentSpecificationException {
+          executed.add(spec);
+          if (spec == specs.get(4)) {
+            throw new ComponentSpecificationException("Failed to start "
+                + spec.getName());
+          }
+        }
+      });
+      fail("Should have propagated the failure");
+    } catch (ComponentSpecificationException ex) {
+      assertEquals("Failed to start " + specs.get(4).getName(), ex
+          .getMessage());
+    }
+    assertFalse(executed.contains(specs.get(1)));
+    assertFalse(executed.contains(specs.get(2)));
+    assertFalse(executed.contains(specs.get(3)));
+  }
+
+  private void sleep(long ms) {
+    try {
+      Thread.sleep(ms);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -27,6 +27,7 @@ import org.sakaiproject.kernel.component.core.test.Maven2DependencyResolverTest;
 import org.sakaiproject.kernel.component.core.test.PackageRegistryServiceTest;
 import org.sakaiproject.kernel.component.core.test.SharedClassloaderTest;
 import org.sakaiproject.kernel.component.test.ComponentManagerImplTest;
+import org.sakaiproject.kernel.component.test.ComponentStartSchedulerTest;
 import org.sakaiproject.kernel.component.test.KernelImplTest;
 import org.sakaiproject.kernel.component.test.KernelLifecycleTest;
 import org.sakaiproject.kernel.component.test.ServiceManagerImplTest;
@@ -43,7 +44,8 @@ import org.sakaiproject.kernel.util.test.StringUtilsTest;
     ResourceLoaderTest.class,
     Maven2DependencyResolverTest.class,
     ComponentClassloaderTest.class,
-    ComponentManagerImplTest.class, KernelImplTest.class,
+    ComponentManagerImplTest.class, ComponentStartSchedulerTest.class,
+    KernelImplTest.class,
     ServiceManagerImplTest.class, KernelLifecycleTest.class,
     URLComponentSpecificationImplTest.class,
     PackageRegistryServiceTest.class,
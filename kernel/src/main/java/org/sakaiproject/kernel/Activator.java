@@ -40,12 +40,14 @@ import org.sakaiproject.kernel.api.memory.CacheManagerService;
 import org.sakaiproject.kernel.api.messaging.MessagingService;
 import org.sakaiproject.kernel.api.persistence.DataSourceService;
 import org.sakaiproject.kernel.api.presence.PresenceService;
+import org.sakaiproject.kernel.api.rest.RestMetricsService;
 import org.sakaiproject.kernel.api.serialization.BeanConverter;
 import org.sakaiproject.kernel.api.session.SessionManagerService;
 import org.sakaiproject.kernel.api.site.SiteService;
 import org.sakaiproject.kernel.api.social.FriendsResolverService;
 import org.sakaiproject.kernel.api.user.AuthenticationResolverService;
 import org.sakaiproject.kernel.api.user.ProfileResolverService;
+import org.sakaiproject.kernel.api.user.TokenAuthenticationService;
 import org.sakaiproject.kernel.api.user.UserFactoryService;
 import org.sakaiproject.kernel.api.user.UserResolverService;
 import org.sakaiproject.kernel.api.userenv.UserEnvironmentResolverService;
@@ -77,7 +79,8 @@ public class Activator implements ComponentActivator {
       RegistryService.class, EntityManager.class, SiteService.class,
       FriendsResolverService.class, ProfileResolverService.class, MessagingService.class,
       UserFactoryService.class, BeanConverter.class, PresenceService.class,
-      TransactionManager.class};
+      TransactionManager.class, RestMetricsService.class,
+      TokenAuthenticationService.class};
   /**
    * The logger.
    */
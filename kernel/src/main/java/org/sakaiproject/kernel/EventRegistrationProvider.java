@@ -26,6 +26,7 @@ import org.sakaiproject.kernel.authz.simple.AclListener;
 import org.sakaiproject.kernel.jcr.jackrabbit.JcrContentListenerAdapter;
 import org.sakaiproject.kernel.jcr.jackrabbit.JcrSynchronousContentListenerAdapter;
 import org.sakaiproject.kernel.jcr.jackrabbit.NodeUpdateListener;
+import org.sakaiproject.kernel.jcr.jackrabbit.sakai.AccessControlCache;
 
 import java.util.List;
 
@@ -42,9 +43,9 @@ public class EventRegistrationProvider implements Provider<List<EventRegistratio
   @Inject
   public EventRegistrationProvider(NodeUpdateListener nodeUpdateListener, JcrContentListenerAdapter jcrContentListenerAdapter,
       JcrSynchronousContentListenerAdapter jcrSynchronousContentListenerAdapter,
-      AclListener aclListener) {
+      AclListener aclListener, AccessControlCache accessControlCache) {
     eventRegistrations = Lists.immutableList((EventRegistration) nodeUpdateListener, aclListener,
-        jcrContentListenerAdapter, jcrSynchronousContentListenerAdapter);
+        jcrContentListenerAdapter, jcrSynchronousContentListenerAdapter, accessControlCache);
   }
 
   /**
@@ -21,6 +21,8 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 
 import org.sakaiproject.kernel.jcr.api.JcrContentListener;
+import org.sakaiproject.kernel.jcr.support.FileMetadataListener;
+import org.sakaiproject.kernel.user.ProfileCacheListener;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -37,7 +39,10 @@ public class JcrSynchronousContentListenerProvider implements
    *
    */
   @Inject
-  public JcrSynchronousContentListenerProvider() {
+  public JcrSynchronousContentListenerProvider(FileMetadataListener fileMetadataListener,
+      ProfileCacheListener profileCacheListener) {
+    list.add(fileMetadataListener);
+    list.add(profileCacheListener);
   }
 
   /**
@@ -60,6 +60,7 @@ public interface KernelConstants {
   String DB_MIN_WRITE = "eclipselink.write.min";
   String DB_MIN_NUM_READ = "eclipselink.read.min";
   String DB_UNITNAME = "jpa.unitname";
+  String DB_BATCH_WRITING = "eclipselink.batch.writing";
   String SESSION_COOKIE = "http.global.cookiename";
 
   String GROUP_FILE_NAME = "groupdef.json";
@@ -104,4 +105,17 @@ public interface KernelConstants {
   String JMS_BROKER_URL = "jms.brokerurl";
   String JMS_EMAIL_TYPE = "jms.email.type";
   String JMS_EMAIL_QUEUE = "jms.email.queue";
+
+  /**
+   * The most JMS sessions the producer pool has in use at once.
+   */
+  String JMS_POOL_MAX_SESSIONS = "jms.pool.maxsessions";
+  /**
+   * The time in ms that a send waits for a pooled JMS session.
+   */
+  String JMS_POOL_MAX_WAIT = "jms.pool.maxwait";
+  /**
+   * The number of messages sent in each transaction by a batch send.
+   */
+  String JMS_POOL_BATCH = "jms.pool.batch";
 }
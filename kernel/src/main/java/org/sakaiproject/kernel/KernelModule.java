@@ -44,12 +44,14 @@ import org.sakaiproject.kernel.api.jcr.SmartNodeHandler;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
 import org.sakaiproject.kernel.api.locking.LockManager;
 import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.memory.CacheTransport;
 import org.sakaiproject.kernel.api.messaging.EmailMessage;
 import org.sakaiproject.kernel.api.messaging.Message;
 import org.sakaiproject.kernel.api.messaging.MessageConverter;
 import org.sakaiproject.kernel.api.messaging.MessageHandler;
 import org.sakaiproject.kernel.api.messaging.MessagingService;
 import org.sakaiproject.kernel.api.presence.PresenceService;
+import org.sakaiproject.kernel.api.rest.RestMetricsService;
 import org.sakaiproject.kernel.api.rest.RestProvider;
 import org.sakaiproject.kernel.api.serialization.BeanConverter;
 import org.sakaiproject.kernel.api.session.SessionManagerService;
@@ -58,6 +60,7 @@ import org.sakaiproject.kernel.api.social.FriendsResolverService;
 import org.sakaiproject.kernel.api.user.AuthenticationManagerService;
 import org.sakaiproject.kernel.api.user.AuthenticationResolverService;
 import org.sakaiproject.kernel.api.user.ProfileResolverService;
+import org.sakaiproject.kernel.api.user.TokenAuthenticationService;
 import org.sakaiproject.kernel.api.user.UserFactoryService;
 import org.sakaiproject.kernel.api.user.UserProvisionAgent;
 import org.sakaiproject.kernel.api.user.UserResolverService;
@@ -85,6 +88,7 @@ import org.sakaiproject.kernel.jcr.smartNode.SmartNodeHandlerListProvider;
 import org.sakaiproject.kernel.jcr.support.JCRNodeFactoryServiceImpl;
 import org.sakaiproject.kernel.locking.LockManagerImpl;
 import org.sakaiproject.kernel.memory.CacheManagerServiceImpl;
+import org.sakaiproject.kernel.memory.JmsCacheTransport;
 import org.sakaiproject.kernel.messaging.EmailMessageImpl;
 import org.sakaiproject.kernel.messaging.JmsConnectionFactoryProvider;
 import org.sakaiproject.kernel.messaging.JsonMessageConverter;
@@ -95,9 +99,10 @@ import org.sakaiproject.kernel.messaging.email.MailSessionProvider;
 import org.sakaiproject.kernel.model.UserEnvironmentBean;
 import org.sakaiproject.kernel.presence.PresenceServiceImpl;
 import org.sakaiproject.kernel.registry.RegistryServiceImpl;
+import org.sakaiproject.kernel.rest.RestMetricsServiceImpl;
 import org.sakaiproject.kernel.serialization.json.BeanJsonLibConfig;
-import org.sakaiproject.kernel.serialization.json.BeanJsonLibConverter;
 import org.sakaiproject.kernel.serialization.json.BeanProcessor;
+import org.sakaiproject.kernel.serialization.json.StreamingBeanJsonConverter;
 import org.sakaiproject.kernel.serialization.json.ValueProcessor;
 import org.sakaiproject.kernel.session.SessionManagerServiceImpl;
 import org.sakaiproject.kernel.site.SiteServiceImpl;
@@ -106,6 +111,7 @@ import org.sakaiproject.kernel.user.AuthenticationResolverServiceImpl;
 import org.sakaiproject.kernel.user.ProfileResolverServiceImpl;
 import org.sakaiproject.kernel.user.ProviderAuthenticationResolverService;
 import org.sakaiproject.kernel.user.ProviderUserResolverService;
+import org.sakaiproject.kernel.user.TokenAuthenticationServiceImpl;
 import org.sakaiproject.kernel.user.UserProvisionAgentListProvider;
 import org.sakaiproject.kernel.user.jcr.JcrUserFactoryService;
 import org.sakaiproject.kernel.util.user.NullUserEnvironment;
@@ -199,6 +205,9 @@ public class KernelModule extends AbstractModule {
     bind(CacheManagerService.class).to(CacheManagerServiceImpl.class)
         .in(Scopes.SINGLETON);
 
+    bind(CacheTransport.class).to(JmsCacheTransport.class).in(
+        Scopes.SINGLETON);
+
     bind(MessagingService.class).to(EmailMessagingService.class).in(Scopes.SINGLETON);
 
     bind(SessionManagerService.class).to(SessionManagerServiceImpl.class).in(
@@ -219,6 +228,7 @@ public class KernelModule extends AbstractModule {
         SimpleJcrUserEnvironmentResolverService.class).in(Scopes.SINGLETON);
 
     bind(RegistryService.class).to(RegistryServiceImpl.class).in(Scopes.SINGLETON);
+    bind(RestMetricsService.class).to(RestMetricsServiceImpl.class).in(Scopes.SINGLETON);
 
     bind(KernelInitialization.class).to(KernelInitializationImpl.class).in(
         Scopes.SINGLETON);
@@ -251,7 +261,8 @@ public class KernelModule extends AbstractModule {
         Names.named(PathReferenceResolverService.DEFAULT_RESOLVER)).to(
         JcrReferenceResolverService.class).in(Scopes.SINGLETON);
 
-    bind(BeanConverter.class).to(BeanJsonLibConverter.class).in(Scopes.SINGLETON);
+    bind(BeanConverter.class).to(StreamingBeanJsonConverter.class).in(
+        Scopes.SINGLETON);
 
     // site service
     bind(SiteService.class).to(SiteServiceImpl.class).in(Scopes.SINGLETON);
@@ -313,6 +324,10 @@ public class KernelModule extends AbstractModule {
     bind(AuthenticationManagerService.class).to(AuthenticationResolverServiceImpl.class)
         .in(Scopes.SINGLETON);
 
+    // signed bearer tokens, checked without a lookup
+    bind(TokenAuthenticationService.class).to(TokenAuthenticationServiceImpl.class)
+        .in(Scopes.SINGLETON);
+
     // then bind the provider container to the head
     bind(AuthenticationResolverService.class).annotatedWith(
         Names.named(AuthenticationResolverServiceImpl.RESOLVER_CHAIN_HEAD)).to(
@@ -23,6 +23,7 @@ import com.google.inject.Provider;
 import org.sakaiproject.kernel.api.rest.RestProvider;
 import org.sakaiproject.kernel.rest.RestAuthenticationProvider;
 import org.sakaiproject.kernel.rest.RestLogoutProvider;
+import org.sakaiproject.kernel.rest.RestMetricsProvider;
 import org.sakaiproject.kernel.rest.RestMySitesProvider;
 import org.sakaiproject.kernel.rest.RestPatchProvider;
 import org.sakaiproject.kernel.rest.RestSiteProvider;
@@ -47,13 +48,15 @@ public class RestProviderListProvider implements Provider<List<RestProvider>> {
        RestLogoutProvider restLogoutProvider,
       RestUserProvider restUserProvider,
       RestMySitesProvider restMySitesProvider,
-      RestPatchProvider restPatchProvider) {
+      RestPatchProvider restPatchProvider,
+      RestMetricsProvider restMetricsProvider) {
     list.add(restAuthenticationProvider);
     list.add(restLogoutProvider);
     list.add(restUserProvider);
     list.add(restMySitesProvider);
     list.add(restPatchProvider);
     list.add(restSiteProvider);
+    list.add(restMetricsProvider);
   }
 
   /**
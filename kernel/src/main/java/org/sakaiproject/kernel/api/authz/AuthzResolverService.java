@@ -17,6 +17,9 @@
  */
 package org.sakaiproject.kernel.api.authz;
 
+import java.util.BitSet;
+import java.util.List;
+
 /**
  * This service resolves ACL questions by testing security assertions.
  */
@@ -38,6 +41,22 @@ public interface AuthzResolverService {
   void check(String resourceReference, PermissionQuery permissionQuery)
       throws PermissionDeniedException;
 
+  /**
+   * Check the permission query against a number of resources for the current
+   * request context/environment. Denials are reported in the result rather
+   * than as exceptions, and resources that share a parent ACL share one
+   * resolution, so this should be used when checking the items of a listing.
+   *
+   * @param resourceReferences
+   *          references to the resources being checked
+   * @param permissionQuery
+   *          a query to be applied to each resource.
+   * @return a bit set with bit i set if the query is granted on the ith
+   *         resource.
+   */
+  BitSet checkAll(List<String> resourceReferences,
+      PermissionQuery permissionQuery);
+
   /**
    * Clear the request grant
    */
@@ -56,9 +75,35 @@ public interface AuthzResolverService {
    */
   void invalidateAcl(ReferencedObject referencedObject);
 
+  /**
+   * Invalidate any cached decisions that depend on the subjects held by users
+   * or the permissions granted to subjects, used when a user environment or a
+   * group changes.
+   */
+  void invalidateSubjects();
+
   /**
    * @return return the current request grant if there is one, otherwise null.
    */
   String getRequestGrant();
 
+  /**
+   * Set a read grant that allows repository reads, and nothing else, on this
+   * thread without a check on each item. This is an internal bypass used while
+   * the nodes of a listing are loaded so that they can be checked together, it is
+   * not logged as a security bypass, and must be paired with
+   * {@link #clearReadGrant()}.
+   */
+  void setReadGrant();
+
+  /**
+   * Clear the read grant.
+   */
+  void clearReadGrant();
+
+  /**
+   * @return true if a read grant is set for the current request.
+   */
+  boolean hasReadGrant();
+
 }
@@ -33,6 +33,20 @@ public interface ReferenceResolverService {
    */
   ReferencedObject resolve(String resourceReference);
 
+  /**
+   * Resolve the ReferenceObject of a child of an object that has already been
+   * resolved, reusing the parent rather than resolving the ancestors of the
+   * child again.
+   *
+   * @param parent
+   *          the resolved parent of the child.
+   * @param resourceReference
+   *          the reference URI of the child.
+   * @return the ReferenceObject after resolution, as for
+   *         {@link #resolve(String)}.
+   */
+  ReferencedObject resolveChild(ReferencedObject parent, String resourceReference);
+
   /**
    * Create an access control statement from a specification.
    * @param acs The acs in string form
@@ -359,6 +359,12 @@ public interface JCRConstants {
   String NS_ACL_PREFIX = "acl";
   String NS_ACL_URI = "http://www.jcp.org/acl/sv/1.0";
 
+  /**
+   * The SHA-1 hash of the content of a file, held on the jcr:content node and
+   * used as the strong entity tag of the file.
+   */
+  String JCR_CONTENT_HASH = "sakaijcr:contentHash";
+
   String JCR_LABELS = "sakaijcr:labels";
   String JCR_MESSAGE_TYPE = "sakaijcr:messageType";
   String JCR_MESSAGE_RCPTS = "sakaijcr:messageRcpts";
@@ -33,7 +33,20 @@ public interface SmartNodeHandler extends Provider<String> {
   String REGISTRY = "smartNode.registry";
 
   /**
-   * Handle a smart node and the query statement assigned to it.
+   * The request parameter giving the number of results to skip.
+   */
+  String OFFSET_PARAM = "offset";
+
+  /**
+   * The request parameter giving the maximum number of results to return, if absent all
+   * the results after the offset are returned.
+   */
+  String LIMIT_PARAM = "limit";
+
+  /**
+   * Handle a smart node and the query statement assigned to it. Handlers that produce a
+   * list of results page them with the {@link #OFFSET_PARAM} and {@link #LIMIT_PARAM}
+   * request parameters.
    *
    * @param request
    * @param response
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.api.jcr.support;
+
+import java.io.Serializable;
+
+/**
+ * The metadata of a file that is needed to answer a conditional request
+ * without going to the repository. Instances are held in the
+ * {@link #FILE_METADATA_CACHE} keyed by the repository path of the file, and
+ * are removed from that cache whenever the content of the file changes.
+ */
+public class FileMetadata implements Serializable {
+
+  /**
+   * The name of the cluster invalidated cache holding file metadata by path.
+   */
+  public static final String FILE_METADATA_CACHE = "file_metadata";
+
+  /**
+   *
+   */
+  private static final long serialVersionUID = 2858113578722263813L;
+
+  private final String etag;
+
+  private final long lastModified;
+
+  private final String mimeType;
+
+  private final long length;
+
+  /**
+   * @param etag
+   *          the strong entity tag of the content.
+   * @param lastModified
+   *          the last modified time of the content.
+   * @param mimeType
+   *          the mime type of the content.
+   * @param length
+   *          the length of the content.
+   */
+  public FileMetadata(String etag, long lastModified, String mimeType, long length) {
+    this.etag = etag;
+    this.lastModified = lastModified;
+    this.mimeType = mimeType;
+    this.length = length;
+  }
+
+  /**
+   * @return the strong entity tag of the content, including the quotes.
+   */
+  public String getEtag() {
+    return etag;
+  }
+
+  /**
+   * @return the last modified time of the content.
+   */
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * @return the mime type of the content.
+   */
+  public String getMimeType() {
+    return mimeType;
+  }
+
+  /**
+   * @return the length of the content.
+   */
+  public long getLength() {
+    return length;
+  }
+
+}
@@ -70,7 +70,7 @@ public interface Cache<V> {
 
   /**
    * Remove the key and any child keys from the cache, this is an expensive
-   * operation.
+   * operation unless the cache keeps an index of its keys.
    *
    * @param key
    */
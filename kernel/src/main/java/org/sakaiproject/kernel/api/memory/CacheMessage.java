@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.api.memory;
+
+import java.io.Serializable;
+
+/**
+ * A change to a named cache that is sent to the other nodes in the cluster.
+ */
+public class CacheMessage implements Serializable {
+
+  /**
+   *
+   */
+  private static final long serialVersionUID = 4374850937461390837L;
+
+  /**
+   * The types of change.
+   */
+  public enum Type {
+    /**
+     * Put the payload into the cache, only sent for replicated caches.
+     */
+    PUT(),
+    /**
+     * Remove the key.
+     */
+    REMOVE(),
+    /**
+     * Remove the key and all keys below the key.
+     */
+    REMOVE_CHILDREN(),
+    /**
+     * Remove everything from the cache.
+     */
+    CLEAR();
+  }
+
+  private final String cacheName;
+  private final Type type;
+  private final String key;
+  private final Serializable payload;
+
+  /**
+   * @param cacheName
+   *          the name of the cache the message applies to.
+   * @param type
+   *          the type of change.
+   * @param key
+   *          the key, null for CLEAR.
+   * @param payload
+   *          the payload, only for PUT.
+   */
+  public CacheMessage(String cacheName, Type type, String key,
+      Serializable payload) {
+    this.cacheName = cacheName;
+    this.type = type;
+    this.key = key;
+    this.payload = payload;
+  }
+
+  /**
+   * @return the cacheName
+   */
+  public String getCacheName() {
+    return cacheName;
+  }
+
+  /**
+   * @return the type
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * @return the key
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * @return the payload
+   */
+  public Serializable getPayload() {
+    return payload;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return cacheName + ":" + type + ":" + key;
+  }
+}
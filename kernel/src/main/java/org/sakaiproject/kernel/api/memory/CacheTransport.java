@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.api.memory;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Carries batches of cache messages between the nodes of a cluster. A
+ * transport must not deliver a batch back to the node that sent it.
+ */
+public interface CacheTransport {
+
+  /**
+   * Bind the listener that will receive batches sent by other nodes.
+   *
+   * @param listener
+   */
+  void bind(CacheTransportListener listener);
+
+  /**
+   * Send a batch of messages to all the other nodes.
+   *
+   * @param messages
+   *          the messages in the order they must be applied.
+   * @throws IOException
+   *           if the batch could not be sent.
+   */
+  void send(List<CacheMessage> messages) throws IOException;
+
+  /**
+   * Stop sending and receiving.
+   */
+  void close();
+}
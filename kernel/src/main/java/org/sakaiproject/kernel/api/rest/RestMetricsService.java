@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.api.rest;
+
+import org.sakaiproject.kernel.util.rest.RestProviderMetrics;
+
+import java.util.Map;
+
+/**
+ * Collects request statistics for each rest provider, keyed by the provider
+ * key.
+ */
+public interface RestMetricsService {
+
+  /**
+   * @param key
+   *          the key of the rest provider.
+   * @return the statistics for the provider, created if this is the first
+   *         request for the key.
+   */
+  RestProviderMetrics getProviderMetrics(String key);
+
+  /**
+   * @return the statistics of all the providers that have been requested,
+   *         sorted by key.
+   */
+  Map<String, RestProviderMetrics> getProviderMetrics();
+
+  /**
+   * Reset the statistics of all providers.
+   */
+  void resetStatistics();
+}
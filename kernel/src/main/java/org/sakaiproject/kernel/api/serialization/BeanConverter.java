@@ -17,6 +17,8 @@
  */
 package org.sakaiproject.kernel.api.serialization;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 
 public interface BeanConverter {
@@ -25,6 +27,19 @@ public interface BeanConverter {
 
   String convertToString(Object pojo);
 
+  /**
+   * Write the serialized form of the pojo to the output stream, UTF-8 encoded.
+   * The stream is flushed but not closed.
+   *
+   * @param pojo
+   *          the pojo to serialize.
+   * @param out
+   *          the stream to write to.
+   * @throws IOException
+   *           if the stream cannot be written to.
+   */
+  void writeTo(Object pojo, OutputStream out) throws IOException;
+
   String getContentType();
 
   /**
@@ -18,13 +18,20 @@
 
 package org.sakaiproject.kernel.api.user;
 
-
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Resolves profiles
  */
 public interface ProfileResolverService {
 
+  /**
+   * The name of the cluster invalidated cache holding the body of profile
+   * files by path.
+   */
+  String PROFILE_CACHE = "user_profile";
+
   /**
    * Resolves a user into its profile
    * @param string
@@ -32,6 +39,16 @@ public interface ProfileResolverService {
    */
   UserProfile resolve(String uuid);
 
+  /**
+   * Resolves a number of users into their profiles.
+   *
+   * @param uuids
+   *          the users to resolve.
+   * @return the profiles by user uuid, users without a profile are not in the
+   *         map.
+   */
+  Map<String, UserProfile> resolve(Collection<String> uuids);
+
   /**
    * Create a new user profile,
    * @param u the user
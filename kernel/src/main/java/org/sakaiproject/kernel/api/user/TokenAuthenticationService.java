@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.api.user;
+
+/**
+ * <p>
+ * Issues and checks signed bearer tokens. A token carries the user id, its
+ * expiry and the version of the key that signed it, so it can be checked on
+ * any node that has the key without a lookup or shared session state. The
+ * tokens of a user can be revoked, eg when the password changes, which is
+ * shared with the other nodes of the cluster.
+ * </p>
+ */
+public interface TokenAuthenticationService {
+
+  /**
+   * The response header that carries a token issued on login.
+   */
+  public static final String TOKEN_HEADER = "X-Sakai-Token";
+
+  /**
+   * @param authentication
+   *          an authentication that has just been established.
+   * @return a token for the authenticated user, signed with the current key.
+   */
+  String issue(Authentication authentication);
+
+  /**
+   * @param token
+   *          a token previously issued by this or another node.
+   * @return the authentication carried by the token.
+   * @throws SecurityException
+   *           if the token is malformed, has expired, was signed with a key
+   *           that is no longer known, has been altered, or has been revoked.
+   */
+  Authentication authenticate(String token) throws SecurityException;
+
+  /**
+   * Revoke every token issued to the user up to now, tokens issued later are
+   * accepted.
+   *
+   * @param uid
+   *          the id of the user.
+   */
+  void revoke(String uid);
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.authz.simple;
+
+import org.sakaiproject.kernel.api.authz.AccessControlStatement;
+import org.sakaiproject.kernel.api.authz.SubjectStatement;
+import org.sakaiproject.kernel.model.AclIndexBean;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Works out the changes to the ACL index for a set of nodes, from the index
+ * rows held for the nodes and the statements now on them. Rows and statements
+ * are matched on a hash of their identity, so the cost is linear in the number
+ * of rows and statements rather than quadratic.
+ */
+public class AclIndexDiff {
+
+  /**
+   * Index rows not yet matched by a statement, by path then by identity.
+   */
+  private final Map<String, Map<String, AclIndexBean>> current = new HashMap<String, Map<String, AclIndexBean>>();
+  private final Set<String> seen = new HashSet<String>();
+  private final List<AclIndexBean> toCreate = new ArrayList<AclIndexBean>();
+  private final List<AclIndexBean> toUpdate = new ArrayList<AclIndexBean>();
+
+  /**
+   * @param currentIndex
+   *          the index rows held for the nodes being updated.
+   */
+  public AclIndexDiff(Collection<?> currentIndex) {
+    for (Object o : currentIndex) {
+      AclIndexBean bean = (AclIndexBean) o;
+      Map<String, AclIndexBean> rows = current.get(bean.getRef());
+      if (rows == null) {
+        rows = new HashMap<String, AclIndexBean>();
+        current.put(bean.getRef(), rows);
+      }
+      rows.put(identity(bean.getRef(), bean.getKey(), bean.getSubjectType(),
+          bean.getSubjectToken(), bean.getPermissionToken()), bean);
+    }
+  }
+
+  /**
+   * Record a statement that is on a node.
+   *
+   * @param path
+   *          the path of the node.
+   * @param acs
+   *          the statement.
+   */
+  public void add(String path, AccessControlStatement acs) {
+    SubjectStatement subject = acs.getSubject();
+    String id = identity(path, acs.getStatementKey(), String.valueOf(subject
+        .getSubjectType()), subject.getSubjectToken(), subject
+        .getPermissionToken());
+    if (!seen.add(id)) {
+      return;
+    }
+    Map<String, AclIndexBean> rows = current.get(path);
+    AclIndexBean bean = rows == null ? null : rows.remove(id);
+    if (bean == null) {
+      bean = new AclIndexBean();
+      bean.setKey(acs.getStatementKey());
+      bean.setSubject(subject);
+      bean.setGranted(acs.isGranted());
+      bean.setRef(path);
+      toCreate.add(bean);
+    } else if (bean.isGranted() != acs.isGranted()) {
+      bean.setGranted(acs.isGranted());
+      toUpdate.add(bean);
+    }
+  }
+
+  /**
+   * Leave the index rows for a node as they are, used when the statements on
+   * the node could not be read.
+   *
+   * @param path
+   *          the path of the node.
+   */
+  public void retain(String path) {
+    current.remove(path);
+  }
+
+  /**
+   * @return the rows to add to the index.
+   */
+  public List<AclIndexBean> getToCreate() {
+    return toCreate;
+  }
+
+  /**
+   * @return the rows whose grant has changed.
+   */
+  public List<AclIndexBean> getToUpdate() {
+    return toUpdate;
+  }
+
+  /**
+   * @return the rows with no matching statement, to be removed from the index.
+   */
+  public List<AclIndexBean> getToDelete() {
+    List<AclIndexBean> toDelete = new ArrayList<AclIndexBean>();
+    for (Map<String, AclIndexBean> rows : current.values()) {
+      toDelete.addAll(rows.values());
+    }
+    return toDelete;
+  }
+
+  /**
+   * @return true if the index needs no changes.
+   */
+  public boolean isEmpty() {
+    if (!toCreate.isEmpty() || !toUpdate.isEmpty()) {
+      return false;
+    }
+    for (Map<String, AclIndexBean> rows : current.values()) {
+      if (!rows.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String identity(String path, String key, String subjectType,
+      String subjectToken, String permissionToken) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(path).append('\n').append(key).append('\n').append(subjectType)
+        .append('\n').append(subjectToken).append('\n').append(permissionToken);
+    return sb.toString();
+  }
+}
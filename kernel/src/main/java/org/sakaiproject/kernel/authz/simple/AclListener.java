@@ -22,7 +22,6 @@ import com.google.inject.Inject;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.sakaiproject.kernel.api.authz.AccessControlStatement;
 import org.sakaiproject.kernel.api.jcr.EventRegistration;
 import org.sakaiproject.kernel.api.jcr.JCRConstants;
 import org.sakaiproject.kernel.api.jcr.JCRService;
@@ -33,12 +32,13 @@ import org.sakaiproject.kernel.api.memory.CacheScope;
 import org.sakaiproject.kernel.model.AclIndexBean;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.jcr.LoginException;
 import javax.jcr.Node;
-import javax.jcr.PathNotFoundException;
-import javax.jcr.Property;
 import javax.jcr.RepositoryException;
 import javax.jcr.Value;
 import javax.jcr.observation.Event;
@@ -50,11 +50,19 @@ import javax.persistence.EntityTransaction;
 import javax.persistence.Query;
 
 /**
- * Listens to cahnges in ACL's
+ * Listens to changes in ACL's and keeps the ACL index in step. The nodes
+ * changed in an observation batch are indexed together, with one query for
+ * the current index rows and one transaction for the changes.
  */
 public class AclListener implements EventListener, EventRegistration {
 
   private static final Log LOG = LogFactory.getLog(AclListener.class);
+  private static final boolean debug = LOG.isDebugEnabled();
+  private static final String ACL_SUFFIX = "/" + JCRConstants.ACL_ACL;
+  /**
+   * The most paths bound into a single index query.
+   */
+  private static final int MAX_QUERY_PATHS = 500;
   private final JCRNodeFactoryService jcrNodeFactoryService;
   private final EntityManager entityManager;
   private CacheManagerService cacheManagerService;
@@ -91,141 +99,100 @@ public class AclListener implements EventListener, EventRegistration {
   }
 
   /**
-   * {@inheritDoc}
+   * Bring the ACL index for a set of nodes into line with the statements on
+   * the nodes, in a single transaction. Must be called with a JCR session
+   * bound to the thread.
    *
-   * @see org.sakaiproject.kernel.jcr.api.JcrContentListener#onEvent(int,
-   *      java.lang.String, java.lang.String, java.lang.String)
+   * @param nodePaths
+   *          the paths of the nodes whose ACL has changed.
    */
-  public void handleEvent(int type, String userID, String filePath) {
-    try {
-      if ((type == Event.PROPERTY_ADDED || type == Event.PROPERTY_CHANGED || type == Event.PROPERTY_REMOVED)) {
-
-        ArrayList<AclIndexBean> toCreate = new ArrayList<AclIndexBean>();
-        ArrayList<AclIndexBean> toUpdate = new ArrayList<AclIndexBean>();
-        ArrayList<AclIndexBean> toDelete = new ArrayList<AclIndexBean>();
-
-        Query query = entityManager
-            .createNamedQuery(AclIndexBean.Queries.FINDBY_PATH);
-        query.setParameter(AclIndexBean.QueryParams.FINDBY_PATH_PATH, filePath);
-        List<?> currentIndex = query.getResultList();
-
-        try {
-          Node node = jcrNodeFactoryService.getNode(filePath);
-          Property acl = node.getProperty(JCRConstants.MIX_ACL);
-          for (Value val : acl.getValues()) {
-            AccessControlStatement acs = new JcrAccessControlStatementImpl(val
-                .getString());
-
-            switch (type) {
-            case Event.PROPERTY_ADDED:
-              if (inList(acs, currentIndex) == null) {
-                toCreate.add(convert(acs));
-              }
-              break;
-            case Event.PROPERTY_CHANGED:
-              AclIndexBean indexBean = inList(acs, currentIndex);
-              if (indexBean != null) {
-                toUpdate.add(indexBean);
-              }
-              break;
-            case Event.PROPERTY_REMOVED:
-              if (inList(acs, currentIndex) == null) {
-                toDelete.add(convert(acs));
-              }
-              break;
-            }
-          }
-
-          EntityTransaction trans = entityManager.getTransaction();
-          trans.begin();
-          try {
-            if (!toCreate.isEmpty()) {
-              for (AclIndexBean bean : toCreate) {
-                entityManager.persist(bean);
-              }
-            } else if (!toUpdate.isEmpty()) {
-              for (AclIndexBean bean : toUpdate) {
-                entityManager.persist(bean);
-              }
-            } else if (!toDelete.isEmpty()) {
-              for (AclIndexBean bean : toDelete) {
-                entityManager.remove(bean);
-              }
-            }
-            trans.commit();
-          } catch (Exception e) {
-            LOG.error(
-                "Transaction rolled back due to a problem when updating the ACL index: "
-                    + e.getMessage(), e);
-            trans.rollback();
+  public void updateIndex(Collection<String> nodePaths) {
+    if (nodePaths.isEmpty()) {
+      return;
+    }
+    AclIndexDiff diff = new AclIndexDiff(loadIndex(nodePaths));
+    for (String path : nodePaths) {
+      try {
+        Node node = jcrNodeFactoryService.getNode(path);
+        // a node that has gone, or has no acl, has no statements to index.
+        if (node != null && node.hasProperty(JCRConstants.ACL_ACL)) {
+          for (Value val : node.getProperty(JCRConstants.ACL_ACL).getValues()) {
+            diff.add(path, new JcrAccessControlStatementImpl(val.getString()));
           }
-        } catch (PathNotFoundException e) {
-          // nothing to care about. this happens when there is no ACL
-          // on the node
-        } catch (RepositoryException e) {
-          // nothing we can do
-          LOG.error(e.getMessage(), e);
-        } catch (JCRNodeFactoryServiceException e) {
-          // nothing we can do
-          LOG.error(e.getMessage(), e);
         }
+      } catch (RepositoryException e) {
+        diff.retain(path);
+        LOG.error("Unable to read ACL at " + path + " " + e.getMessage(), e);
+      } catch (JCRNodeFactoryServiceException e) {
+        diff.retain(path);
+        LOG.error("Unable to read ACL at " + path + " " + e.getMessage(), e);
       }
-    } finally {
-      try {
-        cacheManagerService.unbind(CacheScope.REQUEST);
-      } catch (Exception ex) {
-        // not interested
+    }
+    if (diff.isEmpty()) {
+      return;
+    }
+
+    List<AclIndexBean> toCreate = diff.getToCreate();
+    List<AclIndexBean> toUpdate = diff.getToUpdate();
+    List<AclIndexBean> toDelete = diff.getToDelete();
+    EntityTransaction trans = entityManager.getTransaction();
+    trans.begin();
+    try {
+      for (AclIndexBean bean : toDelete) {
+        entityManager.remove(bean);
       }
-      try {
-        cacheManagerService.unbind(CacheScope.THREAD);
-      } catch (Exception ex) {
-        // not interested
+      for (AclIndexBean bean : toCreate) {
+        entityManager.persist(bean);
+      }
+      for (AclIndexBean bean : toUpdate) {
+        entityManager.persist(bean);
+      }
+      trans.commit();
+      if (debug) {
+        LOG.debug("Updated ACL index for " + nodePaths.size() + " nodes, "
+            + toCreate.size() + " created, " + toUpdate.size() + " updated, "
+            + toDelete.size() + " deleted");
+      }
+    } catch (Exception e) {
+      LOG.error(
+          "Transaction rolled back due to a problem when updating the ACL index: "
+              + e.getMessage(), e);
+      if (trans.isActive()) {
+        trans.rollback();
       }
     }
   }
 
   /**
-   * @param acs
-   * @return
-   */
-  private AclIndexBean convert(AccessControlStatement acs) {
-    AclIndexBean bean = new AclIndexBean();
-    bean.setKey(acs.getStatementKey());
-    bean.setSubject(acs.getSubject());
-    bean.setGranted(acs.isGranted());
-    return bean;
-  }
-
-  /**
-   * @param stmt
-   * @param list
-   * @return
+   * Load the index rows for a set of paths, binding up to MAX_QUERY_PATHS
+   * paths into each query.
+   *
+   * @param nodePaths
+   * @return the index rows for the paths.
    */
-  private AclIndexBean inList(AccessControlStatement stmt, List<?> list) {
-    AclIndexBean found = null;
-
-    boolean stmtNotNull = stmt != null;
-    boolean listNotEmpty = list != null && list.size() > 0;
-
-    if (stmtNotNull && listNotEmpty) {
-      for (Object listBeanO : list) {
-        AclIndexBean listBean = (AclIndexBean) listBeanO;
-        boolean same = true;
-        same &= stmt.getStatementKey().equals(listBean.getKey());
-        same &= stmt.getSubject().getSubjectType().toString().equals(
-            listBean.getSubjectType());
-        same &= stmt.getSubject().getSubjectToken().equals(
-            listBean.getSubjectToken());
-        same &= stmt.getSubject().getPermissionToken().equals(
-            listBean.getPermissionToken());
-        if (same) {
-          found = listBean;
-          break;
+  private List<Object> loadIndex(Collection<String> nodePaths) {
+    List<Object> currentIndex = new ArrayList<Object>();
+    List<String> paths = new ArrayList<String>(nodePaths);
+    for (int start = 0; start < paths.size(); start += MAX_QUERY_PATHS) {
+      List<String> chunk = paths.subList(start, Math.min(paths.size(), start
+          + MAX_QUERY_PATHS));
+      StringBuilder jpql = new StringBuilder(
+          "select a from AclIndexBean a where a.ref in (");
+      for (int i = 1; i <= chunk.size(); i++) {
+        if (i > 1) {
+          jpql.append(", ");
         }
+        jpql.append('?').append(i);
       }
+      jpql.append(')');
+      Query query = entityManager.createQuery(jpql.toString());
+      int i = 1;
+      for (String path : chunk) {
+        query.setParameter(i++, path);
+      }
+      currentIndex.addAll(query.getResultList());
     }
-
-    return found;
+    return currentIndex;
   }
 
   /**
@@ -235,20 +202,28 @@ public class AclListener implements EventListener, EventRegistration {
   public void onEvent(EventIterator events) {
     try {
       jcrService.loginSystem();
+      Set<String> nodePaths = new LinkedHashSet<String>();
       for (; events.hasNext();) {
         Event e = events.nextEvent();
 
         if (!jcrService.isExternalEvent(e)) {
           try {
             String path = e.getPath();
-            if (path.endsWith(JCRConstants.MIX_ACL)) {
-              handleEvent(e.getType(), e.getUserID(), path);
+            if (path.endsWith(ACL_SUFFIX)) {
+              nodePaths.add(path.substring(0, path.length()
+                  - ACL_SUFFIX.length()));
             }
           } catch (Exception e1) {
             LOG.warn("Failed to process event " + e1.getMessage(), e1);
           }
         }
       }
+      try {
+        updateIndex(nodePaths);
+      } catch (RuntimeException e) {
+        LOG.error("Failed to update the ACL index for " + nodePaths.size()
+            + " nodes " + e.getMessage(), e);
+      }
     } catch (LoginException e) {
       LOG.warn("Failed to login to JCR " + e.getMessage(), e);
     } catch (RepositoryException e) {
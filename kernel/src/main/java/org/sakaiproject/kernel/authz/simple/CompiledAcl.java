@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.authz.simple;
+
+import org.sakaiproject.kernel.api.authz.AccessControlStatement;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * An immutable form of the ACL that controls a node, with the access control
+ * statements grouped by statement key into arrays, closest statements first.
+ */
+public class CompiledAcl {
+
+  private static final AccessControlStatement[] EMPTY = new AccessControlStatement[0];
+  private final Map<String, AccessControlStatement[]> statements;
+  private final AccessControlStatement[] any;
+
+  /**
+   * @param acl
+   *          the acl as populated by the authz resolver.
+   */
+  public CompiledAcl(Map<String, List<AccessControlStatement>> acl) {
+    statements = new HashMap<String, AccessControlStatement[]>();
+    for (Entry<String, List<AccessControlStatement>> e : acl.entrySet()) {
+      List<AccessControlStatement> l = e.getValue();
+      statements.put(e.getKey(), l.toArray(new AccessControlStatement[l
+          .size()]));
+    }
+    AccessControlStatement[] a = statements.get("*");
+    if (a == null) {
+      a = EMPTY;
+    }
+    any = a;
+  }
+
+  /**
+   * @param statementKey
+   * @return the statements for the key, or the statements for * if there are
+   *         none for the key.
+   */
+  public AccessControlStatement[] get(String statementKey) {
+    AccessControlStatement[] a = statements.get(statementKey);
+    if (a == null || a.length == 0) {
+      return any;
+    }
+    return a;
+  }
+
+  /**
+   * @return true if there are no statements.
+   */
+  public boolean isEmpty() {
+    return statements.isEmpty();
+  }
+
+  /**
+   * @return the statement keys in the acl.
+   */
+  public Iterable<String> keys() {
+    return statements.keySet();
+  }
+}
@@ -59,35 +59,14 @@ public class JcrReferenceObject implements ReferencedObject {
     this.node = node;
     this.authzResolverService = authzResolverService;
     path = node.getPath();
-    acl = new ArrayList<AccessControlStatement>();
-    inheritableAcl = new ArrayList<AccessControlStatement>();
-    try {
-      Property property = node.getProperty(JCRConstants.ACL_ACL);
-      for (Value aclSpec : property.getValues()) {
-        AccessControlStatement acs = new JcrAccessControlStatementImpl(aclSpec
-            .getString());
-        if (acs.isPropagating()) {
-          inheritableAcl.add(acs);
-        }
-        acl.add(acs);
-      }
-    } catch (PathNotFoundException pnfe) {
-
-      // no acl on this node
-    } catch (Exception ex) {
-      ex.printStackTrace();
-    }
+    readAcl();
 
     Node ownerNode = node;
     Node rootNode = node.getSession().getRootNode();
     while (owner == null) {
-      try {
-        Property property = ownerNode.getProperty(JCRConstants.ACL_OWNER);
-        owner = property.getString();
+      owner = readOwner(ownerNode);
+      if (owner != null) {
         break;
-      } catch (PathNotFoundException pnfe) {
-      } catch (Exception ex) {
-        ex.printStackTrace();
       }
       if ( rootNode.equals(ownerNode) ) {
         break;
@@ -109,16 +88,88 @@ public class JcrReferenceObject implements ReferencedObject {
       e.printStackTrace();
     }
     if (parent != null) {
-      parentReference = new JcrReferenceObject(parent, authzResolverService);
-      if (parentReference.getInheritableAccessControlList().size() == 0) {
-        rootReference = true;
-      }
+      setParent(new JcrReferenceObject(parent, authzResolverService));
     } else {
       rootReference = true;
     }
 
   }
 
+  /**
+   * Create the reference object of a child of an object that has already been
+   * resolved, only the acl and owner of the child itself are read, the rest
+   * comes from the parent.
+   *
+   * @param node
+   *          the child node.
+   * @param parent
+   *          the reference object of the parent of the node.
+   * @param authzResolverService
+   * @throws RepositoryException
+   */
+  public JcrReferenceObject(Node node, JcrReferenceObject parent,
+      AuthzResolverService authzResolverService) throws RepositoryException {
+    this.node = node;
+    this.authzResolverService = authzResolverService;
+    path = node.getPath();
+    readAcl();
+    owner = readOwner(node);
+    if (owner == null) {
+      owner = parent.getOwner();
+    }
+    setParent(parent);
+  }
+
+  /**
+   * Read the acl statements held on the node.
+   */
+  private void readAcl() {
+    acl = new ArrayList<AccessControlStatement>();
+    inheritableAcl = new ArrayList<AccessControlStatement>();
+    try {
+      Property property = node.getProperty(JCRConstants.ACL_ACL);
+      for (Value aclSpec : property.getValues()) {
+        AccessControlStatement acs = new JcrAccessControlStatementImpl(aclSpec
+            .getString());
+        if (acs.isPropagating()) {
+          inheritableAcl.add(acs);
+        }
+        acl.add(acs);
+      }
+    } catch (PathNotFoundException pnfe) {
+
+      // no acl on this node
+    } catch (Exception ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  /**
+   * @param ownerNode
+   * @return the owner held on the node, null if there is none.
+   */
+  private String readOwner(Node ownerNode) {
+    try {
+      Property property = ownerNode.getProperty(JCRConstants.ACL_OWNER);
+      return property.getString();
+    } catch (PathNotFoundException pnfe) {
+    } catch (Exception ex) {
+      ex.printStackTrace();
+    }
+    return null;
+  }
+
+  /**
+   * @param parent
+   *          the reference object of the parent node.
+   */
+  private void setParent(JcrReferenceObject parent) {
+    parentReference = parent;
+    if (parentReference.getInheritableAccessControlList().size() == 0) {
+      rootReference = true;
+    }
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -63,6 +63,33 @@ public class JcrReferenceResolverService implements ReferenceResolverService{
       return new EmptyReferenceObject(resourceReference,e,this);
     }
   }
+  /**
+   * {@inheritDoc}
+   * @see org.sakaiproject.kernel.api.authz.ReferenceResolverService#resolveChild(org.sakaiproject.kernel.api.authz.ReferencedObject, java.lang.String)
+   */
+  public ReferencedObject resolveChild(ReferencedObject parent, String resourceReference) {
+    if (!(parent instanceof JcrReferenceObject)) {
+      return resolve(resourceReference);
+    }
+    try {
+      Node n = jcrNodeFactoryService.getNode(resourceReference);
+      if ( n == null ) {
+        return new EmptyReferenceObject(resourceReference,null,this);
+      }
+      // only a direct child can share the parent, anything else is resolved in full.
+      String path = n.getPath();
+      String parentPath = parent.getKey();
+      int slash = path.lastIndexOf('/');
+      if (slash < 0 || !parentPath.equals(slash == 0 ? "/" : path.substring(0, slash))) {
+        return new JcrReferenceObject(n, authzResolverService);
+      }
+      return new JcrReferenceObject(n, (JcrReferenceObject) parent, authzResolverService);
+    } catch (RepositoryException e) {
+      return new EmptyReferenceObject(resourceReference,e,this);
+    } catch (JCRNodeFactoryServiceException e) {
+      return new EmptyReferenceObject(resourceReference,e,this);
+    }
+  }
   /**
    * {@inheritDoc}
    * @see org.sakaiproject.kernel.api.authz.ReferenceResolverService#newAccessControlStatement(java.lang.String)
@@ -67,6 +67,23 @@ public class PathReferenceResolverService implements ReferenceResolverService {
     return defaultResolver.resolve(resourceReference);
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.authz.ReferenceResolverService#resolveChild(org.sakaiproject.kernel.api.authz.ReferencedObject,
+   *      java.lang.String)
+   */
+  public ReferencedObject resolveChild(ReferencedObject parent, String resourceReference) {
+    String[] locator = StringUtils.split(resourceReference, "/", 1);
+    if (locator != null && locator.length > 0 && locator[0] != null) {
+      ReferenceResolverService resolver = resolvers.get(locator[0]);
+      if (resolver != null) {
+        return resolver.resolveChild(parent, resourceReference);
+      }
+    }
+    return defaultResolver.resolveChild(parent, resourceReference);
+  }
+
   /**
    * {@inheritDoc}
    * @see org.sakaiproject.kernel.api.authz.ReferenceResolverService#newAccessControlStatement(java.lang.String)
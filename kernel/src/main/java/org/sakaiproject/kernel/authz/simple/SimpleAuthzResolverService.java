@@ -31,14 +31,19 @@ import org.sakaiproject.kernel.api.authz.PermissionQuery;
 import org.sakaiproject.kernel.api.authz.QueryStatement;
 import org.sakaiproject.kernel.api.authz.ReferenceResolverService;
 import org.sakaiproject.kernel.api.authz.ReferencedObject;
+import org.sakaiproject.kernel.api.authz.SubjectStatement.SubjectType;
 import org.sakaiproject.kernel.api.memory.Cache;
 import org.sakaiproject.kernel.api.memory.CacheManagerService;
 import org.sakaiproject.kernel.api.memory.CacheScope;
 import org.sakaiproject.kernel.api.session.SessionManagerService;
+import org.sakaiproject.kernel.api.user.User;
 import org.sakaiproject.kernel.api.userenv.UserEnvironment;
 import org.sakaiproject.kernel.api.userenv.UserEnvironmentResolverService;
+import org.sakaiproject.kernel.util.PathUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -56,6 +61,8 @@ public class SimpleAuthzResolverService implements AuthzResolverService {
   private ReferenceResolverService referenceResolverService;
   private UserEnvironmentResolverService userEnvironmentResolverService;
   private Cache<Map<String, List<AccessControlStatement>>> cachedAcl;
+  private Cache<CompiledAcl> cachedCompiledAcl;
+  private Cache<Boolean> cachedDecisions;
   private CacheManagerService cacheManagerService;
 
   private long secureKey = System.currentTimeMillis();
@@ -73,6 +80,10 @@ public class SimpleAuthzResolverService implements AuthzResolverService {
     this.userEnvironmentResolverService = userEnvironmentResolverService;
     this.cachedAcl = cacheManagerService.getCache("acl_cache",
         CacheScope.CLUSTERINVALIDATED);
+    this.cachedCompiledAcl = cacheManagerService.getCache("acl_compiled",
+        CacheScope.CLUSTERINVALIDATED);
+    this.cachedDecisions = cacheManagerService.getCache("authz_decision",
+        CacheScope.CLUSTERINVALIDATED);
     this.cacheManagerService = cacheManagerService;
   }
 
@@ -82,7 +93,6 @@ public class SimpleAuthzResolverService implements AuthzResolverService {
    * @see org.sakaiproject.kernel.api.authz.AuthzResolverService#check(java.lang.String,
    *      org.sakaiproject.kernel.api.authz.PermissionQuery)
    */
-  @SuppressWarnings(value = { "WMI_WRONG_MAP_ITERATOR" }, justification = " Invalid, the acl get is not from an Entry set")
   public void check(String resourceReference, PermissionQuery permissionQuery)
       throws PermissionDeniedException {
 
@@ -122,8 +132,254 @@ public class SimpleAuthzResolverService implements AuthzResolverService {
       }
       return;
     }
-    ReferencedObject referencedObject = referenceResolverService
-        .resolve(resourceReference);
+
+    StringBuilder denial = new StringBuilder();
+    if (!decide(resourceReference, permissionQuery, permissionQueryToken,
+        userEnvironment, grants, getInheritedAcls(grants), null, denial)) {
+      throw new PermissionDeniedException(denial.toString());
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.authz.AuthzResolverService#checkAll(java.util.List,
+   *      org.sakaiproject.kernel.api.authz.PermissionQuery)
+   */
+  public BitSet checkAll(List<String> resourceReferences,
+      PermissionQuery permissionQuery) {
+    int n = resourceReferences.size();
+    BitSet granted = new BitSet(n);
+    if (n == 0) {
+      return granted;
+    }
+
+    String requestGrant = getRequestGrant();
+    if (requestGrant != null) {
+      LOG.warn("Bypassed Security " + requestGrant);
+      granted.set(0, n);
+      return granted;
+    }
+
+    String userId = sessionManager.getCurrentUserId();
+    UserEnvironment userEnvironment = userEnvironmentResolverService
+        .resolve(userId);
+    if (userEnvironment.isSuperUser()) {
+      if (debug) {
+        LOG.debug("SECURITY: SuperUser permission granted on " + n
+            + " references by " + permissionQuery);
+      }
+      granted.set(0, n);
+      return granted;
+    }
+
+    Cache<Object> grants = cacheManagerService.getCache("authz",
+        CacheScope.REQUEST);
+    Map<String, CompiledAcl> inheritedAcls = getInheritedAcls(grants);
+    // the references are usually siblings, their parents are resolved once.
+    Map<String, ReferencedObject> parents = new HashMap<String, ReferencedObject>();
+    int i = 0;
+    for (String resourceReference : resourceReferences) {
+      String permissionQueryToken = permissionQuery
+          .getQueryToken(resourceReference);
+      Boolean cached = (Boolean) grants.get(permissionQueryToken);
+      if (cached != null) {
+        if (cached.booleanValue()) {
+          granted.set(i);
+        }
+      } else if (decide(resourceReference, permissionQuery,
+          permissionQueryToken, userEnvironment, grants, inheritedAcls,
+          parents, null)) {
+        granted.set(i);
+      }
+      i++;
+    }
+    return granted;
+  }
+
+  /**
+   * Decide the permission query against the resource for a user that is not
+   * the super user, recording the decision in the request grants and, where
+   * the decision does not depend on the object, in the decision cache.
+   *
+   * @param resourceReference
+   *          the resource being checked.
+   * @param permissionQuery
+   *          the query to apply.
+   * @param permissionQueryToken
+   *          the token of the query on the resource.
+   * @param userEnvironment
+   *          the environment of the current user.
+   * @param grants
+   *          the request scope grants.
+   * @param inheritedAcls
+   *          acls inherited from parents already resolved in this request.
+   * @param parents
+   *          parents resolved for earlier references in the same batch, keyed
+   *          by reference, null to resolve the reference with all its parents.
+   * @param denial
+   *          if not null, receives the reason for a denial.
+   * @return true if granted, false if denied.
+   */
+  private boolean decide(String resourceReference,
+      PermissionQuery permissionQuery, String permissionQueryToken,
+      UserEnvironment userEnvironment, Cache<Object> grants,
+      Map<String, CompiledAcl> inheritedAcls,
+      Map<String, ReferencedObject> parents, StringBuilder denial) {
+    /*
+     * Check for a decision made earlier on this node for the same subjects,
+     * this does not need the referenced object, so no JCR access is needed.
+     */
+    String decisionKey = getDecisionKey(resourceReference, permissionQuery,
+        userEnvironment);
+    Boolean decision = cachedDecisions.get(decisionKey);
+    if (decision != null) {
+      grants.put(permissionQueryToken, decision);
+      if (denial != null && !decision.booleanValue()) {
+        denial.append("No grant found on ").append(resourceReference).append(
+            " by ").append(permissionQuery).append(" (cached) ");
+      }
+      return decision.booleanValue();
+    }
+
+    ReferencedObject referencedObject = resolve(resourceReference, parents);
+    CompiledAcl acl = getCompiledAcl(referencedObject, inheritedAcls);
+
+    // now we have the acl derived, we can now go through the permissionQuery,
+    // extract the query statements to
+    // see if any are satisfied or denied in order.
+    // Decisions that depend on the owner of the node, or on a subject
+    // provider, are not cached beyond the request.
+    boolean cacheable = true;
+    boolean granted = false;
+    statements: for (QueryStatement qs : permissionQuery.statements()) {
+
+      AccessControlStatement[] kacl = acl.get(qs.getStatementKey());
+      for (AccessControlStatement ac : kacl) {
+        SubjectType subjectType = ac.getSubject().getSubjectType();
+        if (subjectType == SubjectType.OW || subjectType == SubjectType.PR) {
+          cacheable = false;
+        }
+        if (userEnvironment.matches(referencedObject, ac.getSubject())) {
+          granted = ac.isGranted();
+          if (debug) {
+            if (granted) {
+              LOG.debug("Granted Permission for user "
+                  + userEnvironment.getUser().getUuid() + " on " + ac);
+            } else {
+              LOG.debug("Denied Permission " + ac);
+            }
+          }
+          if (denial != null && !granted) {
+            denial.append("Permission Explicitly deinied on ").append(
+                resourceReference).append(" by ").append(ac).append(" for ")
+                .append(qs).append(" user environment ").append(userEnvironment);
+          }
+          break statements;
+        }
+      }
+    }
+
+    if (denial != null && !granted && denial.length() == 0) {
+      denial.append("No grant found on ").append(resourceReference).append(
+          " by ").append(permissionQuery).append(" for ").append(userEnvironment);
+    }
+
+    // cache the response in the request scope cache.
+    grants.put(permissionQueryToken, granted);
+    if (cacheable) {
+      cachedDecisions.put(decisionKey, granted);
+    }
+    return granted;
+  }
+
+  /**
+   * Resolve the referenced object, when parents are supplied the parent is
+   * resolved once for all its children, and each child is resolved against
+   * it, so that the ancestors are not walked again for every child.
+   *
+   * @param resourceReference
+   * @param parents
+   *          resolved parents keyed by reference, or null.
+   * @return the referenced object.
+   */
+  private ReferencedObject resolve(String resourceReference,
+      Map<String, ReferencedObject> parents) {
+    if (parents == null) {
+      return referenceResolverService.resolve(resourceReference);
+    }
+    String parentReference = PathUtils.getParentReference(resourceReference);
+    if (parentReference == null || parentReference.equals(resourceReference)) {
+      return referenceResolverService.resolve(resourceReference);
+    }
+    ReferencedObject parent = parents.get(parentReference);
+    if (parent == null) {
+      parent = referenceResolverService.resolve(parentReference);
+      parents.put(parentReference, parent);
+    }
+    return referenceResolverService.resolveChild(parent, resourceReference);
+  }
+
+  /**
+   * The acls inherited by objects with no acl statements of their own, keyed
+   * by the parent, held for the request so that the children of a folder share
+   * one acl resolution. Like the grants, they are not revisited during the
+   * request.
+   *
+   * @param grants
+   *          the request scope grants.
+   * @return the inherited acls for this request.
+   */
+  @java.lang.SuppressWarnings("unchecked")
+  private Map<String, CompiledAcl> getInheritedAcls(Cache<Object> grants) {
+    Map<String, CompiledAcl> inheritedAcls = (Map<String, CompiledAcl>) grants
+        .get("inherited-acl" + secureKey);
+    if (inheritedAcls == null) {
+      inheritedAcls = new HashMap<String, CompiledAcl>();
+      grants.put("inherited-acl" + secureKey, inheritedAcls);
+    }
+    return inheritedAcls;
+  }
+
+  /**
+   * Get the compiled acl of the referenced object, sharing the acl of objects
+   * that have no acl statements of their own with their siblings.
+   *
+   * @param referencedObject
+   * @param inheritedAcls
+   *          the inherited acls keyed by parent.
+   * @return the compiled acl.
+   */
+  private CompiledAcl getCompiledAcl(ReferencedObject referencedObject,
+      Map<String, CompiledAcl> inheritedAcls) {
+    if (referencedObject.getAccessControlList().size() > 0) {
+      return getCompiledAcl(referencedObject);
+    }
+    ReferencedObject parent = referencedObject.getParent();
+    if (parent == null) {
+      return getCompiledAcl(referencedObject);
+    }
+    CompiledAcl acl = inheritedAcls.get(parent.getKey());
+    if (acl == null) {
+      acl = getCompiledAcl(referencedObject);
+      inheritedAcls.put(parent.getKey(), acl);
+    }
+    return acl;
+  }
+
+  /**
+   * Get the compiled acl that controls the referenced object, building it from
+   * the acl cache, or the referenced object and its parents if necessary.
+   *
+   * @param referencedObject
+   * @return the compiled acl.
+   */
+  @SuppressWarnings(value = { "WMI_WRONG_MAP_ITERATOR" }, justification = " Invalid, the acl get is not from an Entry set")
+  private CompiledAcl getCompiledAcl(ReferencedObject referencedObject) {
+    CompiledAcl compiled = cachedCompiledAcl.get(referencedObject.getKey());
+    if (compiled != null) {
+      return compiled;
+    }
     /*
      * build a hash of permission lists keyed by access control key, the access
      * control is populates in the permission list so that the access control
@@ -164,49 +420,35 @@ public class SimpleAuthzResolverService implements AuthzResolverService {
         }
       }
     }
+    compiled = new CompiledAcl(acl);
+    cachedCompiledAcl.put(referencedObject.getKey(), compiled);
+    return compiled;
+  }
 
-    // now we have the acl derived, we can now go through the permissionQuery,
-    // extract the query statements to
-    // see if any are satisfied or denied in order.
-
-    for (QueryStatement qs : permissionQuery.statements()) {
-
-      List<AccessControlStatement> kacl = acl.get(qs.getStatementKey());
-      if (kacl == null || kacl.size() == 0) {
-        kacl = acl.get("*");
-      }
-      if (kacl != null) {
-        for (AccessControlStatement ac : kacl) {
-          if (userEnvironment.matches(referencedObject, ac.getSubject())) {
-            if (ac.isGranted()) {
-              if (debug) {
-                LOG.debug("Granted Permission for user "
-                    + userEnvironment.getUser().getUuid() + " on " + ac);
-              }
-              // cache the response in the request scope cache.
-              grants.put(permissionQueryToken, true);
-              return;
-            } else {
-              // cache the response in the request scope cache.
-              grants.put(permissionQueryToken, false);
-              if (debug) {
-                LOG.debug("Denied Permission " + ac);
-              }
-              throw new PermissionDeniedException(
-                  "Permission Explicitly deinied on " + resourceReference
-                      + " by " + ac + " for " + qs + " user environment "
-                      + userEnvironment);
-            }
-          }
-        }
-      }
+  /**
+   * The key of a decision, under the resource so that invalidating the acl of
+   * the resource or any parent removes it, and specific to the subjects of the
+   * user.
+   *
+   * @param resourceReference
+   * @param permissionQuery
+   * @param userEnvironment
+   * @return the key of the decision in the decision cache.
+   */
+  private String getDecisionKey(String resourceReference,
+      PermissionQuery permissionQuery, UserEnvironment userEnvironment) {
+    StringBuilder sb = new StringBuilder(resourceReference);
+    if (!resourceReference.endsWith("/")) {
+      sb.append('/');
     }
-
-    // cache the response in the request scope cache.
-    grants.put(permissionQueryToken, false);
-    throw new PermissionDeniedException("No grant found on "
-        + resourceReference + " by " + permissionQuery + " for "
-        + userEnvironment);
+    sb.append('?').append(permissionQuery.getQueryToken("")).append('#');
+    User user = userEnvironment.getUser();
+    if (user != null) {
+      sb.append(user.getUuid());
+    }
+    String[] subjects = userEnvironment.getSubjects();
+    sb.append(':').append(subjects == null ? 0 : Arrays.hashCode(subjects));
+    return sb.toString();
   }
 
   /**
@@ -425,7 +667,20 @@ public class SimpleAuthzResolverService implements AuthzResolverService {
   }
 
   public void invalidateAcl(ReferencedObject referencedObject) {
+    cacheManagerService.getCache("authz", CacheScope.REQUEST).remove(
+        "inherited-acl" + secureKey);
     cachedAcl.removeChildren(referencedObject.getKey());
+    cachedCompiledAcl.removeChildren(referencedObject.getKey());
+    cachedDecisions.removeChildren(referencedObject.getKey());
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.authz.AuthzResolverService#invalidateSubjects()
+   */
+  public void invalidateSubjects() {
+    cachedDecisions.clear();
   }
 
   /**
@@ -445,4 +700,49 @@ public class SimpleAuthzResolverService implements AuthzResolverService {
     }
     return null;
   }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.authz.AuthzResolverService#setReadGrant()
+   */
+  public void setReadGrant() {
+    Cache<Object> grants = cacheManagerService.getCache("authz",
+        CacheScope.REQUEST);
+    Integer depth = (Integer) grants.get("read-granted" + secureKey);
+    grants.put("read-granted" + secureKey, depth == null ? 1 : depth + 1);
+    if (debug) {
+      LOG.debug("Read Granted ");
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.authz.AuthzResolverService#clearReadGrant()
+   */
+  public void clearReadGrant() {
+    Cache<Object> grants = cacheManagerService.getCache("authz",
+        CacheScope.REQUEST);
+    Integer depth = (Integer) grants.get("read-granted" + secureKey);
+    if (depth == null || depth <= 1) {
+      grants.remove("read-granted" + secureKey);
+    } else {
+      grants.put("read-granted" + secureKey, depth - 1);
+    }
+    if (debug) {
+      LOG.debug("Read Grant Removed ");
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.authz.AuthzResolverService#hasReadGrant()
+   */
+  public boolean hasReadGrant() {
+    Cache<Object> grants = cacheManagerService.getCache("authz",
+        CacheScope.REQUEST);
+    return grants.containsKey("read-granted" + secureKey);
+  }
 }
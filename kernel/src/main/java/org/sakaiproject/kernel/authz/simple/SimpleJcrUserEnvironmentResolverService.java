@@ -43,6 +43,7 @@ import org.sakaiproject.kernel.api.user.UserProvisionAgent;
 import org.sakaiproject.kernel.api.userenv.UserEnvironment;
 import org.sakaiproject.kernel.api.userenv.UserEnvironmentResolverService;
 import org.sakaiproject.kernel.model.UserEnvironmentBean;
+import org.sakaiproject.kernel.user.PasswordHasher;
 import org.sakaiproject.kernel.user.jcr.JcrAuthenticationResolverProvider;
 import org.sakaiproject.kernel.util.IOUtils;
 
@@ -50,7 +51,6 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -82,6 +82,8 @@ public class SimpleJcrUserEnvironmentResolverService implements
 
   private RegistryService registryService;
 
+  private PasswordHasher passwordHasher;
+
   /**
  *
  */
@@ -91,8 +93,10 @@ public class SimpleJcrUserEnvironmentResolverService implements
       CacheManagerService cacheManagerService, BeanConverter beanConverter,
       @Named(KernelConstants.NULLUSERENV) UserEnvironment nullUserEnv,
       UserFactoryService userFactoryService, AuthzResolverService authzResolverService,
-      SubjectPermissionService subjectPermissionService, RegistryService registryService) {
+      SubjectPermissionService subjectPermissionService, RegistryService registryService,
+      PasswordHasher passwordHasher) {
     this.jcrNodeFactoryService = jcrNodeFactoryService;
+    this.passwordHasher = passwordHasher;
     this.nullUserEnv = nullUserEnv;
     this.beanConverter = beanConverter;
     this.userFactoryService = userFactoryService;
@@ -367,7 +371,7 @@ public class SimpleJcrUserEnvironmentResolverService implements
 
       // set the password
       userEnvNode.setProperty(JcrAuthenticationResolverProvider.JCRPASSWORDHASH,
-          org.sakaiproject.kernel.util.StringUtils.sha1Hash(password));
+          passwordHasher.hash(password));
 
       // make the private and shares spaces for the user owned by this used.
       jcrNodeFactoryService.setOwner(userFactoryService.getUserPrivatePath(u.getUuid()),u.getUuid());
@@ -389,8 +393,6 @@ public class SimpleJcrUserEnvironmentResolverService implements
       LOG.error(e.getMessage(), e);
     } catch (UnsupportedEncodingException e) {
       LOG.error(e.getMessage(), e);
-    } catch (NoSuchAlgorithmException e) {
-      LOG.error(e.getMessage(), e);
     } catch (IOException e) {
       LOG.error(e.getMessage(), e);
     } finally {
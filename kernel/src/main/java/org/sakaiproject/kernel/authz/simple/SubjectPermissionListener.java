@@ -23,13 +23,14 @@ import com.google.inject.name.Named;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.kernel.KernelConstants;
+import org.sakaiproject.kernel.api.authz.AuthzResolverService;
 import org.sakaiproject.kernel.api.authz.SubjectPermissionService;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryServiceException;
 import org.sakaiproject.kernel.api.serialization.BeanConverter;
 import org.sakaiproject.kernel.api.session.SessionManagerService;
 import org.sakaiproject.kernel.api.site.SiteService;
-import org.sakaiproject.kernel.jcr.api.JcrContentListener;
+import org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener;
 import org.sakaiproject.kernel.model.GroupBean;
 import org.sakaiproject.kernel.model.RoleBean;
 import org.sakaiproject.kernel.model.SiteBean;
@@ -51,7 +52,7 @@ import javax.persistence.Query;
 /**
  *
  */
-public class SubjectPermissionListener implements JcrContentListener {
+public class SubjectPermissionListener implements RoutedJcrContentListener {
 
   private static final Log LOG = LogFactory
       .getLog(SubjectPermissionListener.class);
@@ -61,6 +62,7 @@ public class SubjectPermissionListener implements JcrContentListener {
   private final EntityManager entityManager;
   private final SubjectPermissionService subjectPermissionService;
   private final SiteService siteService;
+  private final AuthzResolverService authzResolverService;
 
   /**
    * @param entityManager
@@ -74,12 +76,31 @@ public class SubjectPermissionListener implements JcrContentListener {
       SessionManagerService sessionManagerService,
       SubjectPermissionService subjectPermissionService,
       EntityManager entityManager,
-      SiteService siteService ) {
+      SiteService siteService, AuthzResolverService authzResolverService) {
     this.jcrNodeFactoryService = jcrNodeFactoryService;
     this.beanConverter = beanConverter;
     this.subjectPermissionService = subjectPermissionService;
     this.entityManager = entityManager;
     this.siteService = siteService;
+    this.authzResolverService = authzResolverService;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener#getPathPrefixes()
+   */
+  public String[] getPathPrefixes() {
+    return new String[] {"/"};
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener#getFileNames()
+   */
+  public String[] getFileNames() {
+    return new String[] {KernelConstants.GROUP_FILE_NAME};
   }
 
   /**
@@ -107,6 +128,7 @@ public class SubjectPermissionListener implements JcrContentListener {
           updateSiteIndex(groupBody, filePath);
 
           transaction.commit();
+          authzResolverService.invalidateSubjects();
         }
       } catch (UnsupportedEncodingException e) {
         LOG.error(e);
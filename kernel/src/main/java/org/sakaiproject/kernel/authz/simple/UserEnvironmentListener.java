@@ -23,12 +23,13 @@ import com.google.inject.name.Named;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.kernel.KernelConstants;
+import org.sakaiproject.kernel.api.authz.AuthzResolverService;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryServiceException;
 import org.sakaiproject.kernel.api.serialization.BeanConverter;
 import org.sakaiproject.kernel.api.session.SessionManagerService;
 import org.sakaiproject.kernel.api.userenv.UserEnvironmentResolverService;
-import org.sakaiproject.kernel.jcr.api.JcrContentListener;
+import org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener;
 import org.sakaiproject.kernel.model.GroupMembershipBean;
 import org.sakaiproject.kernel.model.UserBean;
 import org.sakaiproject.kernel.model.UserEnvironmentBean;
@@ -47,7 +48,7 @@ import javax.persistence.Query;
 /**
  *
  */
-public class UserEnvironmentListener implements JcrContentListener {
+public class UserEnvironmentListener implements RoutedJcrContentListener {
 
   private static final Log LOG = LogFactory
       .getLog(UserEnvironmentListener.class);
@@ -57,6 +58,7 @@ public class UserEnvironmentListener implements JcrContentListener {
   private final JCRNodeFactoryService jcrNodeFactoryService;
   private final EntityManager entityManager;
   private final UserEnvironmentResolverService userEnvironmentResolverService;
+  private final AuthzResolverService authzResolverService;
 
   /**
    * Constructor with all required dependencies.
@@ -67,6 +69,7 @@ public class UserEnvironmentListener implements JcrContentListener {
    * @param sessionManagerService
    * @param userEnvironmentResolverService
    * @param entityManager
+   * @param authzResolverService
    */
   @Inject
   public UserEnvironmentListener(
@@ -75,12 +78,31 @@ public class UserEnvironmentListener implements JcrContentListener {
       BeanConverter beanConverter,
       SessionManagerService sessionManagerService,
       UserEnvironmentResolverService userEnvironmentResolverService,
-      EntityManager entityManager) {
+      EntityManager entityManager, AuthzResolverService authzResolverService) {
     this.userEnvironmentBase = userEnvironmentBase;
     this.jcrNodeFactoryService = jcrNodeFactoryService;
     this.beanConverter = beanConverter;
     this.userEnvironmentResolverService = userEnvironmentResolverService;
     this.entityManager = entityManager;
+    this.authzResolverService = authzResolverService;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener#getPathPrefixes()
+   */
+  public String[] getPathPrefixes() {
+    return new String[] {userEnvironmentBase};
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener#getFileNames()
+   */
+  public String[] getFileNames() {
+    return new String[] {KernelConstants.USERENV};
   }
 
   /**
@@ -102,6 +124,7 @@ public class UserEnvironmentListener implements JcrContentListener {
             ue.seal();
 
             userEnvironmentResolverService.expire(ue.getUser().getUuid());
+            authzResolverService.invalidateSubjects();
 
             // the user environment bean contains a list of
             // subjects, which the
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.api;
+
+/**
+ * A content listener that declares which content it is interested in, so that
+ * it is only sent events for files in those subtrees with those names, rather
+ * than inspecting every event itself.
+ */
+public interface RoutedJcrContentListener extends JcrContentListener {
+
+  /**
+   * @return the paths of the subtrees the listener is interested in, a file is
+   *         in a subtree if the path is the file path or one of its ancestors.
+   *         "/" is the whole repository.
+   */
+  String[] getPathPrefixes();
+
+  /**
+   * @return the names of the files the listener is interested in, or null for
+   *         any file in the subtrees.
+   */
+  String[] getFileNames();
+
+}
@@ -34,11 +34,13 @@ import org.sakaiproject.kernel.api.locking.LockTimeoutException;
 import org.sakaiproject.kernel.api.memory.Cache;
 import org.sakaiproject.kernel.api.memory.CacheManagerService;
 import org.sakaiproject.kernel.api.memory.CacheScope;
+import org.sakaiproject.kernel.api.session.SessionManagerService;
 import org.sakaiproject.kernel.jcr.jackrabbit.sakai.SakaiJCRCredentials;
-import org.sakaiproject.kernel.util.StringUtils;
+import org.sakaiproject.kernel.jcr.jackrabbit.sakai.SakaiXASessionImpl;
 
 import java.util.List;
 
+import javax.jcr.Credentials;
 import javax.jcr.LoginException;
 import javax.jcr.Node;
 import javax.jcr.Repository;
@@ -60,6 +62,37 @@ public class JCRServiceImpl implements JCRService, RequiresStop {
 
   private static final boolean debug = LOG.isDebugEnabled();
 
+  /**
+   * The maximum number of open JCR sessions.
+   */
+  public static final String POOL_MAX_ACTIVE = "jcr.pool.maxactive";
+
+  /**
+   * The maximum number of idle sessions kept for each user.
+   */
+  public static final String POOL_MAX_IDLE = "jcr.pool.maxidle";
+
+  /**
+   * The time in ms a login waits for a session when the pool is full.
+   */
+  public static final String POOL_MAX_WAIT = "jcr.pool.maxwait";
+
+  /**
+   * The time in ms after which an idle session is logged out.
+   */
+  public static final String POOL_IDLE_TIMEOUT = "jcr.pool.idletimeout";
+
+  /**
+   * The number of idle system sessions kept ready for listeners and agents.
+   */
+  public static final String POOL_SYSTEM_MIN_IDLE = "jcr.pool.system.minidle";
+
+  private static final String SYSTEM_KEY = "s:system";
+
+  private static final String USER_KEY = "u:";
+
+  private static final String ANON_USER = "anon";
+
   /**
    * The injected 170 repository
    */
@@ -78,6 +111,10 @@ public class JCRServiceImpl implements JCRService, RequiresStop {
    */
   private LockManager lockManager;
 
+  private SessionManagerService sessionManagerService;
+
+  private JCRSessionPool sessionPool;
+
   /**
    * @throws RepositoryException
    *
@@ -86,13 +123,20 @@ public class JCRServiceImpl implements JCRService, RequiresStop {
   public JCRServiceImpl(RepositoryBuilder repositoryBuilder,
       CacheManagerService cacheManager,
       @Named(JCRService.NAME_REQUEST_SCOPE) boolean requestScope,
-      List<EventRegistration> registrations, LockManager lockManager, Injector injector)
+      List<EventRegistration> registrations, LockManager lockManager, Injector injector,
+      SessionManagerService sessionManagerService,
+      @Named(POOL_MAX_ACTIVE) int maxActive, @Named(POOL_MAX_IDLE) int maxIdle,
+      @Named(POOL_MAX_WAIT) long maxWait, @Named(POOL_IDLE_TIMEOUT) long idleTimeout,
+      @Named(POOL_SYSTEM_MIN_IDLE) int systemMinIdle)
       throws RepositoryException {
     this.repositoryBuilder = repositoryBuilder;
     this.cacheManager = cacheManager;
     this.requestScope = requestScope;
     this.injector = injector;
     this.lockManager = lockManager;
+    this.sessionManagerService = sessionManagerService;
+    sessionPool = new JCRSessionPool(maxActive, maxIdle, maxWait, idleTimeout);
+    sessionPool.addWarmKey(SYSTEM_KEY, new SakaiJCRCredentials(), systemMinIdle);
   }
 
   /*
@@ -101,6 +145,7 @@ public class JCRServiceImpl implements JCRService, RequiresStop {
    * @see org.sakaiproject.kernel.api.RequiresStop#stop()
    */
   public void stop() {
+    sessionPool.close();
     repositoryBuilder.stop();
     LOG.info("Repository has been stopped");
   }
@@ -119,12 +164,13 @@ public class JCRServiceImpl implements JCRService, RequiresStop {
     Session session = null;
     SessionHolder sh = getSessionHolder();
     if (sh == null) {
-      long t1 = System.currentTimeMillis();
-      sh = new SessionHolder(repositoryBuilder, null, DEFAULT_WORKSPACE);
-      setSesssionHolder(sh);
-      if (debug) {
-        LOG.debug("Session Start took " + (System.currentTimeMillis() - t1) + "ms");
+      // the login module takes the user from the request when there are no
+      // credentials, so the pool is keyed by the same user.
+      String userId = sessionManagerService.getCurrentUserId();
+      if (userId == null) {
+        userId = ANON_USER;
       }
+      sh = borrow(USER_KEY + userId, null);
     }
     session = sh.getSession();
     return session;
@@ -134,19 +180,43 @@ public class JCRServiceImpl implements JCRService, RequiresStop {
     Session session = null;
     SessionHolder sh = getSessionHolder();
     if (sh == null) {
-      long t1 = System.currentTimeMillis();
-
-      sh = new SessionHolder(repositoryBuilder, new SakaiJCRCredentials(),
-          DEFAULT_WORKSPACE);
-      setSesssionHolder(sh);
-      if (debug) {
-        LOG.debug("Session Start took " + (System.currentTimeMillis() - t1) + "ms");
-      }
+      sh = borrow(SYSTEM_KEY, new SakaiJCRCredentials());
     }
     session = sh.getSession();
     return session;
   }
 
+  /**
+   * Borrow a session from the pool and bind it to the request.
+   *
+   * @param key
+   *          the key of the principal.
+   * @param credentials
+   *          the credentials to login with if there is no idle session.
+   * @return the holder of the session.
+   * @throws RepositoryException
+   */
+  private SessionHolder borrow(String key, Credentials credentials)
+      throws RepositoryException {
+    long t1 = System.currentTimeMillis();
+    Session session = sessionPool.borrow(repositoryBuilder.getInstance(), key,
+        credentials);
+    SessionHolder sh = new SessionHolder(sessionPool, key, session);
+    try {
+      if (session instanceof SakaiXASessionImpl) {
+        ((SakaiXASessionImpl) session).bindTransaction();
+      }
+    } catch (RepositoryException e) {
+      sh.unbind();
+      throw e;
+    }
+    setSesssionHolder(sh);
+    if (debug) {
+      LOG.debug("Session Start took " + (System.currentTimeMillis() - t1) + "ms");
+    }
+    return sh;
+  }
+
   /**
    * @return
    */
@@ -229,8 +299,15 @@ public class JCRServiceImpl implements JCRService, RequiresStop {
     }
     if (session == null) {
       clearSessionHolder();
+    } else if (sh != null && sh.getReplaced() != null
+        && sh.getReplaced().getSession() == session) {
+      // putting back the session that was replaced, restore its holder so
+      // that a pooled session goes back to the pool.
+      SessionHolder replaced = sh.getReplaced();
+      replaced.restore();
+      setSesssionHolder(replaced);
     } else {
-      sh = new SessionHolder(session);
+      sh = new SessionHolder(session, sh);
       setSesssionHolder(sh);
     }
     return currentSession;
@@ -324,13 +401,8 @@ public class JCRServiceImpl implements JCRService, RequiresStop {
     while (lockable.isNew()) {
       lockable = lockable.getParent();
     }
-    String lockId = null;
-    try {
-      lockId = StringUtils.sha1Hash(lockable.getPath());
-    } catch (Exception e) {
-      throw new RepositoryException("Failed to locate SHA1 Hash algoritm ", e);
-    }
-    Lock lock = lockManager.waitForLock(lockId);
+    // lock on the path, so that lock statistics can be collected by path prefix.
+    Lock lock = lockManager.waitForLock(lockable.getPath());
     return lock;
   }
 }
@@ -0,0 +1,562 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.jackrabbit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.jcr.Credentials;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A bounded pool of JCR sessions keyed by principal. Returned sessions have their
+ * pending changes discarded and are kept for the next borrow by the same principal,
+ * most recently used first. Sessions idle for longer than the idle timeout are logged
+ * out, except that warm keys, such as the system session used by listeners, are kept
+ * topped up to a minimum number of idle sessions.
+ */
+public class JCRSessionPool implements JCRSessionPoolMBean {
+
+  private static final Log LOG = LogFactory.getLog(JCRSessionPool.class);
+  private static final boolean debug = LOG.isDebugEnabled();
+  private static final String MBEAN_NAME = "org.sakaiproject.kernel:type=JCRSessionPool";
+
+  private final int maxActive;
+  private final int maxIdle;
+  private final long maxWait;
+  private final long idleTimeout;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition returned = lock.newCondition();
+  private final Map<String, LinkedList<PooledSession>> idle = new HashMap<String, LinkedList<PooledSession>>();
+  private final Map<String, WarmKey> warmKeys = new ConcurrentHashMap<String, WarmKey>();
+  private final Timer timer;
+  private volatile Repository repository;
+  private int open;
+  private int active;
+  private int idleCount;
+  private boolean closed;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong waits = new AtomicLong();
+  private final AtomicLong waitTime = new AtomicLong();
+  private final AtomicLong evicted = new AtomicLong();
+  private final AtomicLong discarded = new AtomicLong();
+
+  /**
+   * @param maxActive
+   *          the maximum number of open sessions, borrowed or idle, beyond which a borrow
+   *          waits for a session to be returned.
+   * @param maxIdle
+   *          the maximum number of idle sessions kept for each principal.
+   * @param maxWait
+   *          the longest time in ms a borrow waits before opening a session over the
+   *          limit.
+   * @param idleTimeout
+   *          the time in ms after which an idle session is logged out.
+   */
+  public JCRSessionPool(int maxActive, int maxIdle, long maxWait, long idleTimeout) {
+    this.maxActive = maxActive;
+    this.maxIdle = maxIdle;
+    this.maxWait = maxWait;
+    this.idleTimeout = idleTimeout;
+    long interval = Math.max(1000L, idleTimeout / 2);
+    timer = new Timer("JCRSessionPool", true);
+    timer.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        try {
+          maintain();
+        } catch (Throwable t) {
+          LOG.warn("Failed to maintain session pool " + t.getMessage(), t);
+        }
+      }
+    }, interval, interval);
+
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      if (!mBeanServer.isRegistered(name)) {
+        mBeanServer.registerMBean(this, name);
+      }
+    } catch (JMException e) {
+      LOG.warn("Failed to register session pool with JMX " + e.getMessage());
+    }
+  }
+
+  /**
+   * Keep a minimum number of idle sessions for the key, once the repository has been
+   * used.
+   *
+   * @param key
+   *          the key of the principal.
+   * @param credentials
+   *          the credentials to login with.
+   * @param minIdle
+   *          the number of idle sessions to keep.
+   */
+  public void addWarmKey(String key, Credentials credentials, int minIdle) {
+    warmKeys.put(key, new WarmKey(credentials, Math.min(minIdle, maxIdle)));
+  }
+
+  /**
+   * Borrow a session for the principal, logging in if there is no idle session.
+   *
+   * @param repository
+   *          the repository to login to.
+   * @param key
+   *          the key of the principal the credentials represent.
+   * @param credentials
+   *          the credentials, null to login as the principal of the current request.
+   * @return a session that must be returned with {@link #release(String, Session)}.
+   * @throws RepositoryException
+   */
+  public Session borrow(Repository repository, String key, Credentials credentials)
+      throws RepositoryException {
+    this.repository = repository;
+    List<Session> toClose = null;
+    lock.lock();
+    try {
+      long start = 0;
+      for (;;) {
+        PooledSession ps = poll(key);
+        if (ps != null) {
+          active++;
+          hits.incrementAndGet();
+          if (start > 0) {
+            waitTime.addAndGet(System.currentTimeMillis() - start);
+          }
+          return ps.session;
+        }
+        if (open < maxActive || closed) {
+          break;
+        }
+        // make room by closing the least recently used session of another principal.
+        PooledSession lru = pollLeastRecentlyUsed();
+        if (lru != null) {
+          open--;
+          evicted.incrementAndGet();
+          if (toClose == null) {
+            toClose = new ArrayList<Session>();
+          }
+          toClose.add(lru.session);
+          break;
+        }
+        long now = System.currentTimeMillis();
+        if (start == 0) {
+          start = now;
+          waits.incrementAndGet();
+        }
+        long remaining = start + maxWait - now;
+        if (remaining <= 0) {
+          LOG.warn("Waited " + maxWait + " ms for a JCR session, opening " + (open + 1)
+              + " sessions, over the limit of " + maxActive);
+          break;
+        }
+        try {
+          returned.await(remaining, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      if (start > 0) {
+        waitTime.addAndGet(System.currentTimeMillis() - start);
+      }
+      open++;
+      active++;
+      misses.incrementAndGet();
+    } finally {
+      lock.unlock();
+    }
+    logout(toClose);
+    try {
+      return repository.login(credentials);
+    } catch (RepositoryException e) {
+      lock.lock();
+      try {
+        open--;
+        active--;
+        returned.signal();
+      } finally {
+        lock.unlock();
+      }
+      throw e;
+    } catch (RuntimeException e) {
+      lock.lock();
+      try {
+        open--;
+        active--;
+        returned.signal();
+      } finally {
+        lock.unlock();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Return a borrowed session to the pool, discarding any pending changes.
+   *
+   * @param key
+   *          the key the session was borrowed with.
+   * @param session
+   *          the session.
+   */
+  public void release(String key, Session session) {
+    if (session == null) {
+      return;
+    }
+    boolean reusable = session.isLive();
+    if (reusable) {
+      try {
+        session.refresh(false);
+      } catch (RepositoryException e) {
+        if (debug) {
+          LOG.debug("Discarding session that failed to refresh " + e.getMessage());
+        }
+        reusable = false;
+      } catch (RuntimeException e) {
+        LOG.warn("Discarding session that failed to refresh " + e.getMessage());
+        reusable = false;
+      }
+    }
+    lock.lock();
+    try {
+      active--;
+      if (reusable && !closed) {
+        LinkedList<PooledSession> sessions = idle.get(key);
+        if (sessions == null) {
+          sessions = new LinkedList<PooledSession>();
+          idle.put(key, sessions);
+        }
+        if (sessions.size() < maxIdle) {
+          sessions.addFirst(new PooledSession(session));
+          idleCount++;
+          returned.signal();
+          return;
+        }
+      }
+      open--;
+      discarded.incrementAndGet();
+      returned.signal();
+    } finally {
+      lock.unlock();
+    }
+    logout(session);
+  }
+
+  /**
+   * Log out sessions that have been idle for longer than the idle timeout, and top up
+   * the warm keys.
+   */
+  protected void maintain() {
+    List<Session> toClose = new ArrayList<Session>();
+    long expired = System.currentTimeMillis() - idleTimeout;
+    lock.lock();
+    try {
+      for (Entry<String, LinkedList<PooledSession>> e : idle.entrySet()) {
+        WarmKey warm = warmKeys.get(e.getKey());
+        int keep = (warm == null) ? 0 : warm.minIdle;
+        LinkedList<PooledSession> sessions = e.getValue();
+        // the least recently used are at the end.
+        while (sessions.size() > keep && sessions.getLast().lastUsed < expired) {
+          toClose.add(sessions.removeLast().session);
+          idleCount--;
+          open--;
+          evicted.incrementAndGet();
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    logout(toClose);
+
+    Repository r = repository;
+    if (r == null) {
+      return;
+    }
+    for (Entry<String, WarmKey> e : warmKeys.entrySet()) {
+      WarmKey warm = e.getValue();
+      while (reserve(e.getKey(), warm.minIdle)) {
+        Session session = null;
+        try {
+          session = r.login(warm.credentials);
+        } catch (RepositoryException ex) {
+          LOG.warn("Failed to warm session pool for " + e.getKey() + " "
+              + ex.getMessage());
+        }
+        if (session == null) {
+          lock.lock();
+          try {
+            open--;
+            active--;
+          } finally {
+            lock.unlock();
+          }
+          break;
+        }
+        release(e.getKey(), session);
+      }
+    }
+  }
+
+  /**
+   * Reserve an open session for the key if it has less than minIdle idle sessions.
+   *
+   * @return true if a session was reserved and should be opened.
+   */
+  private boolean reserve(String key, int minIdle) {
+    lock.lock();
+    try {
+      LinkedList<PooledSession> sessions = idle.get(key);
+      int n = (sessions == null) ? 0 : sessions.size();
+      if (closed || n >= minIdle || open >= maxActive) {
+        return false;
+      }
+      open++;
+      active++;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Log out all idle sessions and stop the pool, sessions borrowed are logged out when
+   * they are returned.
+   */
+  public void close() {
+    timer.cancel();
+    lock.lock();
+    try {
+      closed = true;
+    } finally {
+      lock.unlock();
+    }
+    evictAll();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.JCRSessionPoolMBean#evictAll()
+   */
+  public void evictAll() {
+    List<Session> toClose = new ArrayList<Session>();
+    lock.lock();
+    try {
+      for (LinkedList<PooledSession> sessions : idle.values()) {
+        for (PooledSession ps : sessions) {
+          toClose.add(ps.session);
+          evicted.incrementAndGet();
+        }
+        open -= sessions.size();
+        idleCount -= sessions.size();
+        sessions.clear();
+      }
+      returned.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    logout(toClose);
+  }
+
+  /**
+   * Take the most recently used idle session for the key. Must be called with the lock
+   * held.
+   */
+  private PooledSession poll(String key) {
+    LinkedList<PooledSession> sessions = idle.get(key);
+    while (sessions != null && !sessions.isEmpty()) {
+      PooledSession ps = sessions.removeFirst();
+      idleCount--;
+      if (ps.session.isLive()) {
+        return ps;
+      }
+      open--;
+      discarded.incrementAndGet();
+    }
+    return null;
+  }
+
+  /**
+   * Take the least recently used idle session of any key. Must be called with the lock
+   * held.
+   */
+  private PooledSession pollLeastRecentlyUsed() {
+    LinkedList<PooledSession> oldest = null;
+    for (LinkedList<PooledSession> sessions : idle.values()) {
+      if (!sessions.isEmpty()
+          && (oldest == null || sessions.getLast().lastUsed < oldest.getLast().lastUsed)) {
+        oldest = sessions;
+      }
+    }
+    if (oldest == null) {
+      return null;
+    }
+    idleCount--;
+    return oldest.removeLast();
+  }
+
+  private void logout(List<Session> sessions) {
+    if (sessions != null) {
+      for (Iterator<Session> i = sessions.iterator(); i.hasNext();) {
+        logout(i.next());
+      }
+    }
+  }
+
+  private void logout(Session session) {
+    try {
+      session.logout();
+    } catch (Exception e) {
+      LOG.warn("Failed to logout of pooled session " + e.getMessage());
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.JCRSessionPoolMBean#getHits()
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.JCRSessionPoolMBean#getMisses()
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.JCRSessionPoolMBean#getWaits()
+   */
+  public long getWaits() {
+    return waits.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.JCRSessionPoolMBean#getMeanWaitTime()
+   */
+  public double getMeanWaitTime() {
+    long n = waits.get();
+    return n == 0 ? 0.0 : ((double) waitTime.get()) / n;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.JCRSessionPoolMBean#getEvicted()
+   */
+  public long getEvicted() {
+    return evicted.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.JCRSessionPoolMBean#getDiscarded()
+   */
+  public long getDiscarded() {
+    return discarded.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.JCRSessionPoolMBean#getActive()
+   */
+  public int getActive() {
+    lock.lock();
+    try {
+      return active;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.JCRSessionPoolMBean#getIdle()
+   */
+  public int getIdle() {
+    lock.lock();
+    try {
+      return idleCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * An idle session and when it was returned.
+   */
+  private static final class PooledSession {
+    private final Session session;
+    private final long lastUsed = System.currentTimeMillis();
+
+    PooledSession(Session session) {
+      this.session = session;
+    }
+  }
+
+  /**
+   * A key that is kept warm.
+   */
+  private static final class WarmKey {
+    private final Credentials credentials;
+    private final int minIdle;
+
+    WarmKey(Credentials credentials, int minIdle) {
+      this.credentials = credentials;
+      this.minIdle = minIdle;
+    }
+  }
+}
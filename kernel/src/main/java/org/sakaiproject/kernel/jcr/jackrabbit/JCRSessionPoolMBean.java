@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.jackrabbit;
+
+/**
+ * JMX view of the JCR session pool.
+ */
+public interface JCRSessionPoolMBean {
+
+  /**
+   * @return the number of sessions borrowed from the idle pool.
+   */
+  long getHits();
+
+  /**
+   * @return the number of sessions that had to be created.
+   */
+  long getMisses();
+
+  /**
+   * @return the number of borrows that waited for a session to be returned.
+   */
+  long getWaits();
+
+  /**
+   * @return the mean time in ms that a borrow waited.
+   */
+  double getMeanWaitTime();
+
+  /**
+   * @return the number of idle sessions evicted.
+   */
+  long getEvicted();
+
+  /**
+   * @return the number of sessions discarded on return, because they were dead or the
+   *         idle pool was full.
+   */
+  long getDiscarded();
+
+  /**
+   * @return the number of sessions borrowed and not yet returned.
+   */
+  int getActive();
+
+  /**
+   * @return the number of idle sessions in the pool.
+   */
+  int getIdle();
+
+  /**
+   * Log out all the idle sessions.
+   */
+  void evictAll();
+}
@@ -18,9 +18,12 @@
 package org.sakaiproject.kernel.jcr.jackrabbit;
 
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.kernel.api.RequiresStop;
+import org.sakaiproject.kernel.api.ShutdownService;
 import org.sakaiproject.kernel.api.jcr.EventRegistration;
 import org.sakaiproject.kernel.api.jcr.JCRConstants;
 import org.sakaiproject.kernel.api.jcr.JCRService;
@@ -28,8 +31,15 @@ import org.sakaiproject.kernel.api.memory.CacheManagerService;
 import org.sakaiproject.kernel.api.memory.CacheScope;
 import org.sakaiproject.kernel.jcr.api.JcrContentListener;
 
+import java.lang.management.ManagementFactory;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.LoginException;
 import javax.jcr.RepositoryException;
@@ -37,20 +47,43 @@ import javax.jcr.observation.Event;
 import javax.jcr.observation.EventIterator;
 import javax.jcr.observation.EventListener;
 import javax.jcr.observation.ObservationManager;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 /**
- *
+ * Adapts JCR observation events on file content to {@link JcrContentListener}
+ * s. Each event is routed only to the listeners that declared an interest in
+ * the file, and queued for each of them. The queues coalesce repeated events
+ * for the same file within a window and are delivered on a bounded pool, off
+ * the observation thread. With no threads, events are delivered inline on the
+ * observation thread.
  */
-public class JcrContentListenerAdapter implements EventListener, EventRegistration {
+public class JcrContentListenerAdapter implements EventListener,
+    EventRegistration, RequiresStop, JcrContentListenerAdapterMBean {
 
   private static final Log LOG = LogFactory.getLog(JcrContentListenerAdapter.class);
   private static final boolean debug = LOG.isDebugEnabled();
   private static final String DATA_NODE = "/" + JCRConstants.JCR_CONTENT + "/"
       + JCRConstants.JCR_DATA;
+  private static final String MBEAN_NAME = "org.sakaiproject.kernel:type=JcrContentListeners";
+  /**
+   * The time in ms that an event waits for later events on the same file.
+   */
+  public static final String WINDOW = "jcr.content.listener.window";
+  /**
+   * The number of threads delivering content events.
+   */
+  public static final String THREADS = "jcr.content.listener.threads";
+
   private List<JcrContentListener> listeners;
   private CacheManagerService cacheManager;
   protected boolean unbind = true;
   private JCRService jcrService;
+  private final JcrContentRoutingTable routingTable;
+  private final ScheduledThreadPoolExecutor executor;
+  private final Map<JcrContentListener, JcrContentListenerQueue> queues = new HashMap<JcrContentListener, JcrContentListenerQueue>();
 
   /**
    * @param listeners
@@ -59,10 +92,44 @@ public class JcrContentListenerAdapter implements EventListener, EventRegistrati
    */
   @Inject
   public JcrContentListenerAdapter(List<JcrContentListener> listeners,
-      CacheManagerService cacheManager, JCRService jcrService) throws RepositoryException {
+      CacheManagerService cacheManager, JCRService jcrService,
+      ShutdownService shutdownService, @Named(WINDOW) long window,
+      @Named(THREADS) int threads) throws RepositoryException {
     this.listeners = listeners;
     this.cacheManager = cacheManager;
     this.jcrService = jcrService;
+    this.routingTable = new JcrContentRoutingTable(listeners);
+    if (threads > 0) {
+      executor = new ScheduledThreadPoolExecutor(threads,
+          new ContentListenerThreadFactory());
+      JcrContentListenerQueue.BatchContext context = new JcrContentListenerQueue.BatchContext() {
+        public void begin() throws Exception {
+          JcrContentListenerAdapter.this.jcrService.loginSystem();
+        }
+
+        public void end() {
+          release();
+        }
+      };
+      for (JcrContentListener listener : listeners) {
+        queues.put(listener, new JcrContentListenerQueue(listener, executor,
+            window, context));
+      }
+      shutdownService.register(this);
+      try {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MBEAN_NAME);
+        if (!mBeanServer.isRegistered(name)) {
+          mBeanServer.registerMBean(new StandardMBean(this,
+              JcrContentListenerAdapterMBean.class), name);
+        }
+      } catch (JMException e) {
+        LOG.warn("Failed to register content listeners with JMX "
+            + e.getMessage());
+      }
+    } else {
+      executor = null;
+    }
   }
 
   /**
@@ -85,8 +152,11 @@ public class JcrContentListenerAdapter implements EventListener, EventRegistrati
    * @see javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)
    */
   public void onEvent(EventIterator events) {
+    // queued events are delivered in a session on the pool thread, only inline
+    // delivery needs a session here.
+    boolean inline = executor == null;
     try {
-      if (unbind) {
+      if (unbind && inline) {
         jcrService.loginSystem();
       }
       if (debug) {
@@ -101,8 +171,13 @@ public class JcrContentListenerAdapter implements EventListener, EventRegistrati
             if (path.endsWith(DATA_NODE)) {
               String filePath = path.substring(0, path.length() - DATA_NODE.length());
               String fileName = filePath.substring(filePath.lastIndexOf("/") + 1);
-              for (JcrContentListener listener : listeners) {
-                listener.onEvent(event.getType(), event.getUserID(), filePath, fileName);
+              for (JcrContentListener listener : routingTable.route(filePath, fileName)) {
+                if (inline) {
+                  listener.onEvent(event.getType(), event.getUserID(), filePath, fileName);
+                } else {
+                  queues.get(listener).offer(event.getType(), event.getUserID(), filePath,
+                      fileName);
+                }
               }
             }
             if (debug) {
@@ -124,25 +199,114 @@ public class JcrContentListenerAdapter implements EventListener, EventRegistrati
     } catch (RepositoryException e) {
       LOG.warn("Cant Login to JCR " + e.getMessage(), e);
     } finally {
-      if (unbind) {
-        try {
-          jcrService.logout();
-        } catch (LoginException e) {
-          LOG.warn("Cant Logout of JCR " + e.getMessage(), e);
-        } catch (RepositoryException e) {
-          LOG.warn("Cant Logout of JCR " + e.getMessage(), e);
-        }
-        try {
-          cacheManager.unbind(CacheScope.REQUEST);
-        } catch (Exception ex) {
-          LOG.warn("Exception unbinding cache manager from request.");
-        }
-        try {
-          cacheManager.unbind(CacheScope.THREAD);
-        } catch (Exception ex) {
-          LOG.warn("Exception unbinding cache manager from thread.");
-        }
+      if (unbind && inline) {
+        release();
+      }
+    }
+  }
+
+  /**
+   * Logout of the JCR and unbind the request and thread caches from the
+   * current thread.
+   */
+  private void release() {
+    try {
+      jcrService.logout();
+    } catch (LoginException e) {
+      LOG.warn("Cant Logout of JCR " + e.getMessage(), e);
+    } catch (RepositoryException e) {
+      LOG.warn("Cant Logout of JCR " + e.getMessage(), e);
+    }
+    try {
+      cacheManager.unbind(CacheScope.REQUEST);
+    } catch (Exception ex) {
+      LOG.warn("Exception unbinding cache manager from request.");
+    }
+    try {
+      cacheManager.unbind(CacheScope.THREAD);
+    } catch (Exception ex) {
+      LOG.warn("Exception unbinding cache manager from thread.");
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Events already queued are delivered before the pool stops.
+   *
+   * @see org.sakaiproject.kernel.api.RequiresStop#stop()
+   */
+  public void stop() {
+    if (executor == null) {
+      return;
+    }
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(30L, TimeUnit.SECONDS)) {
+        LOG.warn("Content events were not delivered before shutdown");
+        executor.shutdownNow();
       }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.JcrContentListenerAdapterMBean#getQueueDepth()
+   */
+  public int getQueueDepth() {
+    int n = 0;
+    for (JcrContentListenerQueue queue : queues.values()) {
+      n += queue.getDepth();
+    }
+    return n;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.JcrContentListenerAdapterMBean#getListenerStatistics()
+   */
+  public String[] getListenerStatistics() {
+    String[] lines = new String[listeners.size()];
+    int i = 0;
+    for (JcrContentListener listener : listeners) {
+      JcrContentListenerQueue queue = queues.get(listener);
+      lines[i++] = queue == null ? listener.getClass().getName() : queue
+          .toString();
+    }
+    return lines;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.JcrContentListenerAdapterMBean#resetStatistics()
+   */
+  public void resetStatistics() {
+    for (JcrContentListenerQueue queue : queues.values()) {
+      queue.resetStatistics();
+    }
+  }
+
+  /**
+   * Names the delivery threads, which do not hold up shutdown of the JVM.
+   */
+  private static class ContentListenerThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+     */
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "jcr-content-listener-"
+          + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
     }
   }
 }
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.jackrabbit;
+
+/**
+ * JMX view of the content listener queues.
+ */
+public interface JcrContentListenerAdapterMBean {
+
+  /**
+   * @return the number of files waiting to be delivered over all listeners.
+   */
+  int getQueueDepth();
+
+  /**
+   * @return the queue depth, deliveries and latency of each listener, one line
+   *         per listener.
+   */
+  String[] getListenerStatistics();
+
+  /**
+   * Reset all statistics.
+   */
+  void resetStatistics();
+}
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.jackrabbit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.kernel.jcr.api.JcrContentListener;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The events waiting for one content listener. Events for the same file that
+ * arrive within the window are coalesced into one, carrying the type and user
+ * of the latest event, so ten saves of a file produce one call to the
+ * listener. The pending events are delivered as a batch on a pool thread, and
+ * a listener only ever has one batch running, so listeners see their events
+ * one at a time, as they did on the observation thread.
+ */
+public class JcrContentListenerQueue {
+
+  private static final Log LOG = LogFactory
+      .getLog(JcrContentListenerQueue.class);
+  private static final boolean debug = LOG.isDebugEnabled();
+
+  /**
+   * Sets up and tears down the thread for a batch of deliveries.
+   */
+  public interface BatchContext {
+    /**
+     * Invoked on the pool thread before a batch is delivered.
+     *
+     * @throws Exception
+     *           if the batch cant be delivered, the events are dropped.
+     */
+    void begin() throws Exception;
+
+    /**
+     * Invoked on the pool thread after a batch is delivered, whether or not
+     * begin succeeded.
+     */
+    void end();
+  }
+
+  private final JcrContentListener listener;
+  private final ScheduledExecutorService executor;
+  private final long window;
+  private final BatchContext context;
+
+  /**
+   * Pending events by file path, guarded by this.
+   */
+  private Map<String, PendingEvent> pending = new LinkedHashMap<String, PendingEvent>();
+  /**
+   * true while a batch is scheduled or running, guarded by this.
+   */
+  private boolean scheduled;
+  private int maxDepth;
+
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong delivered = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong latency = new AtomicLong();
+  private final AtomicLong maxLatency = new AtomicLong();
+  private final AtomicLong listenerTime = new AtomicLong();
+
+  private final Runnable drain = new Runnable() {
+    public void run() {
+      drain();
+    }
+  };
+
+  /**
+   * @param listener
+   *          the listener to deliver to.
+   * @param executor
+   *          the pool that delivers the batches.
+   * @param window
+   *          the time in ms that an event waits for later events for the same
+   *          file.
+   * @param context
+   *          sets up the pool thread for each batch.
+   */
+  public JcrContentListenerQueue(JcrContentListener listener,
+      ScheduledExecutorService executor, long window, BatchContext context) {
+    this.listener = listener;
+    this.executor = executor;
+    this.window = Math.max(0, window);
+    this.context = context;
+  }
+
+  /**
+   * Queue an event for the listener.
+   *
+   * @param type
+   * @param userID
+   * @param filePath
+   * @param fileName
+   */
+  public void offer(int type, String userID, String filePath, String fileName) {
+    received.incrementAndGet();
+    synchronized (this) {
+      PendingEvent event = pending.get(filePath);
+      if (event == null) {
+        pending.put(filePath, new PendingEvent(type, userID, filePath,
+            fileName));
+        if (pending.size() > maxDepth) {
+          maxDepth = pending.size();
+        }
+      } else {
+        event.type = type;
+        event.userID = userID;
+      }
+      if (!scheduled) {
+        scheduled = true;
+        schedule();
+      }
+    }
+  }
+
+  /**
+   * Schedule a drain, the caller holds the lock.
+   */
+  private void schedule() {
+    try {
+      executor.schedule(drain, window, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      scheduled = false;
+      LOG.warn("Content listener " + listener + " is shut down, "
+          + pending.size() + " events were not delivered");
+      pending.clear();
+    }
+  }
+
+  /**
+   * Deliver everything pending, then reschedule if more arrived while the
+   * batch ran.
+   */
+  private void drain() {
+    List<PendingEvent> batch;
+    synchronized (this) {
+      batch = new ArrayList<PendingEvent>(pending.values());
+      pending = new LinkedHashMap<String, PendingEvent>();
+    }
+    try {
+      try {
+        context.begin();
+      } catch (Exception e) {
+        failed.addAndGet(batch.size());
+        LOG.warn("Unable to deliver " + batch.size() + " events to "
+            + listener + " " + e.getMessage(), e);
+        return;
+      }
+      for (PendingEvent event : batch) {
+        long start = System.currentTimeMillis();
+        try {
+          listener.onEvent(event.type, event.userID, event.filePath,
+              event.fileName);
+          delivered.incrementAndGet();
+        } catch (Exception e) {
+          failed.incrementAndGet();
+          LOG.error("Content listener " + listener + " failed on "
+              + event.filePath + " " + e.getMessage(), e);
+        }
+        long end = System.currentTimeMillis();
+        listenerTime.addAndGet(end - start);
+        long t = end - event.queued;
+        latency.addAndGet(t);
+        long max = maxLatency.get();
+        while (t > max && !maxLatency.compareAndSet(max, t)) {
+          max = maxLatency.get();
+        }
+        if (debug) {
+          LOG.debug("Delivered " + event.filePath + " to " + listener
+              + " after " + t + " ms");
+        }
+      }
+    } finally {
+      context.end();
+      synchronized (this) {
+        if (pending.size() > 0) {
+          schedule();
+        } else {
+          scheduled = false;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the listener.
+   */
+  public JcrContentListener getListener() {
+    return listener;
+  }
+
+  /**
+   * @return the number of files waiting to be delivered.
+   */
+  public synchronized int getDepth() {
+    return pending.size();
+  }
+
+  /**
+   * @return the most files that have been waiting at once.
+   */
+  public synchronized int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * @return the number of events received.
+   */
+  public long getReceived() {
+    return received.get();
+  }
+
+  /**
+   * @return the number of events delivered, after coalescing.
+   */
+  public long getDelivered() {
+    return delivered.get();
+  }
+
+  /**
+   * @return the number of events that failed or could not be delivered.
+   */
+  public long getFailed() {
+    return failed.get();
+  }
+
+  /**
+   * @return the mean time in ms from an event being queued to the listener
+   *         returning.
+   */
+  public double getMeanLatency() {
+    long n = delivered.get() + failed.get();
+    return n == 0 ? 0.0 : ((double) latency.get()) / n;
+  }
+
+  /**
+   * @return the longest time in ms from an event being queued to the listener
+   *         returning.
+   */
+  public long getMaxLatency() {
+    return maxLatency.get();
+  }
+
+  /**
+   * @return the mean time in ms spent in the listener for each event.
+   */
+  public double getMeanListenerTime() {
+    long n = delivered.get() + failed.get();
+    return n == 0 ? 0.0 : ((double) listenerTime.get()) / n;
+  }
+
+  /**
+   * Reset the statistics.
+   */
+  public void resetStatistics() {
+    received.set(0);
+    delivered.set(0);
+    failed.set(0);
+    latency.set(0);
+    maxLatency.set(0);
+    listenerTime.set(0);
+    synchronized (this) {
+      maxDepth = pending.size();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return listener.getClass().getName() + " depth=" + getDepth()
+        + " maxDepth=" + getMaxDepth() + " received=" + getReceived()
+        + " delivered=" + getDelivered() + " failed=" + getFailed()
+        + " meanLatency=" + getMeanLatency() + "ms maxLatency="
+        + getMaxLatency() + "ms meanListenerTime=" + getMeanListenerTime()
+        + "ms";
+  }
+
+  /**
+   * An event waiting for delivery, updated in place as later events for the
+   * same file arrive.
+   */
+  private static class PendingEvent {
+    private int type;
+    private String userID;
+    private final String filePath;
+    private final String fileName;
+    private final long queued = System.currentTimeMillis();
+
+    PendingEvent(int type, String userID, String filePath, String fileName) {
+      this.type = type;
+      this.userID = userID;
+      this.filePath = filePath;
+      this.fileName = fileName;
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.jackrabbit;
+
+import org.sakaiproject.kernel.jcr.api.JcrContentListener;
+import org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes content events to the listeners that declared an interest in them.
+ * Routes are indexed by path prefix, so finding the listeners for a file takes
+ * one lookup for each level of the file path whatever the number of listeners.
+ * Listeners that are not {@link RoutedJcrContentListener}s see every event.
+ */
+public class JcrContentRoutingTable {
+
+  /**
+   * Marks routes for any file name.
+   */
+  private static final String ANY_FILE = "";
+
+  /**
+   * prefix -> file name -> listeners.
+   */
+  private final Map<String, Map<String, List<JcrContentListener>>> routes = new HashMap<String, Map<String, List<JcrContentListener>>>();
+  private final List<JcrContentListener> all = new ArrayList<JcrContentListener>();
+
+  /**
+   * @param listeners
+   *          the listeners to route to.
+   */
+  public JcrContentRoutingTable(List<JcrContentListener> listeners) {
+    for (JcrContentListener listener : listeners) {
+      if (listener instanceof RoutedJcrContentListener) {
+        RoutedJcrContentListener routed = (RoutedJcrContentListener) listener;
+        String[] prefixes = routed.getPathPrefixes();
+        if (prefixes == null) {
+          prefixes = new String[] { "/" };
+        }
+        String[] fileNames = routed.getFileNames();
+        if (fileNames == null) {
+          fileNames = new String[] { ANY_FILE };
+        }
+        for (String prefix : prefixes) {
+          for (String fileName : fileNames) {
+            add(normalize(prefix), fileName, listener);
+          }
+        }
+      } else {
+        all.add(listener);
+      }
+    }
+  }
+
+  /**
+   * @param filePath
+   *          the path of the file.
+   * @param fileName
+   *          the name of the file.
+   * @return the listeners interested in the file, each listener appears at
+   *         most once.
+   */
+  public List<JcrContentListener> route(String filePath, String fileName) {
+    List<JcrContentListener> matched = new ArrayList<JcrContentListener>(all);
+    if (routes.size() == 0) {
+      return matched;
+    }
+    match(routes.get("/"), fileName, matched);
+    int i = filePath.indexOf('/', 1);
+    while (i > 0) {
+      match(routes.get(filePath.substring(0, i)), fileName, matched);
+      i = filePath.indexOf('/', i + 1);
+    }
+    if (filePath.length() > 1) {
+      match(routes.get(filePath), fileName, matched);
+    }
+    return matched;
+  }
+
+  /**
+   * Add the listeners under a prefix that match the file name.
+   */
+  private void match(Map<String, List<JcrContentListener>> byName,
+      String fileName, List<JcrContentListener> matched) {
+    if (byName == null) {
+      return;
+    }
+    addAll(byName.get(fileName), matched);
+    addAll(byName.get(ANY_FILE), matched);
+  }
+
+  private void addAll(List<JcrContentListener> listeners,
+      List<JcrContentListener> matched) {
+    if (listeners != null) {
+      for (JcrContentListener listener : listeners) {
+        if (!matched.contains(listener)) {
+          matched.add(listener);
+        }
+      }
+    }
+  }
+
+  private void add(String prefix, String fileName, JcrContentListener listener) {
+    Map<String, List<JcrContentListener>> byName = routes.get(prefix);
+    if (byName == null) {
+      byName = new HashMap<String, List<JcrContentListener>>();
+      routes.put(prefix, byName);
+    }
+    List<JcrContentListener> listeners = byName.get(fileName);
+    if (listeners == null) {
+      listeners = new ArrayList<JcrContentListener>();
+      byName.put(fileName, listeners);
+    }
+    if (!listeners.contains(listener)) {
+      listeners.add(listener);
+    }
+  }
+
+  /**
+   * @return the prefix without a trailing /, "/" for the root.
+   */
+  private String normalize(String prefix) {
+    if (prefix == null || prefix.length() == 0) {
+      return "/";
+    }
+    if (!prefix.startsWith("/")) {
+      prefix = "/" + prefix;
+    }
+    while (prefix.length() > 1 && prefix.endsWith("/")) {
+      prefix = prefix.substring(0, prefix.length() - 1);
+    }
+    return prefix;
+  }
+}
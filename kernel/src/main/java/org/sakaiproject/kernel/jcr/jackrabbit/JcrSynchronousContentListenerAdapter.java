@@ -22,6 +22,7 @@ import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
 import org.apache.jackrabbit.core.observation.SynchronousEventListener;
+import org.sakaiproject.kernel.api.ShutdownService;
 import org.sakaiproject.kernel.api.jcr.JCRService;
 import org.sakaiproject.kernel.api.memory.CacheManagerService;
 import org.sakaiproject.kernel.jcr.api.JcrContentListener;
@@ -32,7 +33,7 @@ import javax.jcr.RepositoryException;
 
 /**
  * an adapter for synchronous listeners, that get called before save on a node
- * returns.
+ * returns. Events are always delivered inline, never queued.
  */
 public class JcrSynchronousContentListenerAdapter extends
     JcrContentListenerAdapter implements SynchronousEventListener {
@@ -47,8 +48,9 @@ public class JcrSynchronousContentListenerAdapter extends
   @Inject
   public JcrSynchronousContentListenerAdapter(
       @Named(SYNCHRONOUS_LISTENERS) List<JcrContentListener> listeners,
-      CacheManagerService cacheManager, JCRService jcrService) throws RepositoryException {
-    super(listeners, cacheManager, jcrService);
+      CacheManagerService cacheManager, JCRService jcrService,
+      ShutdownService shutdownService) throws RepositoryException {
+    super(listeners, cacheManager, jcrService, shutdownService, 0, 0);
     unbind = false;
   }
 
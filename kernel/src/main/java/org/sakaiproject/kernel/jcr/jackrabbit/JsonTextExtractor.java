@@ -18,114 +18,61 @@
 
 package org.sakaiproject.kernel.jcr.jackrabbit;
 
-import net.sf.json.JSONArray;
-import net.sf.json.JSONObject;
-
 import org.apache.jackrabbit.extractor.AbstractTextExtractor;
-import org.sakaiproject.kernel.util.IOUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
-import java.lang.reflect.Array;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 /**
- *
+ * Extracts the string and number values of a JSON document for indexing. The
+ * document is tokenized as the indexer reads, so large documents are never
+ * held in memory. Jackrabbit creates the extractor by class name, so the
+ * maximum number of characters extracted is taken from the system property
+ * {@link #MAX_SIZE_PROPERTY}, defaulting to {@link #DEFAULT_MAX_SIZE}.
  */
 public class JsonTextExtractor extends AbstractTextExtractor {
 
-  public JsonTextExtractor() {
-    super(new String[] { "text/json" });
-
-  }
-
-  public Reader extractText(InputStream stream, String type, String encoding)
-      throws IOException {
-    if (encoding == null) {
-      encoding = "UTF-8";
-    }
-    String content = IOUtils.readFully(stream, encoding);
-    Map<String, Object> map = convertToObject(content, HashMap.class);
-    StringBuilder sb = new StringBuilder();
-    mapToString(map, sb);
-    return new StringReader(sb.toString());
-  }
+  /**
+   * The system property holding the maximum number of characters to extract
+   * from a document.
+   */
+  public static final String MAX_SIZE_PROPERTY = "sakai.jcr.jsonextractor.maxsize";
 
   /**
-   * @param map
-   * @param sb
+   * The indexer only takes the first 10000 terms of a field, there is little
+   * point extracting much more text than that.
    */
-  private void mapToString(Map<String, Object> map, StringBuilder sb) {
-    for (java.util.Map.Entry<String, Object> e : map.entrySet()) {
-      objectToString(e.getValue(), sb);
-    }
+  public static final long DEFAULT_MAX_SIZE = 1024L * 1024L;
+
+  private final long maxSize;
+
+  public JsonTextExtractor() {
+    this(Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
   }
 
   /**
-   * @param value
-   * @param sb
+   * @param maxSize
+   *          the maximum number of characters to extract from a document.
    */
-  @SuppressWarnings("unchecked")
-  private void objectToString(Object o, StringBuilder sb) {
-    if (o instanceof Map) {
-      mapToString((Map<String, Object>) o, sb);
-    } else if (o instanceof Iterable) {
-      for (Object oe : (Iterable<?>) o) {
-        objectToString(oe, sb);
-      }
-    } else if (o.getClass().isArray()) {
-      for (Object oe : (Object[]) o) {
-        objectToString(oe, sb);
-      }
-    } else {
-      sb.append(" ").append(String.valueOf(o));
-    }
+  public JsonTextExtractor(long maxSize) {
+    super(new String[] { "text/json" });
+    this.maxSize = maxSize;
   }
 
   /**
-   * Convert the json string into a pojo based on the supplied root class.
+   * {@inheritDoc}
    *
-   * @param string
-   *          the json string
-   * @param rootBeanClass
-   *          the root class of the bean
-   * @param <T>
-   *          The typep of the pojo to be returned
-   * @return A pojo of the same type as the rootBeanClass
+   * @see org.apache.jackrabbit.extractor.TextExtractor#extractText(java.io.InputStream,
+   *      java.lang.String, java.lang.String)
    */
-  @SuppressWarnings( { "unchecked", "deprecation" })
-  public <T> T convertToObject(String string, final Class<?> rootBeanClass) {
-
-    if ("".equals(string)) {
-      string = "{}";
-    }
-    if (string.startsWith("[")) {
-      JSONArray jsonArray = JSONArray.fromObject(string);
-
-      if (rootBeanClass.isArray()) {
-        Class<?> componentType = rootBeanClass.getComponentType();
-        List<?> o = JSONArray.toList(jsonArray, componentType);
-        Object[] result = (Object[]) Array.newInstance(componentType, o.size());
-        for (int i = 0; i < o.size(); i++) {
-          result[i] = o.get(i);
-        }
-        return (T) result;
-
-      } else {
-        Object o = JSONArray.toList(jsonArray, rootBeanClass);
-
-        return (T) o;
-      }
-    } else {
-      JSONObject jsonObject = JSONObject.fromObject(string);
-      Object o = JSONObject.toBean(jsonObject, rootBeanClass);
-      return (T) o;
-
+  public Reader extractText(InputStream stream, String type, String encoding)
+      throws IOException {
+    if (encoding == null) {
+      encoding = "UTF-8";
     }
+    return new JsonTextReader(new InputStreamReader(stream, encoding), maxSize);
   }
 
 }
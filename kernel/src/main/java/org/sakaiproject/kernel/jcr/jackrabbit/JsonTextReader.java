@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.jackrabbit;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A reader over the leaf values of a JSON document, tokenizing the document as
+ * it is read so that only a small buffer is held, however large the document.
+ * String and number values are returned separated by spaces; object keys,
+ * structure, true, false and null are dropped. The tokenizer is lenient,
+ * malformed input produces whatever text can be recovered rather than an
+ * error, since the output is only used for indexing. Reading stops once
+ * maxLength characters have been returned.
+ */
+public class JsonTextReader extends Reader {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final int NONE = 0;
+  private static final int STRING = 1;
+  private static final int ESCAPE = 2;
+  private static final int UNICODE = 3;
+  private static final int LITERAL = 4;
+
+  private final Reader in;
+
+  private final long maxLength;
+
+  private final char[] buffer = new char[BUFFER_SIZE];
+
+  private int position;
+
+  private int limit;
+
+  private boolean eof;
+
+  private long returned;
+
+  private int state = NONE;
+
+  /**
+   * true if the current string or literal is returned, false if it is dropped.
+   */
+  private boolean emit;
+
+  /**
+   * the number of characters returned from the current value.
+   */
+  private int valueLength;
+
+  /**
+   * true for each open object, false for each open array.
+   */
+  private boolean[] containers = new boolean[32];
+
+  private int depth;
+
+  private boolean expectKey;
+
+  private int unicode;
+
+  private int unicodeDigits;
+
+  /**
+   * @param in
+   *          the JSON document.
+   * @param maxLength
+   *          the maximum number of characters to return.
+   */
+  public JsonTextReader(Reader in, long maxLength) {
+    this.in = in;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see java.io.Reader#read(char[], int, int)
+   */
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    int n = 0;
+    // each input character produces at most one output character.
+    while (n < len && returned < maxLength) {
+      if (position == limit && !fill()) {
+        break;
+      }
+      char c = buffer[position++];
+      int out = -1;
+      switch (state) {
+      case STRING:
+        if (c == '"') {
+          out = endValue();
+        } else if (c == '\\') {
+          state = ESCAPE;
+        } else {
+          out = value(c);
+        }
+        break;
+      case ESCAPE:
+        state = STRING;
+        switch (c) {
+        case 'u':
+          state = UNICODE;
+          unicode = 0;
+          unicodeDigits = 0;
+          break;
+        case 'b':
+          out = value('\b');
+          break;
+        case 'f':
+          out = value('\f');
+          break;
+        case 'n':
+          out = value('\n');
+          break;
+        case 'r':
+          out = value('\r');
+          break;
+        case 't':
+          out = value('\t');
+          break;
+        default:
+          out = value(c);
+        }
+        break;
+      case UNICODE:
+        int digit = Character.digit(c, 16);
+        if (digit < 0) {
+          // not a valid escape, carry on with the string from here.
+          state = STRING;
+          position--;
+        } else {
+          unicode = (unicode << 4) | digit;
+          if (++unicodeDigits == 4) {
+            state = STRING;
+            out = value((char) unicode);
+          }
+        }
+        break;
+      case LITERAL:
+        if (isDelimiter(c)) {
+          out = endValue();
+          // the delimiter is structure, so process it again
+          position--;
+        } else {
+          out = value(c);
+        }
+        break;
+      default:
+        structure(c);
+      }
+      if (out >= 0) {
+        cbuf[off + n++] = (char) out;
+        returned++;
+      }
+    }
+    if (n == 0) {
+      return -1;
+    }
+    return n;
+  }
+
+  /**
+   * Handle a character outside any string or literal.
+   *
+   * @param c
+   */
+  private void structure(char c) {
+    switch (c) {
+    case '{':
+      push(true);
+      expectKey = true;
+      break;
+    case '[':
+      push(false);
+      expectKey = false;
+      break;
+    case '}':
+    case ']':
+      if (depth > 0) {
+        depth--;
+      }
+      expectKey = false;
+      break;
+    case ',':
+      expectKey = depth > 0 && containers[depth - 1];
+      break;
+    case ':':
+      expectKey = false;
+      break;
+    case '"':
+      startValue(STRING, !expectKey);
+      break;
+    default:
+      if (c == '-' || (c >= '0' && c <= '9')) {
+        startValue(LITERAL, !expectKey);
+      } else if (Character.isLetter(c)) {
+        // true, false and null
+        startValue(LITERAL, false);
+      }
+      // whitespace and anything unexpected is ignored
+    }
+  }
+
+  private void startValue(int valueState, boolean emitValue) {
+    state = valueState;
+    emit = emitValue;
+    valueLength = 0;
+    if (valueState == LITERAL) {
+      // the first character of the literal has been consumed
+      position--;
+    }
+  }
+
+  /**
+   * @param c
+   * @return the character to return, or -1 if the value is being dropped.
+   */
+  private int value(char c) {
+    if (emit) {
+      valueLength++;
+      return c;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the separator to return after a value, or -1 if nothing was
+   *         returned from the value.
+   */
+  private int endValue() {
+    state = NONE;
+    if (emit && valueLength > 0) {
+      return ' ';
+    }
+    return -1;
+  }
+
+  private void push(boolean object) {
+    if (depth == containers.length) {
+      boolean[] c = new boolean[depth * 2];
+      System.arraycopy(containers, 0, c, 0, depth);
+      containers = c;
+    }
+    containers[depth++] = object;
+  }
+
+  private static boolean isDelimiter(char c) {
+    return c == ',' || c == '}' || c == ']' || c == '{' || c == '[' || c == ':'
+        || c == '"' || Character.isWhitespace(c);
+  }
+
+  /**
+   * @return true if there is more input.
+   * @throws IOException
+   */
+  private boolean fill() throws IOException {
+    if (eof) {
+      return false;
+    }
+    int n = in.read(buffer, 0, buffer.length);
+    if (n <= 0) {
+      eof = true;
+      position = limit = 0;
+      return false;
+    }
+    position = 0;
+    limit = n;
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see java.io.Reader#close()
+   */
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+}
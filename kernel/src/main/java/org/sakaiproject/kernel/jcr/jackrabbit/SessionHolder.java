@@ -20,41 +20,69 @@ package org.sakaiproject.kernel.jcr.jackrabbit;
 
 import org.sakaiproject.kernel.api.memory.ThreadBound;
 
-import javax.jcr.Credentials;
-import javax.jcr.LoginException;
-import javax.jcr.Repository;
-import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
+/**
+ * Holds the session bound to a request. Sessions borrowed from the session pool are
+ * returned to the pool when the holder is unbound, other sessions are logged out.
+ */
 public class SessionHolder implements ThreadBound {
 
   private Session session = null;
 
   private boolean keepLoggedIn = false;
 
-  public SessionHolder(RepositoryBuilder repositoryBuilder,
-      Credentials repositoryCredentials, String workspace)
-      throws LoginException, RepositoryException {
-    Repository repository = repositoryBuilder.getInstance();
-    session = repository.login(repositoryCredentials); // , workspace);
+  private JCRSessionPool pool;
+
+  private String key;
+
+  private SessionHolder replaced;
+
+  /**
+   * @param pool
+   *          the pool the session was borrowed from.
+   * @param key
+   *          the key it was borrowed with.
+   * @param session
+   *          the session.
+   */
+  public SessionHolder(JCRSessionPool pool, String key, Session session) {
+    this.pool = pool;
+    this.key = key;
+    this.session = session;
   }
 
   /**
-   * @param session2
+   * @param session
+   *          a session that is not pooled.
+   * @param replaced
+   *          the holder that this holder replaces for a time, may be null.
    */
-  public SessionHolder(Session session) {
+  public SessionHolder(Session session, SessionHolder replaced) {
     this.session = session;
+    this.replaced = replaced;
   }
 
   public Session getSession() {
     return session;
   }
 
+  /**
+   * @return the holder that this holder replaced, or null.
+   */
+  public SessionHolder getReplaced() {
+    return replaced;
+  }
+
   public void unbind() {
     if (keepLoggedIn) {
       keepLoggedIn = false;
     } else if (session != null) {
-      session.logout();
+      if (pool != null) {
+        pool.release(key, session);
+      } else {
+        session.logout();
+      }
       session = null;
     }
   }
@@ -64,6 +92,12 @@ public class SessionHolder implements ThreadBound {
     keepLoggedIn = true;
   }
 
-
+  /**
+   * Restore the holder after it has been replaced, so that it will release its session
+   * when unbound.
+   */
+  public void restore() {
+    keepLoggedIn = false;
+  }
 
 }
@@ -0,0 +1,329 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.jackrabbit.sakai;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jackrabbit.core.ItemId;
+import org.apache.jackrabbit.core.observation.EventImpl;
+import org.apache.jackrabbit.core.observation.SynchronousEventListener;
+import org.sakaiproject.kernel.api.jcr.EventRegistration;
+import org.sakaiproject.kernel.api.jcr.JCRConstants;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * State shared by all the access managers. Maps ItemIds to the path of the file or
+ * folder that controls their permissions, so that an access manager does not walk up
+ * the repository for every item, and keeps the counters for the access managers. The
+ * cache is invalidated as a whole when an acl changes or a node is moved, as a move
+ * changes the controlling folder of every item below the node. Each invalidation
+ * starts a new generation, access managers drop their cached decisions when they see
+ * the generation change.
+ */
+@Singleton
+public class AccessControlCache implements EventListener, EventRegistration,
+    SynchronousEventListener, AccessControlCacheMBean {
+
+  private static final Log LOG = LogFactory.getLog(AccessControlCache.class);
+  private static final boolean debug = LOG.isDebugEnabled();
+  private static final String MBEAN_NAME = "org.sakaiproject.kernel:type=AccessManager";
+  public static final String FOLDER_CACHE_SIZE = "jcr.accessmanager.folders";
+  private static final String ACL_SUFFIX = "/" + JCRConstants.ACL_ACL;
+  private static final String OWNER_SUFFIX = "/" + JCRConstants.ACL_OWNER;
+
+  private final AtomicLong generation = new AtomicLong();
+  private final Map<ItemId, Folder> folders;
+
+  final AtomicLong calls = new AtomicLong();
+  final AtomicLong superUserGrants = new AtomicLong();
+  final AtomicLong requestGrants = new AtomicLong();
+  final AtomicLong readGrants = new AtomicLong();
+  final AtomicLong anonymousDenials = new AtomicLong();
+  final AtomicLong decisionHits = new AtomicLong();
+  final AtomicLong folderHits = new AtomicLong();
+  final AtomicLong folderMisses = new AtomicLong();
+  final AtomicLong grants = new AtomicLong();
+  final AtomicLong denials = new AtomicLong();
+
+  /**
+   * @param maxFolders
+   *          the maximum number of items kept in the controlling folder cache, the least
+   *          recently used are discarded first.
+   */
+  @Inject
+  public AccessControlCache(@Named(FOLDER_CACHE_SIZE) final int maxFolders) {
+    folders = new LinkedHashMap<ItemId, Folder>(Math.min(maxFolders, 1024), 0.75f, true) {
+      private static final long serialVersionUID = -3385126440738722416L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ItemId, Folder> eldest) {
+        return size() > maxFolders;
+      }
+    };
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      if (!mBeanServer.isRegistered(name)) {
+        mBeanServer.registerMBean(this, name);
+      }
+    } catch (JMException e) {
+      LOG.warn("Failed to register access manager with JMX " + e.getMessage());
+    }
+  }
+
+  /**
+   * @return the current generation, decisions made in an earlier generation are no
+   *         longer valid.
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * @param workspace
+   *          the workspace the item is in.
+   * @param item
+   *          the id of a saved node.
+   * @return the path of the file or folder that controls the permissions of the node, or
+   *         null if it is not known.
+   */
+  public String getControllingPath(String workspace, ItemId item) {
+    Folder folder;
+    synchronized (folders) {
+      folder = folders.get(item);
+    }
+    if (folder != null && folder.generation == generation.get()
+        && folder.workspace.equals(workspace)) {
+      folderHits.incrementAndGet();
+      return folder.path;
+    }
+    folderMisses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * @param workspace
+   *          the workspace the item is in.
+   * @param item
+   *          the id of a saved node.
+   * @param path
+   *          the path of the file or folder that controls the permissions of the node.
+   * @param resolvedGeneration
+   *          the generation at the start of the resolution, if the cache has been
+   *          invalidated since, the path is not kept.
+   */
+  public void putControllingPath(String workspace, ItemId item, String path,
+      long resolvedGeneration) {
+    if (resolvedGeneration != generation.get()) {
+      return;
+    }
+    Folder folder = new Folder(workspace, path, resolvedGeneration);
+    synchronized (folders) {
+      folders.put(item, folder);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.sakai.AccessControlCacheMBean#invalidate()
+   */
+  public void invalidate() {
+    generation.incrementAndGet();
+    synchronized (folders) {
+      folders.clear();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.jcr.EventRegistration#register(javax.jcr.observation.ObservationManager)
+   */
+  public void register(ObservationManager observationManager) throws RepositoryException {
+    observationManager.addEventListener(this, Event.NODE_ADDED | Event.NODE_REMOVED
+        | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED, "/",
+        true, null, null, false);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)
+   */
+  public void onEvent(EventIterator events) {
+    Set<Object> removed = null;
+    try {
+      while (events.hasNext()) {
+        Event event = events.nextEvent();
+        switch (event.getType()) {
+        case Event.PROPERTY_ADDED:
+        case Event.PROPERTY_CHANGED:
+        case Event.PROPERTY_REMOVED:
+          String path = event.getPath();
+          if (path.endsWith(ACL_SUFFIX) || path.endsWith(OWNER_SUFFIX)) {
+            if (debug) {
+              LOG.debug("Acl changed at " + path);
+            }
+            invalidate();
+            return;
+          }
+          break;
+        case Event.NODE_REMOVED:
+          // a remove on its own leaves mappings for ids that no longer exist, which
+          // are harmless and age out.
+          if (removed == null) {
+            removed = new HashSet<Object>();
+          }
+          removed.add(getChildId(event));
+          break;
+        case Event.NODE_ADDED:
+          // a move is reported as a remove and an add of the same node.
+          if (removed != null && removed.contains(getChildId(event))) {
+            if (debug) {
+              LOG.debug("Node moved to " + event.getPath());
+            }
+            invalidate();
+            return;
+          }
+          break;
+        }
+      }
+    } catch (RepositoryException e) {
+      LOG.warn("Failed to process event, invalidating access control cache "
+          + e.getMessage());
+      invalidate();
+    }
+  }
+
+  /**
+   * @param event
+   * @return the id of the node that the event is about, or the path if the event does
+   *         not carry the id.
+   * @throws RepositoryException
+   */
+  private Object getChildId(Event event) throws RepositoryException {
+    if (event instanceof EventImpl) {
+      return ((EventImpl) event).getChildId();
+    }
+    return event.getPath();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.sakai.AccessControlCacheMBean#getFolderCacheSize()
+   */
+  public int getFolderCacheSize() {
+    synchronized (folders) {
+      return folders.size();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.jackrabbit.sakai.AccessControlCacheMBean#resetStatistics()
+   */
+  public void resetStatistics() {
+    calls.set(0);
+    superUserGrants.set(0);
+    requestGrants.set(0);
+    readGrants.set(0);
+    anonymousDenials.set(0);
+    decisionHits.set(0);
+    folderHits.set(0);
+    folderMisses.set(0);
+    grants.set(0);
+    denials.set(0);
+  }
+
+  public long getCalls() {
+    return calls.get();
+  }
+
+  public long getSuperUserGrants() {
+    return superUserGrants.get();
+  }
+
+  public long getRequestGrants() {
+    return requestGrants.get();
+  }
+
+  public long getReadGrants() {
+    return readGrants.get();
+  }
+
+  public long getAnonymousDenials() {
+    return anonymousDenials.get();
+  }
+
+  public long getDecisionHits() {
+    return decisionHits.get();
+  }
+
+  public long getFolderHits() {
+    return folderHits.get();
+  }
+
+  public long getFolderMisses() {
+    return folderMisses.get();
+  }
+
+  public long getGrants() {
+    return grants.get();
+  }
+
+  public long getDenials() {
+    return denials.get();
+  }
+
+  /**
+   * The controlling folder of an item, in the generation it was found in.
+   */
+  private static class Folder {
+    private final String workspace;
+    private final String path;
+    private final long generation;
+
+    Folder(String workspace, String path, long generation) {
+      this.workspace = workspace;
+      this.path = path;
+      this.generation = generation;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.jackrabbit.sakai;
+
+/**
+ * JMX view of the access manager decisions and the shared access control cache.
+ */
+public interface AccessControlCacheMBean {
+
+  /**
+   * @return the number of permission checks.
+   */
+  long getCalls();
+
+  /**
+   * @return the number of checks granted because the session belongs to the system.
+   */
+  long getSuperUserGrants();
+
+  /**
+   * @return the number of checks granted by a request grant.
+   */
+  long getRequestGrants();
+
+  /**
+   * @return the number of reads granted by a read grant while a listing was loaded.
+   */
+  long getReadGrants();
+
+  /**
+   * @return the number of writes or removes denied to anonymous sessions.
+   */
+  long getAnonymousDenials();
+
+  /**
+   * @return the number of checks answered from the decision cache of a session.
+   */
+  long getDecisionHits();
+
+  /**
+   * @return the number of items whose controlling file or folder was found in the cache.
+   */
+  long getFolderHits();
+
+  /**
+   * @return the number of items whose controlling file or folder had to be found by
+   *         walking up the repository.
+   */
+  long getFolderMisses();
+
+  /**
+   * @return the number of checks granted by the authz resolver.
+   */
+  long getGrants();
+
+  /**
+   * @return the number of checks denied by the authz resolver.
+   */
+  long getDenials();
+
+  /**
+   * @return the number of times the cache has been invalidated by an acl change or a move.
+   */
+  long getGeneration();
+
+  /**
+   * @return the number of items in the controlling folder cache.
+   */
+  int getFolderCacheSize();
+
+  /**
+   * Reset the counters.
+   */
+  void resetStatistics();
+
+  /**
+   * Invalidate the controlling folders and all cached decisions.
+   */
+  void invalidate();
+}
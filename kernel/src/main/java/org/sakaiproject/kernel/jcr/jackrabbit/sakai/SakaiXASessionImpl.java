@@ -56,6 +56,11 @@ public class SakaiXASessionImpl extends XASessionImpl {
   private static final Log LOG = LogFactory.getLog(SakaiXASessionImpl.class);
   private Injector injector;
   private LockManager lockManager;
+  private TransactionManager transactionManager;
+  /**
+   * The transaction the session was last enlisted in.
+   */
+  private Transaction enlisted;
   private static ThreadLocal<Injector> injectorHolder = new ThreadLocal<Injector>() {
     @Override
     protected Injector initialValue() {
@@ -126,10 +131,12 @@ public class SakaiXASessionImpl extends XASessionImpl {
    * @throws RepositoryException
    */
   private void bind(TransactionManager transactionManager) throws RepositoryException {
+    this.transactionManager = transactionManager;
     try {
       Transaction transaction = transactionManager.getTransaction();
-      if (transaction != null) {
+      if (transaction != null && !transaction.equals(enlisted)) {
         transaction.enlistResource(getXAResource());
+        enlisted = transaction;
       }
     } catch (IllegalStateException e) {
       throw new RepositoryException(e.getMessage(), e);
@@ -142,6 +149,19 @@ public class SakaiXASessionImpl extends XASessionImpl {
     }
   }
 
+  /**
+   * Enlist the session in the transaction of the current thread, if it is not already
+   * enlisted. Sessions are enlisted when they are created, so a session that is reused
+   * from the session pool must be bound again.
+   *
+   * @throws RepositoryException
+   */
+  public void bindTransaction() throws RepositoryException {
+    if (transactionManager != null) {
+      bind(transactionManager);
+    }
+  }
+
   /**
    * Finish construction and set the injector
    *
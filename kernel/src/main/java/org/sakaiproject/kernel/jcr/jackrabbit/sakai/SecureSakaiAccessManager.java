@@ -20,11 +20,13 @@ package org.sakaiproject.kernel.jcr.jackrabbit.sakai;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.jackrabbit.core.HierarchyManager;
 import org.apache.jackrabbit.core.ItemId;
+import org.apache.jackrabbit.core.NodeImpl;
 import org.apache.jackrabbit.core.PropertyId;
 import org.apache.jackrabbit.core.security.AMContext;
 import org.apache.jackrabbit.core.security.AccessManager;
@@ -36,13 +38,9 @@ import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
 import org.sakaiproject.kernel.api.ComponentActivatorException;
 import org.sakaiproject.kernel.api.authz.AuthzResolverService;
-import org.sakaiproject.kernel.api.authz.PermissionDeniedException;
 import org.sakaiproject.kernel.api.authz.PermissionQuery;
 import org.sakaiproject.kernel.api.jcr.JCRConstants;
 import org.sakaiproject.kernel.api.jcr.JCRService;
-import org.sakaiproject.kernel.api.memory.Cache;
-import org.sakaiproject.kernel.api.memory.CacheManagerService;
-import org.sakaiproject.kernel.api.memory.CacheScope;
 import org.sakaiproject.kernel.authz.simple.SimplePermissionQuery;
 import org.sakaiproject.kernel.authz.simple.SimpleQueryStatement;
 import org.sakaiproject.kernel.jcr.api.internal.SakaiUserPrincipal;
@@ -51,6 +49,9 @@ import org.sakaiproject.kernel.jcr.jackrabbit.JCRSystemPrincipal;
 import org.sakaiproject.kernel.jcr.jackrabbit.RepositoryBuilder;
 
 import java.security.Principal;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import javax.jcr.AccessDeniedException;
@@ -87,6 +88,8 @@ public class SecureSakaiAccessManager implements AccessManager {
 
   private static final long TTL = 60000L; // cache for a minute
 
+  public static final String DECISION_CACHE_SIZE = "jcr.accessmanager.decisions";
+
   static {
     for (int i = 0; i < PERMISSION_QUERIES.length; i++) {
       PERMISSION_QUERIES[i] = new SimplePermissionQuery(actionToString(i));
@@ -158,10 +161,16 @@ public class SecureSakaiAccessManager implements AccessManager {
   private AuthzResolverService authzResolverService;
 
   /**
-   * A Request Scope Cache containing already resolved permissions, we dont support
+   * Decisions already made by this access manager, the subject of an access manager does
+   * not change, so the decisions are keyed by item and permission. We dont support
    * inverting a permissions resolution half way though a request cycle.
    */
-  private Cache<ExpiringGrant<Boolean>> cache;
+  private final Map<DecisionKey, ExpiringGrant<Boolean>> decisions;
+
+  /**
+   * The generation of the access control cache that the decisions were made in.
+   */
+  private long decisionGeneration;
 
   /**
    * The session that we are bound to.
@@ -182,39 +191,31 @@ public class SecureSakaiAccessManager implements AccessManager {
 
   private JCRService jcrService;
 
-  private CacheManagerService cacheManagerService;
+  private AccessControlCache accessControlCache;
 
   private RepositoryBuilder repositoryBuilder;
 
   private String workspaceName;
 
-  private static int ncalls;
-
-  private static int nfullresolvegdeny;
-
-  private static int nfullresolvegrant;
-
-  private static int ncachedresolve;
-
-  private static int nresolve;
-
-  private static int nrequestgrant;
-
-  private static int nanondnied;
-
-  private static int nadmin;
-
-  private static long dumptime = System.currentTimeMillis();
-
   @Inject
   public SecureSakaiAccessManager(JCRService jcrService,
-      AuthzResolverService authzResolverService, CacheManagerService cacheManagerService,
-      RepositoryBuilder repositoryBuilder) throws ComponentActivatorException,
-      RepositoryException {
+      AuthzResolverService authzResolverService, AccessControlCache accessControlCache,
+      RepositoryBuilder repositoryBuilder,
+      @Named(DECISION_CACHE_SIZE) final int maxDecisions)
+      throws ComponentActivatorException, RepositoryException {
     this.authzResolverService = authzResolverService;
     this.jcrService = jcrService;
     this.repositoryBuilder = repositoryBuilder;
-    this.cacheManagerService = cacheManagerService;
+    this.accessControlCache = accessControlCache;
+    this.decisions = new LinkedHashMap<DecisionKey, ExpiringGrant<Boolean>>(Math.min(
+        maxDecisions, 256), 0.75f, true) {
+      private static final long serialVersionUID = 4461390364950683370L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<DecisionKey, ExpiringGrant<Boolean>> eldest) {
+        return size() > maxDecisions;
+      }
+    };
   }
 
   /*
@@ -230,7 +231,6 @@ public class SecureSakaiAccessManager implements AccessManager {
     }
 
     workspaceName = context.getWorkspaceName();
-    cache = cacheManagerService.getCache("jcr-accessmanager", CacheScope.INSTANCE);
 
     subject = context.getSubject();
 
@@ -272,7 +272,9 @@ public class SecureSakaiAccessManager implements AccessManager {
     }
 
     initialized = false;
-
+    synchronized (decisions) {
+      decisions.clear();
+    }
   }
 
   /*
@@ -293,7 +295,9 @@ public class SecureSakaiAccessManager implements AccessManager {
       throw new AccessDeniedException("Permission deined to " + sakaiUserId + " to "
           + PERMISSION_QUERIES[permission] + "on" + item);
     }
-    LOG.info("Granted " + permission + " on " + item);
+    if (debug) {
+      LOG.debug("Granted " + permission + " on " + item);
+    }
   }
 
   /*
@@ -308,208 +312,225 @@ public class SecureSakaiAccessManager implements AccessManager {
     if (!initialized) {
       throw new RepositoryException("Access Manager is not initialized ");
     }
+    if (checking.get()) {
+      // internal just exit with granted
+      return true;
+    }
+    Session userSession = null;
+    boolean sessionReplaced = false;
     try {
-      ncalls++;
-      if (!checking.get()) {
-        Session userSession = null;
-        boolean sessionReplaced = false;
-        try {
-
-          // in checking so dont recurse.
-          checking.set(true);
-          // this is the system just grant
-          if (sakaisystem) {
-            nadmin++;
-            return true;
-          }
-          // check for a security manager bypass
-          String requestGrant = authzResolverService.getRequestGrant();
-          if (requestGrant != null) {
-            nrequestgrant++;
-            return true;
-          }
-          // anon is never allowed to write
-          if (anonymous
-              && ((permission & AccessManager.WRITE) == AccessManager.WRITE || (permission & AccessManager.REMOVE) == AccessManager.REMOVE)) {
-            nanondnied++;
-            return false;
-          }
-          if (session == null) {
-            // Sessions and the associated access managers are bound to a single thread,
-            // and so no synchronization block is required.
-            session = ((SakaiRepositoryImpl) repositoryBuilder.getInstance())
-                .createReadOnlySystemSession(workspaceName);
-          }
 
-          userSession = jcrService.setSession(session);
+      // in checking so dont recurse.
+      checking.set(true);
+      accessControlCache.calls.incrementAndGet();
+      // this is the system just grant
+      if (sakaisystem) {
+        accessControlCache.superUserGrants.incrementAndGet();
+        return true;
+      }
+      // check for a security manager bypass
+      String requestGrant = authzResolverService.getRequestGrant();
+      if (requestGrant != null) {
+        accessControlCache.requestGrants.incrementAndGet();
+        return true;
+      }
+      // anon is never allowed to write
+      if (anonymous
+          && ((permission & AccessManager.WRITE) == AccessManager.WRITE || (permission & AccessManager.REMOVE) == AccessManager.REMOVE)) {
+        accessControlCache.anonymousDenials.incrementAndGet();
+        return false;
+      }
+
+      // item will have the node name, we should check this to see if we need to
+      // translate the permission
+      // into a different form (eg write to an acl requires aclwrite and not just
+      // write)
+      if (isAclItem(item)) {
+        permission = permission * 0x10;
+      }
 
-          sessionReplaced = true;
+      // a listing is being loaded to be checked in one batch, plain reads only.
+      if (permission == AccessManager.READ && authzResolverService.hasReadGrant()) {
+        accessControlCache.readGrants.incrementAndGet();
+        return true;
+      }
 
-          nresolve++;
-          Node node = null;
+      if (!item.denotesNode()) {
+        PropertyId propertyId = (PropertyId) item;
+        item = propertyId.getParentId();
+      }
 
-          // we cant do a session.getNodeByUUID as this will pull the node that hasnt been
-          // created into the ItemStateManager
-          // If the node is in the active session, then permission is already granted
-          // We have to convert the itemId into a state that works for this ode
-          if (debug) {
-            LOG.debug("Resolving " + item.toString());
-          }
-          // item will have the node name, we should check this to see if we need to
-          // translate the permission
-          // into a different form (eg write to an acl requires aclwrite and not just
-          // write)
-          if (isAclItem(item)) {
-            permission = permission * 0x10;
-          }
+      // the generation is read before anything is resolved, so that a decision made
+      // while an acl is changing is not kept.
+      long generation = accessControlCache.getGeneration();
+      DecisionKey decisionKey = new DecisionKey(item, permission);
+      Boolean decision = getDecision(decisionKey, generation);
+      if (decision != null) {
+        accessControlCache.decisionHits.incrementAndGet();
+        return decision;
+      }
 
-          if (!item.denotesNode()) {
-            PropertyId propertyId = (PropertyId) item;
-            item = propertyId.getParentId();
-          }
-          Path path = hierMgr.getPath(item);
-
-          /*
-           * The item may not have been written to the system session, so we must find the
-           * first saved item. This means that we are assuming that the user can do
-           * whatever they like to new nodes, but they have to have permission to perform
-           * the operation on the first parent node that does exist, regardless of what
-           * they have stated on the new nodes. This is a) correct b) expedient c) ensures
-           * that new nodes can be added the escalate permissions without the user having
-           * permission to do so.
-           */
-          for (;;) {
-            String jcrPath = pathResolver.getJCRPath(path);
-            try {
-              if (debug) {
-                LOG.info("Searching for " + jcrPath + " usign " + session);
-              }
-              Item realItem = session.getItem(jcrPath);
-              if (realItem.isNode()) {
-                if (debug) {
-                  LOG.info("Got " + realItem);
-                }
-                node = (Node) realItem;
-                break;
-              } else {
-                path = path.subPath(0, path.getLength() - 1);
-              }
-            } catch (PathNotFoundException e) {
-              // if the path gets to 0 the loop will stop with an exception.
-              path = path.subPath(0, path.getLength() - 1);
-            }
-          }
+      if (session == null) {
+        // Sessions and the associated access managers are bound to a single thread,
+        // and so no synchronization block is required.
+        session = ((SakaiRepositoryImpl) repositoryBuilder.getInstance())
+            .createReadOnlySystemSession(workspaceName);
+      }
 
-          // find the first NT_FILE or NT_FOLDER parent
-          String nodeType = node.getPrimaryNodeType().getName();
-          Node rootNode = session.getRootNode();
-          while (node != rootNode && !JCRConstants.NT_FILE.equals(nodeType)
-              && !JCRConstants.NT_FOLDER.equals(nodeType)) {
-            Node parent = node.getParent();
-            if (parent == null) {
-              break; // this should never happen unless we are dealing with some
-              // wierd structure.
-            }
-            node = parent;
-            nodeType = node.getPrimaryNodeType().getName();
-          }
+      userSession = jcrService.setSession(session);
 
-          // get a pre compiled permission query.
-          PermissionQuery spq = PERMISSION_QUERIES[permission];
-          String resourceReference = node.getPath();
-          String queryKey = spq.getQueryToken(resourceReference);
-          if (cache.containsKey(sakaiUserId + ":" + queryKey)) {
-            ExpiringGrant<Boolean> cg = cache.get(sakaiUserId + ":" + queryKey);
-            if (cg != null && !cg.hasExpired()) {
-              ncachedresolve++;
-              return cg.getPayload();
-            }
-          }
+      sessionReplaced = true;
 
-          // the node is now located on a File or Folder, this the path we are
-          // interested in working on.
+      boolean saved = true;
+      String resourceReference = accessControlCache.getControllingPath(workspaceName,
+          item);
+      if (resourceReference == null) {
+        Node node = null;
 
+        // we cant do a session.getNodeByUUID as this will pull the node that hasnt been
+        // created into the ItemStateManager
+        // If the node is in the active session, then permission is already granted
+        // We have to convert the itemId into a state that works for this ode
+        if (debug) {
+          LOG.debug("Resolving " + item.toString());
+        }
+        Path path = hierMgr.getPath(item);
+
+        /*
+         * The item may not have been written to the system session, so we must find the
+         * first saved item. This means that we are assuming that the user can do
+         * whatever they like to new nodes, but they have to have permission to perform
+         * the operation on the first parent node that does exist, regardless of what
+         * they have stated on the new nodes. This is a) correct b) expedient c) ensures
+         * that new nodes can be added the escalate permissions without the user having
+         * permission to do so.
+         */
+        for (;;) {
+          String jcrPath = pathResolver.getJCRPath(path);
           try {
-            // potentially expensive call.
-
-            authzResolverService.check(resourceReference, spq);
-            cache
-                .put(sakaiUserId + ":" + queryKey, new ExpiringGrant<Boolean>(true, TTL));
-            nfullresolvegrant++;
-            return true;
-          } catch (PermissionDeniedException denied) {
-            nfullresolvegdeny++;
-            cache.put(sakaiUserId + ":" + queryKey,
-                new ExpiringGrant<Boolean>(false, TTL));
             if (debug) {
-              LOG.debug("Permission Denied for " + sakaiUserId + " on "
-                  + resourceReference + ":" + denied.getMessage());
+              LOG.debug("Searching for " + jcrPath + " usign " + session);
+            }
+            Item realItem = session.getItem(jcrPath);
+            if (realItem.isNode()) {
+              if (debug) {
+                LOG.debug("Got " + realItem);
+              }
+              node = (Node) realItem;
+              // only a node that is saved where this session sees it can be cached
+              // against its id.
+              saved = saved && item.equals(((NodeImpl) node).getNodeId());
+              break;
+            } else {
+              saved = false;
+              path = path.subPath(0, path.getLength() - 1);
             }
-            return false;
+          } catch (PathNotFoundException e) {
+            // if the path gets to 0 the loop will stop with an exception.
+            saved = false;
+            path = path.subPath(0, path.getLength() - 1);
           }
-        } catch (RuntimeException e) {
-          LOG.error(e); // remove later
-          throw e;
-        } catch (ItemNotFoundException e) {
-          LOG.error(e); // remove later
-          throw e;
-        } catch (RepositoryException e) {
-          LOG.error(e); // remove later
-          throw e;
-        } catch (Exception ex) {
-          LOG.error(ex); // remove later
-          throw new RepositoryException(ex.getMessage(), ex);
-        } finally {
-          // out of checking
-          checking.set(false);
-          if (sessionReplaced) {
-            jcrService.setSession(userSession);
+        }
+
+        // find the first NT_FILE or NT_FOLDER parent
+        String nodeType = node.getPrimaryNodeType().getName();
+        Node rootNode = session.getRootNode();
+        while (node != rootNode && !JCRConstants.NT_FILE.equals(nodeType)
+            && !JCRConstants.NT_FOLDER.equals(nodeType)) {
+          Node parent = node.getParent();
+          if (parent == null) {
+            break; // this should never happen unless we are dealing with some
+            // wierd structure.
           }
+          node = parent;
+          nodeType = node.getPrimaryNodeType().getName();
         }
+        // the node is now located on a File or Folder, this the path we are
+        // interested in working on.
+        resourceReference = node.getPath();
+        if (saved) {
+          accessControlCache.putControllingPath(workspaceName, item, resourceReference,
+              generation);
+        }
+      }
+
+      // get a pre compiled permission query.
+      PermissionQuery spq = PERMISSION_QUERIES[permission];
+
+      // potentially expensive call, denials are returned rather than
+      // thrown as this is called for every item of a listing.
+      boolean granted = authzResolverService.checkAll(
+          Collections.singletonList(resourceReference), spq).get(0);
+      if (saved) {
+        putDecision(decisionKey, granted, generation);
+      }
+      if (granted) {
+        accessControlCache.grants.incrementAndGet();
       } else {
-        // internal just exit with granted
-        return true;
+        accessControlCache.denials.incrementAndGet();
+        if (debug) {
+          LOG.debug("Permission Denied for " + sakaiUserId + " on " + resourceReference);
+        }
       }
+      return granted;
+    } catch (RuntimeException e) {
+      LOG.error(e); // remove later
+      throw e;
+    } catch (ItemNotFoundException e) {
+      LOG.error(e); // remove later
+      throw e;
+    } catch (RepositoryException e) {
+      LOG.error(e); // remove later
+      throw e;
+    } catch (Exception ex) {
+      LOG.error(ex); // remove later
+      throw new RepositoryException(ex.getMessage(), ex);
     } finally {
-      if (System.currentTimeMillis() > dumptime) {
-        dumptime = System.currentTimeMillis() + 30000L;
-        int ncachemiss = 0;
-        int panondnied = 0;
-        int prequestgrant = 0;
-        int presolve = 0;
-        int padmin = 0;
-        if (ncalls > 0) {
-          padmin = nadmin * 100 / ncalls;
-          presolve = nresolve * 100 / ncalls;
-          prequestgrant = nrequestgrant * 100 / ncalls;
-          panondnied = nanondnied * 100 / ncalls;
-        }
-        int pcachemiss = 0;
-        int pfullresolvegdeny = 0;
-        int pfullresolvegrant = 0;
-        int pcachedresolve = 0;
-        if (nresolve > 0) {
-          ncachemiss = nfullresolvegdeny + nfullresolvegrant;
-          pcachemiss = ncachemiss * 100 / nresolve;
-          pfullresolvegdeny = nfullresolvegdeny * 100 / nresolve;
-          pfullresolvegrant = nfullresolvegrant * 100 / nresolve;
-          pcachedresolve = ncachedresolve * 100 / nresolve;
-        }
-        LOG.info("Calls:" + ncalls + "," + " Resolved:" + nresolve + "(" + presolve
-            + "%)," + " Cache(Hit:" + ncachedresolve + "(" + pcachedresolve + "%),"
-            + " Miss:" + ncachemiss + "(" + pcachemiss + "%))," + " Resolved(Grant:"
-            + nfullresolvegrant + "(" + pfullresolvegrant + "%)," + " Deny:"
-            + nfullresolvegdeny + "(" + pfullresolvegdeny + "%))," + "Misc(super user:"
-            + nadmin + "(" + padmin + "%)," + " anon deny:" + nanondnied + "("
-            + panondnied + "%)," + " request granted:" + nrequestgrant + "("
-            + prequestgrant + "%))");
-        ncalls = 0;
-        nadmin = 0;
-        nanondnied = 0;
-        ncachedresolve = 0;
-        nfullresolvegdeny = 0;
-        nfullresolvegrant = 0;
-        nresolve = 0;
+      // out of checking
+      checking.set(false);
+      if (sessionReplaced) {
+        jcrService.setSession(userSession);
+      }
+    }
+  }
+
+  /**
+   * @param key
+   * @param generation
+   *          the current generation of the access control cache.
+   * @return the decision, or null if there is no decision, it has expired or was made in
+   *         an earlier generation.
+   */
+  private Boolean getDecision(DecisionKey key, long generation) {
+    synchronized (decisions) {
+      if (decisionGeneration != generation) {
+        decisions.clear();
+        decisionGeneration = generation;
+        return null;
+      }
+      ExpiringGrant<Boolean> grant = decisions.get(key);
+      if (grant == null) {
+        return null;
+      }
+      if (grant.hasExpired()) {
+        decisions.remove(key);
+        return null;
+      }
+      return grant.getPayload();
+    }
+  }
+
+  /**
+   * @param key
+   * @param granted
+   * @param generation
+   *          the generation the decision was made in.
+   */
+  private void putDecision(DecisionKey key, boolean granted, long generation) {
+    synchronized (decisions) {
+      if (decisionGeneration == generation
+          && generation == accessControlCache.getGeneration()) {
+        decisions.put(key, new ExpiringGrant<Boolean>(granted, TTL));
       }
     }
   }
@@ -538,6 +559,11 @@ public class SecureSakaiAccessManager implements AccessManager {
   }
 
   /**
+   * The name of the permission query, made from the names of its statements so
+   * that a query with a single statement has the same name, and so the same
+   * request scope grants, as the query of that name from the permission query
+   * service.
+   *
    * @param permission
    * @return
    */
@@ -546,16 +572,66 @@ public class SecureSakaiAccessManager implements AccessManager {
       return "none";
     }
     StringBuilder sb = new StringBuilder();
-    if ((permission & AccessManager.READ) == AccessManager.READ) {
-      sb.append("read ");
+    appendAction(sb, permission, READ, PermissionQuery.READ);
+    appendAction(sb, permission, WRITE, PermissionQuery.WRITE);
+    appendAction(sb, permission, REMOVE, PermissionQuery.REMOVE);
+    appendAction(sb, permission, ADMIN_READ, PermissionQuery.ADMIN_READ);
+    appendAction(sb, permission, ADMIN_WRITE, PermissionQuery.ADMIN_WRITE);
+    appendAction(sb, permission, ADMIN_REMOVE, PermissionQuery.ADMIN_REMOVE);
+    return sb.toString();
+  }
+
+  /**
+   * @param sb
+   * @param permission
+   * @param action
+   * @param name
+   */
+  private static void appendAction(StringBuilder sb, int permission, int action,
+      String name) {
+    if ((permission & action) == action) {
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      sb.append(name);
     }
-    if ((permission & AccessManager.REMOVE) == AccessManager.REMOVE) {
-      sb.append("remove ");
+  }
+
+  /**
+   * A permission on a node.
+   */
+  private static final class DecisionKey {
+    private final ItemId item;
+    private final int permission;
+
+    DecisionKey(ItemId item, int permission) {
+      this.item = item;
+      this.permission = permission;
     }
-    if ((permission & AccessManager.WRITE) == AccessManager.WRITE) {
-      sb.append("write ");
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+      return item.hashCode() * 31 + permission;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof DecisionKey)) {
+        return false;
+      }
+      DecisionKey other = (DecisionKey) obj;
+      return permission == other.permission && item.equals(other.item);
     }
-    return sb.toString();
   }
 
 }
@@ -21,8 +21,11 @@ import org.sakaiproject.kernel.api.jcr.SmartNodeHandler;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.List;
 
+import javax.persistence.Query;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
@@ -38,5 +41,67 @@ public abstract class AbstractSmartNodeHandler implements SmartNodeHandler {
     output.write(b);
   }
 
-protected static final String COUNT_KEY = "count";
+  /**
+   * @param request
+   * @return the number of results to skip, 0 if the offset parameter is missing or
+   *         invalid.
+   */
+  protected int getOffset(HttpServletRequest request) {
+    return Math.max(0, getIntParameter(request, OFFSET_PARAM, 0));
+  }
+
+  /**
+   * @param request
+   * @return the maximum number of results to return, or -1 if there is no limit.
+   */
+  protected int getLimit(HttpServletRequest request) {
+    int limit = getIntParameter(request, LIMIT_PARAM, -1);
+    if (limit < 0) {
+      return -1;
+    }
+    return limit;
+  }
+
+  /**
+   * @param request
+   * @param name
+   * @param defaultValue
+   * @return the value of the parameter or the default value if it is missing or not a
+   *         number.
+   */
+  private int getIntParameter(HttpServletRequest request, String name, int defaultValue) {
+    String value = request.getParameter(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Count the results of a JPA query by reading them a page at a time, for queries that
+   * cannot be turned into a count query.
+   *
+   * @param query
+   * @return the number of results.
+   */
+  protected long countInPages(Query query) {
+    long count = 0;
+    for (int first = 0;; first += COUNT_PAGE_SIZE) {
+      query.setFirstResult(first);
+      query.setMaxResults(COUNT_PAGE_SIZE);
+      List<?> page = query.getResultList();
+      count += page.size();
+      if (page.size() < COUNT_PAGE_SIZE) {
+        return count;
+      }
+    }
+  }
+
+  protected static final String COUNT_KEY = "count";
+
+  private static final int COUNT_PAGE_SIZE = 500;
 }
@@ -17,10 +17,19 @@
  */
 package org.sakaiproject.kernel.jcr.smartNode;
 
-import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 
+import org.sakaiproject.kernel.api.authz.AuthzResolverService;
+import org.sakaiproject.kernel.api.authz.PermissionQueryService;
 import org.sakaiproject.kernel.api.jcr.JCRService;
 import org.sakaiproject.kernel.util.JCRNodeMap;
+import org.sakaiproject.kernel.util.ReadableNodes;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
@@ -28,15 +37,21 @@ import javax.jcr.RepositoryException;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryManager;
 import javax.jcr.query.QueryResult;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  *
  */
 public abstract class JcrSmartNodeHandler extends AbstractSmartNodeHandler {
   private JCRService jcrService;
+  private ReadableNodes readableNodes;
 
-  public JcrSmartNodeHandler(JCRService jcrService) {
+  public JcrSmartNodeHandler(JCRService jcrService,
+      AuthzResolverService authzResolverService,
+      PermissionQueryService permissionQueryService) {
     this.jcrService = jcrService;
+    this.readableNodes = new ReadableNodes(authzResolverService,
+        permissionQueryService);
   }
 
   /**
@@ -65,13 +80,47 @@ public abstract class JcrSmartNodeHandler extends AbstractSmartNodeHandler {
     return retval;
   }
 
-  protected JSONArray transform(NodeIterator nodes) throws RepositoryException {
-    JSONArray jsonArray = new JSONArray();
-    while (nodes.hasNext()) {
-      Node n = nodes.nextNode();
-      JCRNodeMap nodeMap = new JCRNodeMap(n, 1);
-      jsonArray.add(nodeMap);
+  /**
+   * Write the nodes to the response as a JSON array, a batch at a time as the iterator
+   * advances, so that only the batch being written is held in memory. Read access to
+   * each batch is checked with one call, the offset and limit count readable nodes.
+   *
+   * @param response
+   * @param nodes
+   *          the nodes to write.
+   * @param offset
+   *          the number of nodes to skip.
+   * @param limit
+   *          the maximum number of nodes to write, -1 for no limit.
+   * @throws RepositoryException
+   * @throws IOException
+   */
+  protected void writeNodes(HttpServletResponse response, NodeIterator nodes, int offset,
+      int limit) throws RepositoryException, IOException {
+    response.setContentType("text/plain;charset=UTF-8");
+    Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(),
+        "UTF-8"));
+    writer.write('[');
+    int skipped = 0;
+    int n = 0;
+    while (nodes.hasNext() && (limit < 0 || n < limit)) {
+      List<Node> batch = readableNodes.nextBatch(nodes, ReadableNodes.BATCH);
+      for (Node node : batch) {
+        if (skipped < offset) {
+          skipped++;
+          continue;
+        }
+        if (limit >= 0 && n >= limit) {
+          break;
+        }
+        if (n > 0) {
+          writer.write(',');
+        }
+        writer.write(JSONObject.fromObject(new JCRNodeMap(node, 1)).toString());
+        n++;
+      }
     }
-    return jsonArray;
+    writer.write(']');
+    writer.flush();
   }
 }
@@ -25,6 +25,8 @@ import org.sakaiproject.kernel.api.jcr.SmartNodeHandler;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
@@ -38,6 +40,25 @@ import javax.servlet.http.HttpServletResponse;
 public class JpaSmartNodeHandler extends AbstractSmartNodeHandler {
   public static final String KEY = "jpa";
 
+  /**
+   * A query selecting a single path expression, optionally distinct.
+   */
+  private static final Pattern SELECT = Pattern.compile(
+      "^\\s*select\\s+((?:distinct\\s+)?[\\w.]+)\\s+(from\\s.*)$",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  /**
+   * A group by clause, which gives a count per group.
+   */
+  private static final Pattern GROUP_BY = Pattern.compile("\\sgroup\\s+by\\s",
+      Pattern.CASE_INSENSITIVE);
+
+  /**
+   * A trailing order by clause, which is not part of a sub query.
+   */
+  private static final Pattern ORDER_BY = Pattern.compile("\\s+order\\s+by\\s[^)]*$",
+      Pattern.CASE_INSENSITIVE);
+
   private final EntityManager entityManager;
   /**
    *
@@ -61,6 +82,11 @@ public class JpaSmartNodeHandler extends AbstractSmartNodeHandler {
   public void handle(HttpServletRequest request, HttpServletResponse response,
       Node node, Node smartNode, String statement) throws RepositoryException, IOException {
     javax.persistence.Query jpaQuery = entityManager.createQuery(statement);
+    jpaQuery.setFirstResult(getOffset(request));
+    int limit = getLimit(request);
+    if (limit >= 0) {
+      jpaQuery.setMaxResults(limit);
+    }
     List results = jpaQuery.getResultList();
     /** FIXME make results into json */
     writeUtf8(response, results);
@@ -72,13 +98,35 @@ public class JpaSmartNodeHandler extends AbstractSmartNodeHandler {
    * @see org.sakaiproject.kernel.api.jcr.SmartNodeHandler#count(HttpServletRequest,
    *      HttpServletResponse, Node, String)
    */
-  @SuppressWarnings("unchecked")
   public void count(HttpServletRequest request, HttpServletResponse response,
       Node node, String statement) throws RepositoryException, IOException {
-    javax.persistence.Query jpaQuery = entityManager.createQuery(statement);
-    List results = jpaQuery.getResultList();
-    int size = results.size();
-    writeUtf8(response, size);
+    String countStatement = toCountQuery(statement);
+    if (countStatement != null) {
+      javax.persistence.Query jpaQuery = entityManager.createQuery(countStatement);
+      Number count = (Number) jpaQuery.getSingleResult();
+      writeUtf8(response, count.longValue());
+    } else {
+      // not a statement that can be counted in the database, count it a page at a time
+      // so that the whole result is never loaded.
+      writeUtf8(response, countInPages(entityManager.createQuery(statement)));
+    }
+  }
+
+  /**
+   * Convert a query that selects a single path expression into a query that counts it.
+   *
+   * @param statement
+   *          the JPQL statement.
+   * @return a count query for the statement, or null if the statement selects more than
+   *         a single path expression or is grouped.
+   */
+  static String toCountQuery(String statement) {
+    Matcher m = SELECT.matcher(statement);
+    if (!m.matches() || GROUP_BY.matcher(statement).find()) {
+      return null;
+    }
+    String from = ORDER_BY.matcher(m.group(2)).replaceFirst("");
+    return "select count(" + m.group(1) + ") " + from;
   }
 
   /**
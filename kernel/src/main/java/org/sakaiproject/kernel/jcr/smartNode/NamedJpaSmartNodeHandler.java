@@ -63,6 +63,11 @@ public class NamedJpaSmartNodeHandler extends AbstractSmartNodeHandler {
       Node node, Node smartNode, String statement) throws RepositoryException, IOException {
     javax.persistence.Query jpaQuery = entityManager
         .createNamedQuery(statement);
+    jpaQuery.setFirstResult(getOffset(request));
+    int limit = getLimit(request);
+    if (limit >= 0) {
+      jpaQuery.setMaxResults(limit);
+    }
     List results = jpaQuery.getResultList();
     /** FIXME make results into json */
     writeUtf8(response, results);
@@ -74,14 +79,12 @@ public class NamedJpaSmartNodeHandler extends AbstractSmartNodeHandler {
    * @see org.sakaiproject.kernel.api.jcr.SmartNodeHandler#count(HttpServletRequest,
    *      HttpServletResponse, Node, String)
    */
-  @SuppressWarnings("unchecked")
   public void count(HttpServletRequest request, HttpServletResponse response,
       Node node, String statement) throws RepositoryException, IOException {
+    // the text of a named query is not available to rewrite as a count.
     javax.persistence.Query jpaQuery = entityManager
         .createNamedQuery(statement);
-    List results = jpaQuery.getResultList();
-    int size = results.size();
-    writeUtf8(response, size);
+    writeUtf8(response, countInPages(jpaQuery));
   }
 
   /**
@@ -19,11 +19,12 @@ package org.sakaiproject.kernel.jcr.smartNode;
 
 import com.google.inject.Inject;
 
-import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 
 import org.sakaiproject.kernel.api.Registry;
 import org.sakaiproject.kernel.api.RegistryService;
+import org.sakaiproject.kernel.api.authz.AuthzResolverService;
+import org.sakaiproject.kernel.api.authz.PermissionQueryService;
 import org.sakaiproject.kernel.api.jcr.JCRService;
 import org.sakaiproject.kernel.api.jcr.SmartNodeHandler;
 
@@ -47,8 +48,9 @@ public class XpathSmartNodeHandler extends JcrSmartNodeHandler {
    */
   @Inject
   public XpathSmartNodeHandler(RegistryService registryService,
-      JCRService jcrService) {
-    super(jcrService);
+      JCRService jcrService, AuthzResolverService authzResolverService,
+      PermissionQueryService permissionQueryService) {
+    super(jcrService, authzResolverService, permissionQueryService);
     Registry<String, SmartNodeHandler> registry = registryService
         .getRegistry(SmartNodeHandler.REGISTRY);
     registry.add(this);
@@ -82,8 +84,7 @@ public class XpathSmartNodeHandler extends JcrSmartNodeHandler {
   public void handle(HttpServletRequest request, HttpServletResponse response,
       Node node, Node smartNode, String statement) throws RepositoryException, IOException {
     NodeIterator nodes = performQuery(Query.XPATH, statement);
-    JSONArray jsonArray = transform(nodes);
-    writeUtf8(response, jsonArray);
+    writeNodes(response, nodes, getOffset(request), getLimit(request));
   }
 
   /**
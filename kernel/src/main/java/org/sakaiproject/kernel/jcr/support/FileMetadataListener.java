@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.support;
+
+import com.google.inject.Inject;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.kernel.api.jcr.support.FileMetadata;
+import org.sakaiproject.kernel.api.memory.Cache;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.memory.CacheScope;
+import org.sakaiproject.kernel.jcr.api.JcrContentListener;
+
+/**
+ * Removes the cached metadata of a file when its content changes. This is a
+ * synchronous listener, so the entry is gone before the save that changed the
+ * file returns, and since the cache is cluster invalidated the remove reaches
+ * the other nodes as well.
+ */
+public class FileMetadataListener implements JcrContentListener {
+
+  private static final Log LOG = LogFactory.getLog(FileMetadataListener.class);
+  private static final boolean debug = LOG.isDebugEnabled();
+  private final CacheManagerService cacheManagerService;
+
+  /**
+   * @param cacheManagerService
+   */
+  @Inject
+  public FileMetadataListener(CacheManagerService cacheManagerService) {
+    this.cacheManagerService = cacheManagerService;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.api.JcrContentListener#onEvent(int,
+   *      java.lang.String, java.lang.String, java.lang.String)
+   */
+  public void onEvent(int type, String userID, String filePath, String fileName) {
+    Cache<FileMetadata> cache = cacheManagerService.getCache(
+        FileMetadata.FILE_METADATA_CACHE, CacheScope.CLUSTERINVALIDATED);
+    cache.remove(filePath);
+    if (debug) {
+      LOG.debug("Removed file metadata for " + filePath);
+    }
+  }
+
+}
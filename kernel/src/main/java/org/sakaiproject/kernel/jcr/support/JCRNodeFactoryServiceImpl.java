@@ -29,8 +29,12 @@ import org.sakaiproject.kernel.api.jcr.JCRService;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryServiceException;
 import org.sakaiproject.kernel.api.locking.LockTimeoutException;
+import org.sakaiproject.kernel.util.StringUtils;
 
 import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.GregorianCalendar;
 
 import javax.jcr.AccessDeniedException;
@@ -316,9 +320,24 @@ public class JCRNodeFactoryServiceImpl implements JCRNodeFactoryService {
     }
     Session s = newNode.getSession();
     ValueFactory vf = s.getValueFactory();
+    // the value is spooled as it is created, so the digest is complete after
+    // createValue, and the content hash stays in step with the data.
+    MessageDigest md = null;
+    try {
+      md = MessageDigest.getInstance("SHA-1");
+      in = new DigestInputStream(in, md);
+    } catch (NoSuchAlgorithmException e) {
+      LOG.warn("No SHA-1 digest, content will not be hashed " + e.getMessage());
+    }
     Value v = vf.createValue(in);
     Node contentNode = newNode.getNode(JCRConstants.JCR_CONTENT);
     contentNode.setProperty(JCRConstants.JCR_DATA, v);
+    if (md != null) {
+      contentNode.setProperty(JCRConstants.JCR_CONTENT_HASH, StringUtils.byteToHex(md
+          .digest()));
+    } else if (contentNode.hasProperty(JCRConstants.JCR_CONTENT_HASH)) {
+      contentNode.getProperty(JCRConstants.JCR_CONTENT_HASH).remove();
+    }
     return newNode;
   }
 
@@ -54,6 +54,11 @@ public class LockImpl implements Lock, ThreadBound {
    * The ID of the lock instance.
    */
   private long lockId;
+  /**
+   * The time after which the lock may be broken by another thread, or node in the
+   * cluster.
+   */
+  private long expires = Long.MAX_VALUE;
 
   /**
    * Create a new lock on the item id, with owner ownerId for the lockmanage instanceId
@@ -159,4 +164,32 @@ public class LockImpl implements Lock, ThreadBound {
   public long getLockId() {
     return lockId;
   }
+
+  /**
+   * @return the time in ms after which the lease on the lock has expired.
+   */
+  public long getExpires() {
+    return expires;
+  }
+
+  /**
+   * @param expires the time in ms after which the lease on the lock has expired.
+   */
+  public void setExpires(long expires) {
+    this.expires = expires;
+  }
+
+  /**
+   * @return the id of the owner of the lock.
+   */
+  protected long getOwnerId() {
+    return ownerId;
+  }
+
+  /**
+   * @return the id of the lock manager instance that created the lock.
+   */
+  protected long getInstanceId() {
+    return instanceId;
+  }
 }
@@ -18,6 +18,7 @@
 package org.sakaiproject.kernel.locking;
 
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -28,13 +29,60 @@ import org.sakaiproject.kernel.api.memory.Cache;
 import org.sakaiproject.kernel.api.memory.CacheManagerService;
 import org.sakaiproject.kernel.api.memory.CacheScope;
 
+import java.lang.management.ManagementFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 /**
- * A lock manager that uses a cluster replicated cache to manage the locks
+ * A lock manager that keeps its locks in striped monitors. Threads waiting for a
+ * lock are queued in FIFO order on the lock and the lock is handed to the head of
+ * the queue when it is unlocked, so no thread sleeps polling for a lock. Every lock
+ * carries a lease, once the lease has expired, or the owning thread has died, the
+ * lock is broken and given to the next waiter.
+ *
+ * In cluster mode, locks are also published to a cluster replicated cache and locks
+ * held by other nodes are respected until they are released or their lease expires.
+ * Since the cache replicates asynchronously, two nodes may both take a lock within
+ * the replication interval, and threads waiting on a lock held by another node check
+ * the cache at an interval rather than being woken.
  */
-public class LockManagerImpl implements LockManager {
+public class LockManagerImpl implements LockManager, LockManagerMBean {
+
+  /**
+   * The time in ms that waitForLock waits before failing.
+   */
+  public static final String WAIT_TIMEOUT = "lockmanager.waittimeout";
+  /**
+   * The time in ms that a lock is held before it may be broken.
+   */
+  public static final String LEASE = "lockmanager.lease";
+  /**
+   * If true, locks are shared with other nodes in the cluster.
+   */
+  public static final String CLUSTER = "lockmanager.cluster";
+  /**
+   * The interval in ms at which a lock held by another node is checked.
+   */
+  public static final String CLUSTER_RECHECK = "lockmanager.cluster.recheck";
+  /**
+   * The number of path elements that statistics are collected by.
+   */
+  public static final String METRICS_DEPTH = "lockmanager.metrics.depth";
 
   /**
    * The name of the cluster replicated cache. This cache must be configured with a
@@ -46,8 +94,17 @@ public class LockManagerImpl implements LockManager {
    *
    */
   private static final String REQUEST_LOCKS = "lockmanager.requestmap";
+  private static final String MBEAN_NAME = "org.sakaiproject.kernel:type=LockManager";
   private static final Log LOG = LogFactory.getLog(LockManagerImpl.class);
   private static final boolean debug = LOG.isDebugEnabled();
+  private static final int NSTRIPES = 64;
+  private static final int MAX_PREFIXES = 1000;
+  private static final String OTHER_PREFIX = "*";
+  private static final long DEFAULT_WAIT_TIMEOUT = 30000L;
+  private static final long DEFAULT_LEASE = 120000L;
+  private static final long DEFAULT_CLUSTER_RECHECK = 250L;
+  private static final int DEFAULT_METRICS_DEPTH = 2;
+
   private CacheManagerService cacheManagerService;
   private Cache<LockImpl> lockMap;
   private long instanceId;
@@ -63,19 +120,62 @@ public class LockManagerImpl implements LockManager {
       return random.nextLong();
     }
   };
-  private Object monitor = new Object();
+  private final Stripe[] stripes = new Stripe[NSTRIPES];
+  private final long waitTimeout;
+  private final long lease;
+  private final boolean cluster;
+  private final long clusterRecheck;
+  private final int metricsDepth;
+  private final ConcurrentHashMap<String, LockStatistics> statistics = new ConcurrentHashMap<String, LockStatistics>();
+  private final AtomicInteger held = new AtomicInteger();
+  private final AtomicInteger waiting = new AtomicInteger();
 
   /**
+   * Create a local lock manager with the default timeouts.
+   *
    * @throws NoSuchAlgorithmException
-   * 
    */
-  @Inject
   public LockManagerImpl(CacheManagerService cacheManagerService)
       throws NoSuchAlgorithmException {
+    this(cacheManagerService, DEFAULT_WAIT_TIMEOUT, DEFAULT_LEASE, false,
+        DEFAULT_CLUSTER_RECHECK, DEFAULT_METRICS_DEPTH);
+  }
+
+  /**
+   * @throws NoSuchAlgorithmException
+   * 
+   */
+  @Inject
+  public LockManagerImpl(CacheManagerService cacheManagerService,
+      @Named(WAIT_TIMEOUT) long waitTimeout, @Named(LEASE) long lease,
+      @Named(CLUSTER) boolean cluster,
+      @Named(CLUSTER_RECHECK) long clusterRecheck,
+      @Named(METRICS_DEPTH) int metricsDepth) throws NoSuchAlgorithmException {
     this.cacheManagerService = cacheManagerService;
-    lockMap = cacheManagerService.getCache(LOCKMAP, CacheScope.CLUSTERREPLICATED);
+    this.waitTimeout = waitTimeout;
+    this.lease = lease;
+    this.cluster = cluster;
+    this.clusterRecheck = clusterRecheck;
+    this.metricsDepth = metricsDepth;
+    if (cluster) {
+      lockMap = cacheManagerService.getCache(LOCKMAP, CacheScope.CLUSTERREPLICATED);
+    }
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe();
+    }
     random = SecureRandom.getInstance("SHA1PRNG");
     instanceId = random.nextLong();
+
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      if (!mBeanServer.isRegistered(name)) {
+        mBeanServer.registerMBean(new StandardMBean(this,
+            LockManagerMBean.class), name);
+      }
+    } catch (JMException e) {
+      LOG.warn("Failed to register lock manager with JMX " + e.getMessage());
+    }
   }
 
   public Lock getLock(String id) {
@@ -84,24 +184,49 @@ public class LockManagerImpl implements LockManager {
 
   /**
    * @param id
-   * @return
+   * @return the lock on the id, which may be owned by another thread, or null if there
+   *         is no lock and create is false.
    */
   public Lock getLock(String id, boolean create) {
-    LockImpl lock = lockMap.get(id);
-    if (create) {
-      if (lock == null || !lock.isLocked()) {
-        synchronized (monitor) {
-          lock = lockMap.get(id);
-          if (lock == null || !lock.isLocked()) {
-            Cache<LockImpl> requestLocks = getRequestLocks();
-            lock = new LockImpl(id, random.nextLong(), threadId.get(), instanceId);
-            lockMap.put(id, lock);
-            requestLocks.put(id, lock);
-          }
+    long now = System.currentTimeMillis();
+    long owner = threadId.get();
+    Stripe stripe = getStripe(id);
+    LockImpl lock = null;
+    boolean granted = false;
+    stripe.lock();
+    try {
+      LockEntry entry = stripe.entries.get(id);
+      if (entry != null) {
+        promote(id, entry, now);
+        lock = entry.holder;
+      }
+      if (lock == null && cluster) {
+        lock = getRemoteLock(id, now);
+      }
+      if (lock == null && create) {
+        if (entry == null) {
+          entry = new LockEntry();
+          stripe.entries.put(id, entry);
+        }
+        lock = grant(id, entry, owner, Thread.currentThread(), now);
+        granted = true;
+      } else if (lock != null && lock.getInstanceId() == instanceId
+          && lock.getOwnerId() == owner) {
+        // the owner renews the lease every time it asks for the lock.
+        lock.setExpires(now + lease);
+        if (cluster) {
+          lockMap.put(id, lock);
         }
+      } else if (entry != null) {
+        retire(stripe, id, entry);
       }
+    } finally {
+      stripe.unlock();
+    }
+    if (granted) {
+      getStatistics(id).granted(0, false);
+      getRequestLocks().put(id, lock);
     }
-    lock.bind(this);
     return lock;
   }
 
@@ -113,7 +238,8 @@ public class LockManagerImpl implements LockManager {
   }
 
   /**
-   * Unlock only if the current thread is the owner.
+   * Unlock only if the current thread is the owner, handing the lock to the next
+   * waiting thread if there is one.
    * 
    * @param lock
    */
@@ -123,8 +249,20 @@ public class LockManagerImpl implements LockManager {
         LOG.debug(Thread.currentThread() + " unlocked " + lock.getLocked());
       }
       lock.setLocked(false);
-      synchronized (monitor) {
-        lockMap.remove(lock.getLocked());
+      String id = lock.getLocked();
+      Stripe stripe = getStripe(id);
+      stripe.lock();
+      try {
+        LockEntry entry = stripe.entries.get(id);
+        if (entry != null && entry.holder == lock) {
+          long now = System.currentTimeMillis();
+          getStatistics(id).released(now - entry.acquired);
+          release(id, entry);
+          promote(id, entry, now);
+          retire(stripe, id, entry);
+        }
+      } finally {
+        stripe.unlock();
       }
     }
   }
@@ -149,36 +287,75 @@ public class LockManagerImpl implements LockManager {
    * @see org.sakaiproject.kernel.api.locking.LockManager#lock(java.lang.String)
    */
   public Lock waitForLock(String id) throws LockTimeoutException {
-    long sleepTime = 100;
-    int tries = 0;
     if (debug) {
       LOG.debug(Thread.currentThread() + " locking " + id);
     }
-    while (tries++ < 300) {
-      Lock lock = getLock(id);
-      if (lock != null && lock.isOwner()) {
-        if (debug) {
-          LOG.debug(Thread.currentThread() + " lock Granted " + lock.getLocked());
-        }
-        return lock;
-      }
-      if (sleepTime < 500) {
-        sleepTime = sleepTime + 10;
+    long start = System.currentTimeMillis();
+    long deadline = start + waitTimeout;
+    long owner = threadId.get();
+    boolean contended = false;
+    LockImpl lock = null;
+    Stripe stripe = getStripe(id);
+    stripe.lock();
+    try {
+      LockEntry entry = stripe.entries.get(id);
+      if (entry == null) {
+        entry = new LockEntry();
+        stripe.entries.put(id, entry);
+      } else if (entry.holder != null && entry.holder.getOwnerId() == owner) {
+        // already held by this thread.
+        entry.holder.setExpires(start + lease);
+        return entry.holder;
       }
+      Waiter waiter = new Waiter(owner, Thread.currentThread(), stripe.newCondition());
+      entry.waiters.addLast(waiter);
+      waiting.incrementAndGet();
       try {
-        
-        if (debug && tries % 5 == 0) {
-          LOG.debug(Thread.currentThread() + " locking " + id);
-        }
-        if (tries % 100 == 0) {
-          LOG.warn(Thread.currentThread() + " Waiting for " + sleepTime
-              + " ms " + tries);
+        for (;;) {
+          long now = System.currentTimeMillis();
+          promote(id, entry, now);
+          if (waiter.granted != null) {
+            lock = waiter.granted;
+            break;
+          }
+          contended = true;
+          long remaining = deadline - now;
+          if (remaining <= 0) {
+            entry.waiters.remove(waiter);
+            retire(stripe, id, entry);
+            getStatistics(id).timedOut(now - start);
+            throw new LockTimeoutException("Failed to lock node " + id + " within "
+                + waitTimeout + " ms");
+          }
+          long wait = remaining;
+          if (entry.holder != null) {
+            // wake when the lease expires, so that it can be broken.
+            wait = Math.min(wait, Math.max(1L, entry.holder.getExpires() - now));
+          } else if (cluster) {
+            wait = Math.min(wait, clusterRecheck);
+          }
+          waiter.condition.await(wait, TimeUnit.MILLISECONDS);
         }
-        Thread.sleep(sleepTime);
       } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        if (waiter.granted == null) {
+          entry.waiters.remove(waiter);
+          retire(stripe, id, entry);
+          throw new LockTimeoutException("Interrupted waiting for lock on " + id, e);
+        }
+        lock = waiter.granted;
+      } finally {
+        waiting.decrementAndGet();
       }
+    } finally {
+      stripe.unlock();
+    }
+    getStatistics(id).granted(System.currentTimeMillis() - start, contended);
+    getRequestLocks().put(id, lock);
+    if (debug) {
+      LOG.debug(Thread.currentThread() + " lock Granted " + lock.getLocked());
     }
-    throw new LockTimeoutException("Failed to lock node " + id);
+    return lock;
   }
 
   /**
@@ -192,4 +369,309 @@ public class LockManagerImpl implements LockManager {
     requestLocks.clear();
   }
 
+  /**
+   * If the lock is free, or the holder has lost it, grant the lock to the thread at the
+   * head of the queue and wake it. Must be called with the stripe locked.
+   *
+   * @param id
+   * @param entry
+   * @param now
+   */
+  private void promote(String id, LockEntry entry, long now) {
+    if (entry.holder != null) {
+      if (entry.holder.getExpires() >= now && entry.holderThread.isAlive()) {
+        return;
+      }
+      LOG.warn("Breaking lock on " + id + " held by " + entry.holderThread
+          + " since " + entry.acquired);
+      getStatistics(id).broken();
+      entry.holder.setLocked(false);
+      release(id, entry);
+    }
+    if (entry.waiters.isEmpty()) {
+      return;
+    }
+    if (cluster && getRemoteLock(id, now) != null) {
+      return;
+    }
+    Waiter next = entry.waiters.removeFirst();
+    next.granted = grant(id, entry, next.owner, next.thread, now);
+    next.condition.signal();
+  }
+
+  /**
+   * Create a lock and make it the holder of the entry. Must be called with the stripe
+   * locked.
+   *
+   * @return the new lock.
+   */
+  private LockImpl grant(String id, LockEntry entry, long owner, Thread thread,
+      long now) {
+    LockImpl lock = new LockImpl(id, random.nextLong(), owner, instanceId);
+    lock.bind(this);
+    lock.setExpires(now + lease);
+    entry.holder = lock;
+    entry.holderThread = thread;
+    entry.acquired = now;
+    held.incrementAndGet();
+    if (cluster) {
+      lockMap.put(id, lock);
+    }
+    return lock;
+  }
+
+  /**
+   * Clear the holder of the entry. Must be called with the stripe locked.
+   *
+   * @param id
+   * @param entry
+   */
+  private void release(String id, LockEntry entry) {
+    entry.holder = null;
+    entry.holderThread = null;
+    held.decrementAndGet();
+    if (cluster) {
+      lockMap.remove(id);
+    }
+  }
+
+  /**
+   * Remove the entry once it is neither held nor waited on. Must be called with the
+   * stripe locked.
+   */
+  private void retire(Stripe stripe, String id, LockEntry entry) {
+    if (entry.holder == null && entry.waiters.isEmpty()) {
+      stripe.entries.remove(id);
+    }
+  }
+
+  /**
+   * @param id
+   * @param now
+   * @return the lock if it is held by another node in the cluster, otherwise null.
+   */
+  private LockImpl getRemoteLock(String id, long now) {
+    LockImpl lock = lockMap.get(id);
+    if (lock != null && lock.isLocked() && lock.getInstanceId() != instanceId
+        && lock.getExpires() >= now) {
+      lock.bind(this);
+      return lock;
+    }
+    return null;
+  }
+
+  /**
+   * @param id
+   * @return the stripe that guards the id.
+   */
+  private Stripe getStripe(String id) {
+    int h = id.hashCode();
+    h ^= (h >>> 16);
+    return stripes[h & (NSTRIPES - 1)];
+  }
+
+  /**
+   * @param id
+   * @return the statistics for the path prefix of the id.
+   */
+  private LockStatistics getStatistics(String id) {
+    String prefix = getPrefix(id, metricsDepth);
+    LockStatistics s = statistics.get(prefix);
+    if (s == null) {
+      if (statistics.size() >= MAX_PREFIXES) {
+        prefix = OTHER_PREFIX;
+      }
+      s = new LockStatistics(prefix);
+      LockStatistics existing = statistics.putIfAbsent(prefix, s);
+      if (existing != null) {
+        s = existing;
+      }
+    }
+    return s;
+  }
+
+  /**
+   * @param id
+   *          the id of the lock.
+   * @param depth
+   *          the number of path elements in the prefix.
+   * @return the first depth elements of the id if it is a path, otherwise *.
+   */
+  static String getPrefix(String id, int depth) {
+    if (!id.startsWith("/")) {
+      return OTHER_PREFIX;
+    }
+    int i = 0;
+    for (int n = 0; n < depth; n++) {
+      i = id.indexOf('/', i + 1);
+      if (i < 0) {
+        return id;
+      }
+    }
+    return id.substring(0, i);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.locking.LockManagerMBean#getLocksGranted()
+   */
+  public long getLocksGranted() {
+    long n = 0;
+    for (LockStatistics s : statistics.values()) {
+      n += s.getGranted();
+    }
+    return n;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.locking.LockManagerMBean#getLocksContended()
+   */
+  public long getLocksContended() {
+    long n = 0;
+    for (LockStatistics s : statistics.values()) {
+      n += s.getContended();
+    }
+    return n;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.locking.LockManagerMBean#getLockTimeouts()
+   */
+  public long getLockTimeouts() {
+    long n = 0;
+    for (LockStatistics s : statistics.values()) {
+      n += s.getTimeouts();
+    }
+    return n;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.locking.LockManagerMBean#getLocksBroken()
+   */
+  public long getLocksBroken() {
+    long n = 0;
+    for (LockStatistics s : statistics.values()) {
+      n += s.getBroken();
+    }
+    return n;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.locking.LockManagerMBean#getLocksHeld()
+   */
+  public int getLocksHeld() {
+    return held.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.locking.LockManagerMBean#getThreadsWaiting()
+   */
+  public int getThreadsWaiting() {
+    return waiting.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.locking.LockManagerMBean#getMeanWaitTime()
+   */
+  public double getMeanWaitTime() {
+    long t = 0;
+    long n = 0;
+    for (LockStatistics s : statistics.values()) {
+      t += s.getWaitTime();
+      n += s.getContended() + s.getTimeouts();
+    }
+    return n == 0 ? 0.0 : ((double) t) / n;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.locking.LockManagerMBean#getMeanHoldTime()
+   */
+  public double getMeanHoldTime() {
+    long t = 0;
+    long n = 0;
+    for (LockStatistics s : statistics.values()) {
+      t += s.getHoldTime();
+      n += s.getReleased();
+    }
+    return n == 0 ? 0.0 : ((double) t) / n;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.locking.LockManagerMBean#getPrefixStatistics()
+   */
+  public String[] getPrefixStatistics() {
+    List<String> lines = new ArrayList<String>();
+    for (LockStatistics s : statistics.values()) {
+      lines.add(s.toString());
+    }
+    return lines.toArray(new String[lines.size()]);
+  }
+
+  /**
+   * @param prefix
+   * @return the statistics for the path prefix, or null if there are none.
+   */
+  public LockStatistics getPrefixStatistics(String prefix) {
+    return statistics.get(prefix);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.locking.LockManagerMBean#resetStatistics()
+   */
+  public void resetStatistics() {
+    statistics.clear();
+  }
+
+  /**
+   * A monitor guarding the locks whose ids hash to it.
+   */
+  private static final class Stripe extends ReentrantLock {
+    private static final long serialVersionUID = 5718385423463781216L;
+    private final Map<String, LockEntry> entries = new HashMap<String, LockEntry>();
+  }
+
+  /**
+   * The local state of a lock, its holder and the threads waiting for it.
+   */
+  private static final class LockEntry {
+    private LockImpl holder;
+    private Thread holderThread;
+    private long acquired;
+    private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+  }
+
+  /**
+   * A thread waiting for a lock, woken when the lock is granted to it.
+   */
+  private static final class Waiter {
+    private final long owner;
+    private final Thread thread;
+    private final Condition condition;
+    private LockImpl granted;
+
+    Waiter(long owner, Thread thread, Condition condition) {
+      this.owner = owner;
+      this.thread = thread;
+      this.condition = condition;
+    }
+  }
 }
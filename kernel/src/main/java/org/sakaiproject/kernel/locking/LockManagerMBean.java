@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.locking;
+
+/**
+ * JMX view of the lock manager.
+ */
+public interface LockManagerMBean {
+
+  /**
+   * @return the number of locks granted.
+   */
+  long getLocksGranted();
+
+  /**
+   * @return the number of locks that had to wait for another owner.
+   */
+  long getLocksContended();
+
+  /**
+   * @return the number of waits that timed out.
+   */
+  long getLockTimeouts();
+
+  /**
+   * @return the number of locks broken because the lease expired or the owning
+   *         thread died.
+   */
+  long getLocksBroken();
+
+  /**
+   * @return the number of locks currently held on this node.
+   */
+  int getLocksHeld();
+
+  /**
+   * @return the number of threads currently waiting for a lock on this node.
+   */
+  int getThreadsWaiting();
+
+  /**
+   * @return the mean time in ms spent waiting for contended locks.
+   */
+  double getMeanWaitTime();
+
+  /**
+   * @return the mean time in ms that locks were held.
+   */
+  double getMeanHoldTime();
+
+  /**
+   * @return the lock statistics for each path prefix, one line per prefix.
+   */
+  String[] getPrefixStatistics();
+
+  /**
+   * Reset all statistics.
+   */
+  void resetStatistics();
+}
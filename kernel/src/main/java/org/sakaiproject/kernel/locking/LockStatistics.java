@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.locking;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock counters for a path prefix, updated without locking.
+ */
+public class LockStatistics {
+
+  private final String prefix;
+  private final AtomicLong granted = new AtomicLong();
+  private final AtomicLong contended = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong broken = new AtomicLong();
+  private final AtomicLong waitTime = new AtomicLong();
+  private final AtomicLong maxWaitTime = new AtomicLong();
+  private final AtomicLong released = new AtomicLong();
+  private final AtomicLong holdTime = new AtomicLong();
+
+  /**
+   * @param prefix
+   *          the path prefix these statistics cover.
+   */
+  public LockStatistics(String prefix) {
+    this.prefix = prefix;
+  }
+
+  /**
+   * Record a lock being granted.
+   *
+   * @param waited
+   *          the time in ms spent waiting, 0 if the lock was not contended.
+   * @param wasContended
+   *          true if the lock had to wait for another owner.
+   */
+  public void granted(long waited, boolean wasContended) {
+    granted.incrementAndGet();
+    if (wasContended) {
+      contended.incrementAndGet();
+      waitTime.addAndGet(waited);
+      long max = maxWaitTime.get();
+      while (waited > max && !maxWaitTime.compareAndSet(max, waited)) {
+        max = maxWaitTime.get();
+      }
+    }
+  }
+
+  /**
+   * Record a wait that timed out.
+   *
+   * @param waited
+   *          the time in ms spent waiting.
+   */
+  public void timedOut(long waited) {
+    timeouts.incrementAndGet();
+    waitTime.addAndGet(waited);
+  }
+
+  /**
+   * Record a lock being broken.
+   */
+  public void broken() {
+    broken.incrementAndGet();
+  }
+
+  /**
+   * Record a lock being released.
+   *
+   * @param held
+   *          the time in ms the lock was held.
+   */
+  public void released(long held) {
+    released.incrementAndGet();
+    holdTime.addAndGet(held);
+  }
+
+  /**
+   * @return the path prefix.
+   */
+  public String getPrefix() {
+    return prefix;
+  }
+
+  /**
+   * @return the number of locks granted.
+   */
+  public long getGranted() {
+    return granted.get();
+  }
+
+  /**
+   * @return the number of locks that waited for another owner.
+   */
+  public long getContended() {
+    return contended.get();
+  }
+
+  /**
+   * @return the number of waits that timed out.
+   */
+  public long getTimeouts() {
+    return timeouts.get();
+  }
+
+  /**
+   * @return the number of locks broken.
+   */
+  public long getBroken() {
+    return broken.get();
+  }
+
+  /**
+   * @return the total time in ms spent waiting.
+   */
+  public long getWaitTime() {
+    return waitTime.get();
+  }
+
+  /**
+   * @return the longest wait in ms.
+   */
+  public long getMaxWaitTime() {
+    return maxWaitTime.get();
+  }
+
+  /**
+   * @return the number of locks released.
+   */
+  public long getReleased() {
+    return released.get();
+  }
+
+  /**
+   * @return the total time in ms locks were held.
+   */
+  public long getHoldTime() {
+    return holdTime.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    long c = contended.get() + timeouts.get();
+    long r = released.get();
+    return prefix + " granted:" + granted.get() + " contended:"
+        + contended.get() + " timeouts:" + timeouts.get() + " broken:"
+        + broken.get() + " meanWait:" + (c == 0 ? 0 : waitTime.get() / c)
+        + "ms maxWait:" + maxWaitTime.get() + "ms meanHold:"
+        + (r == 0 ? 0 : holdTime.get() / r) + "ms";
+  }
+}
@@ -0,0 +1,402 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.memory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.kernel.api.memory.Cache;
+import org.sakaiproject.kernel.api.memory.CacheMessage;
+import org.sakaiproject.kernel.api.memory.CacheTransport;
+import org.sakaiproject.kernel.api.memory.CacheTransportListener;
+import org.sakaiproject.kernel.api.memory.CacheMessage.Type;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects changes to cluster scoped caches and sends them to the other nodes
+ * in batches, and applies batches received from other nodes to the local
+ * caches. While a batch is pending, messages that are made redundant by a
+ * later message for the same key, or by a removeChildren or clear that covers
+ * the key, are coalesced and never sent.
+ */
+public class CacheBroadcaster implements CacheBroadcasterMBean,
+    CacheTransportListener {
+
+  private static final Log LOG = LogFactory.getLog(CacheBroadcaster.class);
+
+  private final CacheTransport transport;
+  private final int maxPending;
+  private final Map<String, Cache<?>> localCaches = new ConcurrentHashMap<String, Cache<?>>();
+  private final Object pendingLock = new Object();
+  private final Object sendLock = new Object();
+  private Map<String, PendingBatch> pending = new LinkedHashMap<String, PendingBatch>();
+  private final Timer timer;
+
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+
+  /**
+   * @param transport
+   *          the transport to send and receive on.
+   * @param flushInterval
+   *          the maximum time in ms that a message waits before it is sent.
+   * @param maxPending
+   *          the maximum number of messages pending for one cache, beyond
+   *          which the pending messages are replaced by a clear.
+   */
+  public CacheBroadcaster(CacheTransport transport, long flushInterval,
+      int maxPending) {
+    this.transport = transport;
+    this.maxPending = maxPending;
+    transport.bind(this);
+    timer = new Timer("CacheBroadcaster", true);
+    timer.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (Throwable t) {
+          LOG.warn("Failed to flush cache messages " + t.getMessage(), t);
+        }
+      }
+    }, flushInterval, flushInterval);
+  }
+
+  /**
+   * Register the local cache that messages for a cache name are applied to.
+   *
+   * @param cacheName
+   * @param localCache
+   */
+  public void register(String cacheName, Cache<?> localCache) {
+    localCaches.put(cacheName, localCache);
+  }
+
+  /**
+   * A put to a replicated cache, the payload is sent if it can be serialized,
+   * otherwise the key is invalidated on the other nodes.
+   *
+   * @param cacheName
+   * @param key
+   * @param payload
+   */
+  public void put(String cacheName, String key, Object payload) {
+    if (payload instanceof Serializable) {
+      queue(new CacheMessage(cacheName, Type.PUT, key, (Serializable) payload));
+    } else {
+      queue(new CacheMessage(cacheName, Type.REMOVE, key, null));
+    }
+  }
+
+  /**
+   * @param cacheName
+   * @param key
+   */
+  public void remove(String cacheName, String key) {
+    queue(new CacheMessage(cacheName, Type.REMOVE, key, null));
+  }
+
+  /**
+   * @param cacheName
+   * @param key
+   */
+  public void removeChildren(String cacheName, String key) {
+    queue(new CacheMessage(cacheName, Type.REMOVE_CHILDREN, key, null));
+  }
+
+  /**
+   * @param cacheName
+   */
+  public void clear(String cacheName) {
+    queue(new CacheMessage(cacheName, Type.CLEAR, null, null));
+  }
+
+  /**
+   * @param message
+   */
+  private void queue(CacheMessage message) {
+    synchronized (pendingLock) {
+      PendingBatch batch = pending.get(message.getCacheName());
+      if (batch == null) {
+        batch = new PendingBatch();
+        pending.put(message.getCacheName(), batch);
+      }
+      batch.add(message);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.memory.CacheBroadcasterMBean#flush()
+   */
+  public void flush() {
+    // the send lock keeps batches in order when flush is invoked on more than
+    // one thread.
+    synchronized (sendLock) {
+      Map<String, PendingBatch> toSend;
+      synchronized (pendingLock) {
+        if (pending.isEmpty()) {
+          return;
+        }
+        toSend = pending;
+        pending = new LinkedHashMap<String, PendingBatch>();
+      }
+      List<CacheMessage> messages = new ArrayList<CacheMessage>();
+      for (Map.Entry<String, PendingBatch> e : toSend.entrySet()) {
+        e.getValue().drainTo(e.getKey(), messages);
+      }
+      if (messages.size() == 0) {
+        return;
+      }
+      try {
+        transport.send(messages);
+        sent.addAndGet(messages.size());
+        batches.incrementAndGet();
+      } catch (Exception e) {
+        dropped.addAndGet(messages.size());
+        LOG.warn("Failed to send " + messages.size()
+            + " cache messages to the cluster " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.memory.CacheTransportListener#receive(java.util.List)
+   */
+  @SuppressWarnings("unchecked")
+  public void receive(List<CacheMessage> messages) {
+    for (CacheMessage message : messages) {
+      received.incrementAndGet();
+      Cache<Object> cache = (Cache<Object>) localCaches.get(message
+          .getCacheName());
+      if (cache == null) {
+        // nothing cached here under that name.
+        continue;
+      }
+      try {
+        switch (message.getType()) {
+        case PUT:
+          cache.put(message.getKey(), message.getPayload());
+          break;
+        case REMOVE:
+          cache.remove(message.getKey());
+          break;
+        case REMOVE_CHILDREN:
+          cache.removeChildren(message.getKey());
+          break;
+        case CLEAR:
+          cache.clear();
+          break;
+        }
+      } catch (RuntimeException e) {
+        dropped.incrementAndGet();
+        LOG.warn("Failed to apply cache message " + message + " "
+            + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Send anything pending and disconnect from the transport.
+   */
+  public void stop() {
+    timer.cancel();
+    flush();
+    transport.close();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.memory.CacheBroadcasterMBean#getMessagesSent()
+   */
+  public long getMessagesSent() {
+    return sent.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.memory.CacheBroadcasterMBean#getMessagesReceived()
+   */
+  public long getMessagesReceived() {
+    return received.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.memory.CacheBroadcasterMBean#getMessagesCoalesced()
+   */
+  public long getMessagesCoalesced() {
+    return coalesced.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.memory.CacheBroadcasterMBean#getMessagesDropped()
+   */
+  public long getMessagesDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.memory.CacheBroadcasterMBean#getBatchesSent()
+   */
+  public long getBatchesSent() {
+    return batches.get();
+  }
+
+  /**
+   * @param root
+   *          a removeChildren key.
+   * @param key
+   * @return true if removeChildren(root) removes key.
+   */
+  private static boolean covers(String root, String key) {
+    if (key.equals(root)) {
+      return true;
+    }
+    if (root.endsWith("/")) {
+      return key.startsWith(root);
+    }
+    return key.startsWith(root) && key.length() > root.length()
+        && key.charAt(root.length()) == '/';
+  }
+
+  /**
+   * The messages pending for one cache. When sent, a clear is applied first,
+   * then the removeChildren roots, then the keys in order, so anything under a
+   * root that was queued before the root is dropped when the root is queued.
+   */
+  private class PendingBatch {
+    private boolean clear;
+    private final List<String> roots = new ArrayList<String>();
+    private final LinkedHashMap<String, CacheMessage> keys = new LinkedHashMap<String, CacheMessage>();
+
+    /**
+     * @param message
+     */
+    void add(CacheMessage message) {
+      String key = message.getKey();
+      switch (message.getType()) {
+      case CLEAR:
+        coalesced.addAndGet(roots.size() + keys.size() + (clear ? 1 : 0));
+        roots.clear();
+        keys.clear();
+        clear = true;
+        break;
+      case REMOVE_CHILDREN:
+        dropUnder(key);
+        if (clear || isCovered(key)) {
+          coalesced.incrementAndGet();
+        } else {
+          for (Iterator<String> i = roots.iterator(); i.hasNext();) {
+            if (covers(key, i.next())) {
+              i.remove();
+              coalesced.incrementAndGet();
+            }
+          }
+          roots.add(key);
+        }
+        break;
+      case REMOVE:
+        if (keys.remove(key) != null) {
+          coalesced.incrementAndGet();
+        }
+        if (clear || isCovered(key)) {
+          coalesced.incrementAndGet();
+        } else {
+          keys.put(key, message);
+        }
+        break;
+      case PUT:
+        if (keys.remove(key) != null) {
+          coalesced.incrementAndGet();
+        }
+        keys.put(key, message);
+        break;
+      }
+      if (roots.size() + keys.size() > maxPending) {
+        // too much pending, the other nodes can afford to lose the whole cache.
+        coalesced.addAndGet(roots.size() + keys.size());
+        roots.clear();
+        keys.clear();
+        clear = true;
+      }
+    }
+
+    /**
+     * @param root
+     */
+    private void dropUnder(String root) {
+      for (Iterator<String> i = keys.keySet().iterator(); i.hasNext();) {
+        if (covers(root, i.next())) {
+          i.remove();
+          coalesced.incrementAndGet();
+        }
+      }
+    }
+
+    /**
+     * @param key
+     * @return true if a pending root covers the key.
+     */
+    private boolean isCovered(String key) {
+      for (String root : roots) {
+        if (covers(root, key)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @param cacheName
+     * @param messages
+     */
+    void drainTo(String cacheName, List<CacheMessage> messages) {
+      if (clear) {
+        messages.add(new CacheMessage(cacheName, Type.CLEAR, null, null));
+      }
+      for (String root : roots) {
+        messages.add(new CacheMessage(cacheName, Type.REMOVE_CHILDREN, root,
+            null));
+      }
+      messages.addAll(keys.values());
+    }
+  }
+}
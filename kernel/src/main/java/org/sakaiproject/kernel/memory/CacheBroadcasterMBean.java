@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.memory;
+
+/**
+ * JMX view of the cluster cache broadcaster.
+ */
+public interface CacheBroadcasterMBean {
+
+  /**
+   * @return the number of messages sent to other nodes.
+   */
+  long getMessagesSent();
+
+  /**
+   * @return the number of messages received from other nodes.
+   */
+  long getMessagesReceived();
+
+  /**
+   * @return the number of messages that were made redundant by a later or
+   *         wider message before they were sent.
+   */
+  long getMessagesCoalesced();
+
+  /**
+   * @return the number of messages that could not be delivered.
+   */
+  long getMessagesDropped();
+
+  /**
+   * @return the number of batches sent.
+   */
+  long getBatchesSent();
+
+  /**
+   * Send any pending messages now.
+   */
+  void flush();
+}
@@ -55,6 +55,13 @@ public class CacheImpl<V> implements Cache<V> {
     }
   }
 
+  /**
+   * @return the underlying ehcache.
+   */
+  protected net.sf.ehcache.Cache getEhcache() {
+    return cache;
+  }
+
   /**
    * {@inheritDoc}
    *
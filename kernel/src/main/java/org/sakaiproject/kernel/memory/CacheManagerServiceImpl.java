@@ -24,19 +24,27 @@ import com.google.inject.name.Named;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.management.ManagementService;
 
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.kernel.api.RequiresStop;
 import org.sakaiproject.kernel.api.memory.Cache;
 import org.sakaiproject.kernel.api.memory.CacheManagerService;
 import org.sakaiproject.kernel.api.memory.CacheScope;
+import org.sakaiproject.kernel.api.memory.CacheTransport;
 import org.sakaiproject.kernel.util.ResourceLoader;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.management.ManagementFactory;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.management.JMException;
 import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  *
@@ -45,14 +53,46 @@ import javax.management.MBeanServer;
 public class CacheManagerServiceImpl implements CacheManagerService,
     RequiresStop {
 
+  private static final Log LOG = LogFactory.getLog(CacheManagerServiceImpl.class);
+  private static final String BROADCASTER_MBEAN = "org.sakaiproject.kernel:type=CacheBroadcaster";
+  private static final long DEFAULT_FLUSH_INTERVAL = 100;
+  private static final int DEFAULT_MAX_PENDING = 10000;
   private CacheManager cacheManager;
-  private Map<String, Cache<?>> caches = new HashMap<String, Cache<?>>();
+  private Map<String, Cache<?>> caches = new ConcurrentHashMap<String, Cache<?>>();
+  private Map<String, Cache<?>> clusterCaches = new ConcurrentHashMap<String, Cache<?>>();
+  private CacheBroadcaster broadcaster;
   private ThreadLocalCacheMap requestCacheMapHolder = new ThreadLocalCacheMap();
   private ThreadLocalCacheMap threadCacheMapHolder = new ThreadLocalCacheMap();
+  /**
+   * The names of instance caches that hold / separated keys and should keep a
+   * path index to make removeChildren cheap.
+   */
+  private Set<String> pathIndexedCaches = new HashSet<String>();
+
+  /**
+   * Create a cache manager that is not connected to any other node.
+   */
+  public CacheManagerServiceImpl(String configPath, String withCacheStatistics)
+      throws IOException {
+    this(configPath, withCacheStatistics, "", new LoopbackCacheTransport(
+        new LoopbackCacheTransport.Group()), String
+        .valueOf(DEFAULT_FLUSH_INTERVAL));
+  }
 
   @Inject
   public CacheManagerServiceImpl(@Named("cache.config") String configPath,
-      @Named("cache.jmx.stats") String withCacheStatistics) throws IOException {
+      @Named("cache.jmx.stats") String withCacheStatistics,
+      @Named("cache.pathindexed") String pathIndexed,
+      CacheTransport cacheTransport,
+      @Named("cache.cluster.flushinterval") String flushInterval)
+      throws IOException {
+    if (pathIndexed != null) {
+      for (String name : StringUtils.split(pathIndexed, ';')) {
+        pathIndexedCaches.add(name.trim());
+      }
+    }
+    broadcaster = new CacheBroadcaster(cacheTransport, Long
+        .parseLong(flushInterval.trim()), DEFAULT_MAX_PENDING);
     create(configPath, withCacheStatistics);
   }
 
@@ -86,6 +126,15 @@ public class CacheManagerServiceImpl implements CacheManagerService,
     MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
     ManagementService.registerMBeans(cacheManager, mBeanServer, true, true,
         true, Boolean.valueOf(withCacheStatistics).booleanValue());
+    try {
+      ObjectName name = new ObjectName(BROADCASTER_MBEAN);
+      if (!mBeanServer.isRegistered(name)) {
+        mBeanServer.registerMBean(broadcaster, name);
+      }
+    } catch (JMException e) {
+      LOG.warn("Failed to register cache broadcaster with JMX "
+          + e.getMessage());
+    }
 
   }
 
@@ -93,6 +142,7 @@ public class CacheManagerServiceImpl implements CacheManagerService,
    * perform a shutdown
    */
   public void stop() {
+    broadcaster.stop();
     cacheManager.shutdown();
     // we really want to notify all threads that have maps
   }
@@ -107,9 +157,9 @@ public class CacheManagerServiceImpl implements CacheManagerService,
     case INSTANCE:
       return getInstanceCache(name);
     case CLUSTERINVALIDATED:
-      return getInstanceCache(name);
+      return getClusterCache(name, false);
     case CLUSTERREPLICATED:
-      return getInstanceCache(name);
+      return getClusterCache(name, true);
     case REQUEST:
       return getRequestCache(name);
     case THREAD:
@@ -125,15 +175,8 @@ public class CacheManagerServiceImpl implements CacheManagerService,
    * @param name
    * @return
    */
-  @SuppressWarnings("unchecked")
   private <V> Cache<V> getThreadCache(String name) {
-    Map<String, Cache<?>> threadCacheMap = threadCacheMapHolder.get();
-    Cache<V> threadCache = (Cache<V>) threadCacheMap.get(name);
-    if (threadCache == null) {
-      threadCache = new MapCacheImpl<V>();
-      threadCacheMap.put(name, threadCache);
-    }
-    return threadCache;
+    return threadCacheMapHolder.get().get(name);
   }
 
   /**
@@ -142,15 +185,37 @@ public class CacheManagerServiceImpl implements CacheManagerService,
    * @param name
    * @return
    */
-  @SuppressWarnings("unchecked")
   private <V> Cache<V> getRequestCache(String name) {
-    Map<String, Cache<?>> requestCacheMap = requestCacheMapHolder.get();
-    Cache<V> requestCache = (Cache<V>) requestCacheMap.get(name);
-    if (requestCache == null) {
-      requestCache = new MapCacheImpl<V>();
-      requestCacheMap.put(name, requestCache);
+    return requestCacheMapHolder.get().get(name);
+  }
+
+  /**
+   * Generate a cache on this instance that sends its changes to the cluster.
+   *
+   * @param name
+   * @param replicate
+   *          true if puts should be replicated, false if only removes should
+   *          be sent.
+   * @return
+   */
+  @SuppressWarnings("unchecked")
+  private <V> Cache<V> getClusterCache(String name, boolean replicate) {
+    if (name == null) {
+      return getInstanceCache(name);
     }
-    return requestCache;
+    Cache<V> c = (Cache<V>) clusterCaches.get(name);
+    if (c == null) {
+      synchronized (clusterCaches) {
+        c = (Cache<V>) clusterCaches.get(name);
+        if (c == null) {
+          Cache<V> local = getInstanceCache(name);
+          broadcaster.register(name, local);
+          c = new ClusterCacheImpl<V>(name, local, broadcaster, replicate);
+          clusterCaches.put(name, c);
+        }
+      }
+    }
+    return c;
   }
 
   /**
@@ -164,13 +229,29 @@ public class CacheManagerServiceImpl implements CacheManagerService,
     } else {
       Cache<V> c = (Cache<V>) caches.get(name);
       if (c == null) {
-        c = new CacheImpl<V>(cacheManager, name);
-        caches.put(name, c);
+        synchronized (caches) {
+          c = (Cache<V>) caches.get(name);
+          if (c == null) {
+            if (pathIndexedCaches.contains(name)) {
+              c = new PathCacheImpl<V>(cacheManager, name);
+            } else {
+              c = new CacheImpl<V>(cacheManager, name);
+            }
+            caches.put(name, c);
+          }
+        }
       }
       return c;
     }
   }
 
+  /**
+   * @return the broadcaster that sends cluster cache changes.
+   */
+  public CacheBroadcasterMBean getCacheBroadcaster() {
+    return broadcaster;
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -191,10 +272,7 @@ public class CacheManagerServiceImpl implements CacheManagerService,
    *
    */
   private void unbindThread() {
-    Map<String, Cache<?>> threadCache = threadCacheMapHolder.get();
-    for (Cache<?> cache : threadCache.values()) {
-      cache.clear();
-    }
+    threadCacheMapHolder.get().clear();
     threadCacheMapHolder.remove();
   }
 
@@ -202,11 +280,8 @@ public class CacheManagerServiceImpl implements CacheManagerService,
    *
    */
   private void unbindRequest() {
-    Map<String, Cache<?>> requestCache = requestCacheMapHolder.get();
-    for (Cache<?> cache : requestCache.values()) {
-      cache.clear();
-    }
-    requestCacheMapHolder.remove();
+    // the caches stay bound to the thread, empty, ready for the next request.
+    requestCacheMapHolder.get().clear();
   }
 
 }
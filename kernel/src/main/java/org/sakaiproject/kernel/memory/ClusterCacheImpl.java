@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.memory;
+
+import org.sakaiproject.kernel.api.memory.Cache;
+
+/**
+ * A cache that is held on the local node, and sends its changes to the other
+ * nodes in the cluster. Invalidated caches are filled from the source on each
+ * node, so only removes are sent and the other nodes drop their copies.
+ * Replicated caches also send puts with the payload.
+ */
+public class ClusterCacheImpl<V> implements Cache<V> {
+
+  private final String name;
+  private final Cache<V> local;
+  private final CacheBroadcaster broadcaster;
+  private final boolean replicate;
+
+  /**
+   * @param name
+   *          the name of the cache, the same on all nodes.
+   * @param local
+   *          the cache on this node.
+   * @param broadcaster
+   *          the broadcaster for the cluster.
+   * @param replicate
+   *          true if puts should carry the payload to the other nodes.
+   */
+  public ClusterCacheImpl(String name, Cache<V> local,
+      CacheBroadcaster broadcaster, boolean replicate) {
+    this.name = name;
+    this.local = local;
+    this.broadcaster = broadcaster;
+    this.replicate = replicate;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.memory.Cache#clear()
+   */
+  public void clear() {
+    local.clear();
+    broadcaster.clear(name);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.memory.Cache#containsKey(java.lang.String)
+   */
+  public boolean containsKey(String key) {
+    return local.containsKey(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.memory.Cache#get(java.lang.String)
+   */
+  public V get(String key) {
+    return local.get(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.memory.Cache#put(java.lang.String,
+   *      java.lang.Object)
+   */
+  public V put(String key, V payload) {
+    V previous = local.put(key, payload);
+    if (replicate) {
+      broadcaster.put(name, key, payload);
+    }
+    return previous;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.memory.Cache#remove(java.lang.String)
+   */
+  public void remove(String key) {
+    local.remove(key);
+    broadcaster.remove(name, key);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.memory.Cache#removeChildren(java.lang.String)
+   */
+  public void removeChildren(String key) {
+    local.removeChildren(key);
+    broadcaster.removeChildren(name, key);
+  }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.memory;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.kernel.KernelConstants;
+import org.sakaiproject.kernel.api.memory.CacheMessage;
+import org.sakaiproject.kernel.api.memory.CacheTransport;
+import org.sakaiproject.kernel.api.memory.CacheTransportListener;
+import org.sakaiproject.kernel.messaging.JmsProducerPool;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+/**
+ * A cache transport that publishes batches on a JMS topic of the broker at
+ * jms.brokerurl, every node subscribes to the topic and ignores the batches it
+ * sent itself. Batches are sent through the shared producer pool, and received
+ * on a connection of their own. With an embedded vm:// broker the topic does
+ * not leave the JVM, so each node of a cluster must be configured with a
+ * broker that is shared with, or networked to, the other nodes.
+ */
+public class JmsCacheTransport implements CacheTransport {
+
+  private static final Log LOG = LogFactory.getLog(JmsCacheTransport.class);
+  /**
+   * The name of the topic cache messages are sent on.
+   */
+  public static final String CACHE_TOPIC = "cache.cluster.topic";
+  private static final String JMS_TYPE = "kernel.cache";
+
+  private final ConnectionFactory connectionFactory;
+  private final JmsProducerPool producerPool;
+  private final String topicName;
+  private final String nodeId = UUID.randomUUID().toString();
+  private volatile CacheTransportListener listener;
+  private volatile boolean closed;
+  private Connection connection;
+
+  /**
+   * @param connectionFactory
+   *          the factory for the connection that batches are received on.
+   * @param producerPool
+   *          the pool that batches are sent through.
+   * @param topicName
+   *          the topic to send and receive on.
+   * @param brokerUrl
+   *          the url of the broker, used to warn when it is local to the JVM.
+   */
+  @Inject
+  public JmsCacheTransport(ConnectionFactory connectionFactory,
+      JmsProducerPool producerPool, @Named(CACHE_TOPIC) String topicName,
+      @Named(KernelConstants.JMS_BROKER_URL) String brokerUrl) {
+    this.connectionFactory = connectionFactory;
+    this.producerPool = producerPool;
+    this.topicName = topicName;
+    if (brokerUrl != null && brokerUrl.startsWith("vm:")) {
+      LOG.warn("Cluster cache messages are sent through the embedded broker "
+          + brokerUrl + ", they will not reach other nodes. Configure "
+          + KernelConstants.JMS_BROKER_URL
+          + " with a shared broker when running more than one node.");
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.memory.CacheTransport#bind(org.sakaiproject.kernel.api.memory.CacheTransportListener)
+   */
+  public void bind(CacheTransportListener listener) {
+    this.listener = listener;
+    try {
+      connect();
+    } catch (JMSException e) {
+      LOG.error("Unable to subscribe to cache topic " + topicName
+          + ", changes made on other nodes will not be seen here "
+          + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.memory.CacheTransport#send(java.util.List)
+   */
+  public void send(List<CacheMessage> messages) throws IOException {
+    if (closed) {
+      throw new IOException("Cache transport is closed");
+    }
+    try {
+      producerPool.send(topicName, new Batch(nodeId, messages), JMS_TYPE);
+    } catch (JMSException e) {
+      IOException ioe = new IOException("Failed to send cache messages "
+          + e.getMessage());
+      ioe.initCause(e);
+      throw ioe;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.memory.CacheTransport#close()
+   */
+  public void close() {
+    closed = true;
+    listener = null;
+    disconnect(null);
+  }
+
+  /**
+   * Open the receiving connection and subscribe to the topic, replacing the
+   * connection if it fails.
+   *
+   * @throws JMSException
+   */
+  private synchronized void connect() throws JMSException {
+    if (closed || connection != null) {
+      return;
+    }
+    final Connection c = connectionFactory.createConnection();
+    try {
+      c.setExceptionListener(new ExceptionListener() {
+        public void onException(JMSException e) {
+          LOG.warn("Cache topic connection failed, reconnecting "
+              + e.getMessage());
+          disconnect(c);
+          try {
+            connect();
+          } catch (JMSException ex) {
+            LOG.error("Unable to resubscribe to cache topic " + topicName
+                + ", changes made on other nodes will not be seen here "
+                + ex.getMessage(), ex);
+          }
+        }
+      });
+      Session session = c.createSession(false, Session.AUTO_ACKNOWLEDGE);
+      Topic topic = session.createTopic(topicName);
+      MessageConsumer consumer = session.createConsumer(topic);
+      consumer.setMessageListener(new MessageListener() {
+        public void onMessage(Message message) {
+          receive(message);
+        }
+      });
+      c.start();
+    } catch (JMSException e) {
+      close(c);
+      throw e;
+    }
+    connection = c;
+  }
+
+  /**
+   * Close the receiving connection.
+   *
+   * @param c
+   *          the connection to close if it is the current one, null for any.
+   */
+  private void disconnect(Connection c) {
+    Connection toClose = null;
+    synchronized (this) {
+      if (c == null || connection == c) {
+        toClose = connection;
+        connection = null;
+      }
+    }
+    close(toClose);
+  }
+
+  /**
+   * @param c
+   *          the connection to close, may be null.
+   */
+  private void close(Connection c) {
+    if (c != null) {
+      try {
+        c.close();
+      } catch (JMSException e) {
+        LOG.debug("Failed to close cache topic connection " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Pass a batch from another node to the listener.
+   *
+   * @param message
+   */
+  private void receive(Message message) {
+    CacheTransportListener l = listener;
+    if (l == null || !(message instanceof ObjectMessage)) {
+      return;
+    }
+    try {
+      Object o = ((ObjectMessage) message).getObject();
+      if (o instanceof Batch) {
+        Batch batch = (Batch) o;
+        if (!nodeId.equals(batch.nodeId)) {
+          l.receive(batch.messages);
+        }
+      }
+    } catch (JMSException e) {
+      LOG.warn("Failed to read cache messages " + e.getMessage());
+    }
+  }
+
+  /**
+   * The messages of a batch, and the node that sent them.
+   */
+  private static class Batch implements Serializable {
+    /**
+     *
+     */
+    private static final long serialVersionUID = -2867437591201264095L;
+    private final String nodeId;
+    private final ArrayList<CacheMessage> messages;
+
+    /**
+     * @param nodeId
+     * @param messages
+     */
+    Batch(String nodeId, List<CacheMessage> messages) {
+      this.nodeId = nodeId;
+      this.messages = new ArrayList<CacheMessage>(messages);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.memory;
+
+import com.google.inject.Inject;
+
+import org.sakaiproject.kernel.api.memory.CacheMessage;
+import org.sakaiproject.kernel.api.memory.CacheTransport;
+import org.sakaiproject.kernel.api.memory.CacheTransportListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A cache transport that connects nodes inside a single JVM, used when there
+ * is no cluster and in tests. Transports created with the same group can see
+ * each other, the default constructor joins the JVM wide group.
+ */
+public class LoopbackCacheTransport implements CacheTransport {
+
+  /**
+   * A set of transports that deliver to each other.
+   */
+  public static class Group {
+    private final List<LoopbackCacheTransport> members = new CopyOnWriteArrayList<LoopbackCacheTransport>();
+  }
+
+  private static final Group DEFAULT_GROUP = new Group();
+
+  private final Group group;
+  private volatile CacheTransportListener listener;
+
+  /**
+   * Join the JVM wide group.
+   */
+  @Inject
+  public LoopbackCacheTransport() {
+    this(DEFAULT_GROUP);
+  }
+
+  /**
+   * @param group
+   *          the group to join.
+   */
+  public LoopbackCacheTransport(Group group) {
+    this.group = group;
+    group.members.add(this);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.memory.CacheTransport#bind(org.sakaiproject.kernel.api.memory.CacheTransportListener)
+   */
+  public void bind(CacheTransportListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.memory.CacheTransport#send(java.util.List)
+   */
+  public void send(List<CacheMessage> messages) {
+    List<CacheMessage> batch = Collections
+        .unmodifiableList(new ArrayList<CacheMessage>(messages));
+    for (LoopbackCacheTransport member : group.members) {
+      if (member != this && member.listener != null) {
+        member.listener.receive(batch);
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.memory.CacheTransport#close()
+   */
+  public void close() {
+    group.members.remove(this);
+    listener = null;
+  }
+
+}
@@ -21,7 +21,7 @@ import org.sakaiproject.kernel.api.memory.Cache;
 import org.sakaiproject.kernel.api.memory.ThreadBound;
 
 import java.util.HashMap;
-import java.util.Set;
+import java.util.Iterator;
 
 /**
  *
@@ -86,10 +86,9 @@ public class MapCacheImpl<V> extends HashMap<String, V>implements Cache<V>  {
     if ( !key.endsWith("/") ) {
       key = key + "/";
     }
-    Set<String> keys = super.keySet();
-    for ( String k : keys) {
-      if ( (k).startsWith(key) ) {
-        super.remove(k);
+    for (Iterator<String> keys = super.keySet().iterator(); keys.hasNext();) {
+      if (keys.next().startsWith(key)) {
+        keys.remove();
       }
     }
   }
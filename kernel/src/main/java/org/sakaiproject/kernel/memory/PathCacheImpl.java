@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.memory;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
+
+import java.util.List;
+
+/**
+ * A cache of / separated keys that maintains a sorted index of its keys, so
+ * that removeChildren only touches the keys in the subtree rather than
+ * scanning the whole cache. The index follows the ehcache through a cache
+ * event listener, so puts, removes, expiry and eviction are all reflected.
+ */
+public class PathCacheImpl<V> extends CacheImpl<V> {
+
+  private final PathIndex index = new PathIndex();
+
+  /**
+   * @param cacheManager
+   * @param name
+   */
+  public PathCacheImpl(CacheManager cacheManager, String name) {
+    super(cacheManager, name);
+    net.sf.ehcache.Cache cache = getEhcache();
+    for (Object k : cache.getKeys()) {
+      if (k instanceof String) {
+        index.add((String) k);
+      }
+    }
+    cache.getCacheEventNotificationService().registerListener(
+        new PathIndexListener(index));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.memory.CacheImpl#removeChildren(java.lang.String)
+   */
+  @Override
+  public void removeChildren(String key) {
+    net.sf.ehcache.Cache cache = getEhcache();
+    // the index lock is released before the ehcache is touched, the listener
+    // will see removes for keys that are no longer indexed, which is harmless.
+    List<String> keys = index.removeSubtree(key);
+    for (String k : keys) {
+      cache.remove(k);
+    }
+  }
+
+  /**
+   * @return the number of keys in the path index.
+   */
+  public int getIndexSize() {
+    return index.size();
+  }
+
+  /**
+   * Keeps the path index in step with the ehcache.
+   */
+  private static class PathIndexListener implements CacheEventListener {
+
+    private final PathIndex index;
+
+    /**
+     * @param index
+     */
+    PathIndexListener(PathIndex index) {
+      this.index = index;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see net.sf.ehcache.event.CacheEventListener#notifyElementPut(net.sf.ehcache.Ehcache,
+     *      net.sf.ehcache.Element)
+     */
+    public void notifyElementPut(Ehcache cache, Element element)
+        throws CacheException {
+      Object key = element.getObjectKey();
+      if (key instanceof String) {
+        index.add((String) key);
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see net.sf.ehcache.event.CacheEventListener#notifyElementUpdated(net.sf.ehcache.Ehcache,
+     *      net.sf.ehcache.Element)
+     */
+    public void notifyElementUpdated(Ehcache cache, Element element)
+        throws CacheException {
+      notifyElementPut(cache, element);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see net.sf.ehcache.event.CacheEventListener#notifyElementRemoved(net.sf.ehcache.Ehcache,
+     *      net.sf.ehcache.Element)
+     */
+    public void notifyElementRemoved(Ehcache cache, Element element)
+        throws CacheException {
+      Object key = element.getObjectKey();
+      if (key instanceof String) {
+        index.remove((String) key);
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see net.sf.ehcache.event.CacheEventListener#notifyElementExpired(net.sf.ehcache.Ehcache,
+     *      net.sf.ehcache.Element)
+     */
+    public void notifyElementExpired(Ehcache cache, Element element) {
+      notifyElementRemoved(cache, element);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see net.sf.ehcache.event.CacheEventListener#notifyElementEvicted(net.sf.ehcache.Ehcache,
+     *      net.sf.ehcache.Element)
+     */
+    public void notifyElementEvicted(Ehcache cache, Element element) {
+      notifyElementRemoved(cache, element);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see net.sf.ehcache.event.CacheEventListener#notifyRemoveAll(net.sf.ehcache.Ehcache)
+     */
+    public void notifyRemoveAll(Ehcache cache) {
+      index.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see net.sf.ehcache.event.CacheEventListener#dispose()
+     */
+    public void dispose() {
+      index.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#clone()
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+      throw new CloneNotSupportedException(
+          "The path index listener is bound to a single cache");
+    }
+  }
+
+}
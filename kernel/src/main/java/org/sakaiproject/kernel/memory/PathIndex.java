@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * A sorted index of / separated keys. Because all the keys below a path share
+ * the path as a prefix, they form a contiguous range of the sorted set, so a
+ * subtree can be located in log(n) and removed in time proportional to the
+ * size of the subtree, rather than scanning every key.
+ */
+public class PathIndex {
+
+  private final TreeSet<String> keys = new TreeSet<String>();
+
+  /**
+   * @param key
+   *          the key to add to the index.
+   */
+  public synchronized void add(String key) {
+    if (key != null) {
+      keys.add(key);
+    }
+  }
+
+  /**
+   * @param key
+   *          the key to remove from the index.
+   */
+  public synchronized void remove(String key) {
+    if (key != null) {
+      keys.remove(key);
+    }
+  }
+
+  /**
+   * Remove all keys from the index.
+   */
+  public synchronized void clear() {
+    keys.clear();
+  }
+
+  /**
+   * @return the number of keys in the index.
+   */
+  public synchronized int size() {
+    return keys.size();
+  }
+
+  /**
+   * @param key
+   * @return true if the key is in the index.
+   */
+  public synchronized boolean contains(String key) {
+    return keys.contains(key);
+  }
+
+  /**
+   * Remove the key, and all the keys below the key from the index.
+   *
+   * @param key
+   *          the root of the subtree.
+   * @return a list of the keys that were removed, including the key itself if
+   *         it was present.
+   */
+  public synchronized List<String> removeSubtree(String key) {
+    List<String> removed = new ArrayList<String>();
+    if (key == null) {
+      return removed;
+    }
+    if (keys.remove(key)) {
+      removed.add(key);
+    }
+    String root = key;
+    if (root.endsWith("/")) {
+      root = root.substring(0, root.length() - 1);
+    }
+    // all keys starting root/ lie between root/ and root0, since '0' follows
+    // '/'
+    SortedSet<String> subtree = keys.subSet(root + "/", root + "0");
+    removed.addAll(subtree);
+    subtree.clear();
+    return removed;
+  }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.memory;
+
+import org.sakaiproject.kernel.api.memory.Cache;
+
+/**
+ * The caches bound to a thread for a scope. The caches looked up on every
+ * request have fixed slots, found by identity since the callers use constants,
+ * the rest are held in a small open addressed table. Unbinding clears the
+ * caches but keeps them, so a thread serving many requests reuses the same
+ * caches and allocates nothing for them after the first request.
+ */
+public class ScopedCacheMap {
+
+  /**
+   * The names of the caches used on most requests, by the session manager,
+   * the authz resolver, the jcr service and the lock manager.
+   */
+  private static final String[] WELL_KNOWN = new String[] { "request",
+      "authz", "jcr.rc", "lockmanager.requestmap" };
+  private static final String DEFAULT_NAME = "default";
+  private static final int INITIAL_CAPACITY = 8;
+
+  private final MapCacheImpl<?>[] slots = new MapCacheImpl<?>[WELL_KNOWN.length];
+  private String[] names = new String[INITIAL_CAPACITY];
+  private MapCacheImpl<?>[] caches = new MapCacheImpl<?>[INITIAL_CAPACITY];
+  private int size;
+
+  /**
+   * @param name
+   *          the name of the cache.
+   * @return the cache bound to this map with the name, created if necessary.
+   */
+  @SuppressWarnings("unchecked")
+  public <V> Cache<V> get(String name) {
+    if (name == null) {
+      name = DEFAULT_NAME;
+    }
+    for (int i = 0; i < WELL_KNOWN.length; i++) {
+      if (WELL_KNOWN[i] == name) {
+        return (Cache<V>) getSlot(i);
+      }
+    }
+    int i = indexOf(name, names);
+    if (names[i] != null) {
+      return (Cache<V>) caches[i];
+    }
+    for (int j = 0; j < WELL_KNOWN.length; j++) {
+      if (WELL_KNOWN[j].equals(name)) {
+        return (Cache<V>) getSlot(j);
+      }
+    }
+    if ((size + 1) * 2 > names.length) {
+      grow();
+      i = indexOf(name, names);
+    }
+    MapCacheImpl<V> cache = new MapCacheImpl<V>();
+    names[i] = name;
+    caches[i] = cache;
+    size++;
+    return cache;
+  }
+
+  /**
+   * Clear all the caches, keeping them for reuse.
+   */
+  public void clear() {
+    for (MapCacheImpl<?> cache : slots) {
+      if (cache != null && !cache.isEmpty()) {
+        cache.clear();
+      }
+    }
+    for (MapCacheImpl<?> cache : caches) {
+      if (cache != null && !cache.isEmpty()) {
+        cache.clear();
+      }
+    }
+  }
+
+  /**
+   * @param i
+   * @return
+   */
+  private MapCacheImpl<?> getSlot(int i) {
+    MapCacheImpl<?> cache = slots[i];
+    if (cache == null) {
+      cache = new MapCacheImpl<Object>();
+      slots[i] = cache;
+    }
+    return cache;
+  }
+
+  /**
+   * @param name
+   * @param table
+   * @return the index of the name in the table, or the empty index where it
+   *         should go.
+   */
+  private static int indexOf(String name, String[] table) {
+    int mask = table.length - 1;
+    int h = name.hashCode();
+    int i = (h ^ (h >>> 16)) & mask;
+    while (table[i] != null && !(table[i] == name || table[i].equals(name))) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  /**
+   * Double the table.
+   */
+  private void grow() {
+    String[] oldNames = names;
+    MapCacheImpl<?>[] oldCaches = caches;
+    names = new String[oldNames.length * 2];
+    caches = new MapCacheImpl<?>[oldNames.length * 2];
+    for (int j = 0; j < oldNames.length; j++) {
+      if (oldNames[j] != null) {
+        int i = indexOf(oldNames[j], names);
+        names[i] = oldNames[j];
+        caches[i] = oldCaches[j];
+      }
+    }
+  }
+}
@@ -17,25 +17,20 @@
  */
 package org.sakaiproject.kernel.memory;
 
-import org.sakaiproject.kernel.api.memory.Cache;
-
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Represents a Cache stored on the thread, used in the request thread and in other threads.
  * When used in Threads there is a potential for memory leaks as perm space is not cleaned up.
  * This will be caused by references to classloaders being in the Map, and keeping the classloaders
  * open.
  */
-public class ThreadLocalCacheMap extends ThreadLocal<Map<String,Cache<?>>> {
+public class ThreadLocalCacheMap extends ThreadLocal<ScopedCacheMap> {
   /**
    * {@inheritDoc}
    * @see java.lang.ThreadLocal#initialValue()
    */
   @Override
-  protected Map<String, Cache<?>> initialValue() {
-    return new HashMap<String, Cache<?>>();
+  protected ScopedCacheMap initialValue() {
+    return new ScopedCacheMap();
   }
 
 
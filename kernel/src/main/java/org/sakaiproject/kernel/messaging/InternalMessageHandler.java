@@ -19,107 +19,378 @@
 package org.sakaiproject.kernel.messaging;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.kernel.api.Registry;
 import org.sakaiproject.kernel.api.RegistryService;
+import org.sakaiproject.kernel.api.RequiresStop;
+import org.sakaiproject.kernel.api.ShutdownService;
 import org.sakaiproject.kernel.api.jcr.JCRConstants;
 import org.sakaiproject.kernel.api.jcr.JCRService;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryServiceException;
 import org.sakaiproject.kernel.api.locking.LockTimeoutException;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.memory.CacheScope;
 import org.sakaiproject.kernel.api.messaging.Message;
 import org.sakaiproject.kernel.api.messaging.MessageHandler;
 import org.sakaiproject.kernel.api.user.UserFactoryService;
 import org.sakaiproject.kernel.util.JcrUtils;
 
-import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.Node;
 import javax.jcr.Property;
 import javax.jcr.RepositoryException;
+import javax.jcr.Value;
 import javax.jcr.Workspace;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
-public class InternalMessageHandler implements MessageHandler {
+/**
+ * Delivers internal messages from the outbox of the sender to the inbox of each
+ * recipient. Delivery runs on a small pool of threads rather than the
+ * observation thread that saw the message. The body is read once and the same
+ * value is written to every inbox, and the inbox copies are saved in batches so
+ * that a message to a large site is not one very large transaction. When the
+ * queue is full, the observation thread waits for space.
+ */
+@Singleton
+public class InternalMessageHandler implements MessageHandler, RequiresStop,
+    InternalMessageHandlerMBean {
 
   private static final Log log = LogFactory
       .getLog(InternalMessageHandler.class);
   private static final boolean DEBUG = log.isDebugEnabled();
   private static final String key = Message.Type.INTERNAL.toString();
   private static final int priority = 0;
+  private static final String MBEAN_NAME = "org.sakaiproject.kernel:type=InternalMessaging";
+  /**
+   * The number of delivery threads.
+   */
+  public static final String THREADS = "messaging.internal.threads";
+  /**
+   * The number of messages that may wait for a delivery thread.
+   */
+  public static final String QUEUE_SIZE = "messaging.internal.queue";
+  /**
+   * The number of inbox copies saved together.
+   */
+  public static final String BATCH_SIZE = "messaging.internal.batch";
+  /**
+   * The number of times delivery of a message is attempted.
+   */
+  public static final String ATTEMPTS = "messaging.internal.attempts";
+  private static final long RETRY_DELAY = 500L;
 
   private final JCRService jcr;
   private final UserFactoryService userFactory;
   private final JCRNodeFactoryService nodeFactory;
+  private final CacheManagerService cacheManager;
+  private final ThreadPoolExecutor executor;
+  private final int batchSize;
+  private final int attempts;
+
+  private final AtomicLong delivered = new AtomicLong();
+  private final AtomicLong recipients = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong deliveryTime = new AtomicLong();
+  private final AtomicLong maxDeliveryTime = new AtomicLong();
 
   @Inject
   public InternalMessageHandler(RegistryService registryService,
       JCRService jcr, UserFactoryService userFactory,
-      JCRNodeFactoryService nodeFactory) {
+      JCRNodeFactoryService nodeFactory, CacheManagerService cacheManager,
+      ShutdownService shutdownService, @Named(THREADS) int threads,
+      @Named(QUEUE_SIZE) int queueSize, @Named(BATCH_SIZE) int batchSize,
+      @Named(ATTEMPTS) int attempts) {
     Registry<String, MessageHandler> registry = registryService
         .getRegistry(MessageHandler.REGISTRY);
     registry.add(this);
     this.jcr = jcr;
     this.userFactory = userFactory;
     this.nodeFactory = nodeFactory;
+    this.cacheManager = cacheManager;
+    this.batchSize = Math.max(1, batchSize);
+    this.attempts = Math.max(1, attempts);
+    this.executor = new ThreadPoolExecutor(threads, threads, 60L,
+        TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+        new DeliveryThreadFactory(), new WaitForSpace());
+    shutdownService.register(this);
+
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      if (!mBeanServer.isRegistered(name)) {
+        mBeanServer.registerMBean(this, name);
+      }
+    } catch (JMException e) {
+      log.warn("Failed to register internal messaging with JMX "
+          + e.getMessage());
+    }
   }
 
+  /**
+   * Queue the message for delivery, the node is read again by the delivery
+   * thread.
+   *
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.messaging.MessageHandler#handle(java.lang.String,
+   *      java.lang.String, java.lang.String, javax.jcr.Node)
+   */
   public void handle(String userID, String filePath, String fileName, Node node) {
     try {
-      Property prop = node.getProperty(JCRConstants.JCR_MESSAGE_RCPTS);
-      String rcptsVal = prop.getString();
-      String[] rcpts = StringUtils.split(rcptsVal, ",");
+      executor.execute(new Delivery(filePath, fileName));
+    } catch (RejectedExecutionException e) {
+      log.error("Message " + filePath
+          + " was not queued for delivery, it remains in the outbox: "
+          + e.getMessage());
+    }
+  }
+
+  /**
+   * Deliver a message with the session bound to the current thread, saving
+   * the inbox copies in batches. Recipients in batches that have been saved
+   * are not delivered to again when the delivery is retried. The move to the
+   * sent folder is saved by the workspace as it is made, so if labelling the
+   * moved message fails, a retry finds the outbox empty and only labels it.
+   *
+   * @param delivery
+   * @return true if the message was delivered, false if it was not in the
+   *         outbox.
+   * @throws RepositoryException
+   * @throws JCRNodeFactoryServiceException
+   * @throws LockTimeoutException
+   */
+  private boolean deliver(Delivery delivery) throws RepositoryException,
+      JCRNodeFactoryServiceException, LockTimeoutException {
+    String filePath = delivery.filePath;
+    String fileName = delivery.fileName;
+    Node node = nodeFactory.getNode(filePath);
+    if (node == null) {
+      if (delivery.sentMsgPath != null) {
+        // an earlier attempt moved the message but failed to label it.
+        labelSent(delivery.sentMsgPath);
+        return true;
+      }
+      log.warn("Message " + filePath + " is no longer in the outbox");
+      return false;
+    }
+    Property prop = node.getProperty(JCRConstants.JCR_MESSAGE_RCPTS);
+    String rcptsVal = prop.getString();
+    String[] rcpts = StringUtils.split(rcptsVal, ",");
 
-      if (rcpts != null) {
-        for (String rcpt : rcpts) {
+    if (rcpts != null) {
+      // read the body once, every inbox copy is given the same value.
+      Node content = node.getNode(JCRConstants.JCR_CONTENT);
+      Value body = content.getProperty(JCRConstants.JCR_DATA).getValue();
+      String mimeType = null;
+      if (content.hasProperty(JCRConstants.JCR_MIMETYPE)) {
+        mimeType = content.getProperty(JCRConstants.JCR_MIMETYPE).getString();
+      }
+      String hash = null;
+      if (content.hasProperty(JCRConstants.JCR_CONTENT_HASH)) {
+        hash = content.getProperty(JCRConstants.JCR_CONTENT_HASH).getString();
+      }
+      while (delivery.delivered < rcpts.length) {
+        int end = Math.min(delivery.delivered + batchSize, rcpts.length);
+        for (int i = delivery.delivered; i < end; i++) {
           /** set message path for the user. */
-          String msgPath = userFactory.getNewMessagePath(rcpt) + "/" + fileName;
+          String msgPath = userFactory.getNewMessagePath(rcpts[i]) + "/"
+              + fileName;
           if (DEBUG) {
             log.debug("Writing " + filePath + " to " + msgPath);
           }
-          InputStream in = nodeFactory.getInputStream(filePath);
-          Node n = nodeFactory.setInputStream(msgPath, in, "UTF-8");
-          JcrUtils.addNodeLabel(jcr, n, "inbox");
+          Node n = nodeFactory.createFile(msgPath, mimeType);
+          if (n == null) {
+            throw new JCRNodeFactoryServiceException("Create File failed for path "
+                + msgPath);
+          }
+          Node msgContent = n.getNode(JCRConstants.JCR_CONTENT);
+          msgContent.setProperty(JCRConstants.JCR_DATA, body);
+          if (hash != null) {
+            msgContent.setProperty(JCRConstants.JCR_CONTENT_HASH, hash);
+          }
+          if (n.isNew()) {
+            // not visible to anyone else until saved, so there is nothing to
+            // lock against.
+            n.setProperty(JCRConstants.JCR_LABELS, new String[] { "inbox" });
+          } else {
+            JcrUtils.addNodeLabel(jcr, n, "inbox");
+          }
           /** TODO remove any properties that are associated to the sender */
         }
+        jcr.save();
+        // release the locks taken on the parents of the new messages.
+        jcr.clearLocks();
+        recipients.addAndGet(end - delivery.delivered);
+        delivery.delivered = end;
       }
-      // move the original node to the common message store for the sender and
-      // label it as "sent"
-      // create the parent if it doesn't exist.
-      Property fromProp = node.getProperty(JCRConstants.JCR_MESSAGE_FROM);
-      String from = fromProp.getString();
-      String sentPath = userFactory.getNewMessagePath(from);
-      Node targetNode = null;
+    }
+    // move the original node to the common message store for the sender and
+    // label it as "sent"
+    // create the parent if it doesn't exist.
+    Property fromProp = node.getProperty(JCRConstants.JCR_MESSAGE_FROM);
+    String from = fromProp.getString();
+    String sentPath = userFactory.getNewMessagePath(from);
+    Node targetNode = null;
+    try {
+      targetNode = nodeFactory.getNode(sentPath);
+    } catch (JCRNodeFactoryServiceException e) {
+      // will handle null node after this
+    } catch (RepositoryException e) {
+      // will handle null node after this
+    }
+    if (targetNode == null) {
+      targetNode = nodeFactory.createFolder(sentPath);
+      // the node *must* be saved to make it available to the move.
+      // call to the parent-parent so that "messages" is used as the saving
+      // node rather than the parent (year) as it may not exist yet.
+      targetNode.getParent().getParent().save();
+    }
+    String sentMsgPath = sentPath + "/" + fileName;
+    if (DEBUG) {
+      log.debug("Moving message " + filePath + " to " + sentMsgPath);
+    }
+    Workspace workspace = jcr.getSession().getWorkspace();
+    workspace.move(filePath, sentMsgPath);
+    delivery.sentMsgPath = sentMsgPath;
+    labelSent(sentMsgPath);
+    return true;
+  }
+
+  /**
+   * Label a message that has been moved to the sent folder as "sent".
+   *
+   * @param sentMsgPath
+   * @throws RepositoryException
+   * @throws JCRNodeFactoryServiceException
+   * @throws LockTimeoutException
+   */
+  private void labelSent(String sentMsgPath) throws RepositoryException,
+      JCRNodeFactoryServiceException, LockTimeoutException {
+    Node sent = nodeFactory.getNode(sentMsgPath);
+    if (sent == null) {
+      throw new JCRNodeFactoryServiceException("Sent message not found at "
+          + sentMsgPath);
+    }
+    JcrUtils.addNodeLabel(jcr, sent, "sent");
+    jcr.save();
+    jcr.clearLocks();
+  }
+
+  /**
+   * Deliver a message on the current thread, with a system session, retrying
+   * failed attempts.
+   *
+   * @param delivery
+   */
+  private void run(Delivery delivery) {
+    try {
+      jcr.loginSystem();
+      for (int attempt = 1;; attempt++) {
+        try {
+          if (!deliver(delivery)) {
+            return;
+          }
+          long t = System.currentTimeMillis() - delivery.queued;
+          delivered.incrementAndGet();
+          deliveryTime.addAndGet(t);
+          long max = maxDeliveryTime.get();
+          while (t > max && !maxDeliveryTime.compareAndSet(max, t)) {
+            max = maxDeliveryTime.get();
+          }
+          if (DEBUG) {
+            log.debug("Delivered " + delivery.filePath + " to "
+                + delivery.delivered + " recipients in " + t + " ms");
+          }
+          return;
+        } catch (Exception e) {
+          discardChanges();
+          if (attempt >= attempts) {
+            failed.incrementAndGet();
+            log.error("Failed to deliver " + delivery.filePath + " after "
+                + attempt + " attempts, " + delivery.delivered
+                + " recipients were delivered to: " + e.getMessage(), e);
+            return;
+          }
+          retries.incrementAndGet();
+          log.warn("Failed to deliver " + delivery.filePath + ", retrying: "
+              + e.getMessage());
+          Thread.sleep(RETRY_DELAY * attempt);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failed.incrementAndGet();
+      log.error("Interrupted delivering " + delivery.filePath
+          + ", it remains in the outbox");
+    } catch (RepositoryException e) {
+      failed.incrementAndGet();
+      log.error("Cant Login to JCR to deliver " + delivery.filePath + " "
+          + e.getMessage(), e);
+    } finally {
       try {
-        targetNode = nodeFactory.getNode(sentPath);
-      } catch (JCRNodeFactoryServiceException e) {
-        // will handle null node after this
+        jcr.logout();
       } catch (RepositoryException e) {
-        // will handle null node after this
+        log.warn("Cant Logout of JCR " + e.getMessage(), e);
       }
-      if (targetNode == null) {
-        targetNode = nodeFactory.createFolder(sentPath);
-        // the node *must* be saved to make it available to the move.
-        // call to the parent-parent so that "messages" is used as the saving
-        // node rather than the parent (year) as it may not exist yet.
-        targetNode.getParent().getParent().save();
+      try {
+        cacheManager.unbind(CacheScope.REQUEST);
+      } catch (Exception ex) {
+        log.warn("Exception unbinding cache manager from request.");
       }
-      String sentMsgPath = sentPath + "/" + fileName;
-      if (DEBUG) {
-        log.debug("Moving message " + filePath + " to " + sentMsgPath);
+      try {
+        cacheManager.unbind(CacheScope.THREAD);
+      } catch (Exception ex) {
+        log.warn("Exception unbinding cache manager from thread.");
       }
-      Workspace workspace = jcr.getSession().getWorkspace();
-      workspace.move(filePath, sentMsgPath);
-      JcrUtils.addNodeLabel(jcr, nodeFactory.getNode(sentMsgPath), "sent");
-      jcr.save();
+    }
+  }
+
+  /**
+   * Discard the unsaved changes of a failed attempt, and the locks it holds.
+   */
+  private void discardChanges() {
+    try {
+      jcr.getSession().refresh(false);
     } catch (RepositoryException e) {
-      log.error(e.getMessage(), e);
-    } catch (JCRNodeFactoryServiceException e) {
-      log.error(e.getMessage(), e);
-    } catch (LockTimeoutException e) {
-      log.error(e.getMessage(), e);
+      log.warn("Failed to discard changes " + e.getMessage());
+    } finally {
+      jcr.clearLocks();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.RequiresStop#stop()
+   */
+  public void stop() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(30L, TimeUnit.SECONDS)) {
+        log.warn(executor.getQueue().size()
+            + " messages were not delivered before shutdown, they remain in the outbox");
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
     }
   }
 
@@ -131,4 +402,157 @@ public class InternalMessageHandler implements MessageHandler {
     return priority;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.messaging.InternalMessageHandlerMBean#getQueueDepth()
+   */
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.messaging.InternalMessageHandlerMBean#getDelivered()
+   */
+  public long getDelivered() {
+    return delivered.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.messaging.InternalMessageHandlerMBean#getRecipients()
+   */
+  public long getRecipients() {
+    return recipients.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.messaging.InternalMessageHandlerMBean#getFailed()
+   */
+  public long getFailed() {
+    return failed.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.messaging.InternalMessageHandlerMBean#getRetries()
+   */
+  public long getRetries() {
+    return retries.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.messaging.InternalMessageHandlerMBean#getMeanDeliveryTime()
+   */
+  public double getMeanDeliveryTime() {
+    long d = delivered.get();
+    return d == 0 ? 0.0 : (double) deliveryTime.get() / d;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.messaging.InternalMessageHandlerMBean#getMaxDeliveryTime()
+   */
+  public long getMaxDeliveryTime() {
+    return maxDeliveryTime.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.messaging.InternalMessageHandlerMBean#resetStatistics()
+   */
+  public void resetStatistics() {
+    delivered.set(0);
+    recipients.set(0);
+    failed.set(0);
+    retries.set(0);
+    deliveryTime.set(0);
+    maxDeliveryTime.set(0);
+  }
+
+  /**
+   * A message waiting for delivery, and how far delivery has got.
+   */
+  private class Delivery implements Runnable {
+    private final String filePath;
+    private final String fileName;
+    private final long queued = System.currentTimeMillis();
+    private int delivered = 0;
+    /**
+     * Where the message was moved to, once it has been moved.
+     */
+    private String sentMsgPath;
+
+    /**
+     * @param filePath
+     * @param fileName
+     */
+    Delivery(String filePath, String fileName) {
+      this.filePath = filePath;
+      this.fileName = fileName;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Runnable#run()
+     */
+    public void run() {
+      InternalMessageHandler.this.run(this);
+    }
+  }
+
+  /**
+   * Makes the thread that queues a message wait for space in the queue, rather
+   * than delivering on that thread or dropping the message.
+   */
+  private static class WaitForSpace implements RejectedExecutionHandler {
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.util.concurrent.RejectedExecutionHandler#rejectedExecution(java.lang.Runnable,
+     *      java.util.concurrent.ThreadPoolExecutor)
+     */
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("Message delivery has stopped");
+      }
+      try {
+        executor.getQueue().put(r);
+      } catch (InterruptedException e) {
+        throw new RejectedExecutionException(
+            "Interrupted waiting for space in the delivery queue");
+      }
+    }
+  }
+
+  /**
+   * Names the delivery threads, which do not hold up shutdown of the JVM.
+   */
+  private static class DeliveryThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+     */
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "internal-message-delivery-"
+          + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
 }
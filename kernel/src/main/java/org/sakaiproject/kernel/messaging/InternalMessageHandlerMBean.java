@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.messaging;
+
+/**
+ * JMX view of internal message delivery.
+ */
+public interface InternalMessageHandlerMBean {
+
+  /**
+   * @return the number of messages waiting for a delivery thread.
+   */
+  int getQueueDepth();
+
+  /**
+   * @return the number of messages delivered.
+   */
+  long getDelivered();
+
+  /**
+   * @return the number of inbox copies written.
+   */
+  long getRecipients();
+
+  /**
+   * @return the number of messages that could not be delivered after all
+   *         attempts, these are left in the outbox.
+   */
+  long getFailed();
+
+  /**
+   * @return the number of delivery attempts that were retried.
+   */
+  long getRetries();
+
+  /**
+   * @return the mean time in ms from a message being queued to it being
+   *         delivered.
+   */
+  double getMeanDeliveryTime();
+
+  /**
+   * @return the longest time in ms from a message being queued to it being
+   *         delivered.
+   */
+  long getMaxDeliveryTime();
+
+  /**
+   * Reset the statistics.
+   */
+  void resetStatistics();
+}
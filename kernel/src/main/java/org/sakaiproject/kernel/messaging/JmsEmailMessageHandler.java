@@ -17,6 +17,7 @@
  */
 package org.sakaiproject.kernel.messaging;
 
+import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
 import org.apache.commons.logging.Log;
@@ -34,13 +35,7 @@ import java.io.UnsupportedEncodingException;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
-import javax.jms.Connection;
-import javax.jms.ConnectionFactory;
-import javax.jms.Destination;
 import javax.jms.JMSException;
-import javax.jms.MessageProducer;
-import javax.jms.ObjectMessage;
-import javax.jms.Session;
 
 /**
  *
@@ -51,16 +46,17 @@ public class JmsEmailMessageHandler implements MessageHandler {
       .getLog(JmsEmailMessageHandler.class);
 
   private JCRNodeFactoryService nodeFactory;
-  private ConnectionFactory connFactory;
+  private JmsProducerPool producerPool;
   private String emailQueueName;
   private String emailJmsType;
 
+  @Inject
   public JmsEmailMessageHandler(JCRNodeFactoryService nodeFactory,
-      ConnectionFactory connFactory,
+      JmsProducerPool producerPool,
       @Named(KernelConstants.JMS_EMAIL_QUEUE) String emailQueueName,
       @Named(KernelConstants.JMS_EMAIL_TYPE) String emailJmsType) {
     this.nodeFactory = nodeFactory;
-    this.connFactory = connFactory;
+    this.producerPool = producerPool;
     this.emailQueueName = emailQueueName;
     this.emailJmsType = emailJmsType;
   }
@@ -75,15 +71,7 @@ public class JmsEmailMessageHandler implements MessageHandler {
     try {
       InputStream inputStream = nodeFactory.getInputStream(filePath);
       String content = IOUtils.readFully(inputStream, "UTF-8");
-      Connection conn = connFactory.createConnection();
-      conn.setClientID("sakai.emailmessagehandler");
-      Session clientSession = conn.createSession(false,
-          Session.AUTO_ACKNOWLEDGE);
-      Destination emailTopic = clientSession.createTopic(emailQueueName);
-      MessageProducer client = clientSession.createProducer(emailTopic);
-      ObjectMessage mesg = clientSession.createObjectMessage(content);
-      mesg.setJMSType(emailJmsType);
-      client.send(mesg);
+      producerPool.send(emailQueueName, content, emailJmsType);
     } catch (JMSException e) {
       log.error(e.getMessage(), e);
     } catch (RepositoryException e) {
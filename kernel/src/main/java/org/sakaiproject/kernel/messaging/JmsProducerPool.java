@@ -0,0 +1,367 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.messaging;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.kernel.KernelConstants;
+import org.sakaiproject.kernel.api.RequiresStop;
+import org.sakaiproject.kernel.api.ShutdownService;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.ExceptionListener;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+
+/**
+ * Sends messages to JMS topics over a single shared connection, with a pool of
+ * sessions each of which keeps a producer for every topic it has sent to. JMS
+ * sessions may only be used by one thread at a time, so a send borrows a
+ * session, waiting if the most sessions are in use. If the connection fails,
+ * it is replaced and the sessions on it are discarded as they are returned.
+ * Stopping the pool waits for the sends in progress before closing it.
+ */
+@Singleton
+public class JmsProducerPool implements RequiresStop {
+
+  private static final Log LOG = LogFactory.getLog(JmsProducerPool.class);
+  private static final long DRAIN_TIMEOUT = 30000L;
+
+  private final ConnectionFactory connectionFactory;
+  private final int maxSessions;
+  private final long maxWait;
+  private final int batchSize;
+  private final Semaphore permits;
+  private final ConcurrentLinkedQueue<PooledSession> idle = new ConcurrentLinkedQueue<PooledSession>();
+  private final ConcurrentLinkedQueue<PooledSession> idleTransacted = new ConcurrentLinkedQueue<PooledSession>();
+  private Connection connection;
+  private volatile boolean stopped;
+
+  /**
+   * @param connectionFactory
+   * @param shutdownService
+   * @param maxSessions
+   *          the most sessions in use at once.
+   * @param maxWait
+   *          the time in ms a send waits for a session.
+   * @param batchSize
+   *          the number of messages sent in each transaction by a batch send.
+   */
+  @Inject
+  public JmsProducerPool(ConnectionFactory connectionFactory,
+      ShutdownService shutdownService,
+      @Named(KernelConstants.JMS_POOL_MAX_SESSIONS) int maxSessions,
+      @Named(KernelConstants.JMS_POOL_MAX_WAIT) long maxWait,
+      @Named(KernelConstants.JMS_POOL_BATCH) int batchSize) {
+    this(connectionFactory, maxSessions, maxWait, batchSize);
+    shutdownService.register(this);
+  }
+
+  /**
+   * A pool that is not stopped with the kernel, the owner must call stop.
+   *
+   * @param connectionFactory
+   * @param maxSessions
+   * @param maxWait
+   * @param batchSize
+   */
+  public JmsProducerPool(ConnectionFactory connectionFactory, int maxSessions,
+      long maxWait, int batchSize) {
+    this.connectionFactory = connectionFactory;
+    this.maxSessions = Math.max(1, maxSessions);
+    this.maxWait = maxWait;
+    this.batchSize = Math.max(1, batchSize);
+    this.permits = new Semaphore(this.maxSessions, true);
+  }
+
+  /**
+   * Send an object message to a topic.
+   *
+   * @param topicName
+   *          the name of the topic.
+   * @param content
+   *          the body of the message.
+   * @param jmsType
+   *          the JMS type of the message.
+   * @throws JMSException
+   *           if the message could not be sent.
+   */
+  public void send(String topicName, Serializable content, String jmsType)
+      throws JMSException {
+    PooledSession ps = borrow(false);
+    boolean ok = false;
+    try {
+      ps.send(topicName, content, jmsType);
+      ok = true;
+    } finally {
+      release(ps, ok);
+    }
+  }
+
+  /**
+   * Send object messages to a topic, committing a transaction after each
+   * batch. If a batch fails it is rolled back, the batches before it have
+   * been sent.
+   *
+   * @param topicName
+   *          the name of the topic.
+   * @param contents
+   *          the bodies of the messages.
+   * @param jmsType
+   *          the JMS type of the messages.
+   * @return the number of messages sent.
+   * @throws JMSException
+   *           if a batch could not be sent.
+   */
+  public int sendAll(String topicName, List<? extends Serializable> contents,
+      String jmsType) throws JMSException {
+    PooledSession ps = borrow(true);
+    boolean ok = false;
+    int sent = 0;
+    try {
+      int n = 0;
+      for (Serializable content : contents) {
+        ps.send(topicName, content, jmsType);
+        n++;
+        if (n == batchSize) {
+          ps.session.commit();
+          sent += n;
+          n = 0;
+        }
+      }
+      if (n > 0) {
+        ps.session.commit();
+        sent += n;
+      }
+      ok = true;
+    } finally {
+      if (!ok) {
+        try {
+          ps.session.rollback();
+        } catch (JMSException e) {
+          LOG.debug("Rollback failed " + e.getMessage());
+        }
+      }
+      release(ps, ok);
+    }
+    return sent;
+  }
+
+  /**
+   * @param transacted
+   * @return a session for the current thread to use, which must be released.
+   * @throws JMSException
+   */
+  private PooledSession borrow(boolean transacted) throws JMSException {
+    if (stopped) {
+      throw new IllegalStateException("The JMS producer pool has been stopped");
+    }
+    try {
+      if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+        throw new JMSException("Timed out after " + maxWait
+            + " ms waiting for a JMS session");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new JMSException("Interrupted waiting for a JMS session");
+    }
+    try {
+      ConcurrentLinkedQueue<PooledSession> queue = transacted ? idleTransacted
+          : idle;
+      Connection current = getConnection();
+      for (PooledSession ps = queue.poll(); ps != null; ps = queue.poll()) {
+        if (ps.connection == current) {
+          return ps;
+        }
+        ps.close();
+      }
+      Session session = current.createSession(transacted,
+          transacted ? Session.SESSION_TRANSACTED : Session.AUTO_ACKNOWLEDGE);
+      return new PooledSession(current, session);
+    } catch (JMSException e) {
+      permits.release();
+      throw e;
+    } catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Return a session to the pool, or close it if the send failed.
+   *
+   * @param ps
+   * @param ok
+   */
+  private void release(PooledSession ps, boolean ok) {
+    try {
+      if (ok && !stopped) {
+        if (ps.session.getTransacted()) {
+          idleTransacted.offer(ps);
+        } else {
+          idle.offer(ps);
+        }
+      } else {
+        ps.close();
+      }
+    } catch (JMSException e) {
+      ps.close();
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * @return the shared connection, created if there is none.
+   * @throws JMSException
+   */
+  private synchronized Connection getConnection() throws JMSException {
+    if (connection == null) {
+      final Connection c = connectionFactory.createConnection();
+      c.setExceptionListener(new ExceptionListener() {
+        public void onException(JMSException e) {
+          LOG.warn("JMS connection failed, it will be replaced "
+              + e.getMessage());
+          discardConnection(c);
+        }
+      });
+      c.start();
+      connection = c;
+    }
+    return connection;
+  }
+
+  /**
+   * Close the connection if it is the current one, the next send will open a
+   * new connection.
+   *
+   * @param c
+   */
+  private void discardConnection(Connection c) {
+    synchronized (this) {
+      if (connection != c) {
+        return;
+      }
+      connection = null;
+    }
+    try {
+      c.close();
+    } catch (JMSException e) {
+      LOG.debug("Failed to close JMS connection " + e.getMessage());
+    }
+  }
+
+  /**
+   * Stop sending, wait for the sends in progress to finish and close the
+   * sessions and the connection.
+   *
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.RequiresStop#stop()
+   */
+  public void stop() {
+    stopped = true;
+    boolean drained = false;
+    try {
+      drained = permits.tryAcquire(maxSessions, DRAIN_TIMEOUT,
+          TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!drained) {
+      LOG.warn("JMS sends were still in progress when the producer pool stopped");
+    }
+    for (PooledSession ps = idle.poll(); ps != null; ps = idle.poll()) {
+      ps.close();
+    }
+    for (PooledSession ps = idleTransacted.poll(); ps != null; ps = idleTransacted
+        .poll()) {
+      ps.close();
+    }
+    Connection c = null;
+    synchronized (this) {
+      c = connection;
+    }
+    if (c != null) {
+      discardConnection(c);
+    }
+  }
+
+  /**
+   * A session, used by one thread at a time, and its producers by topic.
+   */
+  private static class PooledSession {
+    private final Connection connection;
+    private final Session session;
+    private final Map<String, MessageProducer> producers = new HashMap<String, MessageProducer>();
+
+    /**
+     * @param connection
+     * @param session
+     */
+    PooledSession(Connection connection, Session session) {
+      this.connection = connection;
+      this.session = session;
+    }
+
+    /**
+     * @param topicName
+     * @param content
+     * @param jmsType
+     * @throws JMSException
+     */
+    void send(String topicName, Serializable content, String jmsType)
+        throws JMSException {
+      MessageProducer producer = producers.get(topicName);
+      if (producer == null) {
+        producer = session.createProducer(session.createTopic(topicName));
+        producers.put(topicName, producer);
+      }
+      ObjectMessage message = session.createObjectMessage(content);
+      message.setJMSType(jmsType);
+      producer.send(message);
+    }
+
+    /**
+     * Close the session, which closes its producers.
+     */
+    void close() {
+      try {
+        session.close();
+      } catch (JMSException e) {
+        LOG.debug("Failed to close JMS session " + e.getMessage());
+      }
+    }
+  }
+}
@@ -28,7 +28,7 @@ import org.sakaiproject.kernel.api.jcr.JCRConstants;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryServiceException;
 import org.sakaiproject.kernel.api.messaging.MessageHandler;
-import org.sakaiproject.kernel.jcr.api.JcrContentListener;
+import org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener;
 
 import javax.jcr.Node;
 import javax.jcr.Property;
@@ -37,7 +37,7 @@ import javax.jcr.RepositoryException;
 /**
  *
  */
-public class OutboxListener implements JcrContentListener {
+public class OutboxListener implements RoutedJcrContentListener {
   private static final Log log = LogFactory.getLog(OutboxListener.class);
 
   private JCRNodeFactoryService jcrNodeFactory;
@@ -51,6 +51,24 @@ public class OutboxListener implements JcrContentListener {
     this.jcrNodeFactory = jcrNodeFactory;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener#getPathPrefixes()
+   */
+  public String[] getPathPrefixes() {
+    return new String[] {"/"};
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener#getFileNames()
+   */
+  public String[] getFileNames() {
+    return null;
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -33,6 +33,7 @@ import org.sakaiproject.kernel.api.messaging.MessageConverter;
 import org.sakaiproject.kernel.api.messaging.MessagingException;
 import org.sakaiproject.kernel.api.user.UserFactoryService;
 import org.sakaiproject.kernel.messaging.JcrMessagingService;
+import org.sakaiproject.kernel.messaging.JmsProducerPool;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -41,10 +42,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
-import javax.jms.Destination;
 import javax.jms.JMSException;
-import javax.jms.MessageProducer;
-import javax.jms.ObjectMessage;
 import javax.jms.Session;
 
 public class EmailMessagingService extends JcrMessagingService implements
@@ -59,6 +57,7 @@ public class EmailMessagingService extends JcrMessagingService implements
   private ActiveMQConnectionFactory connectionFactory;
   private ArrayList<Connection> connections = new ArrayList<Connection>();
   private ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+  private JmsProducerPool producerPool;
 
   synchronized public long getClientId() {
     return clientId;
@@ -68,11 +67,6 @@ public class EmailMessagingService extends JcrMessagingService implements
     this.clientId = id;
   }
 
-  synchronized private String getNextId() {
-    setClientId(getClientId() + 1);
-    return "" + getClientId();
-  }
-
   /*
    * TODO may want to take parameters for num of connections and sessions per
    * connection
@@ -83,8 +77,10 @@ public class EmailMessagingService extends JcrMessagingService implements
       @Named(KernelConstants.JMS_EMAIL_QUEUE) String emailQueueName,
       @Named(KernelConstants.JMS_EMAIL_TYPE) String emailJmsType,
       JCRNodeFactoryService jcrNodeFactory, MessageConverter msgConverter,
-      Injector injector, UserFactoryService userFactory) {
+      Injector injector, UserFactoryService userFactory,
+      JmsProducerPool producerPool) {
     super(jcrNodeFactory, msgConverter, injector, userFactory);
+    this.producerPool = producerPool;
     connectionFactory = new ActiveMQConnectionFactory(brokerUrl);
     try {
       // prob want to use username,pw here
@@ -176,14 +172,7 @@ public class EmailMessagingService extends JcrMessagingService implements
     }
 
     String content = os.toString();
-    Connection conn = connectionFactory.createTopicConnection();
-    conn.setClientID(getNextId());
-    Session clientSession = conn.createSession(false, Session.AUTO_ACKNOWLEDGE);
-    Destination emailTopic = clientSession.createTopic(emailQueueName);
-    MessageProducer client = clientSession.createProducer(emailTopic);
-    ObjectMessage mesg = clientSession.createObjectMessage(content);
-    mesg.setJMSType(emailJmsType);
-    client.send(mesg);
+    producerPool.send(emailQueueName, content, emailJmsType);
     // TODO finish this
     return null;
 
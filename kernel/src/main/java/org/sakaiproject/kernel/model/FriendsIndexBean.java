@@ -147,11 +147,15 @@ public class FriendsIndexBean {
   }
   /**
    * @param friendBean
+   * @param userProfile
+   *          the profile of the friend, null if the friend has no profile.
    */
   public void copy(FriendBean friendBean,UserProfile userProfile) {
-    Map<String,Object> p = userProfile.getProperties();
-    this.firstName = String.valueOf(p.get("firstName"));
-    this.lastName = String.valueOf(p.get("lastName"));
+    if (userProfile != null) {
+      Map<String,Object> p = userProfile.getProperties();
+      this.firstName = String.valueOf(p.get("firstName"));
+      this.lastName = String.valueOf(p.get("lastName"));
+    }
     this.friendStatus = friendBean.getStatus();
     this.friendUuid = friendBean.getFriendUuid();
     this.uuid = friendBean.getPersonUuid();
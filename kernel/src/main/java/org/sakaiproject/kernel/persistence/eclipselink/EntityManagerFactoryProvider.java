@@ -64,6 +64,9 @@ public class EntityManagerFactoryProvider implements Provider<EntityManagerFacto
    * @param minWrite
    * @param dataSourceService
    * @param unitName
+   * @param batchWriting
+   *          the EclipseLink batch writing mode, JDBC sends the statements of a
+   *          commit to the database in batches.
    */
   @Inject
   @SuppressWarnings(value={"DP_CREATE_CLASSLOADER_INSIDE_DO_PRIVILEGED"}, justification="Expected to only ever be executed from a privalaged environment")
@@ -73,7 +76,8 @@ public class EntityManagerFactoryProvider implements Provider<EntityManagerFacto
       @Named(KernelConstants.DB_UNITNAME) String unitName,
       @Named(KernelConstants.JDBC_DRIVER_NAME) String driverClassName,
       @Named(KernelConstants.JDBC_URL) String url, @Named(KernelConstants.JDBC_USERNAME) String username,
-      @Named(KernelConstants.JDBC_PASSWORD) String password) {
+      @Named(KernelConstants.JDBC_PASSWORD) String password,
+      @Named(KernelConstants.DB_BATCH_WRITING) String batchWriting) {
 
     Map<String, Object> properties = new HashMap<String, Object>();
 
@@ -96,6 +100,11 @@ public class EntityManagerFactoryProvider implements Provider<EntityManagerFacto
     // properties.put(PersistenceUnitProperties.JDBC_WRITE_CONNECTIONS_MIN,
     // minWrite);
 
+    // Send the inserts, updates and deletes of a commit in JDBC batches rather
+    // than one round trip each, rows with identity keys are still inserted one
+    // at a time since the key is read back after each insert.
+    properties.put(PersistenceUnitProperties.BATCH_WRITING, batchWriting);
+
     // Configure logging. FINE ensures all SQL is shown
     properties.put(LOGGING_LEVEL, (debug?"FINE":"INFO"));
     properties.put(LOGGING_TIMESTAMP, "true");
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.presence;
+
+import java.io.Serializable;
+
+/**
+ * The presence of a single user, when they were last seen, where and with what status.
+ * Records are immutable and replaced on each update, so they can be shared through a
+ * replicated cache.
+ */
+public class PresenceRecord implements Serializable {
+
+  /**
+   *
+   */
+  private static final long serialVersionUID = -1903622817431580745L;
+  private final long lastSeen;
+  private final String location;
+  private final String status;
+
+  /**
+   * @param lastSeen
+   *          the time in ms the user was last seen.
+   * @param location
+   *          the location of the user.
+   * @param status
+   *          the status of the user, null if the user has not set one.
+   */
+  public PresenceRecord(long lastSeen, String location, String status) {
+    this.lastSeen = lastSeen;
+    this.location = location;
+    this.status = status;
+  }
+
+  /**
+   * @return the time in ms the user was last seen.
+   */
+  public long getLastSeen() {
+    return lastSeen;
+  }
+
+  /**
+   * @return the location of the user.
+   */
+  public String getLocation() {
+    return location;
+  }
+
+  /**
+   * @return the status of the user, null if the user has not set one.
+   */
+  public String getStatus() {
+    return status;
+  }
+
+}
@@ -18,7 +18,6 @@
 package org.sakaiproject.kernel.presence;
 
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 
 import org.apache.commons.lang.StringUtils;
@@ -27,37 +26,56 @@ import org.sakaiproject.kernel.api.memory.CacheManagerService;
 import org.sakaiproject.kernel.api.memory.CacheScope;
 import org.sakaiproject.kernel.api.presence.PresenceService;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Implementation of the presence service that uses replicated cache.
+ * Implementation of the presence service. The presence of each user is held as a
+ * {@link PresenceRecord} in a replicated cache. Each node also keeps an index of the
+ * users in each location, and a timer wheel of the users seen in each tick of the clock,
+ * so that users are removed from their location once their presence has expired, without
+ * scanning every user.
  */
 public class PresenceServiceImpl implements PresenceService {
 
-  private static final String LOCATION_CACHE = "presence.location";
   private static final String USER_STATUS_CACHE = "presence.status";
   private static final long PRESENCE_TTL = 5L * 60L * 1000L; // 5 minutes
-  //  private static final int USER_ELEMENT = 0;
-  private static final int TIMESTAMP_ELEMENT = 1;
-  private static final int LOCATION_ELEMENT = 2;
-  private static final int STATUS_ELEMENT = 3;
-  private static final int STATUS_SIZE = 4;
-  private Cache<String> userStatusCache;
-  private Cache<Map<String, String>> locationCache;
+  // make the clock slow changing, 20s resolution
+  private static final long TICK = 20000L;
+  private static final long TTL_TICKS = PRESENCE_TTL / TICK;
+  // one slot more than the ttl, and one spare for threads that read the clock late.
+  private static final int WHEEL_SIZE = (int) TTL_TICKS + 2;
+  private static final int MAX_CANONICAL = 10000;
+  private static final String NONE = "none";
+  private static final String ONLINE = "online";
+  private static final String OFFLINE = "offline";
+
+  private final Cache<PresenceRecord> userStatusCache;
+  private final ConcurrentMap<String, ConcurrentMap<String, Boolean>> locations = new ConcurrentHashMap<String, ConcurrentMap<String, Boolean>>();
+  private final List<ConcurrentMap<String, Boolean>> wheel;
+  private final ReentrantLock sweepLock = new ReentrantLock();
+  private volatile long sweptTick;
+  private final ConcurrentMap<String, String> canonical = new ConcurrentHashMap<String, String>();
 
   /**
    *
    */
   @Inject
   public PresenceServiceImpl(CacheManagerService cacheManagerService) {
-    // the caches must be replicating in the cluster.
-    locationCache = cacheManagerService.getCache(LOCATION_CACHE,
-        CacheScope.CLUSTERREPLICATED);
+    // the cache must be replicating in the cluster.
     userStatusCache = cacheManagerService.getCache(USER_STATUS_CACHE,
         CacheScope.CLUSTERREPLICATED);
+    wheel = new ArrayList<ConcurrentMap<String, Boolean>>(WHEEL_SIZE);
+    for (int i = 0; i < WHEEL_SIZE; i++) {
+      wheel.add(new ConcurrentHashMap<String, Boolean>());
+    }
+    sweptTick = getTick(currentTimeMillis()) - TTL_TICKS;
   }
 
   /**
@@ -67,7 +85,15 @@ public class PresenceServiceImpl implements PresenceService {
    *      java.lang.String)
    */
   public void setStatus(String uuid, String status) {
-    updateLocationCache(uuid, getTimeStamp(), null, status);
+    long now = currentTimeMillis();
+    long tick = getTick(now);
+    expire(tick);
+    PresenceRecord current = userStatusCache.get(uuid);
+    String location = NONE;
+    if (current != null) {
+      location = current.getLocation();
+    }
+    update(uuid, current, new PresenceRecord(now, location, canonical(status)), tick);
   }
 
   /**
@@ -76,33 +102,24 @@ public class PresenceServiceImpl implements PresenceService {
    * @see org.sakaiproject.kernel.api.presence.PresenceService#getStatus(java.lang.String)
    */
   public String getStatus(String uuid) {
-    String[] currentStatus = getCurrentStatus(uuid);
-    if (currentStatus != null) {
-      if (currentStatus.length > STATUS_ELEMENT) {
-        return currentStatus[STATUS_ELEMENT];
-      } else {
-        return "online";
-      }
-    }
-    return "offline";
-  }
-
-  private String[] getCurrentStatus(String uuid) {
-    String currentStatus = userStatusCache.get(uuid);
-    long timeout = getTimeStamp() - PRESENCE_TTL;
-    // load the current status or the defaults.
-    if (currentStatus != null) {
-      String[] locationStatus = StringUtils.split(currentStatus, ":",
-          STATUS_SIZE);
-      if (locationStatus != null && locationStatus.length > TIMESTAMP_ELEMENT) {
-        // timed out ?
-        long lastTs = Long.parseLong(locationStatus[TIMESTAMP_ELEMENT]);
-        if (lastTs > timeout) {
-          return locationStatus;
-        }
+    return getStatus(userStatusCache.get(uuid), getTick(currentTimeMillis()));
+  }
+
+  /**
+   * @param record
+   * @param tick
+   *          the current tick.
+   * @return the status of the record at the tick.
+   */
+  private String getStatus(PresenceRecord record, long tick) {
+    if (isLive(record, tick)) {
+      String status = record.getStatus();
+      if (status == null) {
+        return ONLINE;
       }
+      return status;
     }
-    return null;
+    return OFFLINE;
   }
 
   /**
@@ -112,11 +129,11 @@ public class PresenceServiceImpl implements PresenceService {
    *      java.util.List)
    */
   public Map<String, String> online(List<String> connections) {
-
-    Map<String, String> online = Maps.newHashMap();
+    long tick = getTick(currentTimeMillis());
+    Map<String, String> online = new HashMap<String, String>(
+        connections.size() * 4 / 3 + 1);
     for (String uuid : connections) {
-
-      online.put(uuid, getStatus(uuid));
+      online.put(uuid, getStatus(userStatusCache.get(uuid), tick));
     }
     return online;
   }
@@ -127,13 +144,16 @@ public class PresenceServiceImpl implements PresenceService {
    * @see org.sakaiproject.kernel.api.presence.PresenceService#online(java.lang.String)
    */
   public Map<String, String> online(String location) {
-    Map<String, String> locationInstanceCache = locationCache.get(location);
-    if (locationInstanceCache != null) {
-      Map<String, String> onlineMap = Maps.newHashMap();
-      for (Entry<String, String> e : locationInstanceCache.entrySet()) {
-        String[] currentStatus = getCurrentStatus(e.getKey());
-        if ( currentStatus != null && location.equals(currentStatus[LOCATION_ELEMENT])) {
-          onlineMap.put(e.getKey(), currentStatus[STATUS_ELEMENT]);
+    long tick = getTick(currentTimeMillis());
+    expire(tick);
+    Map<String, Boolean> members = locations.get(location);
+    if (members != null) {
+      Map<String, String> onlineMap = new HashMap<String, String>();
+      for (String uuid : members.keySet()) {
+        PresenceRecord record = userStatusCache.get(uuid);
+        // the index is only a hint, the record is the truth.
+        if (isLive(record, tick) && location.equals(record.getLocation())) {
+          onlineMap.put(uuid, getStatus(record, tick));
         }
       }
       return onlineMap;
@@ -148,106 +168,186 @@ public class PresenceServiceImpl implements PresenceService {
    *      java.lang.String)
    */
   public void ping(String uuid, String location) {
-    long now = getTimeStamp();
+    long now = currentTimeMillis();
+    long tick = getTick(now);
     if (StringUtils.isEmpty(location)) {
-      location = "none";
+      location = NONE;
     }
     if (StringUtils.isEmpty(uuid)) {
-      uuid = "none";
-    }
-    if (updateLocationCache(uuid, now, location, null)) {
-      // need to update
-      if (!"none".equals(location)) {
-        Map<String, String> locationInstanceCache = locationCache.get(location);
-        if (locationInstanceCache == null) {
-          synchronized (locationCache) {
-            locationInstanceCache = locationCache.get(location);
-            if (locationInstanceCache == null) {
-              locationInstanceCache = new ConcurrentHashMap<String, String>();
-              locationCache.put(location, locationInstanceCache);
-            }
-          }
-        }
-
-        String userKey = getLocationKey(uuid, location);
-        if (!locationInstanceCache.containsKey(uuid)) {
-          locationInstanceCache.put(uuid, userKey);
-        }
+      uuid = NONE;
+    }
+    expire(tick);
+    PresenceRecord current = userStatusCache.get(uuid);
+    String status = null;
+    if (current != null) {
+      if (getTick(current.getLastSeen()) == tick
+          && location.equals(current.getLocation())) {
+        // nothing has changed at the resolution of the clock.
+        return;
       }
+      status = current.getStatus();
     }
+    update(uuid, current, new PresenceRecord(now, canonical(location), status), tick);
   }
 
   /**
-   * @return
+   * Store the new record for the user, and keep the location index and timer wheel in
+   * step.
+   *
+   * @param uuid
+   * @param current
+   *          the record being replaced, may be null.
+   * @param record
+   *          the new record.
+   * @param tick
+   *          the current tick.
    */
-  private long getTimeStamp() {
-    long now = System.currentTimeMillis();
-    // make now slow changing, 20s resolution
-    return now / 20000;
+  private void update(String uuid, PresenceRecord current, PresenceRecord record,
+      long tick) {
+    userStatusCache.put(uuid, record);
+    wheel.get(slot(tick)).put(uuid, Boolean.TRUE);
+    String location = record.getLocation();
+    if (current != null && !location.equals(current.getLocation())) {
+      leave(uuid, current.getLocation());
+    }
+    if (!NONE.equals(location)) {
+      join(uuid, location);
+    }
   }
 
   /**
-   * Update the users location cache.
-   *
    * @param uuid
-   *          the user id
-   * @param now
-   *          the timestamp
    * @param location
-   *          the location, null if not provided in this update
-   * @param status
-   *          the status, null if not provided in this update
-   * @return true if an update was performed.
-   */
-  private boolean updateLocationCache(String uuid, long now, String location,
-      String status) {
-    String currentStatus = userStatusCache.get(uuid);
-    // load the current status or the defaults.
-    String[] locationStatus = new String[] { uuid, String.valueOf(now - 1), "none",
-        "online" };
-    if (currentStatus != null) {
-      locationStatus = StringUtils.split(currentStatus, ":", STATUS_SIZE);
-
-    }
-    // compare with non null current versions.
-    String[] ls = new String[] { uuid, String.valueOf(now), location, status };
-    boolean update = false;
-    if (locationStatus != null) {
-      for (int i = 0; i < locationStatus.length; i++) {
-        if (ls[i] != null) {
-          if (!locationStatus[i].equals(ls[i])) {
-            update = true;
-          }
+   */
+  private void join(String uuid, String location) {
+    for (;;) {
+      ConcurrentMap<String, Boolean> members = locations.get(location);
+      if (members == null) {
+        members = new ConcurrentHashMap<String, Boolean>();
+        ConcurrentMap<String, Boolean> existing = locations.putIfAbsent(location,
+            members);
+        if (existing != null) {
+          members = existing;
         }
       }
+      members.put(uuid, Boolean.TRUE);
+      // an empty location may have been dropped while joining, if so join again.
+      if (locations.get(location) == members) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @param uuid
+   * @param location
+   */
+  private void leave(String uuid, String location) {
+    ConcurrentMap<String, Boolean> members = locations.get(location);
+    if (members != null) {
+      members.remove(uuid);
+      if (members.isEmpty()) {
+        locations.remove(location, members);
+      }
     }
+  }
 
-    if (update) {
-      // set any null values to what they were previously
-      if (locationStatus != null) {
-        for (int i = 0; i < locationStatus.length; i++) {
-          if (ls[i] == null) {
-            ls[i] = locationStatus[i];
+  /**
+   * Remove users whose presence has expired from their locations. Each slot of the wheel
+   * holds the users seen in one tick, a user seen again since is in a later slot and is
+   * left alone. Only one thread sweeps, the others carry on.
+   *
+   * @param tick
+   *          the current tick.
+   */
+  private void expire(long tick) {
+    long expiredTick = tick - TTL_TICKS;
+    if (sweptTick >= expiredTick || !sweepLock.tryLock()) {
+      return;
+    }
+    try {
+      // after a quiet period there is no point going round the wheel more than once.
+      long from = Math.max(sweptTick + 1, expiredTick - WHEEL_SIZE + 1);
+      for (long t = from; t <= expiredTick; t++) {
+        Iterator<String> users = wheel.get(slot(t)).keySet().iterator();
+        while (users.hasNext()) {
+          String uuid = users.next();
+          users.remove();
+          PresenceRecord record = userStatusCache.get(uuid);
+          if (record == null) {
+            continue;
+          }
+          if (isLive(record, tick)) {
+            // seen again, possibly on another node, make sure the record is in the
+            // wheel so it expires.
+            wheel.get(slot(getTick(record.getLastSeen()))).put(uuid, Boolean.TRUE);
+          } else {
+            leave(uuid, record.getLocation());
           }
         }
       }
-      String newStatus = ':' + StringUtils.join(ls, ':');
-      if (!newStatus.equals(currentStatus)) {
-        userStatusCache.put(uuid, newStatus);
-      } else {
-        update = false;
+      sweptTick = expiredTick;
+    } finally {
+      sweepLock.unlock();
+    }
+  }
+
+  /**
+   * @param record
+   * @param tick
+   *          the current tick.
+   * @return true if the record has not expired.
+   */
+  private boolean isLive(PresenceRecord record, long tick) {
+    return record != null && getTick(record.getLastSeen()) > tick - TTL_TICKS;
+  }
+
+  /**
+   * @param tick
+   * @return the slot in the wheel for the tick.
+   */
+  private int slot(long tick) {
+    return (int) (tick % WHEEL_SIZE);
+  }
+
+  /**
+   * @param time
+   *          a time in ms.
+   * @return the tick of the presence clock at the time.
+   */
+  private long getTick(long time) {
+    return time / TICK;
+  }
+
+  /**
+   * Locations and common statuses are shared by many users, so the records share a
+   * single copy of each. The number of copies is bounded, as statuses are free text.
+   *
+   * @param value
+   * @return the shared copy of the value.
+   */
+  private String canonical(String value) {
+    if (value == null) {
+      return null;
+    }
+    String c = canonical.get(value);
+    if (c != null) {
+      return c;
+    }
+    if (canonical.size() < MAX_CANONICAL) {
+      c = canonical.putIfAbsent(value, value);
+      if (c != null) {
+        return c;
       }
     }
-    return update;
+    return value;
   }
 
   /**
-   * @param uuid
-   * @param location
-   * @return
+   * @return the current time in ms.
    */
-  private String getLocationKey(String uuid, String location) {
-    return uuid + ":" + location;
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
   }
 
 }
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.rest;
+
+/**
+ * JMX view of the rest provider statistics.
+ */
+public interface RestMetricsMBean {
+
+  /**
+   * @return the number of rest requests over all providers.
+   */
+  long getRequests();
+
+  /**
+   * @return the number of rest requests that failed over all providers.
+   */
+  long getErrors();
+
+  /**
+   * @return the number of bytes written over all providers.
+   */
+  long getBytesWritten();
+
+  /**
+   * @return the statistics for each provider, one line per provider.
+   */
+  String[] getProviderStatistics();
+
+  /**
+   * Reset all statistics.
+   */
+  void resetStatistics();
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.rest;
+
+import com.google.inject.Inject;
+
+import org.sakaiproject.kernel.api.Registry;
+import org.sakaiproject.kernel.api.RegistryService;
+import org.sakaiproject.kernel.api.rest.RestMetricsService;
+import org.sakaiproject.kernel.api.rest.RestProvider;
+import org.sakaiproject.kernel.api.serialization.BeanConverter;
+import org.sakaiproject.kernel.api.session.Session;
+import org.sakaiproject.kernel.api.session.SessionManagerService;
+import org.sakaiproject.kernel.api.user.User;
+import org.sakaiproject.kernel.api.userenv.UserEnvironment;
+import org.sakaiproject.kernel.api.userenv.UserEnvironmentResolverService;
+import org.sakaiproject.kernel.util.rest.RestDescription;
+import org.sakaiproject.kernel.util.rest.RestProviderMetrics;
+import org.sakaiproject.kernel.util.user.AnonUser;
+import org.sakaiproject.kernel.webapp.RestServiceFaultException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Reports the request statistics of the rest providers. The statistics show
+ * which services are used and how, so they are only reported to super users.
+ */
+public class RestMetricsProvider implements RestProvider {
+
+  private static final RestDescription DESCRIPTION = new RestDescription();
+  private RestMetricsService restMetricsService;
+  private BeanConverter beanConverter;
+  private SessionManagerService sessionManagerService;
+  private UserEnvironmentResolverService userEnvironmentResolverService;
+
+  /**
+   *
+   */
+  @Inject
+  public RestMetricsProvider(RegistryService registryService,
+      RestMetricsService restMetricsService, BeanConverter beanConverter,
+      SessionManagerService sessionManagerService,
+      UserEnvironmentResolverService userEnvironmentResolverService) {
+    Registry<String, RestProvider> registry = registryService
+        .getRegistry(RestProvider.REST_REGISTRY);
+    registry.add(this);
+    this.restMetricsService = restMetricsService;
+    this.beanConverter = beanConverter;
+    this.sessionManagerService = sessionManagerService;
+    this.userEnvironmentResolverService = userEnvironmentResolverService;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.rest.RestProvider#dispatch(java.lang.String[],
+   *      javax.servlet.http.HttpServletRequest,
+   *      javax.servlet.http.HttpServletResponse)
+   */
+  public void dispatch(String[] elements, HttpServletRequest request,
+      HttpServletResponse response) {
+    try {
+      if (!"GET".equals(request.getMethod())) {
+        throw new RestServiceFaultException(
+            HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+      }
+      Session session = sessionManagerService.getCurrentSession();
+      if (session == null) {
+        throw new RestServiceFaultException(HttpServletResponse.SC_UNAUTHORIZED);
+      }
+      UserEnvironment ue = userEnvironmentResolverService.resolve(session);
+      if (ue == null) {
+        throw new RestServiceFaultException(HttpServletResponse.SC_UNAUTHORIZED);
+      }
+      User user = ue.getUser();
+      if (user == null || user instanceof AnonUser) {
+        throw new RestServiceFaultException(HttpServletResponse.SC_UNAUTHORIZED);
+      }
+      if (!ue.isSuperUser()) {
+        throw new RestServiceFaultException(HttpServletResponse.SC_FORBIDDEN);
+      }
+      Map<String, Object> output = new LinkedHashMap<String, Object>();
+      Map<String, RestProviderMetrics> metrics = restMetricsService
+          .getProviderMetrics();
+      if (elements.length > 1) {
+        RestProviderMetrics m = metrics.get(elements[1]);
+        if (m == null) {
+          throw new RestServiceFaultException(HttpServletResponse.SC_NOT_FOUND);
+        }
+        output.put(m.getKey(), m.toMap());
+      } else {
+        for (Entry<String, RestProviderMetrics> e : metrics.entrySet()) {
+          output.put(e.getKey(), e.getValue().toMap());
+        }
+      }
+      response.setContentType(RestProvider.CONTENT_TYPE);
+      ServletOutputStream outputStream = response.getOutputStream();
+      beanConverter.writeTo(output, outputStream);
+      outputStream.flush();
+    } catch (SecurityException ex) {
+      throw ex;
+    } catch (RestServiceFaultException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new RestServiceFaultException(ex.getMessage(), ex);
+    }
+  }
+
+  static {
+    DESCRIPTION.setTitle("Rest Metrics Service");
+    DESCRIPTION.setBackUrl("../__describe__");
+    DESCRIPTION
+        .setShortDescription("Reports request counts, errors, bytes written and latency for each rest provider, to super users only");
+    DESCRIPTION.addURLTemplate("/rest/metrics",
+        "GET the statistics of all the rest providers that have been requested");
+    DESCRIPTION.addURLTemplate("/rest/metrics/<provider>",
+        "GET the statistics of a single rest provider");
+    DESCRIPTION
+        .addSection(
+            2,
+            "Statistics",
+            "For each provider: requests, errors, bytesWritten, meanTime and maxTime in ms, "
+                + "p50, p95 and p99 as the upper bound in ms of the histogram bucket that holds "
+                + "the percentile (-1 if above the last bucket), and the histogram of latencies.");
+    DESCRIPTION.addResponse("200", "The statistics as a json map keyed by provider");
+    DESCRIPTION.addResponse("401", "The user is not logged in");
+    DESCRIPTION.addResponse("403", "The user is not a super user");
+    DESCRIPTION.addResponse("404", "There have been no requests for the provider");
+    DESCRIPTION.addResponse("405", "The method was not GET");
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.rest.RestProvider#getDescription()
+   */
+  public RestDescription getDescription() {
+    return DESCRIPTION;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.Provider#getKey()
+   */
+  public String getKey() {
+    return "metrics";
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.Provider#getPriority()
+   */
+  public int getPriority() {
+    return 0;
+  }
+
+}
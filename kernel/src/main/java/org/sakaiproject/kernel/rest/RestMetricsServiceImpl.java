@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.rest;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.kernel.api.rest.RestMetricsService;
+import org.sakaiproject.kernel.util.rest.RestProviderMetrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Holds the statistics for each rest provider, and exposes them through JMX.
+ */
+public class RestMetricsServiceImpl implements RestMetricsService,
+    RestMetricsMBean {
+
+  private static final Log LOG = LogFactory
+      .getLog(RestMetricsServiceImpl.class);
+  private static final String MBEAN_NAME = "org.sakaiproject.kernel:type=RestProviders";
+
+  private final ConcurrentHashMap<String, RestProviderMetrics> metrics = new ConcurrentHashMap<String, RestProviderMetrics>();
+
+  /**
+   *
+   */
+  public RestMetricsServiceImpl() {
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      if (!mBeanServer.isRegistered(name)) {
+        mBeanServer.registerMBean(new StandardMBean(this,
+            RestMetricsMBean.class), name);
+      }
+    } catch (JMException e) {
+      LOG.warn("Failed to register rest metrics with JMX " + e.getMessage());
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.rest.RestMetricsService#getProviderMetrics(java.lang.String)
+   */
+  public RestProviderMetrics getProviderMetrics(String key) {
+    RestProviderMetrics m = metrics.get(key);
+    if (m == null) {
+      RestProviderMetrics newMetrics = new RestProviderMetrics(key);
+      m = metrics.putIfAbsent(key, newMetrics);
+      if (m == null) {
+        m = newMetrics;
+      }
+    }
+    return m;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.rest.RestMetricsService#getProviderMetrics()
+   */
+  public Map<String, RestProviderMetrics> getProviderMetrics() {
+    return new TreeMap<String, RestProviderMetrics>(metrics);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.rest.RestMetricsMBean#getRequests()
+   */
+  public long getRequests() {
+    long n = 0;
+    for (RestProviderMetrics m : metrics.values()) {
+      n += m.getRequests();
+    }
+    return n;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.rest.RestMetricsMBean#getErrors()
+   */
+  public long getErrors() {
+    long n = 0;
+    for (RestProviderMetrics m : metrics.values()) {
+      n += m.getErrors();
+    }
+    return n;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.rest.RestMetricsMBean#getBytesWritten()
+   */
+  public long getBytesWritten() {
+    long n = 0;
+    for (RestProviderMetrics m : metrics.values()) {
+      n += m.getBytesWritten();
+    }
+    return n;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.rest.RestMetricsMBean#getProviderStatistics()
+   */
+  public String[] getProviderStatistics() {
+    Map<String, RestProviderMetrics> sorted = getProviderMetrics();
+    String[] lines = new String[sorted.size()];
+    int i = 0;
+    for (RestProviderMetrics m : sorted.values()) {
+      lines[i++] = m.toString();
+    }
+    return lines;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.rest.RestMetricsService#resetStatistics()
+   */
+  public void resetStatistics() {
+    for (RestProviderMetrics m : metrics.values()) {
+      m.reset();
+    }
+  }
+
+}
@@ -350,7 +350,7 @@ public class RestMySitesProvider implements RestProvider {
     response.setContentType(RestProvider.CONTENT_TYPE);
     ServletOutputStream outputStream = response.getOutputStream();
 
-    outputStream.print(beanConverter.convertToString(itemMap));
+    beanConverter.writeTo(itemMap, outputStream);
 
     outputStream.flush();
     outputStream.close();
@@ -157,9 +157,8 @@ public class RestSiteProvider implements RestProvider {
           resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
         }
         if (map != null) {
-          String responseBody = beanConverter.convertToString(map);
           resp.setContentType(RestProvider.CONTENT_TYPE);
-          resp.getOutputStream().print(responseBody);
+          beanConverter.writeTo(map, resp.getOutputStream());
         }
       }
     } catch (SecurityException ex) {
@@ -207,7 +206,7 @@ public class RestSiteProvider implements RestProvider {
     }
     SiteBean siteBean = siteService.getSite(siteId);
     if (siteBean != null) {
-      resp.getOutputStream().print(beanConverter.convertToString(siteBean));
+      beanConverter.writeTo(siteBean, resp.getOutputStream());
     } else {
       resp.reset();
       resp.sendError(HttpServletResponse.SC_NOT_FOUND);
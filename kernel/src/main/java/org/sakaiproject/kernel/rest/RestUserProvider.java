@@ -41,6 +41,7 @@ import org.sakaiproject.kernel.api.userenv.UserEnvironment;
 import org.sakaiproject.kernel.api.userenv.UserEnvironmentResolverService;
 import org.sakaiproject.kernel.jcr.jackrabbit.sakai.JCRIdPwEvidence;
 import org.sakaiproject.kernel.model.UserEnvironmentBean;
+import org.sakaiproject.kernel.user.PasswordHasher;
 import org.sakaiproject.kernel.user.jcr.JcrAuthenticationResolverProvider;
 import org.sakaiproject.kernel.util.rest.RestDescription;
 import org.sakaiproject.kernel.util.user.AnonUser;
@@ -83,6 +84,7 @@ public class RestUserProvider implements RestProvider {
   private AuthenticationManagerService authenticationManagerService;
   private ProfileResolverService profileResolverService;
   private AuthzResolverService authzResolverService;
+  private PasswordHasher passwordHasher;
 
   /**
    * @param sessionManager
@@ -97,7 +99,7 @@ public class RestUserProvider implements RestProvider {
       AuthenticationManagerService authenticationManagerService,
       ProfileResolverService profileResolverService,
       @Named(KernelConstants.PROP_ANON_ACCOUNTING) boolean anonymousAccounting,
-      AuthzResolverService authzResolverService) {
+      AuthzResolverService authzResolverService, PasswordHasher passwordHasher) {
     Registry<String, RestProvider> restRegistry = registryService
         .getRegistry(RestProvider.REST_REGISTRY);
     restRegistry.add(this);
@@ -111,6 +113,7 @@ public class RestUserProvider implements RestProvider {
     this.profileResolverService = profileResolverService;
     this.anonymousAccounting = anonymousAccounting;
     this.authzResolverService = authzResolverService;
+    this.passwordHasher = passwordHasher;
 
   }
 
@@ -262,10 +265,8 @@ public class RestUserProvider implements RestProvider {
           .getProperty(JcrAuthenticationResolverProvider.JCRPASSWORDHASH);
       if (storedPassword != null) {
         String storedPasswordString = storedPassword.getString();
-        String oldPasswordHash = org.sakaiproject.kernel.util.StringUtils
-            .sha1Hash(passwordOld);
         if (storedPasswordString != null) {
-          if (!oldPasswordHash.equals(storedPasswordString)) {
+          if (!passwordHasher.verify(passwordOld, storedPasswordString)) {
             throw new RestServiceFaultException(HttpServletResponse.SC_CONFLICT,
                 "Old Password does not match ");
           }
@@ -32,6 +32,10 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.kernel.api.serialization.BeanConverter;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Array;
 import java.util.Collection;
 import java.util.HashMap;
@@ -200,6 +204,25 @@ public class BeanJsonLibConverter implements BeanConverter {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.serialization.BeanConverter#writeTo(java.lang.Object,
+   *      java.io.OutputStream)
+   */
+  public void writeTo(Object pojo, OutputStream out) throws IOException {
+    Writer writer = new OutputStreamWriter(out, "UTF-8");
+    writer.write(convertToString(pojo));
+    writer.flush();
+  }
+
+  /**
+   * @return the json config used by this converter.
+   */
+  protected JsonConfig getJsonConfig() {
+    return jsonConfig;
+  }
+
   /**
    * Add a mapping to the json -> pojo conversion map.
    *
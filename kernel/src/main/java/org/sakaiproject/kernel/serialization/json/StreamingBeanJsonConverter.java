@@ -0,0 +1,629 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.sakaiproject.kernel.serialization.json;
+
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.name.Named;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONFunction;
+import net.sf.json.JSONObject;
+import net.sf.json.JSONString;
+import net.sf.json.JsonConfig;
+import net.sf.json.processors.JsonBeanProcessor;
+import net.sf.json.processors.JsonValueProcessor;
+import net.sf.json.util.JSONTokener;
+import net.sf.json.util.JSONUtils;
+import net.sf.json.util.PropertyFilter;
+
+import org.apache.commons.beanutils.DynaBean;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A BeanConverter that writes json directly to a stream rather than building a
+ * JSONObject tree and then a String from it. Read methods, value processors and
+ * bean processors are resolved once per bean class and cached, so repeated
+ * serialization of the same bean classes does no introspection.
+ * <p>
+ * The output is the same as the json-lib converter, using the same JsonConfig:
+ * property filters, value processors, bean processors and excludes are all
+ * honoured. Values that json-lib treats specially (json strings, functions,
+ * dyna beans and the like) are handed to json-lib, and anything that is not a
+ * map or a bean at the top level is converted by the parent class. Conversion
+ * from json to beans is unchanged, so the class mappings work as before.
+ */
+public class StreamingBeanJsonConverter extends BeanJsonLibConverter {
+
+  /**
+   * Size of the buffer between the json writer and the output stream.
+   */
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * The key used to wrap values that are handed to json-lib.
+   */
+  private static final String WRAPPER_KEY = "v";
+
+  /**
+   * The bean class metadata, by class.
+   */
+  private final ConcurrentMap<Class<?>, BeanMetadata> beanMetadata = new ConcurrentHashMap<Class<?>, BeanMetadata>();
+
+  /**
+   * @param injector
+   *          the Guice injector to use for conversion
+   * @param jsonConfig
+   *          the Json Configuration
+   */
+  @Inject
+  public StreamingBeanJsonConverter(Injector injector,
+      @Named("SakaiKernelJsonConfig") JsonConfig jsonConfig) {
+    super(injector, jsonConfig);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.serialization.json.BeanJsonLibConverter#convertToString(java.lang.Object)
+   */
+  @Override
+  public String convertToString(Object pojo) {
+    if (!isStreamable(pojo)) {
+      return super.convertToString(pojo);
+    }
+    StringWriter writer = new StringWriter();
+    try {
+      writeValue(pojo, writer, new IdentityHashMap<Object, Object>(), false);
+    } catch (IOException e) {
+      // a StringWriter does not throw IOExceptions
+      throw new JSONException(e);
+    }
+    return writer.toString();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.serialization.json.BeanJsonLibConverter#writeTo(java.lang.Object,
+   *      java.io.OutputStream)
+   */
+  @Override
+  public void writeTo(Object pojo, OutputStream out) throws IOException {
+    if (!isStreamable(pojo)) {
+      super.writeTo(pojo, out);
+      return;
+    }
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"),
+        BUFFER_SIZE);
+    writeValue(pojo, writer, new IdentityHashMap<Object, Object>(), false);
+    writer.flush();
+  }
+
+  /**
+   * @param pojo
+   * @return true if the pojo is a map or a bean, and so would be converted to
+   *         a JSONObject by json-lib.
+   */
+  private boolean isStreamable(Object pojo) {
+    if (pojo == null) {
+      return false;
+    }
+    if (pojo instanceof Map) {
+      return true;
+    }
+    return !isJsonLibValue(pojo) && !JSONUtils.isArray(pojo)
+        && !JSONUtils.isString(pojo) && !JSONUtils.isNumber(pojo)
+        && !JSONUtils.isBoolean(pojo);
+  }
+
+  /**
+   * @param value
+   * @return true if the value is one of the json-lib types that is converted
+   *         by json-lib rather than streamed.
+   */
+  private boolean isJsonLibValue(Object value) {
+    return value instanceof JSON || value instanceof JSONString
+        || value instanceof JSONFunction || value instanceof JSONTokener
+        || value instanceof DynaBean || value instanceof Enum;
+  }
+
+  /**
+   * Write a value in json form.
+   *
+   * @param value
+   *          the value to write
+   * @param out
+   *          the writer
+   * @param ancestors
+   *          the containers that are currently being written, to detect cycles
+   * @param element
+   *          true if the value is an element of an array, false if it is the
+   *          value of a key.
+   * @throws IOException
+   */
+  private void writeValue(Object value, Writer out,
+      IdentityHashMap<Object, Object> ancestors, boolean element)
+      throws IOException {
+    if (value == null) {
+      out.write("null");
+    } else if (value instanceof String) {
+      writeString((String) value, out, element);
+    } else if (value instanceof Number) {
+      out.write(JSONUtils.numberToString((Number) value));
+    } else if (value instanceof Boolean) {
+      out.write(value.toString());
+    } else if (value instanceof Character) {
+      writeString(String.valueOf(value), out, element);
+    } else if (value instanceof JSON) {
+      out.write(value.toString());
+    } else if (isJsonLibValue(value)) {
+      writeJsonLib(value, out, element);
+    } else if (value instanceof Map) {
+      writeMap((Map<?, ?>) value, out, ancestors);
+    } else if (value instanceof Collection) {
+      writeCollection((Collection<?>) value, out, ancestors);
+    } else if (value.getClass().isArray()) {
+      writeArray(value, out, ancestors);
+    } else {
+      writeBean(value, out, ancestors);
+    }
+  }
+
+  /**
+   * Write a String, quoted and escaped in the same way as JSONUtils.quote.
+   * Strings that json-lib would treat as json or as a function are handed to
+   * json-lib.
+   *
+   * @param s
+   * @param out
+   * @param element
+   * @throws IOException
+   */
+  private void writeString(String s, Writer out, boolean element)
+      throws IOException {
+    int len = s.length();
+    if (len > 0) {
+      char first = s.charAt(0);
+      if (first == '{' || first == '[' || first == '"' || first == '\''
+          || "null".equals(s) || s.startsWith("function")) {
+        writeJsonLib(s, out, element);
+        return;
+      }
+    }
+    out.write('"');
+    int start = 0;
+    char previous = 0;
+    for (int i = 0; i < len; i++) {
+      char c = s.charAt(i);
+      String escape = null;
+      switch (c) {
+      case '"':
+        escape = "\\\"";
+        break;
+      case '\\':
+        escape = "\\\\";
+        break;
+      case '/':
+        if (previous == '<') {
+          escape = "\\/";
+        }
+        break;
+      case '\b':
+        escape = "\\b";
+        break;
+      case '\t':
+        escape = "\\t";
+        break;
+      case '\n':
+        escape = "\\n";
+        break;
+      case '\f':
+        escape = "\\f";
+        break;
+      case '\r':
+        escape = "\\r";
+        break;
+      default:
+        if (c < ' ') {
+          String hex = "000" + Integer.toHexString(c);
+          escape = "\\u" + hex.substring(hex.length() - 4);
+        }
+      }
+      if (escape != null) {
+        out.write(s, start, i - start);
+        out.write(escape);
+        start = i + 1;
+      }
+      previous = c;
+    }
+    out.write(s, start, len - start);
+    out.write('"');
+  }
+
+  /**
+   * Let json-lib convert a single value, for the cases it treats specially. The
+   * value is wrapped in an array or a map, as json-lib would see it, and the
+   * wrapper is stripped from the output.
+   *
+   * @param value
+   * @param out
+   * @param element
+   * @throws IOException
+   */
+  private void writeJsonLib(Object value, Writer out, boolean element)
+      throws IOException {
+    if (element) {
+      String json = JSONArray.fromObject(new Object[] { value },
+          getJsonConfig()).toString();
+      // [value]
+      out.write(json, 1, json.length() - 2);
+    } else {
+      String json = JSONObject.fromObject(
+          Collections.singletonMap(WRAPPER_KEY, value), getJsonConfig())
+          .toString();
+      int start = WRAPPER_KEY.length() + 4;
+      if (json.length() > start) {
+        // {"v":value}
+        out.write(json, start, json.length() - start - 1);
+      } else {
+        out.write("null");
+      }
+    }
+  }
+
+  /**
+   * @param map
+   * @param out
+   * @param ancestors
+   * @throws IOException
+   */
+  private void writeMap(Map<?, ?> map, Writer out,
+      IdentityHashMap<Object, Object> ancestors) throws IOException {
+    JsonConfig jsonConfig = getJsonConfig();
+    if (ancestors.containsKey(map)) {
+      out.write(jsonConfig.getCycleDetectionStrategy()
+          .handleRepeatedReferenceAsObject(map).toString());
+      return;
+    }
+    ancestors.put(map, map);
+    PropertyFilter filter = jsonConfig.getJsonPropertyFilter();
+    out.write('{');
+    boolean first = true;
+    for (Map.Entry<?, ?> e : map.entrySet()) {
+      if (e.getKey() == null) {
+        throw new JSONException("JSON keys cannot be null.");
+      }
+      String key = String.valueOf(e.getKey());
+      Object value = e.getValue();
+      if (filter != null && filter.apply(map, key, value)) {
+        continue;
+      }
+      if (value != null) {
+        JsonValueProcessor processor = jsonConfig.findJsonValueProcessor(value
+            .getClass(), key);
+        if (processor != null) {
+          value = processor.processObjectValue(key, value, jsonConfig);
+        }
+      }
+      first = writeKey(JSONUtils.quote(key), first, out);
+      writeValue(value, out, ancestors, false);
+    }
+    out.write('}');
+    ancestors.remove(map);
+  }
+
+  /**
+   * @param collection
+   * @param out
+   * @param ancestors
+   * @throws IOException
+   */
+  private void writeCollection(Collection<?> collection, Writer out,
+      IdentityHashMap<Object, Object> ancestors) throws IOException {
+    if (ancestors.containsKey(collection)) {
+      out.write(getJsonConfig().getCycleDetectionStrategy()
+          .handleRepeatedReferenceAsArray(collection).toString());
+      return;
+    }
+    ancestors.put(collection, collection);
+    out.write('[');
+    boolean first = true;
+    for (Object element : collection) {
+      if (!first) {
+        out.write(',');
+      }
+      first = false;
+      writeElement(element, out, ancestors);
+    }
+    out.write(']');
+    ancestors.remove(collection);
+  }
+
+  /**
+   * @param array
+   *          an array, of objects or primitives
+   * @param out
+   * @param ancestors
+   * @throws IOException
+   */
+  private void writeArray(Object array, Writer out,
+      IdentityHashMap<Object, Object> ancestors) throws IOException {
+    if (ancestors.containsKey(array)) {
+      out.write(getJsonConfig().getCycleDetectionStrategy()
+          .handleRepeatedReferenceAsArray(array).toString());
+      return;
+    }
+    ancestors.put(array, array);
+    out.write('[');
+    if (array instanceof Object[]) {
+      Object[] objects = (Object[]) array;
+      for (int i = 0; i < objects.length; i++) {
+        if (i > 0) {
+          out.write(',');
+        }
+        writeElement(objects[i], out, ancestors);
+      }
+    } else {
+      int length = Array.getLength(array);
+      for (int i = 0; i < length; i++) {
+        if (i > 0) {
+          out.write(',');
+        }
+        writeElement(Array.get(array, i), out, ancestors);
+      }
+    }
+    out.write(']');
+    ancestors.remove(array);
+  }
+
+  /**
+   * Write an element of a collection or array, applying any value processor
+   * registered for its type.
+   *
+   * @param element
+   * @param out
+   * @param ancestors
+   * @throws IOException
+   */
+  private void writeElement(Object element, Writer out,
+      IdentityHashMap<Object, Object> ancestors) throws IOException {
+    if (element != null) {
+      JsonConfig jsonConfig = getJsonConfig();
+      JsonValueProcessor processor = jsonConfig.findJsonValueProcessor(element
+          .getClass());
+      if (processor != null) {
+        element = processor.processArrayValue(element, jsonConfig);
+      }
+    }
+    writeValue(element, out, ancestors, true);
+  }
+
+  /**
+   * @param bean
+   * @param out
+   * @param ancestors
+   * @throws IOException
+   */
+  private void writeBean(Object bean, Writer out,
+      IdentityHashMap<Object, Object> ancestors) throws IOException {
+    JsonConfig jsonConfig = getJsonConfig();
+    if (ancestors.containsKey(bean)) {
+      out.write(jsonConfig.getCycleDetectionStrategy()
+          .handleRepeatedReferenceAsObject(bean).toString());
+      return;
+    }
+    BeanMetadata metadata = getBeanMetadata(bean.getClass());
+    if (metadata.beanProcessor != null) {
+      JSONObject json = metadata.beanProcessor.processBean(bean, jsonConfig);
+      out.write(json == null ? "null" : json.toString());
+      return;
+    }
+    ancestors.put(bean, bean);
+    PropertyFilter filter = jsonConfig.getJsonPropertyFilter();
+    out.write('{');
+    boolean first = true;
+    for (BeanProperty property : metadata.properties) {
+      Object value = property.get(bean);
+      if (filter != null && filter.apply(bean, property.name, value)) {
+        continue;
+      }
+      if (property.valueProcessor != null) {
+        value = property.valueProcessor.processObjectValue(property.name,
+            value, jsonConfig);
+      }
+      if (value == null) {
+        value = jsonConfig.findDefaultValueProcessor(property.type)
+            .getDefaultValue(property.type);
+        if (value == null) {
+          // json-lib drops keys with null values.
+          continue;
+        }
+      }
+      first = writeKey(property.quotedName, first, out);
+      writeValue(value, out, ancestors, false);
+    }
+    out.write('}');
+    ancestors.remove(bean);
+  }
+
+  /**
+   * @param quotedKey
+   *          the key, already quoted.
+   * @param first
+   *          true if this is the first key in the object.
+   * @param out
+   * @return false, the next key will not be the first.
+   * @throws IOException
+   */
+  private boolean writeKey(String quotedKey, boolean first, Writer out)
+      throws IOException {
+    if (!first) {
+      out.write(',');
+    }
+    out.write(quotedKey);
+    out.write(':');
+    return false;
+  }
+
+  /**
+   * @param beanClass
+   * @return the cached metadata for the bean class, creating it on first use.
+   */
+  private BeanMetadata getBeanMetadata(Class<?> beanClass) {
+    BeanMetadata metadata = beanMetadata.get(beanClass);
+    if (metadata == null) {
+      // two threads may both introspect the class, the results are the same.
+      metadata = new BeanMetadata(beanClass, getJsonConfig());
+      BeanMetadata existing = beanMetadata.putIfAbsent(beanClass, metadata);
+      if (existing != null) {
+        metadata = existing;
+      }
+    }
+    return metadata;
+  }
+
+  /**
+   * The serialization metadata for a bean class, taken from the JsonConfig
+   * when the class is first seen.
+   */
+  private static class BeanMetadata {
+
+    private final JsonBeanProcessor beanProcessor;
+    private final BeanProperty[] properties;
+
+    /**
+     * @param beanClass
+     * @param jsonConfig
+     */
+    BeanMetadata(Class<?> beanClass, JsonConfig jsonConfig) {
+      beanProcessor = jsonConfig.findJsonBeanProcessor(beanClass);
+      List<BeanProperty> readable = new ArrayList<BeanProperty>();
+      if (beanProcessor == null) {
+        Collection<?> excludes = jsonConfig.getMergedExcludes();
+        PropertyDescriptor[] descriptors;
+        try {
+          BeanInfo beanInfo = Introspector.getBeanInfo(beanClass);
+          descriptors = beanInfo.getPropertyDescriptors();
+        } catch (IntrospectionException e) {
+          throw new JSONException(e);
+        }
+        for (PropertyDescriptor pd : descriptors) {
+          String name = pd.getName();
+          Method readMethod = pd.getReadMethod();
+          if (readMethod == null || excludes.contains(name)) {
+            if (readMethod == null && LOG.isDebugEnabled()) {
+              LOG.debug("Property " + name + " of " + beanClass
+                  + " has no read method, skipped");
+            }
+            continue;
+          }
+          Class<?> type = pd.getPropertyType();
+          readable.add(new BeanProperty(name, type, accessible(readMethod),
+              jsonConfig.findJsonValueProcessor(beanClass, type, name)));
+        }
+      }
+      properties = readable.toArray(new BeanProperty[readable.size()]);
+    }
+
+    /**
+     * Read methods declared by non public classes, eg anonymous
+     * implementations of public interfaces, cannot be invoked without
+     * suppressing the access check.
+     *
+     * @param method
+     * @return the method, ready to invoke.
+     */
+    private static Method accessible(Method method) {
+      if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+        try {
+          method.setAccessible(true);
+        } catch (SecurityException e) {
+          LOG.debug("Unable to make " + method + " accessible ");
+        }
+      }
+      return method;
+    }
+  }
+
+  /**
+   * A readable bean property.
+   */
+  private static class BeanProperty {
+
+    private final String name;
+    private final String quotedName;
+    private final Class<?> type;
+    private final Method readMethod;
+    private final JsonValueProcessor valueProcessor;
+
+    /**
+     * @param name
+     * @param type
+     * @param readMethod
+     * @param valueProcessor
+     */
+    BeanProperty(String name, Class<?> type, Method readMethod,
+        JsonValueProcessor valueProcessor) {
+      this.name = name;
+      this.quotedName = JSONUtils.quote(name);
+      this.type = type;
+      this.readMethod = readMethod;
+      this.valueProcessor = valueProcessor;
+    }
+
+    /**
+     * @param bean
+     * @return the value of the property.
+     */
+    Object get(Object bean) {
+      try {
+        return readMethod.invoke(bean);
+      } catch (IllegalAccessException e) {
+        throw new JSONException(e);
+      } catch (InvocationTargetException e) {
+        throw new JSONException(e.getCause());
+      }
+    }
+  }
+}
@@ -18,6 +18,8 @@
 package org.sakaiproject.kernel.social;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
@@ -30,7 +32,7 @@ import org.sakaiproject.kernel.api.serialization.BeanConverter;
 import org.sakaiproject.kernel.api.session.SessionManagerService;
 import org.sakaiproject.kernel.api.user.ProfileResolverService;
 import org.sakaiproject.kernel.api.user.UserProfile;
-import org.sakaiproject.kernel.jcr.api.JcrContentListener;
+import org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener;
 import org.sakaiproject.kernel.model.FriendBean;
 import org.sakaiproject.kernel.model.FriendsBean;
 import org.sakaiproject.kernel.model.FriendsIndexBean;
@@ -40,6 +42,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.jcr.RepositoryException;
 import javax.persistence.EntityManager;
@@ -47,9 +51,12 @@ import javax.persistence.EntityTransaction;
 import javax.persistence.Query;
 
 /**
- *
+ * Keeps the friends index in step with the friends file of each user. Events
+ * are delivered off the observation thread through a queue keyed by the path
+ * of the friends file, which is one file per user, so repeated saves of the
+ * friends of a user are indexed once.
  */
-public class FriendsListener implements JcrContentListener {
+public class FriendsListener implements RoutedJcrContentListener {
 
   private static final Log LOG = LogFactory.getLog(FriendsListener.class);
   private static final boolean debug = LOG.isDebugEnabled();
@@ -83,6 +90,24 @@ public class FriendsListener implements JcrContentListener {
     this.profileResolverService = profileResolverService;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener#getPathPrefixes()
+   */
+  public String[] getPathPrefixes() {
+    return new String[] {privatePathBase};
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener#getFileNames()
+   */
+  public String[] getFileNames() {
+    return new String[] {KernelConstants.FRIENDS_FILE};
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -91,9 +116,6 @@ public class FriendsListener implements JcrContentListener {
    */
   public void onEvent(int type, String userID, String filePath, String fileName) {
     if (filePath.startsWith(privatePathBase)) {
-      System.err.println("++++++++++++++++++++++++++ Checking event matches "
-          + fileName + " " + KernelConstants.FRIENDS_FILE + " "
-          + fileName.equals(KernelConstants.FRIENDS_FILE));
       if (fileName.equals(KernelConstants.FRIENDS_FILE)) {
         String friendsBody = null;
         InputStream in = null;
@@ -101,63 +123,9 @@ public class FriendsListener implements JcrContentListener {
           in = jcrNodeFactoryService.getInputStream(filePath);
           friendsBody = IOUtils.readFully(in, "UTF-8");
           if (friendsBody != null && friendsBody.length() > 0) {
-            System.err.println("Converting " + friendsBody + " to Bean");
             FriendsBean friendsBean = beanConverter.convertToObject(
                 friendsBody, FriendsBean.class);
-
-            Query query = entityManager
-                .createNamedQuery(FriendsIndexBean.FINDBY_UUID);
-            query.setParameter(FriendsIndexBean.PARAM_UUID, friendsBean
-                .getUuid());
-            List<?> friendsIndexBeanList = query.getResultList();
-            List<FriendsIndexBean> toAdd = Lists.newArrayList();
-            List<FriendsIndexBean> toRemove = Lists.newArrayList();
-            List<FriendsIndexBean> toUpdate = Lists.newArrayList();
-
-            for (Object o : friendsIndexBeanList) {
-              FriendsIndexBean friendIndexBean = (FriendsIndexBean) o;
-              if (!friendsBean.hasFriend(friendIndexBean.getFriendUuid())) {
-                toRemove.add(friendIndexBean);
-              }
-            }
-
-            for (FriendBean friendBean : friendsBean.getFriends()) {
-              boolean found = false;
-              String newFriendUuid = friendBean.getFriendUuid();
-              for (Object o : friendsIndexBeanList) {
-                FriendsIndexBean friendIndexBean = (FriendsIndexBean) o;
-                String friendUuid = friendIndexBean.getFriendUuid();
-                if (newFriendUuid.equals(friendUuid)) {
-                  found = true;
-                  if ( friendBean.getLastUpdate() > friendIndexBean.getLastUpdate() ) {
-                    UserProfile userProfile = profileResolverService
-                    .resolve(friendUuid);
-                    friendIndexBean.copy(friendBean,userProfile);
-
-                    toUpdate.add(friendIndexBean);
-                  }
-                  break;
-                }
-              }
-              if (!found) {
-                UserProfile userProfile = profileResolverService
-                    .resolve(newFriendUuid);
-                toAdd.add(new FriendsIndexBean(friendBean,userProfile));
-              }
-            }
-
-            EntityTransaction transaction = entityManager.getTransaction();
-            transaction.begin();
-            for (FriendsIndexBean gm : toRemove) {
-              entityManager.remove(gm);
-            }
-            for (FriendsIndexBean gm : toAdd) {
-              entityManager.persist(gm);
-            }
-            for (FriendsIndexBean gm : toUpdate) {
-              entityManager.persist(gm);
-            }
-            transaction.commit();
+            updateIndex(friendsBean);
           }
 
         } catch (UnsupportedEncodingException e) {
@@ -186,4 +154,84 @@ public class FriendsListener implements JcrContentListener {
       }
     }
   }
+
+  /**
+   * Bring the index rows of a user into line with their friends file. Rows are
+   * matched to friends by friend uuid, the profiles of new and changed friends
+   * are resolved together, and the changes are written in one transaction.
+   *
+   * @param friendsBean
+   */
+  private void updateIndex(FriendsBean friendsBean) {
+    Query query = entityManager.createNamedQuery(FriendsIndexBean.FINDBY_UUID);
+    query.setParameter(FriendsIndexBean.PARAM_UUID, friendsBean.getUuid());
+    List<?> friendsIndexBeanList = query.getResultList();
+    Map<String, FriendsIndexBean> current = Maps.newHashMap();
+    List<FriendsIndexBean> toRemove = Lists.newArrayList();
+    for (Object o : friendsIndexBeanList) {
+      FriendsIndexBean friendIndexBean = (FriendsIndexBean) o;
+      if (current.containsKey(friendIndexBean.getFriendUuid())) {
+        // only one row is kept for each friend.
+        toRemove.add(friendIndexBean);
+      } else {
+        current.put(friendIndexBean.getFriendUuid(), friendIndexBean);
+      }
+    }
+
+    List<FriendBean> added = Lists.newArrayList();
+    List<FriendsIndexBean> toUpdate = Lists.newArrayList();
+    Set<String> changedUuids = Sets.newHashSet();
+    for (FriendBean friendBean : friendsBean.getFriends()) {
+      FriendsIndexBean friendIndexBean = current.remove(friendBean
+          .getFriendUuid());
+      if (friendIndexBean == null) {
+        added.add(friendBean);
+        changedUuids.add(friendBean.getFriendUuid());
+      } else if (friendBean.getLastUpdate() > friendIndexBean.getLastUpdate()) {
+        toUpdate.add(friendIndexBean);
+        changedUuids.add(friendBean.getFriendUuid());
+      }
+    }
+    toRemove.addAll(current.values());
+    if (changedUuids.isEmpty() && toRemove.isEmpty()) {
+      return;
+    }
+
+    Map<String, UserProfile> profiles = profileResolverService
+        .resolve(changedUuids);
+    List<FriendsIndexBean> toAdd = Lists.newArrayList();
+    for (FriendBean friendBean : added) {
+      toAdd.add(new FriendsIndexBean(friendBean, profiles.get(friendBean
+          .getFriendUuid())));
+    }
+    for (FriendsIndexBean friendIndexBean : toUpdate) {
+      String friendUuid = friendIndexBean.getFriendUuid();
+      friendIndexBean.copy(friendsBean.getFriend(friendUuid), profiles
+          .get(friendUuid));
+    }
+
+    EntityTransaction transaction = entityManager.getTransaction();
+    transaction.begin();
+    try {
+      for (FriendsIndexBean gm : toRemove) {
+        entityManager.remove(gm);
+      }
+      for (FriendsIndexBean gm : toAdd) {
+        entityManager.persist(gm);
+      }
+      for (FriendsIndexBean gm : toUpdate) {
+        entityManager.persist(gm);
+      }
+      transaction.commit();
+      if (debug) {
+        LOG.debug("Updated friends index for " + friendsBean.getUuid() + ", "
+            + toAdd.size() + " added, " + toUpdate.size() + " updated, "
+            + toRemove.size() + " removed");
+      }
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
 }
@@ -15,16 +15,14 @@
  * KIND, either express or implied. See the License for the
  * specific language governing permissions and limitations under the License.
  */
-
 package org.sakaiproject.kernel.user;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.sakaiproject.kernel.api.memory.Cache;
-import org.sakaiproject.kernel.api.memory.CacheManagerService;
-import org.sakaiproject.kernel.api.memory.CacheScope;
 import org.sakaiproject.kernel.api.user.Authentication;
 import org.sakaiproject.kernel.api.user.IdPrincipal;
 import org.sakaiproject.kernel.api.user.IdPwPrincipal;
@@ -33,115 +31,330 @@ import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Because DAV clients do not understand the concept of secure sessions, a DAV
  * user will end up asking Sakai to re-authenticate them for every action. To
- * ease the overhead, this class checks a size-limited timing-out cache of
- * one-way encrypted successful authentication IDs and passwords.
+ * ease the overhead, this class holds recently verified credentials, so that
+ * a repeated Basic login is checked against a fast salted digest instead of
+ * the deliberately slow stored password hash. Records expire after a time to
+ * live and the number held is bounded.
  * <p>
- * There's nothing DAV-specific about this class, and it's also independent of
- * any Sakai classes other than the "Authentication" user ID and EID holder.
- *
+ * Failed logins are also recorded for each identifier. A repeat of the last
+ * failed password is refused without a check, and once too many logins have
+ * failed within the failure window each further login for the identifier that
+ * does not match a verified credential is delayed before it is checked. Logins
+ * are throttled rather than refused so that anyone who knows an identifier
+ * cannot lock its owner out, the owner's correct password is always checked and
+ * a verified credential is always honoured. Failure records are only removed
+ * once their window has ended, so they may exceed the maximum size while many
+ * logins are failing. Both maps are concurrent and none of the checks take a
+ * lock.
  */
+@Singleton
 public class AuthenticationCache {
   private static final Log LOG = LogFactory.getLog(AuthenticationCache.class);
 
   private static final boolean debug = LOG.isDebugEnabled();
 
-  private Cache<AuthenticationRecord> authCache;
+  /**
+   * The time in ms that a verified credential is trusted.
+   */
+  public static final String TTL = "authentication.cache.ttl";
+  /**
+   * The most credentials, and the most failure records, held.
+   */
+  public static final String MAX_SIZE = "authentication.cache.size";
+  /**
+   * The number of failed logins for an identifier that are allowed in the
+   * failure window.
+   */
+  public static final String FAILURE_LIMIT = "authentication.failure.limit";
+  /**
+   * The time in ms over which failed logins are counted.
+   */
+  public static final String FAILURE_WINDOW = "authentication.failure.window";
+  /**
+   * The time in ms that a login is delayed once the failure limit is reached.
+   */
+  public static final String FAILURE_DELAY = "authentication.failure.delay";
 
+  private final ConcurrentMap<String, VerifiedRecord> verified = new ConcurrentHashMap<String, VerifiedRecord>();
+  private final ConcurrentMap<String, FailureRecord> failures = new ConcurrentHashMap<String, FailureRecord>();
+  private final long ttl;
+  private final int maxSize;
+  private final int failureLimit;
+  private final long failureWindow;
+  private final long failureDelay;
   /**
-   *
+   * When failure records were last swept for ended windows.
+   */
+  private final AtomicLong lastSweep = new AtomicLong();
+  /**
+   * Salts the digests held in memory, so they cant be matched against
+   * precomputed tables.
    */
+  private final byte[] salt = new byte[16];
 
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong refusals = new AtomicLong();
+  private final AtomicLong delays = new AtomicLong();
+
+  /**
+   * @param ttl
+   *          the time in ms that a verified credential is trusted, 0 disables
+   *          the cache of verified credentials.
+   * @param maxSize
+   *          the most credentials, and failure records, held.
+   * @param failureLimit
+   *          the number of failed logins allowed in the failure window.
+   * @param failureWindow
+   *          the time in ms over which failures are counted.
+   * @param failureDelay
+   *          the time in ms that a login is delayed once the failure limit is
+   *          reached.
+   */
   @Inject
-  public AuthenticationCache(CacheManagerService cacheManager) {
-    this.authCache = cacheManager.getCache(AuthenticationCache.class.getName(),
-        CacheScope.INSTANCE);
+  public AuthenticationCache(@Named(TTL) long ttl,
+      @Named(MAX_SIZE) int maxSize, @Named(FAILURE_LIMIT) int failureLimit,
+      @Named(FAILURE_WINDOW) long failureWindow,
+      @Named(FAILURE_DELAY) long failureDelay) {
+    this.ttl = ttl;
+    this.maxSize = maxSize;
+    this.failureLimit = failureLimit;
+    this.failureWindow = failureWindow;
+    this.failureDelay = failureDelay;
+    new SecureRandom().nextBytes(salt);
   }
 
+  /**
+   * @param idPrincipal
+   *          the credentials presented.
+   * @return the authentication of a matching verified credential, or null if
+   *         the credentials must be checked. If too many logins for the
+   *         identifier have failed, the return is delayed.
+   * @throws SecurityException
+   *           if the password is the one that last failed.
+   */
   public Authentication getAuthentication(IdPrincipal idPrincipal)
       throws SecurityException {
-    Authentication auth = null;
-    try {
-      AuthenticationRecord record = authCache.get(idPrincipal.getIdentifier());
-      if (record.withpassword) {
-
-        if (idPrincipal instanceof IdPwPrincipal) {
-          IdPwPrincipal idPwPrincipal = (IdPwPrincipal) idPrincipal;
-          if (MessageDigest.isEqual(record.encodedPassword,
-              getEncrypted(idPwPrincipal.getPassword()))) {
-            if (record.authentication == null) {
-              if (debug) {
-                LOG
-                    .debug("getAuthentication: replaying authentication failure for authenticationId="
-                        + idPrincipal.getIdentifier());
-              }
-              throw new SecurityException("repeated invalid login");
-            } else {
-              if (debug) {
-                LOG
-                    .debug("getAuthentication: returning record for authenticationId="
-                        + idPrincipal.getIdentifier());
-              }
-              auth = record.authentication;
-            }
-          } else {
-            // Since the passwords didn't match, we're no longer getting
-            // repeats,
-            // and so the record should be removed.
-            if (debug) {
-              LOG.debug("getAuthentication: record for authenticationId="
-                  + idPrincipal.getIdentifier() + " failed password check");
-            }
-            authCache.remove(idPrincipal.getIdentifier());
-          }
+    if (!(idPrincipal instanceof IdPwPrincipal)) {
+      return null;
+    }
+    String id = idPrincipal.getIdentifier();
+    long now = System.currentTimeMillis();
+    byte[] digest = digest(((IdPwPrincipal) idPrincipal).getPassword());
+
+    // a verified credential is honoured whatever has failed since.
+    VerifiedRecord record = verified.get(id);
+    if (record != null) {
+      if (record.expires <= now) {
+        verified.remove(id, record);
+      } else if (MessageDigest.isEqual(record.digest, digest)) {
+        hits.incrementAndGet();
+        if (debug) {
+          LOG.debug("getAuthentication: returning record for authenticationId="
+              + id);
         }
+        return record.authentication;
       }
-    } catch (NullPointerException e) {
-      // this is ok and generally expected to indicate the value is not in the
-      // cache
-      auth = null;
+      // a different password, the record stays for the real owner and this
+      // login is checked in full.
     }
-    return auth;
+
+    FailureRecord failure = failures.get(id);
+    if (failure != null && failure.isCurrent(now, failureWindow)) {
+      if (MessageDigest.isEqual(failure.digest, digest)) {
+        refusals.incrementAndGet();
+        putAuthenticationFailure(idPrincipal);
+        if (debug) {
+          LOG.debug("getAuthentication: replaying authentication failure for authenticationId="
+              + id);
+        }
+        throw new SecurityException("repeated invalid login");
+      }
+      if (failure.count.get() >= failureLimit && failureDelay > 0) {
+        delays.incrementAndGet();
+        if (debug) {
+          LOG.debug("getAuthentication: too many failures, delaying authenticationId="
+              + id);
+        }
+        try {
+          Thread.sleep(failureDelay);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    misses.incrementAndGet();
+    return null;
   }
 
+  /**
+   * Record credentials that have just been verified.
+   *
+   * @param principal
+   * @param authentication
+   */
   public void putAuthentication(IdPrincipal principal,
       Authentication authentication) {
-    putAuthenticationRecord(principal, authentication);
+    if (!(principal instanceof IdPwPrincipal)) {
+      return;
+    }
+    failures.remove(principal.getIdentifier());
+    if (ttl <= 0) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (verified.size() >= maxSize) {
+      evictVerified(now);
+    }
+    verified.put(principal.getIdentifier(), new VerifiedRecord(
+        digest(((IdPwPrincipal) principal).getPassword()), authentication, now
+            + ttl));
   }
 
+  /**
+   * Record a failed login.
+   *
+   * @param principal
+   */
   public void putAuthenticationFailure(IdPrincipal principal) {
-    putAuthenticationRecord(principal, null);
+    if (!(principal instanceof IdPwPrincipal)) {
+      return;
+    }
+    String id = principal.getIdentifier();
+    byte[] digest = digest(((IdPwPrincipal) principal).getPassword());
+    long now = System.currentTimeMillis();
+    for (;;) {
+      FailureRecord failure = failures.get(id);
+      if (failure != null && failure.isCurrent(now, failureWindow)) {
+        failure.digest = digest;
+        failure.count.incrementAndGet();
+        return;
+      }
+      FailureRecord fresh = new FailureRecord(now, digest);
+      if (failure == null) {
+        if (failures.size() >= maxSize) {
+          sweepFailures(now);
+        }
+        if (failures.putIfAbsent(id, fresh) == null) {
+          return;
+        }
+      } else if (failures.replace(id, failure, fresh)) {
+        return;
+      }
+      // another thread changed the record, try again.
+    }
   }
 
+  /**
+   * Forget the credentials and failures of a principal, eg after a password
+   * change.
+   *
+   * @param principal
+   */
   public void expireCache(Principal principal) {
     if (principal instanceof IdPrincipal) {
-      authCache.remove(((IdPrincipal) principal).getIdentifier());
+      String id = ((IdPrincipal) principal).getIdentifier();
+      verified.remove(id);
+      failures.remove(id);
     }
   }
 
-  protected void putAuthenticationRecord(IdPrincipal principal,
-      Authentication authentication) {
+  /**
+   * @return the number of logins answered from verified credentials.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of logins that needed a full check.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the number of logins refused because they repeated the last failed
+   *         password.
+   */
+  public long getRefusals() {
+    return refusals.get();
+  }
+
+  /**
+   * @return the number of logins delayed because of earlier failures.
+   */
+  public long getDelays() {
+    return delays.get();
+  }
+
+  /**
+   * @return the number of verified credentials held.
+   */
+  public int size() {
+    return verified.size();
+  }
 
-    if (authCache.containsKey(principal.getIdentifier())) {
-      // Don't indefinitely renew the cached record -- we want to force
-      // real authentication after the timeout.
-    } else {
-      if (principal instanceof IdPwPrincipal) {
-        IdPwPrincipal idPassIdPwPrincipal = (IdPwPrincipal) principal;
-        authCache.put(principal.getIdentifier(), new AuthenticationRecord(
-            getEncrypted(idPassIdPwPrincipal.getPassword()), authentication,
-            System.currentTimeMillis()));
+  /**
+   * Remove expired credentials, and if the cache is still full, enough others
+   * to leave room. The entries removed beyond the expired ones are whichever
+   * the map yields first, which is cheap and good enough for a cache that is
+   * only a shortcut.
+   */
+  private void evictVerified(long now) {
+    for (Iterator<VerifiedRecord> i = verified.values().iterator(); i.hasNext();) {
+      if (i.next().expires <= now) {
+        i.remove();
+      }
+    }
+    int target = maxSize - Math.max(1, maxSize / 10);
+    for (Iterator<VerifiedRecord> i = verified.values().iterator(); i.hasNext()
+        && verified.size() > target;) {
+      i.next();
+      i.remove();
+    }
+  }
+
+  /**
+   * Remove failure records whose window has ended. Records whose window is
+   * still open are never removed, or an attacker could clear the failures of
+   * an identifier by failing logins for many others. A full map is swept at
+   * most a few times a window, so that a map full of open windows is not
+   * scanned on every failure.
+   */
+  private void sweepFailures(long now) {
+    long last = lastSweep.get();
+    if (now - last < failureWindow / 10 || !lastSweep.compareAndSet(last, now)) {
+      return;
+    }
+    for (Iterator<FailureRecord> i = failures.values().iterator(); i.hasNext();) {
+      if (!i.next().isCurrent(now, failureWindow)) {
+        i.remove();
       }
     }
   }
 
-  private byte[] getEncrypted(String plaintext) {
+  /**
+   * @return a salted SHA-256 digest of the password, which is fast, but not
+   *         suitable for storage.
+   */
+  private byte[] digest(String password) {
     try {
-      MessageDigest messageDigest = MessageDigest.getInstance("SHA");
-      messageDigest.update(plaintext.getBytes("UTF-8"));
+      MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+      messageDigest.update(salt);
+      if (password != null) {
+        messageDigest.update(password.getBytes("UTF-8"));
+      }
       return messageDigest.digest();
     } catch (NoSuchAlgorithmException e) {
       // This seems highly unlikely.
@@ -151,27 +364,40 @@ public class AuthenticationCache {
     }
   }
 
-  static class AuthenticationRecord {
-    protected byte[] encodedPassword;
-    protected Authentication authentication; // Null for failed authentication
-    protected long createTimeInMs;
-    protected boolean withpassword;
+  /**
+   * Credentials that have been verified.
+   */
+  private static final class VerifiedRecord {
+    private final byte[] digest;
+    private final Authentication authentication;
+    private final long expires;
 
-    public AuthenticationRecord(Authentication authentication,
-        long createTimeInMs) {
-      this.withpassword = false;
+    VerifiedRecord(byte[] digest, Authentication authentication, long expires) {
+      this.digest = digest;
       this.authentication = authentication;
-      this.createTimeInMs = createTimeInMs;
+      this.expires = expires;
     }
+  }
 
-    public AuthenticationRecord(byte[] encodedPassword,
-        Authentication authentication, long createTimeInMs) {
-      this.withpassword = true;
-      this.encodedPassword = encodedPassword;
-      this.authentication = authentication;
-      this.createTimeInMs = createTimeInMs;
+  /**
+   * Failed logins for an identifier within a window.
+   */
+  private static final class FailureRecord {
+    private final long start;
+    private final AtomicInteger count = new AtomicInteger(1);
+    /**
+     * The digest of the last failed password.
+     */
+    private volatile byte[] digest;
+
+    FailureRecord(long start, byte[] digest) {
+      this.start = start;
+      this.digest = digest;
     }
 
+    boolean isCurrent(long now, long window) {
+      return now < start + window;
+    }
   }
 
 }
@@ -43,6 +43,16 @@ public class AuthenticationImpl implements Authentication {
     uid = u.getUuid();
   }
 
+  /**
+   * Construct from a uid that has already been verified, eg by a signed token.
+   *
+   * @param uid
+   *          The UUID internal end user identifier string.
+   */
+  public AuthenticationImpl(String uid) {
+    this.uid = uid;
+  }
+
   /**
    * @inheritDoc
    */
@@ -27,6 +27,7 @@ import org.sakaiproject.kernel.api.user.AuthenticationManagerService;
 import org.sakaiproject.kernel.api.user.AuthenticationResolverService;
 import org.sakaiproject.kernel.api.user.ExternalTrustedPrincipal;
 import org.sakaiproject.kernel.api.user.IdPrincipal;
+import org.sakaiproject.kernel.api.user.TokenAuthenticationService;
 import org.sakaiproject.kernel.api.user.User;
 import org.sakaiproject.kernel.api.user.UserResolverService;
 
@@ -46,6 +47,7 @@ public class AuthenticationResolverServiceImpl implements
   private AuthenticationResolverService nextInChain;
   private UserResolverService userResolverService;
   private AuthenticationManagerService authenticationManager;
+  private TokenAuthenticationService tokenAuthenticationService;
 
   /**
    *
@@ -55,8 +57,10 @@ public class AuthenticationResolverServiceImpl implements
       @Named(RESOLVER_CHAIN_HEAD) AuthenticationResolverService nextInChain,
       @Named(RESOLVER_CHAIN_HEAD) AuthenticationManagerService authenticationManagerService,
       AuthenticationCache authenticationCache,
-      UserResolverService userResolverService) {
+      UserResolverService userResolverService,
+      TokenAuthenticationService tokenAuthenticationService) {
     this.authenticationCache = authenticationCache;
+    this.tokenAuthenticationService = tokenAuthenticationService;
     this.nextInChain = nextInChain;
     this.authenticationManager = authenticationManagerService;
     this.userResolverService = userResolverService;
@@ -86,20 +90,25 @@ public class AuthenticationResolverServiceImpl implements
     } else if (principal instanceof IdPrincipal) {
       IdPrincipal idPrincipal = (IdPrincipal) principal;
 
-      // Check the cache. If repeat authentication failures are being throttled,
-      // an immediate AuthenticationException might be thrown here.
+      // Check the cache. A repeat of the last failed password is refused here,
+      // and after too many failures the check is delayed.
       rv = authenticationCache.getAuthentication(idPrincipal);
       if (rv == null) {
-        rv = nextInChain.authenticate(principal);
+        try {
+          rv = nextInChain.authenticate(principal);
+        } catch (SecurityException e) {
+          authenticationCache.putAuthenticationFailure(idPrincipal);
+          throw e;
+        }
         if (rv == null) {
           authenticationCache.putAuthenticationFailure(idPrincipal);
           throw new SecurityException(
               "Invalid Login: Either user not found or password incorrect.");
         }
+        // Cache the authentication, a cached one is not renewed so that a
+        // full check is forced when it expires.
+        authenticationCache.putAuthentication(idPrincipal, rv);
       }
-
-      // Cache the authentication.
-      authenticationCache.putAuthentication(idPrincipal, rv);
     } else {
       rv = nextInChain.authenticate(principal);
     }
@@ -119,6 +128,14 @@ public class AuthenticationResolverServiceImpl implements
       throws SecurityException {
     authenticationManager.setAuthentication(oldPrincipal, newPrincipal);
     authenticationCache.expireCache(newPrincipal);
+    // tokens issued with the old password must not outlive it.
+    if (newPrincipal instanceof IdPrincipal) {
+      User user = userResolverService.resolve(((IdPrincipal) newPrincipal)
+          .getIdentifier());
+      if (user != null) {
+        tokenAuthenticationService.revoke(user.getUuid());
+      }
+    }
     return true;
   }
 }
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.user;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.commons.codec.binary.Base64;
+import org.sakaiproject.kernel.util.StringUtils;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Hashes passwords for storage with a random salt and PBKDF2 (HMAC-SHA1), the
+ * number of iterations sets the cost of each check and can be raised as
+ * hardware gets faster. A stored hash has the form
+ * <code>pbkdf2:iterations:salt:hash</code>, salt and hash base64 encoded.
+ * Hashes written before this class, the unsalted SHA-1 of the password, are
+ * still verified and are reported as needing a rehash, so they can be replaced
+ * on the next successful login.
+ */
+@Singleton
+public class PasswordHasher {
+
+  /**
+   * The number of PBKDF2 iterations used for new hashes.
+   */
+  public static final String ITERATIONS = "authentication.password.iterations";
+  private static final String PREFIX = "pbkdf2:";
+  private static final String HMAC = "HmacSHA1";
+  private static final int SALT_BYTES = 16;
+  private static final int HASH_BYTES = 20;
+
+  private final int iterations;
+  private final SecureRandom random = new SecureRandom();
+
+  /**
+   * @param iterations
+   *          the number of iterations for new hashes.
+   */
+  @Inject
+  public PasswordHasher(@Named(ITERATIONS) int iterations) {
+    if (iterations < 1) {
+      throw new IllegalArgumentException("At least one iteration is required "
+          + iterations);
+    }
+    this.iterations = iterations;
+  }
+
+  /**
+   * @param password
+   *          the password in clear.
+   * @return a salted hash of the password, suitable for storage.
+   */
+  public String hash(String password) {
+    byte[] salt = new byte[SALT_BYTES];
+    random.nextBytes(salt);
+    byte[] hash = pbkdf2(password, salt, iterations, HASH_BYTES);
+    return PREFIX + iterations + ":" + encode(salt) + ":" + encode(hash);
+  }
+
+  /**
+   * @param password
+   *          the password in clear.
+   * @param stored
+   *          a stored hash, in either the current or the legacy form.
+   * @return true if the password matches the stored hash.
+   */
+  public boolean verify(String password, String stored) {
+    if (password == null || stored == null) {
+      return false;
+    }
+    if (stored.startsWith(PREFIX)) {
+      String[] parts = stored.substring(PREFIX.length()).split(":");
+      if (parts.length != 3) {
+        return false;
+      }
+      int storedIterations;
+      try {
+        storedIterations = Integer.parseInt(parts[0]);
+      } catch (NumberFormatException e) {
+        return false;
+      }
+      byte[] expected = decode(parts[2]);
+      byte[] actual = pbkdf2(password, decode(parts[1]), storedIterations,
+          expected.length);
+      return MessageDigest.isEqual(expected, actual);
+    }
+    try {
+      return MessageDigest.isEqual(bytes(stored), bytes(StringUtils
+          .sha1Hash(password)));
+    } catch (GeneralSecurityException e) {
+      throw new SecurityException("Unable to hash password", e);
+    } catch (UnsupportedEncodingException e) {
+      throw new SecurityException("Unable to hash password", e);
+    }
+  }
+
+  /**
+   * @param stored
+   *          a stored hash.
+   * @return true if the hash is in the legacy form, or was made with fewer
+   *         iterations than are now configured.
+   */
+  public boolean needsRehash(String stored) {
+    if (stored == null || !stored.startsWith(PREFIX)) {
+      return true;
+    }
+    int end = stored.indexOf(':', PREFIX.length());
+    try {
+      return end < 0
+          || Integer.parseInt(stored.substring(PREFIX.length(), end)) < iterations;
+    } catch (NumberFormatException e) {
+      return true;
+    }
+  }
+
+  /**
+   * PBKDF2 with HMAC-SHA1 as defined by RFC 2898.
+   *
+   * @param password
+   * @param salt
+   * @param iterations
+   * @param length
+   *          the number of bytes to derive.
+   * @return the derived key.
+   */
+  public static byte[] pbkdf2(String password, byte[] salt, int iterations,
+      int length) {
+    try {
+      byte[] key = bytes(password);
+      if (key.length == 0) {
+        // HMAC pads keys with zeros, so this is the same key, but one that
+        // SecretKeySpec accepts.
+        key = new byte[1];
+      }
+      Mac mac = Mac.getInstance(HMAC);
+      mac.init(new SecretKeySpec(key, HMAC));
+      int hLen = mac.getMacLength();
+      byte[] derived = new byte[length];
+      for (int block = 1, offset = 0; offset < length; block++, offset += hLen) {
+        mac.update(salt);
+        mac.update(new byte[] { (byte) (block >>> 24), (byte) (block >>> 16),
+            (byte) (block >>> 8), (byte) block });
+        byte[] u = mac.doFinal();
+        byte[] t = u.clone();
+        for (int i = 1; i < iterations; i++) {
+          u = mac.doFinal(u);
+          for (int j = 0; j < t.length; j++) {
+            t[j] ^= u[j];
+          }
+        }
+        System.arraycopy(t, 0, derived, offset, Math.min(hLen, length - offset));
+      }
+      return derived;
+    } catch (GeneralSecurityException e) {
+      throw new SecurityException("Unable to hash password", e);
+    } catch (UnsupportedEncodingException e) {
+      throw new SecurityException("Unable to hash password", e);
+    }
+  }
+
+  private static byte[] bytes(String s) throws UnsupportedEncodingException {
+    return s.getBytes("UTF-8");
+  }
+
+  private static String encode(byte[] b) {
+    try {
+      return new String(Base64.encodeBase64(b), "US-ASCII");
+    } catch (UnsupportedEncodingException e) {
+      throw new SecurityException("Unable to encode hash", e);
+    }
+  }
+
+  private static byte[] decode(String s) {
+    try {
+      return Base64.decodeBase64(s.getBytes("US-ASCII"));
+    } catch (UnsupportedEncodingException e) {
+      throw new SecurityException("Unable to decode hash", e);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.user;
+
+import com.google.inject.Inject;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.kernel.KernelConstants;
+import org.sakaiproject.kernel.api.memory.Cache;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.memory.CacheScope;
+import org.sakaiproject.kernel.api.user.ProfileResolverService;
+import org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener;
+
+/**
+ * Removes the cached body of a profile file when the file changes. This is a
+ * synchronous listener, so the entry is gone before the save that changed the
+ * profile returns.
+ */
+public class ProfileCacheListener implements RoutedJcrContentListener {
+
+  private static final Log LOG = LogFactory.getLog(ProfileCacheListener.class);
+  private static final boolean debug = LOG.isDebugEnabled();
+  private final CacheManagerService cacheManagerService;
+
+  /**
+   * @param cacheManagerService
+   */
+  @Inject
+  public ProfileCacheListener(CacheManagerService cacheManagerService) {
+    this.cacheManagerService = cacheManagerService;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener#getPathPrefixes()
+   */
+  public String[] getPathPrefixes() {
+    return new String[] { "/" };
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener#getFileNames()
+   */
+  public String[] getFileNames() {
+    return new String[] { KernelConstants.PROFILE_JSON };
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.jcr.api.JcrContentListener#onEvent(int,
+   *      java.lang.String, java.lang.String, java.lang.String)
+   */
+  public void onEvent(int type, String userID, String filePath, String fileName) {
+    Cache<String> cache = cacheManagerService.getCache(
+        ProfileResolverService.PROFILE_CACHE, CacheScope.CLUSTERINVALIDATED);
+    cache.remove(filePath);
+    if (debug) {
+      LOG.debug("Removed profile " + filePath);
+    }
+  }
+
+}
@@ -22,8 +22,14 @@ import com.google.inject.Inject;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.kernel.api.authz.AuthzResolverService;
+import org.sakaiproject.kernel.api.authz.PermissionQuery;
+import org.sakaiproject.kernel.api.authz.PermissionQueryService;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryServiceException;
+import org.sakaiproject.kernel.api.memory.Cache;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.memory.CacheScope;
 import org.sakaiproject.kernel.api.serialization.BeanConverter;
 import org.sakaiproject.kernel.api.user.ProfileResolverService;
 import org.sakaiproject.kernel.api.user.UserFactoryService;
@@ -33,12 +39,25 @@ import org.sakaiproject.kernel.util.IOUtils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import javax.jcr.AccessDeniedException;
 import javax.jcr.RepositoryException;
 
 /**
- *
+ * Resolves profiles from the profile files in the repository. The body of
+ * each profile file is held in the {@link ProfileResolverService#PROFILE_CACHE}
+ * until the file changes, each resolve parses its own copy so profiles may be
+ * modified by the caller. The cache is shared by all users, so a cached body is
+ * only returned to a caller who may read the profile file, anyone else reads
+ * the file through their own session as if it had not been cached.
  */
 public class ProfileResolverServiceImpl implements ProfileResolverService {
 
@@ -48,6 +67,9 @@ public class ProfileResolverServiceImpl implements ProfileResolverService {
   private JCRNodeFactoryService jcrNodeFactoryService;
   private UserFactoryService userFactoryService;
   private BeanConverter beanConverter;
+  private CacheManagerService cacheManagerService;
+  private AuthzResolverService authzResolverService;
+  private PermissionQuery readPermission;
 
   /**
    *
@@ -56,8 +78,15 @@ public class ProfileResolverServiceImpl implements ProfileResolverService {
   public ProfileResolverServiceImpl(
       BeanConverter beanConverter,
       JCRNodeFactoryService jcrNodeFactoryService,
-      UserFactoryService userFactoryService) {
+      UserFactoryService userFactoryService,
+      CacheManagerService cacheManagerService,
+      AuthzResolverService authzResolverService,
+      PermissionQueryService permissionQueryService) {
     this.beanConverter = beanConverter;
+    this.authzResolverService = authzResolverService;
+    this.readPermission = permissionQueryService
+        .getPermission(PermissionQuery.READ);
+    this.cacheManagerService = cacheManagerService;
     this.userFactoryService = userFactoryService;
     this.jcrNodeFactoryService = jcrNodeFactoryService;
   }
@@ -105,18 +134,73 @@ public class ProfileResolverServiceImpl implements ProfileResolverService {
    * @see org.sakaiproject.kernel.api.user.ProfileResolverService#resolve(org.sakaiproject.kernel.api.user.User)
    */
   public UserProfile resolve(String uuid) {
+    return resolve(Collections.singletonList(uuid)).get(uuid);
+  }
 
-    InputStream profileInputStream = null;
-    try {
-      profileInputStream = jcrNodeFactoryService
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.user.ProfileResolverService#resolve(java.util.Collection)
+   */
+  public Map<String, UserProfile> resolve(Collection<String> uuids) {
+    Cache<String> cache = getProfileCache();
+    Map<String, String> paths = new LinkedHashMap<String, String>();
+    for (String uuid : uuids) {
+      if (!paths.containsKey(uuid)) {
+        paths.put(uuid, userFactoryService.getUserProfilePath(uuid));
+      }
+    }
 
-      .getInputStream(userFactoryService.getUserProfilePath(uuid));
-      String template = IOUtils.readFully(profileInputStream, "UTF-8");
-      Map<String, Object> profileMap = beanConverter.convertToMap(template);
+    // bodies that are cached are only used if the caller may read them.
+    Map<String, String> bodies = new HashMap<String, String>();
+    List<String> cachedPaths = new ArrayList<String>();
+    for (String profilePath : paths.values()) {
+      String profile = cache.get(profilePath);
+      if (profile != null) {
+        bodies.put(profilePath, profile);
+        cachedPaths.add(profilePath);
+      }
+    }
+    if (cachedPaths.size() > 0) {
+      BitSet readable = authzResolverService.checkAll(cachedPaths,
+          readPermission);
+      for (int i = 0; i < cachedPaths.size(); i++) {
+        if (!readable.get(i)) {
+          bodies.remove(cachedPaths.get(i));
+        }
+      }
+    }
 
-      return new UserProfileImpl(uuid, profileMap, userFactoryService,
-          jcrNodeFactoryService, beanConverter);
+    Map<String, UserProfile> profiles = new HashMap<String, UserProfile>();
+    for (Map.Entry<String, String> e : paths.entrySet()) {
+      String profilePath = e.getValue();
+      String profile = bodies.get(profilePath);
+      if (profile == null) {
+        // read through the session of the caller, which checks access.
+        profile = readProfile(profilePath);
+        if (profile == null) {
+          continue;
+        }
+        cache.put(profilePath, profile);
+      }
+      Map<String, Object> profileMap = beanConverter.convertToMap(profile);
+      profiles.put(e.getKey(), new UserProfileImpl(e.getKey(), profileMap,
+          userFactoryService, jcrNodeFactoryService, beanConverter));
+    }
+    return profiles;
+  }
 
+  /**
+   * @return the body of the profile file, or null if it cant be read.
+   */
+  private String readProfile(String profilePath) {
+    InputStream profileInputStream = null;
+    try {
+      profileInputStream = jcrNodeFactoryService.getInputStream(profilePath);
+      return IOUtils.readFully(profileInputStream, "UTF-8");
+    } catch (AccessDeniedException e) {
+      if (debug)
+        LOG.debug(e.getMessage(), e);
     } catch (RepositoryException e) {
       LOG.error(e.getMessage(), e);
     } catch (JCRNodeFactoryServiceException e) {
@@ -135,4 +219,12 @@ public class ProfileResolverServiceImpl implements ProfileResolverService {
     return null;
   }
 
+  /**
+   * @return the cluster invalidated cache of profile bodies keyed by path.
+   */
+  private Cache<String> getProfileCache() {
+    return cacheManagerService.getCache(PROFILE_CACHE,
+        CacheScope.CLUSTERINVALIDATED);
+  }
+
 }
@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.user;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.kernel.api.memory.Cache;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.memory.CacheScope;
+import org.sakaiproject.kernel.api.user.Authentication;
+import org.sakaiproject.kernel.api.user.TokenAuthenticationService;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Issues tokens of the form <code>version.expires.uid.signature</code>, where
+ * the signature is an HMAC-SHA256 of the first three parts with the key of
+ * that version, url safe base64 encoded. Keys are configured as a list of
+ * versions, all of which are accepted, and the current version which signs new
+ * tokens. To rotate keys, add a new version on every node, make it current,
+ * and remove the old version once the tokens it signed have expired. If no
+ * keys are configured a random key is made, and tokens are only accepted by
+ * the node that issued them.
+ * <p>
+ * A token is checked without a lookup of the user, so on its own it would stay
+ * valid after a password change until it expired. When the tokens of a user
+ * are revoked, the time is put in a cache replicated over the cluster, and
+ * tokens issued to the user before then are refused. The time of issue is
+ * taken from the expiry less the ttl, so the ttl must be the same on every
+ * node, and the revocation cache must keep its entries for at least the ttl.
+ */
+@Singleton
+public class TokenAuthenticationServiceImpl implements
+    TokenAuthenticationService {
+
+  private static final Log LOG = LogFactory
+      .getLog(TokenAuthenticationServiceImpl.class);
+  private static final boolean debug = LOG.isDebugEnabled();
+
+  /**
+   * The signing keys, in the form version=base64key;version=base64key.
+   */
+  public static final String KEYS = "authentication.token.keys";
+  /**
+   * The version of the key that signs new tokens.
+   */
+  public static final String CURRENT_KEY = "authentication.token.key.current";
+  /**
+   * The time in ms that a new token is valid for.
+   */
+  public static final String TTL = "authentication.token.ttl";
+  /**
+   * The cache holding the time the tokens of each user were last revoked.
+   */
+  public static final String REVOCATION_CACHE = "token_revocation";
+
+  private static final String HMAC = "HmacSHA256";
+  private static final String LOCAL_KEY = "local";
+
+  private final Map<String, SecretKeySpec> keys;
+  private final String currentKey;
+  private final long ttl;
+  private final Cache<Long> revocations;
+
+  /**
+   * @param keys
+   *          the versioned keys, separated by ;
+   * @param currentKey
+   *          the version of the key that signs new tokens.
+   * @param ttl
+   *          the time in ms that a token is valid for.
+   * @param cacheManagerService
+   *          provides the replicated cache of revocations.
+   */
+  @Inject
+  public TokenAuthenticationServiceImpl(@Named(KEYS) String keys,
+      @Named(CURRENT_KEY) String currentKey, @Named(TTL) long ttl,
+      CacheManagerService cacheManagerService) {
+    Map<String, SecretKeySpec> keyMap = new HashMap<String, SecretKeySpec>();
+    if (keys != null) {
+      for (String key : StringUtils.split(keys, ";")) {
+        key = key.trim();
+        if (key.length() == 0) {
+          continue;
+        }
+        int eq = key.indexOf('=');
+        String version = (eq > 0) ? key.substring(0, eq).trim() : "";
+        if (version.length() == 0 || version.indexOf('.') >= 0) {
+          throw new IllegalArgumentException(
+              "Token keys must be version=base64key with no . in the version");
+        }
+        byte[] secret = Base64.decodeBase64(ascii(key.substring(eq + 1).trim()));
+        if (secret.length < 16) {
+          throw new IllegalArgumentException("Token key " + version
+              + " is shorter than 16 bytes");
+        }
+        keyMap.put(version, new SecretKeySpec(secret, HMAC));
+      }
+    }
+    if (keyMap.size() == 0) {
+      LOG.warn("No token keys configured in " + KEYS
+          + ", tokens will only be accepted by this node until restart");
+      byte[] secret = new byte[32];
+      new SecureRandom().nextBytes(secret);
+      keyMap.put(LOCAL_KEY, new SecretKeySpec(secret, HMAC));
+      currentKey = LOCAL_KEY;
+    }
+    if (currentKey == null || !keyMap.containsKey(currentKey.trim())) {
+      throw new IllegalArgumentException("The current token key " + currentKey
+          + " is not one of the keys in " + KEYS);
+    }
+    this.keys = Collections.unmodifiableMap(keyMap);
+    this.currentKey = currentKey.trim();
+    this.ttl = ttl;
+    this.revocations = cacheManagerService.getCache(REVOCATION_CACHE,
+        CacheScope.CLUSTERREPLICATED);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.user.TokenAuthenticationService#issue(org.sakaiproject.kernel.api.user.Authentication)
+   */
+  public String issue(Authentication authentication) {
+    String payload = currentKey + "." + (System.currentTimeMillis() + ttl)
+        + "." + authentication.getUid();
+    return payload + "." + sign(keys.get(currentKey), payload);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.user.TokenAuthenticationService#authenticate(java.lang.String)
+   */
+  public Authentication authenticate(String token) throws SecurityException {
+    if (token == null) {
+      throw new SecurityException("No token");
+    }
+    // the signature has no . and the version and expiry have none, so the uid
+    // is everything between the second and the last.
+    int versionEnd = token.indexOf('.');
+    int expiresEnd = token.indexOf('.', versionEnd + 1);
+    int uidEnd = token.lastIndexOf('.');
+    if (versionEnd <= 0 || expiresEnd < 0 || uidEnd <= expiresEnd + 1) {
+      throw new SecurityException("Malformed token");
+    }
+    SecretKeySpec key = keys.get(token.substring(0, versionEnd));
+    if (key == null) {
+      throw new SecurityException("Token signed with an unknown key");
+    }
+    long expires;
+    try {
+      expires = Long.parseLong(token.substring(versionEnd + 1, expiresEnd));
+    } catch (NumberFormatException e) {
+      throw new SecurityException("Malformed token");
+    }
+    String payload = token.substring(0, uidEnd);
+    if (!MessageDigest.isEqual(ascii(sign(key, payload)), ascii(token
+        .substring(uidEnd + 1)))) {
+      throw new SecurityException("Invalid token signature");
+    }
+    // checked after the signature, so an expired token is not evidence that
+    // an altered one would have been accepted.
+    if (expires < System.currentTimeMillis()) {
+      throw new SecurityException("Token has expired");
+    }
+    String uid = token.substring(expiresEnd + 1, uidEnd);
+    Long revoked = revocations.get(uid);
+    if (revoked != null && expires - ttl <= revoked) {
+      throw new SecurityException("Token has been revoked");
+    }
+    if (debug) {
+      LOG.debug("Token accepted for " + uid);
+    }
+    return new AuthenticationImpl(uid);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.api.user.TokenAuthenticationService#revoke(java.lang.String)
+   */
+  public void revoke(String uid) {
+    revocations.put(uid, System.currentTimeMillis());
+    if (debug) {
+      LOG.debug("Tokens revoked for " + uid);
+    }
+  }
+
+  /**
+   * @return the url safe base64 HMAC of the payload.
+   */
+  private String sign(SecretKeySpec key, String payload) {
+    try {
+      Mac mac = Mac.getInstance(HMAC);
+      mac.init(key);
+      String signature = new String(Base64.encodeBase64(mac.doFinal(payload
+          .getBytes("UTF-8"))), "US-ASCII");
+      return StringUtils.stripEnd(signature.replace('+', '-').replace('/', '_'),
+          "=");
+    } catch (GeneralSecurityException e) {
+      throw new SecurityException("Unable to sign token", e);
+    } catch (UnsupportedEncodingException e) {
+      throw new SecurityException("Unable to sign token", e);
+    }
+  }
+
+  private static byte[] ascii(String s) {
+    try {
+      return s.getBytes("US-ASCII");
+    } catch (UnsupportedEncodingException e) {
+      throw new SecurityException("Unable to encode token", e);
+    }
+  }
+}
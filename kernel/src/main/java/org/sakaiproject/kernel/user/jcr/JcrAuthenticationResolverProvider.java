@@ -20,6 +20,8 @@ package org.sakaiproject.kernel.user.jcr;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.kernel.KernelConstants;
 import org.sakaiproject.kernel.api.Registry;
 import org.sakaiproject.kernel.api.RegistryService;
@@ -37,8 +39,8 @@ import org.sakaiproject.kernel.api.userenv.UserEnvironment;
 import org.sakaiproject.kernel.api.userenv.UserEnvironmentResolverService;
 import org.sakaiproject.kernel.jcr.jackrabbit.sakai.JCRIdPwEvidence;
 import org.sakaiproject.kernel.user.AuthenticationImpl;
+import org.sakaiproject.kernel.user.PasswordHasher;
 import org.sakaiproject.kernel.util.PathUtils;
-import org.sakaiproject.kernel.util.StringUtils;
 import org.sakaiproject.kernel.util.user.AnonUser;
 
 import java.security.Principal;
@@ -48,11 +50,15 @@ import javax.jcr.Property;
 
 /**
  * Performs authentication against a property on the user env file containing a
- * SHA1 hash of the password
+ * hash of the password made by the {@link PasswordHasher}. The property keeps
+ * its original name, and unsalted SHA1 hashes held in it are replaced with a
+ * current hash on the next successful login.
  */
 public class JcrAuthenticationResolverProvider implements
     AuthenticationResolverProvider, AuthenticationManagerProvider {
 
+  private static final Log LOG = LogFactory
+      .getLog(JcrAuthenticationResolverProvider.class);
   public static final String JCRPASSWORDHASH = "sakai:sha1-password-hash";
   private String userEnvironmentBase;
   private JCRNodeFactoryService jcrNodeFactoryService;
@@ -60,6 +66,7 @@ public class JcrAuthenticationResolverProvider implements
   private SessionManagerService sessionManagerService;
   private UserEnvironmentResolverService userEnvironmentResolverService;
   private AuthzResolverService authzResolverService;
+  private PasswordHasher passwordHasher;
 
   /**
    * @param userResolverService
@@ -72,8 +79,9 @@ public class JcrAuthenticationResolverProvider implements
       UserResolverService userResolverService, RegistryService registryService,
       SessionManagerService sessionManagerService,
       UserEnvironmentResolverService userEnvironmentResolverService,
-      AuthzResolverService authzResolverService) {
+      AuthzResolverService authzResolverService, PasswordHasher passwordHasher) {
     this.jcrNodeFactoryService = jcrNodeFactoryService;
+    this.passwordHasher = passwordHasher;
     this.userEnvironmentBase = userEnvironmentBase;
     this.userResolverService = userResolverService;
     this.sessionManagerService = sessionManagerService;
@@ -110,8 +118,10 @@ public class JcrAuthenticationResolverProvider implements
           if (n != null) {
             Property p = n.getProperty(JCRPASSWORDHASH);
             String hash = p.getString();
-            String nonce = StringUtils.sha1Hash(idPwPrincipal.getPassword());
-            if (nonce.equals(hash)) {
+            if (passwordHasher.verify(idPwPrincipal.getPassword(), hash)) {
+              if (passwordHasher.needsRehash(hash)) {
+                rehash(n, idPwPrincipal);
+              }
               return new AuthenticationImpl(user);
             }
           }
@@ -129,6 +139,26 @@ public class JcrAuthenticationResolverProvider implements
         + " not suitable for " + this.getClass().getName());
   }
 
+  /**
+   * Replace a legacy or weaker password hash now that the password is known. A
+   * failure is logged and does not fail the login.
+   *
+   * @param n
+   *          the user env node.
+   * @param idPwPrincipal
+   *          the verified credentials.
+   */
+  private void rehash(Node n, IdPwPrincipal idPwPrincipal) {
+    try {
+      n.setProperty(JCRPASSWORDHASH, passwordHasher.hash(idPwPrincipal
+          .getPassword()));
+      n.save();
+    } catch (Exception ex) {
+      LOG.warn("Unable to upgrade the password hash for "
+          + idPwPrincipal.getIdentifier() + " " + ex.getMessage());
+    }
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -179,10 +209,10 @@ public class JcrAuthenticationResolverProvider implements
           } else {
             Property p = n.getProperty(JCRPASSWORDHASH);
             String hash = p.getString();
-            String nonce = StringUtils.sha1Hash(oldIdPwPrincipal.getPassword());
-            if (superUser || nonce.equals(hash)) {
-              nonce = StringUtils.sha1Hash(newIdPwPrincipal.getPassword());
-              n.setProperty(JCRPASSWORDHASH, nonce);
+            if (superUser
+                || passwordHasher.verify(oldIdPwPrincipal.getPassword(), hash)) {
+              n.setProperty(JCRPASSWORDHASH, passwordHasher
+                  .hash(newIdPwPrincipal.getPassword()));
               // we really do want to do this.
               n.save();
               return true; // success
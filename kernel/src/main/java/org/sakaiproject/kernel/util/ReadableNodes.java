@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.util;
+
+import com.google.common.collect.Lists;
+
+import org.sakaiproject.kernel.api.authz.AuthzResolverService;
+import org.sakaiproject.kernel.api.authz.PermissionQuery;
+import org.sakaiproject.kernel.api.authz.PermissionQueryService;
+import org.sakaiproject.kernel.api.jcr.JCRConstants;
+
+import java.util.BitSet;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+
+/**
+ * Checks read access to the nodes of a listing in batches. The repository checks
+ * access as each node is loaded, one node at a time, so the nodes of a batch are
+ * loaded under a read grant, which lets the repository read them and nothing
+ * else, and the controlling paths of the whole batch are then checked with one
+ * call to {@link AuthzResolverService#checkAll(List, PermissionQuery)}. The
+ * decisions are left in the request grants, where the checks made by the
+ * repository on the same nodes later in the request find them.
+ */
+public class ReadableNodes {
+
+  /**
+   * The number of nodes checked in one call.
+   */
+  public static final int BATCH = 100;
+
+  private AuthzResolverService authzResolverService;
+  private PermissionQuery readQuery;
+
+  /**
+   * @param authzResolverService
+   * @param permissionQueryService
+   */
+  public ReadableNodes(AuthzResolverService authzResolverService,
+      PermissionQueryService permissionQueryService) {
+    this.authzResolverService = authzResolverService;
+    this.readQuery = permissionQueryService.getPermission(PermissionQuery.READ);
+  }
+
+  /**
+   * Check read access to the children of the node with one call, before the
+   * children are listed.
+   *
+   * @param node
+   *          the parent node.
+   * @throws RepositoryException
+   */
+  public void checkChildren(Node node) throws RepositoryException {
+    List<String> paths = Lists.newArrayList();
+    authzResolverService.setReadGrant();
+    try {
+      for (NodeIterator ni = node.getNodes(); ni.hasNext();) {
+        paths.add(getControllingPath(ni.nextNode()));
+      }
+    } finally {
+      authzResolverService.clearReadGrant();
+    }
+    authzResolverService.checkAll(paths, readQuery);
+  }
+
+  /**
+   * Read the next batch of nodes from the iterator, and return those that the
+   * current user may read. The iterator is advanced by the whole batch whether
+   * or not the nodes are readable. The nodes are loaded under a read grant,
+   * so the size of an iterator must not be taken from within this method.
+   *
+   * @param nodes
+   *          the iterator, usually the result of a query.
+   * @param max
+   *          the maximum number of nodes to read from the iterator.
+   * @return the readable nodes of the batch, in iterator order.
+   * @throws RepositoryException
+   */
+  public List<Node> nextBatch(NodeIterator nodes, int max)
+      throws RepositoryException {
+    List<Node> batch = Lists.newArrayList();
+    List<String> paths = Lists.newArrayList();
+    authzResolverService.setReadGrant();
+    try {
+      while (batch.size() < max && nodes.hasNext()) {
+        Node node = nodes.nextNode();
+        batch.add(node);
+        paths.add(getControllingPath(node));
+      }
+    } finally {
+      authzResolverService.clearReadGrant();
+    }
+    BitSet granted = authzResolverService.checkAll(paths, readQuery);
+    List<Node> readable = Lists.newArrayList();
+    for (int i = 0; i < batch.size(); i++) {
+      if (granted.get(i)) {
+        readable.add(batch.get(i));
+      }
+    }
+    return readable;
+  }
+
+  /**
+   * The path that controls access to the node, the node itself or the first
+   * file or folder above it, as used by the repository access manager.
+   *
+   * @param node
+   * @return the controlling path.
+   * @throws RepositoryException
+   */
+  public static String getControllingPath(Node node) throws RepositoryException {
+    String nodeType = node.getPrimaryNodeType().getName();
+    while (!JCRConstants.NT_FILE.equals(nodeType)
+        && !JCRConstants.NT_FOLDER.equals(nodeType) && node.getDepth() > 0) {
+      node = node.getParent();
+      nodeType = node.getPrimaryNodeType().getName();
+    }
+    return node.getPath();
+  }
+}
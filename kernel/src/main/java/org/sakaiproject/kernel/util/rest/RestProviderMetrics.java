@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.util.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Request statistics for a single rest provider. Updates are lock free so that
+ * recording a request adds no contention to the dispatch path. The latency
+ * histogram has fixed buckets, so percentiles are reported as the upper bound
+ * of the bucket that contains them.
+ */
+public class RestProviderMetrics {
+
+  /**
+   * The upper bound of each latency bucket in ms, the last bucket holds
+   * everything slower.
+   */
+  private static final long[] BUCKETS = { 1, 2, 5, 10, 25, 50, 100, 250, 500,
+      1000, 2500, 5000, 10000 };
+
+  private final String key;
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private final AtomicLong totalTime = new AtomicLong();
+  private final AtomicLong maxTime = new AtomicLong();
+  private final AtomicLongArray histogram = new AtomicLongArray(
+      BUCKETS.length + 1);
+
+  /**
+   * @param key
+   *          the key of the provider.
+   */
+  public RestProviderMetrics(String key) {
+    this.key = key;
+  }
+
+  /**
+   * Record a completed request.
+   *
+   * @param nanos
+   *          the time taken to service the request, in ns.
+   * @param bytes
+   *          the number of bytes written to the response.
+   * @param error
+   *          true if the request failed.
+   */
+  public void record(long nanos, long bytes, boolean error) {
+    requests.incrementAndGet();
+    if (error) {
+      errors.incrementAndGet();
+    }
+    bytesWritten.addAndGet(bytes);
+    totalTime.addAndGet(nanos);
+    long max = maxTime.get();
+    while (nanos > max && !maxTime.compareAndSet(max, nanos)) {
+      max = maxTime.get();
+    }
+    long ms = nanos / 1000000L;
+    int i = 0;
+    while (i < BUCKETS.length && ms >= BUCKETS[i]) {
+      i++;
+    }
+    histogram.incrementAndGet(i);
+  }
+
+  /**
+   * @return the key of the provider.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * @return the number of requests.
+   */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * @return the number of requests that failed.
+   */
+  public long getErrors() {
+    return errors.get();
+  }
+
+  /**
+   * @return the number of bytes written.
+   */
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  /**
+   * @return the mean time per request in ms.
+   */
+  public double getMeanTime() {
+    long n = requests.get();
+    if (n == 0) {
+      return 0.0;
+    }
+    return ((double) totalTime.get()) / n / 1000000.0;
+  }
+
+  /**
+   * @return the slowest request in ms.
+   */
+  public double getMaxTime() {
+    return ((double) maxTime.get()) / 1000000.0;
+  }
+
+  /**
+   * @param percentile
+   *          between 0 and 100.
+   * @return the upper bound of the bucket containing the percentile in ms, -1
+   *         if it is beyond the last bucket, or 0 if there have been no
+   *         requests.
+   */
+  public long getPercentile(double percentile) {
+    long[] counts = getHistogram();
+    long n = 0;
+    for (long c : counts) {
+      n += c;
+    }
+    if (n == 0) {
+      return 0;
+    }
+    long target = (long) Math.ceil(n * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS.length; i++) {
+      seen += counts[i];
+      if (seen >= target) {
+        return BUCKETS[i];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return a copy of the histogram counts, one more than the number of bucket
+   *         bounds.
+   */
+  public long[] getHistogram() {
+    long[] counts = new long[histogram.length()];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = histogram.get(i);
+    }
+    return counts;
+  }
+
+  /**
+   * Reset all the statistics.
+   */
+  public void reset() {
+    requests.set(0);
+    errors.set(0);
+    bytesWritten.set(0);
+    totalTime.set(0);
+    maxTime.set(0);
+    for (int i = 0; i < histogram.length(); i++) {
+      histogram.set(i, 0);
+    }
+  }
+
+  /**
+   * @return the statistics as a map, suitable for serialization.
+   */
+  public Map<String, Object> toMap() {
+    Map<String, Object> m = new LinkedHashMap<String, Object>();
+    m.put("requests", getRequests());
+    m.put("errors", getErrors());
+    m.put("bytesWritten", getBytesWritten());
+    m.put("meanTime", getMeanTime());
+    m.put("maxTime", getMaxTime());
+    m.put("p50", getPercentile(50));
+    m.put("p95", getPercentile(95));
+    m.put("p99", getPercentile(99));
+    Map<String, Long> h = new LinkedHashMap<String, Long>();
+    long[] counts = getHistogram();
+    for (int i = 0; i < BUCKETS.length; i++) {
+      h.put("<" + BUCKETS[i] + "ms", counts[i]);
+    }
+    h.put(">=" + BUCKETS[BUCKETS.length - 1] + "ms", counts[BUCKETS.length]);
+    m.put("histogram", h);
+    return m;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return key + " requests=" + getRequests() + " errors=" + getErrors()
+        + " bytes=" + getBytesWritten() + " mean=" + getMeanTime() + "ms max="
+        + getMaxTime() + "ms p50=" + getPercentile(50) + "ms p95="
+        + getPercentile(95) + "ms p99=" + getPercentile(99) + "ms";
+  }
+}
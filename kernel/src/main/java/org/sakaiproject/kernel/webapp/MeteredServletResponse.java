@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.webapp;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Counts what is written to a response and whether an error was sent. Output
+ * goes straight through to the wrapped response, nothing is buffered here.
+ * Characters written through the writer are counted as one byte each, which is
+ * exact for the ascii json that most providers produce.
+ */
+public class MeteredServletResponse extends HttpServletResponseWrapper {
+
+  private long count;
+  private boolean error;
+  private ServletOutputStream outputStream;
+  private PrintWriter writer;
+
+  /**
+   * @param response
+   */
+  public MeteredServletResponse(HttpServletResponse response) {
+    super(response);
+  }
+
+  /**
+   * @return the number of bytes written to the response.
+   */
+  public long getBytesWritten() {
+    return count;
+  }
+
+  /**
+   * @return true if an error status was sent.
+   */
+  public boolean isError() {
+    return error;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see javax.servlet.ServletResponseWrapper#getOutputStream()
+   */
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (outputStream == null) {
+      final ServletOutputStream out = super.getOutputStream();
+      outputStream = new ServletOutputStream() {
+
+        @Override
+        public void write(int b) throws IOException {
+          out.write(b);
+          count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+          count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+          out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+          out.close();
+        }
+      };
+    }
+    return outputStream;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see javax.servlet.ServletResponseWrapper#getWriter()
+   */
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (writer == null) {
+      Writer out = new FilterWriter(super.getWriter()) {
+
+        @Override
+        public void write(int c) throws IOException {
+          out.write(c);
+          count++;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+          out.write(cbuf, off, len);
+          count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+          out.write(str, off, len);
+          count += len;
+        }
+      };
+      writer = new PrintWriter(out);
+    }
+    return writer;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see javax.servlet.http.HttpServletResponseWrapper#sendError(int)
+   */
+  @Override
+  public void sendError(int sc) throws IOException {
+    error = true;
+    super.sendError(sc);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see javax.servlet.http.HttpServletResponseWrapper#sendError(int,
+   *      java.lang.String)
+   */
+  @Override
+  public void sendError(int sc, String msg) throws IOException {
+    error = true;
+    super.sendError(sc, msg);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see javax.servlet.ServletResponseWrapper#reset()
+   */
+  @Override
+  public void reset() {
+    super.reset();
+    count = 0;
+  }
+}
@@ -18,14 +18,21 @@
 package org.sakaiproject.kernel.webapp;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.kernel.api.KernelManager;
 import org.sakaiproject.kernel.api.Registry;
+import org.sakaiproject.kernel.api.RegistryListener;
 import org.sakaiproject.kernel.api.RegistryService;
+import org.sakaiproject.kernel.api.rest.RestMetricsService;
 import org.sakaiproject.kernel.api.rest.RestProvider;
-import org.sakaiproject.kernel.util.rest.RestDescription;
+import org.sakaiproject.kernel.util.rest.RestProviderMetrics;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -34,7 +41,10 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
- *
+ * Dispatches rest requests to the provider named by the first element of the
+ * path. Providers are looked up in an immutable table that is replaced
+ * whenever the rest registry changes, so a request never touches the registry
+ * itself. Each request is timed and counted against its provider.
  */
 public class RestServlet extends HttpServlet {
 
@@ -42,7 +52,19 @@ public class RestServlet extends HttpServlet {
    *
    */
   private static final long serialVersionUID = -172232497404083238L;
+  private static final Log LOG = LogFactory.getLog(RestServlet.class);
   private transient Registry<String, RestProvider> registry;
+  private transient RestMetricsService restMetricsService;
+  /**
+   * The dispatch table, replaced as a whole on every registry change.
+   */
+  private transient volatile Map<String, RestEndpoint> endpoints = Collections
+      .emptyMap();
+  /**
+   * The registry only holds a weak reference to its listeners, so this must be
+   * held here.
+   */
+  private transient RegistryListener<RestProvider> registryListener;
 
   /**
    * {@inheritDoc}
@@ -54,7 +76,65 @@ public class RestServlet extends HttpServlet {
     super.init(config);
     KernelManager km = new KernelManager();
     RegistryService registryService = km.getService(RegistryService.class);
+    restMetricsService = km.getService(RestMetricsService.class);
     registry = registryService.getRegistry(RestProvider.REST_REGISTRY);
+    registryListener = new RegistryListener<RestProvider>() {
+      public void added(RestProvider wasAdded) {
+        rebuildEndpoints();
+      }
+
+      public void removed(RestProvider wasRemoved) {
+        rebuildEndpoints();
+      }
+
+      public void updated(RestProvider wasUpdated) {
+        rebuildEndpoints();
+      }
+    };
+    registry.addListener(registryListener);
+    rebuildEndpoints();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see javax.servlet.GenericServlet#destroy()
+   */
+  @Override
+  public void destroy() {
+    if (registry != null && registryListener != null) {
+      registry.removeListener(registryListener);
+    }
+    endpoints = Collections.emptyMap();
+    super.destroy();
+  }
+
+  /**
+   * Copy the registry into a new dispatch table. Endpoints for providers that
+   * have not changed are kept, any other endpoint starts with no cached
+   * descriptions. The default provider describes the whole registry, so its
+   * descriptions are always dropped.
+   */
+  private synchronized void rebuildEndpoints() {
+    Map<String, RestEndpoint> current = endpoints;
+    Map<String, RestEndpoint> table = new HashMap<String, RestEndpoint>();
+    for (Entry<String, RestProvider> e : registry.getMap().entrySet()) {
+      RestProvider provider = e.getValue();
+      if (provider == null) {
+        continue;
+      }
+      RestEndpoint endpoint = current.get(e.getKey());
+      if (endpoint == null || endpoint.provider != provider
+          || "default".equals(e.getKey())) {
+        RestProviderMetrics metrics = null;
+        if (restMetricsService != null) {
+          metrics = restMetricsService.getProviderMetrics(e.getKey());
+        }
+        endpoint = new RestEndpoint(provider, metrics);
+      }
+      table.put(e.getKey(), endpoint);
+    }
+    endpoints = Collections.unmodifiableMap(table);
   }
 
   /**
@@ -76,42 +156,104 @@ public class RestServlet extends HttpServlet {
     if (elements != null && elements.length > 0) {
       locator = elements[0];
     }
-    Map<String, RestProvider> restProviders = registry.getMap();
     if (locator == null) {
       locator = "default";
     }
     if ("__describe__".equals(locator)) {
       locator = "default";
     }
-    RestProvider restProvider = restProviders.get(locator);
-    if (restProvider == null) {
+    RestEndpoint endpoint = endpoints.get(locator);
+    if (endpoint == null) {
       response.sendError(HttpServletResponse.SC_NOT_FOUND);
-    } else {
-      try {
-        if (requestPath.endsWith("__describe__")) {
-          RestDescription description = restProvider.getDescription();
-          String format = request.getParameter("fmt");
-          if ("xml".equals(format)) {
-            response.setContentType("text/xml");
-            response.getWriter().print(description.toXml());
-          } else if ("json".equals(format)) {
-            response.setContentType(RestProvider.CONTENT_TYPE);
-            response.getWriter().print(description.toJson());
-          } else {
-            response.setContentType("text/html");
-            response.getWriter().print(description.toHtml());
-          }
+      return;
+    }
+
+    long start = System.nanoTime();
+    MeteredServletResponse meteredResponse = new MeteredServletResponse(
+        response);
+    boolean failed = true;
+    try {
+      if (requestPath.endsWith("__describe__")) {
+        String format = request.getParameter("fmt");
+        if ("xml".equals(format)) {
+          meteredResponse.setContentType("text/xml");
+          meteredResponse.getWriter().print(endpoint.getXml());
+        } else if ("json".equals(format)) {
+          meteredResponse.setContentType(RestProvider.CONTENT_TYPE);
+          meteredResponse.getWriter().print(endpoint.getJson());
         } else {
-          restProvider.dispatch(elements, request, response);
+          meteredResponse.setContentType("text/html");
+          meteredResponse.getWriter().print(endpoint.getHtml());
         }
-      } catch (SecurityException ex) {
-        response.reset();
-        response.sendError(HttpServletResponse.SC_FORBIDDEN, ex.getMessage());
-      } catch (RestServiceFaultException ex) {
-        ex.printStackTrace();
-        response.reset();
-        response.sendError(ex.getStatusCode(), ex.getMessage());
+      } else {
+        endpoint.provider.dispatch(elements, request, meteredResponse);
+      }
+      failed = false;
+    } catch (SecurityException ex) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Access denied to " + requestPath + " " + ex.getMessage());
+      }
+      meteredResponse.reset();
+      meteredResponse.sendError(HttpServletResponse.SC_FORBIDDEN, ex
+          .getMessage());
+    } catch (RestServiceFaultException ex) {
+      if (ex.getStatusCode() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR) {
+        LOG.warn("Rest request " + requestPath + " failed " + ex.getMessage(),
+            ex);
+      } else if (LOG.isDebugEnabled()) {
+        LOG.debug("Rest request " + requestPath + " failed " + ex.getMessage(),
+            ex);
+      }
+      meteredResponse.reset();
+      meteredResponse.sendError(ex.getStatusCode(), ex.getMessage());
+    } finally {
+      if (endpoint.metrics != null) {
+        endpoint.metrics.record(System.nanoTime() - start, meteredResponse
+            .getBytesWritten(), failed || meteredResponse.isError());
+      }
+    }
+  }
+
+  /**
+   * A provider in the dispatch table, with its statistics and its descriptions
+   * rendered on first use.
+   */
+  private static class RestEndpoint {
+    private final RestProvider provider;
+    private final RestProviderMetrics metrics;
+    private volatile String html;
+    private volatile String xml;
+    private volatile String json;
+
+    /**
+     * @param provider
+     * @param metrics
+     *          may be null if there is no metrics service.
+     */
+    RestEndpoint(RestProvider provider, RestProviderMetrics metrics) {
+      this.provider = provider;
+      this.metrics = metrics;
+    }
+
+    String getHtml() {
+      if (html == null) {
+        html = provider.getDescription().toHtml();
+      }
+      return html;
+    }
+
+    String getXml() {
+      if (xml == null) {
+        xml = provider.getDescription().toXml();
+      }
+      return xml;
+    }
+
+    String getJson() {
+      if (json == null) {
+        json = provider.getDescription().toJson();
       }
+      return json;
     }
   }
 }
@@ -26,6 +26,7 @@ import org.sakaiproject.kernel.api.user.Authentication;
 import org.sakaiproject.kernel.api.user.AuthenticationResolverService;
 import org.sakaiproject.kernel.api.user.ExternalTrustedPrincipal;
 import org.sakaiproject.kernel.api.user.IdPwPrincipal;
+import org.sakaiproject.kernel.api.user.TokenAuthenticationService;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -42,17 +43,24 @@ import javax.servlet.http.HttpServletResponse;
 /**
  * Performs one of three types of authentication, form, basic or container
  * controlled by the url parameter a which should be "FORM", "BASIC" or
- * "TRUSTED". If BASIC, the Authenticate header will be used, if FORM, a POST is
- * expected with the parameters u and p for username and password. If TRUSTED,
- * the request object will have the username from the container. To activate the
- * parameter l should be 1
+ * "TRUSTED". If BASIC, the Authenticate header will be used, if FORM, a POST
+ * is expected with the parameters u and p for username and password. If
+ * TRUSTED, the request object will have the username from the container. To
+ * activate the parameter l should be 1. An Authorization header is always used,
+ * whether or not l is set. A successful FORM or BASIC login returns a token in
+ * the X-Sakai-Token response header, which can be used instead of the password
+ * until it expires. Tokens are only accepted from an Authorization header of
+ * the form "Bearer &lt;token&gt;", never from a url parameter, where they would
+ * be kept in logs and browser history.
  */
 public class SakaiAuthenticationFilter implements Filter {
 
   private static final Log LOG = LogFactory
       .getLog(SakaiAuthenticationFilter.class);
   private static final boolean debug = LOG.isDebugEnabled();
+  private static final String BEARER = "Bearer ";
   private AuthenticationResolverService authenticationResolverService;
+  private TokenAuthenticationService tokenAuthenticationService;
 
   /**
    * {@inheritDoc}
@@ -72,9 +80,14 @@ public class SakaiAuthenticationFilter implements Filter {
       FilterChain chain) throws IOException, ServletException {
     HttpServletRequest hrequest = (HttpServletRequest) request;
     HttpServletResponse hresponse = (HttpServletResponse) response;
-    if (hrequest.getHeader("Authorization") != null) {
+    String authorization = hrequest.getHeader("Authorization");
+    if (authorization != null) {
       try {
-        doBasicAuth(hrequest);
+        if (authorization.trim().startsWith(BEARER)) {
+          doTokenAuth(hrequest, authorization);
+        } else {
+          doBasicAuth(hrequest, hresponse);
+        }
       } catch (SecurityException se) {
         // catch any Security exceptions and send a 401
         LOG.info("Login Failed: " + se.getMessage());
@@ -93,10 +106,10 @@ public class SakaiAuthenticationFilter implements Filter {
           }
           switch (authNType) {
           case BASIC:
-            doBasicAuth(hrequest);
+            doBasicAuth(hrequest, hresponse);
             break;
           case FORM:
-            doForm(hrequest);
+            doForm(hrequest, hresponse);
             break;
           case TRUSTED:
             doTrusted(hrequest);
@@ -142,10 +155,36 @@ public class SakaiAuthenticationFilter implements Filter {
     }
   }
 
+  /**
+   * Accept a signed token, which needs no lookup, so is much cheaper than
+   * checking a password on every request.
+   *
+   * @param hrequest
+   * @param authorization
+   *          the Authorization header, starting with "Bearer ".
+   */
+  private void doTokenAuth(HttpServletRequest hrequest, String authorization) {
+    String token = authorization.trim().substring(BEARER.length()).trim();
+    Authentication a = tokenAuthenticationService.authenticate(token);
+    hrequest.setAttribute(Authentication.REQUESTTOKEN, a);
+  }
+
+  /**
+   * Give the client a token for the authentication it has just established.
+   *
+   * @param hresponse
+   * @param a
+   */
+  private void issueToken(HttpServletResponse hresponse, Authentication a) {
+    hresponse.setHeader(TokenAuthenticationService.TOKEN_HEADER,
+        tokenAuthenticationService.issue(a));
+  }
+
   /**
    * @param hrequest
+   * @param hresponse
    */
-  private void doForm(HttpServletRequest hrequest) {
+  private void doForm(HttpServletRequest hrequest, HttpServletResponse hresponse) {
     // extract the username and password from the request (should only be a
     // post)
     if ("POST".equals(hrequest.getMethod())) {
@@ -179,6 +218,7 @@ public class SakaiAuthenticationFilter implements Filter {
             LOG.debug("Sucess for " + eid + " with " + a);
           }
           hrequest.setAttribute(Authentication.REQUESTTOKEN, a);
+          issueToken(hresponse, a);
         } else {
           throw new SecurityException("Failed to perform Form login for " + eid);
         }
@@ -189,10 +229,11 @@ public class SakaiAuthenticationFilter implements Filter {
 
   /**
    * @param hrequest
+   * @param hresponse
    * @throws UnsupportedEncodingException
    */
-  private void doBasicAuth(HttpServletRequest hrequest)
-      throws UnsupportedEncodingException {
+  private void doBasicAuth(HttpServletRequest hrequest,
+      HttpServletResponse hresponse) throws UnsupportedEncodingException {
     String auth = hrequest.getHeader("Authorization");
     if (auth != null && auth.trim().length() > 0) {
       auth = auth.trim();
@@ -221,6 +262,7 @@ public class SakaiAuthenticationFilter implements Filter {
               .authenticate(principal);
           if (a != null) {
             hrequest.setAttribute(Authentication.REQUESTTOKEN, a);
+            issueToken(hresponse, a);
           } else {
             throw new SecurityException("Failed to perform Form login for "
                 + unpw[0]);
@@ -240,6 +282,8 @@ public class SakaiAuthenticationFilter implements Filter {
     KernelManager km = new KernelManager();
     authenticationResolverService = km
         .getService(AuthenticationResolverService.class);
+    tokenAuthenticationService = km
+        .getService(TokenAuthenticationService.class);
   }
 
 }
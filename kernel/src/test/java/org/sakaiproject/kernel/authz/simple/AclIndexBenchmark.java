@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.authz.simple;
+
+import org.sakaiproject.kernel.api.Kernel;
+import org.sakaiproject.kernel.api.KernelManager;
+import org.sakaiproject.kernel.api.authz.AccessControlStatement;
+import org.sakaiproject.kernel.api.authz.SubjectStatement.SubjectType;
+import org.sakaiproject.kernel.api.jcr.JCRConstants;
+import org.sakaiproject.kernel.api.jcr.JCRService;
+import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
+import org.sakaiproject.kernel.api.rest.RestProvider;
+import org.sakaiproject.kernel.test.KernelIntegrationBase;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+/**
+ * Times the ACL index catching up with an ACL change on every node of a tree,
+ * saving one node at a time, as permissions edited one by one are, and many
+ * nodes at a time, as a site template is applied. Each save reaches the ACL
+ * listener as one observation batch. This boots the kernel and is not run as
+ * part of the tests, the arguments are the number of nodes and the nodes per
+ * save in the batched run, default 10000 and 1000.
+ */
+public class AclIndexBenchmark {
+
+  private static final String BASE = "/benchmark/acl/";
+  private static final long TIMEOUT = 600000L;
+
+  public static void main(String[] args) throws Exception {
+    int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int perSave = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    boolean shutdown = KernelIntegrationBase.beforeClass();
+    try {
+      Kernel kernel = new KernelManager().getKernel();
+      JCRService jcrService = kernel.getService(JCRService.class);
+      JCRNodeFactoryService nodeFactory = kernel
+          .getService(JCRNodeFactoryService.class);
+      EntityManager entityManager = kernel.getService(EntityManager.class);
+      String run = String.valueOf(System.currentTimeMillis());
+      Session session = jcrService.loginSystem();
+      try {
+        String[] paths = new String[nodes];
+        for (int i = 0; i < nodes; i++) {
+          paths[i] = BASE + run + "/" + (i / 100) + "/node" + i;
+          nodeFactory.createFile(paths[i], RestProvider.CONTENT_TYPE);
+          if ((i + 1) % perSave == 0) {
+            session.save();
+          }
+        }
+        session.save();
+
+        System.err.println("Nodes " + nodes + ", 1 per save      "
+            + run(nodeFactory, session, entityManager, paths, "single-" + run,
+                1) + " ms");
+        System.err.println("Nodes " + nodes + ", " + perSave + " per save "
+            + run(nodeFactory, session, entityManager, paths, "batched-" + run,
+                perSave) + " ms");
+      } finally {
+        jcrService.logout();
+      }
+    } finally {
+      KernelIntegrationBase.afterClass(shutdown);
+    }
+  }
+
+  /**
+   * Replace the ACL on every node and wait until the index holds a row for
+   * each of the new statements.
+   *
+   * @return the time in ms from the first change until the index is complete.
+   */
+  private static long run(JCRNodeFactoryService nodeFactory, Session session,
+      EntityManager entityManager, String[] paths, String round, int perSave)
+      throws Exception {
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < paths.length; i++) {
+      Node node = nodeFactory.getNode(paths[i]);
+      // statement keys are the index primary key, so each is unique.
+      AccessControlStatement acs = new JcrAccessControlStatementImpl(
+          new JcrSubjectStatement(SubjectType.GR, "group" + (i % 50)
+              + ":maintain", "read"), round + "-" + i, true, false);
+      node.setProperty(JCRConstants.ACL_ACL, new String[] { acs.toString() });
+      if ((i + 1) % perSave == 0) {
+        session.save();
+      }
+    }
+    session.save();
+
+    Query query = entityManager
+        .createQuery("select count(a) from AclIndexBean a where a.key like :key");
+    query.setParameter("key", round + "-%");
+    long indexed = 0;
+    while (indexed < paths.length) {
+      if (System.currentTimeMillis() - start > TIMEOUT) {
+        System.err.println("Only " + indexed + " of " + paths.length
+            + " statements were indexed");
+        break;
+      }
+      Thread.sleep(50);
+      indexed = ((Number) query.getSingleResult()).longValue();
+    }
+    return System.currentTimeMillis() - start;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.authz.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.sakaiproject.kernel.api.authz.AccessControlStatement;
+import org.sakaiproject.kernel.api.authz.SubjectStatement.SubjectType;
+import org.sakaiproject.kernel.model.AclIndexBean;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the ACL index diff.
+ */
+public class AclIndexDiffUT {
+
+  @Test
+  public void testDiff() {
+    AccessControlStatement read = statement("httpget", "read", true);
+    AccessControlStatement write = statement("httppost", "write", true);
+    AccessControlStatement delete = statement("httpdelete", "delete", false);
+
+    List<AclIndexBean> current = new ArrayList<AclIndexBean>();
+    AclIndexBean readRow = row("/a", read);
+    AclIndexBean writeRow = row("/a", statement("httppost", "write", false));
+    AclIndexBean oldRow = row("/a", delete);
+    AclIndexBean otherRow = row("/b", read);
+    current.add(readRow);
+    current.add(writeRow);
+    current.add(oldRow);
+    current.add(otherRow);
+
+    AclIndexDiff diff = new AclIndexDiff(current);
+    diff.add("/a", read);
+    diff.add("/a", write);
+    // a repeated statement is only indexed once.
+    diff.add("/c", read);
+    diff.add("/c", read);
+
+    assertEquals(1, diff.getToCreate().size());
+    assertEquals("/c", diff.getToCreate().get(0).getRef());
+    assertEquals("httpget", diff.getToCreate().get(0).getKey());
+    assertEquals(1, diff.getToUpdate().size());
+    assertSame(writeRow, diff.getToUpdate().get(0));
+    assertTrue(writeRow.isGranted());
+    List<AclIndexBean> toDelete = diff.getToDelete();
+    assertEquals(2, toDelete.size());
+    assertTrue(toDelete.contains(oldRow));
+    assertTrue(toDelete.contains(otherRow));
+    assertFalse(diff.isEmpty());
+  }
+
+  @Test
+  public void testRetain() {
+    List<AclIndexBean> current = new ArrayList<AclIndexBean>();
+    current.add(row("/a", statement("httpget", "read", true)));
+    AclIndexDiff diff = new AclIndexDiff(current);
+    diff.retain("/a");
+    assertEquals(0, diff.getToDelete().size());
+    assertTrue(diff.isEmpty());
+  }
+
+  private AccessControlStatement statement(String key, String permission,
+      boolean granted) {
+    return new JcrAccessControlStatementImpl(new JcrSubjectStatement(
+        SubjectType.GR, "group1:maintain", permission), key, granted, false);
+  }
+
+  private AclIndexBean row(String path, AccessControlStatement acs) {
+    AclIndexBean bean = new AclIndexBean();
+    bean.setKey(acs.getStatementKey());
+    bean.setSubject(acs.getSubject());
+    bean.setGranted(acs.isGranted());
+    bean.setRef(path);
+    return bean;
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.jackrabbit;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.jcr.Credentials;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+/**
+ * Tests the JCR session pool.
+ */
+public class JCRSessionPoolUT {
+
+  private JCRSessionPool pool;
+
+  @After
+  public void tearDown() {
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
+  @Test
+  public void testReuse() throws RepositoryException {
+    pool = new JCRSessionPool(10, 4, 1000L, 60000L);
+    Repository repository = createMock(Repository.class);
+    Session session = createMock(Session.class);
+    expect(repository.login((Credentials) null)).andReturn(session);
+    expect(session.isLive()).andReturn(true).anyTimes();
+    session.refresh(false);
+    expectLastCall().times(2);
+    replay(repository, session);
+
+    Session s = pool.borrow(repository, "u:ib236", null);
+    pool.release("u:ib236", s);
+    assertSame(s, pool.borrow(repository, "u:ib236", null));
+    pool.release("u:ib236", s);
+
+    assertEquals(1, pool.getHits());
+    assertEquals(1, pool.getMisses());
+    assertEquals(1, pool.getIdle());
+    assertEquals(0, pool.getActive());
+    verify(repository, session);
+  }
+
+  @Test
+  public void testKeyedByPrincipal() throws RepositoryException {
+    pool = new JCRSessionPool(10, 4, 1000L, 60000L);
+    Repository repository = createMock(Repository.class);
+    Session sessionA = createMock(Session.class);
+    Session sessionB = createMock(Session.class);
+    expect(repository.login((Credentials) null)).andReturn(sessionA);
+    expect(repository.login((Credentials) null)).andReturn(sessionB);
+    expect(sessionA.isLive()).andReturn(true).anyTimes();
+    sessionA.refresh(false);
+    replay(repository, sessionA, sessionB);
+
+    pool.release("u:a", pool.borrow(repository, "u:a", null));
+    assertSame(sessionB, pool.borrow(repository, "u:b", null));
+    assertEquals(2, pool.getMisses());
+    verify(repository, sessionA, sessionB);
+  }
+
+  @Test
+  public void testDeadSessionDiscarded() throws RepositoryException {
+    pool = new JCRSessionPool(10, 4, 1000L, 60000L);
+    Repository repository = createMock(Repository.class);
+    Session session = createMock(Session.class);
+    expect(repository.login((Credentials) null)).andReturn(session);
+    expect(session.isLive()).andReturn(false);
+    session.logout();
+    replay(repository, session);
+
+    pool.release("u:a", pool.borrow(repository, "u:a", null));
+    assertEquals(1, pool.getDiscarded());
+    assertEquals(0, pool.getIdle());
+    verify(repository, session);
+  }
+
+  @Test
+  public void testIdleEviction() throws RepositoryException {
+    pool = new JCRSessionPool(10, 4, 1000L, -1L);
+    Repository repository = createMock(Repository.class);
+    Session session = createMock(Session.class);
+    expect(repository.login((Credentials) null)).andReturn(session);
+    expect(session.isLive()).andReturn(true).anyTimes();
+    session.refresh(false);
+    session.logout();
+    replay(repository, session);
+
+    pool.release("u:a", pool.borrow(repository, "u:a", null));
+    pool.maintain();
+    assertEquals(1, pool.getEvicted());
+    assertEquals(0, pool.getIdle());
+    verify(repository, session);
+  }
+
+  @Test
+  public void testWarmKey() throws RepositoryException {
+    pool = new JCRSessionPool(10, 4, 1000L, -1L);
+    Credentials system = new SimpleCredentials("system", new char[0]);
+    pool.addWarmKey("s:system", system, 2);
+    Repository repository = createMock(Repository.class);
+    Session session = createMock(Session.class);
+    Session systemA = createMock(Session.class);
+    Session systemB = createMock(Session.class);
+    expect(repository.login((Credentials) null)).andReturn(session);
+    expect(repository.login(system)).andReturn(systemA);
+    expect(repository.login(system)).andReturn(systemB);
+    expect(systemA.isLive()).andReturn(true).anyTimes();
+    expect(systemB.isLive()).andReturn(true).anyTimes();
+    systemA.refresh(false);
+    systemB.refresh(false);
+    replay(repository, session, systemA, systemB);
+
+    // nothing is warmed until the repository has been used.
+    pool.maintain();
+    assertEquals(0, pool.getIdle());
+    pool.borrow(repository, "u:a", null);
+    // the warm sessions are not evicted, even though they are idle.
+    pool.maintain();
+    pool.maintain();
+    assertEquals(2, pool.getIdle());
+    Session s = pool.borrow(repository, "s:system", system);
+    assertTrue(s == systemA || s == systemB);
+    assertEquals(1, pool.getHits());
+    verify(repository, session, systemA, systemB);
+  }
+
+  @Test
+  public void testBoundedWait() throws RepositoryException {
+    pool = new JCRSessionPool(1, 4, 50L, 60000L);
+    Repository repository = createMock(Repository.class);
+    Session sessionA = createMock(Session.class);
+    Session sessionB = createMock(Session.class);
+    expect(repository.login((Credentials) null)).andReturn(sessionA);
+    expect(repository.login((Credentials) null)).andReturn(sessionB);
+    replay(repository, sessionA, sessionB);
+
+    pool.borrow(repository, "u:a", null);
+    long start = System.currentTimeMillis();
+    // the pool is full, so this waits and then opens a session over the limit.
+    assertSame(sessionB, pool.borrow(repository, "u:a", null));
+    assertTrue(System.currentTimeMillis() - start >= 50L);
+    assertEquals(1, pool.getWaits());
+    assertEquals(2, pool.getActive());
+    verify(repository, sessionA, sessionB);
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.jackrabbit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.kernel.jcr.api.JcrContentListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the coalescing of content events for a listener.
+ */
+public class JcrContentListenerQueueUT {
+
+  private ScheduledThreadPoolExecutor executor;
+  private AtomicInteger begun;
+  private AtomicInteger ended;
+  private JcrContentListenerQueue.BatchContext context;
+
+  @Before
+  public void setUp() {
+    executor = new ScheduledThreadPoolExecutor(2);
+    begun = new AtomicInteger();
+    ended = new AtomicInteger();
+    context = new JcrContentListenerQueue.BatchContext() {
+      public void begin() throws Exception {
+        begun.incrementAndGet();
+      }
+
+      public void end() {
+        ended.incrementAndGet();
+      }
+    };
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testCoalesce() throws InterruptedException {
+    RecordingListener listener = new RecordingListener(2);
+    JcrContentListenerQueue queue = new JcrContentListenerQueue(listener,
+        executor, 200L, context);
+    for (int i = 0; i < 10; i++) {
+      queue.offer(i, "user" + i, "/a/b/file", "file");
+    }
+    queue.offer(0, "user", "/a/b/other", "other");
+    assertEquals(2, queue.getDepth());
+    assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+    executor.shutdown();
+    executor.awaitTermination(5, TimeUnit.SECONDS);
+
+    assertEquals(2, listener.paths.size());
+    assertEquals("/a/b/file", listener.paths.get(0));
+    // the last event for a file wins.
+    assertEquals("user9", listener.users.get(0));
+    assertEquals("/a/b/other", listener.paths.get(1));
+    assertEquals(11, queue.getReceived());
+    assertEquals(2, queue.getDelivered());
+    assertEquals(0, queue.getFailed());
+    assertEquals(0, queue.getDepth());
+    assertEquals(2, queue.getMaxDepth());
+    assertEquals(1, begun.get());
+    assertEquals(1, ended.get());
+    assertTrue(queue.getMaxLatency() >= 0);
+
+    queue.resetStatistics();
+    assertEquals(0, queue.getReceived());
+    assertEquals(0, queue.getMaxDepth());
+  }
+
+  @Test
+  public void testFailure() throws InterruptedException {
+    RecordingListener listener = new RecordingListener(2) {
+      @Override
+      public void onEvent(int type, String userID, String filePath,
+          String fileName) {
+        super.onEvent(type, userID, filePath, fileName);
+        if ("bad".equals(fileName)) {
+          throw new IllegalStateException("Failed as expected");
+        }
+      }
+    };
+    JcrContentListenerQueue queue = new JcrContentListenerQueue(listener,
+        executor, 0L, context);
+    queue.offer(0, "user", "/bad", "bad");
+    queue.offer(0, "user", "/good", "good");
+    assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+    executor.shutdown();
+    executor.awaitTermination(5, TimeUnit.SECONDS);
+    assertEquals(1, queue.getFailed());
+    assertEquals(1, queue.getDelivered());
+    assertEquals(begun.get(), ended.get());
+  }
+
+  @Test
+  public void testShutdown() {
+    executor.shutdown();
+    RecordingListener listener = new RecordingListener(1);
+    JcrContentListenerQueue queue = new JcrContentListenerQueue(listener,
+        executor, 0L, context);
+    queue.offer(0, "user", "/a", "a");
+    assertEquals(0, queue.getDepth());
+    assertEquals(0, listener.paths.size());
+  }
+
+  private static class RecordingListener implements JcrContentListener {
+    private final List<String> paths = new ArrayList<String>();
+    private final List<String> users = new ArrayList<String>();
+    private final CountDownLatch latch;
+
+    RecordingListener(int expected) {
+      latch = new CountDownLatch(expected);
+    }
+
+    public void onEvent(int type, String userID, String filePath,
+        String fileName) {
+      synchronized (this) {
+        paths.add(filePath);
+        users.add(userID);
+      }
+      latch.countDown();
+    }
+  }
+}
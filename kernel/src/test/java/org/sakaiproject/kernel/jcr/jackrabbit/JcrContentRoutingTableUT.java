@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.jackrabbit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.sakaiproject.kernel.jcr.api.JcrContentListener;
+import org.sakaiproject.kernel.jcr.api.RoutedJcrContentListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the routing of content events to listeners.
+ */
+public class JcrContentRoutingTableUT {
+
+  @Test
+  public void testRoute() {
+    JcrContentListener any = new Listener(null, null);
+    JcrContentListener groups = new Listener(new String[] { "/" },
+        new String[] { "groupdef.json" });
+    JcrContentListener userenv = new Listener(new String[] { "/userenv/" },
+        new String[] { "userenv" });
+    JcrContentListener outbox = new Listener(new String[] { "/" }, null);
+    List<JcrContentListener> listeners = new ArrayList<JcrContentListener>();
+    listeners.add(new AnyListener());
+    listeners.add(any);
+    listeners.add(groups);
+    listeners.add(userenv);
+    listeners.add(outbox);
+    JcrContentRoutingTable table = new JcrContentRoutingTable(listeners);
+
+    List<JcrContentListener> matched = table.route("/userenv/a/b/userenv",
+        "userenv");
+    assertEquals(4, matched.size());
+    assertTrue(matched.contains(userenv));
+    assertTrue(!matched.contains(groups));
+
+    matched = table.route("/sites/s1/groupdef.json", "groupdef.json");
+    assertEquals(4, matched.size());
+    assertTrue(matched.contains(groups));
+    assertTrue(!matched.contains(userenv));
+
+    // the prefix is a path element, not a string prefix.
+    matched = table.route("/userenvx/userenv", "userenv");
+    assertEquals(3, matched.size());
+    assertTrue(!matched.contains(userenv));
+  }
+
+  @Test
+  public void testNoRoutes() {
+    List<JcrContentListener> listeners = new ArrayList<JcrContentListener>();
+    listeners.add(new AnyListener());
+    JcrContentRoutingTable table = new JcrContentRoutingTable(listeners);
+    assertEquals(1, table.route("/a/b", "b").size());
+  }
+
+  private static class AnyListener implements JcrContentListener {
+    public void onEvent(int type, String userID, String filePath,
+        String fileName) {
+    }
+  }
+
+  private static class Listener extends AnyListener implements
+      RoutedJcrContentListener {
+    private final String[] prefixes;
+    private final String[] fileNames;
+
+    Listener(String[] prefixes, String[] fileNames) {
+      this.prefixes = prefixes;
+      this.fileNames = fileNames;
+    }
+
+    public String[] getPathPrefixes() {
+      return prefixes;
+    }
+
+    public String[] getFileNames() {
+      return fileNames;
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.jackrabbit;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.sakaiproject.kernel.util.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Compares the streaming JSON text extraction with the previous approach of
+ * reading the whole document, parsing it into a tree with json-lib and
+ * building the text from the tree, on 1KB, 1MB and 50MB documents. Reports
+ * throughput and the bytes allocated per document, where the JVM can measure
+ * per thread allocation. This is not run as part of the unit tests, run it
+ * with a heap of at least 1GB to let the tree approach complete on 50MB.
+ */
+public class JsonTextExtractorBenchmark {
+
+  private static final int[] SIZES = { 1024, 1024 * 1024, 50 * 1024 * 1024 };
+
+  private static final int ROUNDS = 3;
+
+  public static void main(String[] args) throws Exception {
+    for (int size : SIZES) {
+      byte[] document = createDocument(size);
+      int iterations = Math.max(1, (8 * 1024 * 1024) / size);
+      for (int round = 0; round < ROUNDS; round++) {
+        report("tree     ", size, iterations, runTree(document, iterations));
+        report("streaming", size, iterations, runStreaming(document, iterations));
+      }
+    }
+  }
+
+  private static long[] runTree(byte[] document, int iterations) throws IOException {
+    long allocated = allocatedBytes();
+    long start = System.nanoTime();
+    long chars = 0;
+    for (int i = 0; i < iterations; i++) {
+      String content = IOUtils.readFully(new ByteArrayInputStream(document), "UTF-8");
+      StringBuilder sb = new StringBuilder();
+      appendValues(JSONObject.fromObject(content), sb);
+      chars += sb.length();
+    }
+    return result(start, allocated, chars);
+  }
+
+  private static long[] runStreaming(byte[] document, int iterations) throws IOException {
+    JsonTextExtractor extractor = new JsonTextExtractor(Long.MAX_VALUE);
+    char[] buffer = new char[4096];
+    long allocated = allocatedBytes();
+    long start = System.nanoTime();
+    long chars = 0;
+    for (int i = 0; i < iterations; i++) {
+      Reader r = extractor.extractText(new ByteArrayInputStream(document), "text/json",
+          "UTF-8");
+      int n;
+      while ((n = r.read(buffer)) > 0) {
+        chars += n;
+      }
+      r.close();
+    }
+    return result(start, allocated, chars);
+  }
+
+  private static long[] result(long start, long allocated, long chars) {
+    long time = System.nanoTime() - start;
+    long after = allocatedBytes();
+    return new long[] { time, (allocated < 0) ? -1 : after - allocated, chars };
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void appendValues(Object o, StringBuilder sb) {
+    if (o instanceof Map) {
+      for (Object v : ((Map<String, Object>) o).values()) {
+        appendValues(v, sb);
+      }
+    } else if (o instanceof JSONArray) {
+      for (Object v : (JSONArray) o) {
+        appendValues(v, sb);
+      }
+    } else {
+      sb.append(" ").append(String.valueOf(o));
+    }
+  }
+
+  private static void report(String name, int size, int iterations, long[] result) {
+    double seconds = result[0] / 1.0E9;
+    double mbPerSecond = ((double) size * iterations) / (1024 * 1024) / seconds;
+    String allocation = (result[1] < 0) ? "n/a" : String.valueOf(result[1] / iterations);
+    System.err.println(name + " " + size + " bytes x" + iterations + ": " + mbPerSecond
+        + " MB/s, " + allocation + " bytes allocated per document, "
+        + (result[2] / iterations) + " chars extracted");
+  }
+
+  /**
+   * @return the bytes allocated by this thread, or -1 if the JVM cant say.
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    try {
+      Method m = Class.forName("com.sun.management.ThreadMXBean").getMethod(
+          "getThreadAllocatedBytes", long.class);
+      return (Long) m.invoke(bean, Thread.currentThread().getId());
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  /**
+   * A site like document, an object of pages each with a title, a body of text
+   * and a list of numbers, repeated until the document reaches the size.
+   */
+  private static byte[] createDocument(int size) throws IOException {
+    StringBuilder sb = new StringBuilder(size + 256);
+    sb.append("{\"id\":\"site\",\"pages\":[");
+    int i = 0;
+    while (sb.length() < size - 128) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append("{\"title\":\"Page ").append(i).append("\",\"body\":\"");
+      sb.append("The quick brown fox jumps over the lazy dog \\u00e9 ").append(i);
+      sb.append("\",\"order\":").append(i).append(",\"tags\":[\"a\",\"b\",1.5]}");
+      i++;
+    }
+    sb.append("]}");
+    return sb.toString().getBytes("UTF-8");
+  }
+}
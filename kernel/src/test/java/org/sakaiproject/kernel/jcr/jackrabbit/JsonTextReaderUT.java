@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.jackrabbit;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ *
+ */
+public class JsonTextReaderUT {
+
+  @Test
+  public void testValues() throws IOException {
+    assertEquals("a 1.5e3 c ", extract("{\"k\":\"a\",\"n\":1.5e3,\"o\":{\"x\":\"c\"}}"));
+    assertEquals("x -2 y ", extract("[\"x\", -2, [\"y\"], true, false, null]"));
+    assertEquals("top ", extract("\"top\""));
+    assertEquals("", extract("{}"));
+    assertEquals("", extract(""));
+  }
+
+  @Test
+  public void testKeysDropped() throws IOException {
+    assertEquals("v1 v2 ", extract("{ \"key1\" : \"v1\" , \"key2\" : { \"key3\" : \"v2\" } }"));
+    assertEquals("a b ", extract("[{\"k\":\"a\"},{\"k\":\"b\"}]"));
+    assertEquals("", extract("{\"empty\":\"\",\"flag\":true}"));
+  }
+
+  @Test
+  public void testEscapes() throws IOException {
+    assertEquals("say \"hi\"\\/\n\u00e9 ", extract("{\"k\":\"say \\\"hi\\\"\\\\\\/\\n\\u00e9\"}"));
+    // a broken unicode escape is kept as text
+    assertEquals("zq ", extract("[\"\\uzq\"]"));
+  }
+
+  @Test
+  public void testMaxLength() throws IOException {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < 10000; i++) {
+      sb.append("\"value").append(i).append("\",");
+    }
+    sb.append("\"end\"]");
+    String text = extract(sb.toString(), 100);
+    assertEquals(100, text.length());
+    assertEquals(true, text.startsWith("value0 value1 "));
+  }
+
+  @Test
+  public void testSmallReads() throws IOException {
+    Reader r = new JsonTextReader(new StringReader("{\"k\":\"ab\",\"l\":[12]}"), 1000);
+    char[] c = new char[1];
+    StringBuilder sb = new StringBuilder();
+    int n;
+    while ((n = r.read(c, 0, 1)) > 0) {
+      sb.append(c, 0, n);
+    }
+    r.close();
+    assertEquals("ab 12 ", sb.toString());
+  }
+
+  @Test
+  public void testDeepNesting() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      sb.append("{\"k\":");
+    }
+    sb.append("\"deep\"");
+    for (int i = 0; i < 100; i++) {
+      sb.append("}");
+    }
+    assertEquals("deep ", extract(sb.toString()));
+  }
+
+  private String extract(String json) throws IOException {
+    return extract(json, Long.MAX_VALUE);
+  }
+
+  private String extract(String json, long max) throws IOException {
+    Reader r = new JsonTextExtractor(max).extractText(new ByteArrayInputStream(json
+        .getBytes("UTF-8")), "text/json", null);
+    StringBuilder sb = new StringBuilder();
+    char[] c = new char[37];
+    int n;
+    while ((n = r.read(c)) > 0) {
+      sb.append(c, 0, n);
+    }
+    r.close();
+    return sb.toString();
+  }
+}
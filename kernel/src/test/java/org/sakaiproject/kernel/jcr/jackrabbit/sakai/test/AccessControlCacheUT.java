@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.jackrabbit.sakai.test;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.uuid.UUID;
+import org.junit.Test;
+import org.sakaiproject.kernel.jcr.jackrabbit.sakai.AccessControlCache;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+
+/**
+ *
+ */
+public class AccessControlCacheUT {
+
+  @Test
+  public void testControllingPath() {
+    AccessControlCache cache = new AccessControlCache(10);
+    NodeId id = new NodeId(UUID.randomUUID());
+    assertNull(cache.getControllingPath("default", id));
+    cache.putControllingPath("default", id, "/sites/a", cache.getGeneration());
+    assertEquals("/sites/a", cache.getControllingPath("default", id));
+    assertNull(cache.getControllingPath("other", id));
+  }
+
+  @Test
+  public void testBounded() {
+    AccessControlCache cache = new AccessControlCache(2);
+    NodeId first = new NodeId(UUID.randomUUID());
+    cache.putControllingPath("default", first, "/a", cache.getGeneration());
+    cache.putControllingPath("default", new NodeId(UUID.randomUUID()), "/b", cache
+        .getGeneration());
+    cache.putControllingPath("default", new NodeId(UUID.randomUUID()), "/c", cache
+        .getGeneration());
+    assertEquals(2, cache.getFolderCacheSize());
+    assertNull(cache.getControllingPath("default", first));
+  }
+
+  @Test
+  public void testAclChangeInvalidates() throws RepositoryException {
+    AccessControlCache cache = new AccessControlCache(10);
+    NodeId id = new NodeId(UUID.randomUUID());
+    long generation = cache.getGeneration();
+    cache.putControllingPath("default", id, "/sites/a", generation);
+
+    cache.onEvent(events(event(Event.PROPERTY_CHANGED, "/sites/a/jcr:content/jcr:data")));
+    assertEquals(generation, cache.getGeneration());
+    assertEquals("/sites/a", cache.getControllingPath("default", id));
+
+    cache.onEvent(events(event(Event.PROPERTY_ADDED, "/sites/a/acl:acl")));
+    assertEquals(generation + 1, cache.getGeneration());
+    assertNull(cache.getControllingPath("default", id));
+
+    // a path resolved before the change must not be kept.
+    cache.putControllingPath("default", id, "/sites/a", generation);
+    assertNull(cache.getControllingPath("default", id));
+  }
+
+  @Test
+  public void testRemoveDoesNotInvalidate() throws RepositoryException {
+    AccessControlCache cache = new AccessControlCache(10);
+    long generation = cache.getGeneration();
+    cache.onEvent(events(event(Event.NODE_REMOVED, "/sites/a/b"), event(
+        Event.NODE_ADDED, "/sites/a/c")));
+    assertEquals(generation, cache.getGeneration());
+  }
+
+  private Event event(int type, String path) throws RepositoryException {
+    Event event = createMock(Event.class);
+    expect(event.getType()).andReturn(type).anyTimes();
+    expect(event.getPath()).andReturn(path).anyTimes();
+    replay(event);
+    return event;
+  }
+
+  private EventIterator events(Event... events) {
+    EventIterator iterator = createMock(EventIterator.class);
+    for (Event e : events) {
+      expect(iterator.hasNext()).andReturn(true);
+      expect(iterator.nextEvent()).andReturn(e);
+    }
+    expect(iterator.hasNext()).andReturn(false).anyTimes();
+    replay(iterator);
+    return iterator;
+  }
+}
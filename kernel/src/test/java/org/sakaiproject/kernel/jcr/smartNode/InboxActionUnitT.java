@@ -97,8 +97,10 @@ public class InboxActionUnitT extends SmartNodeHandlerBaseT {
     inboxNode = nodeFactory.createFolder(PREFIX + "inbox");
     session.save();
 
-    xpathHandler = new XpathSmartNodeHandler(registryService, jcrService);
-    sqlHandler = new SqlSmartNodeHandler(registryService, jcrService);
+    xpathHandler = new XpathSmartNodeHandler(registryService, jcrService,
+        authzResolverService, permissionQueryService);
+    sqlHandler = new SqlSmartNodeHandler(registryService, jcrService,
+        authzResolverService, permissionQueryService);
   }
 
   @Override
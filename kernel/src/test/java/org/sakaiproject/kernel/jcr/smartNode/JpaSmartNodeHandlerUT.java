@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.smartNode;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.sakaiproject.kernel.api.jcr.SmartNodeHandler;
+import org.sakaiproject.kernel.registry.RegistryServiceImpl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ *
+ */
+public class JpaSmartNodeHandlerUT {
+
+  @Test
+  public void testCountQuery() {
+    assertEquals("select count(s) from SiteIndexBean s where s.id = :id",
+        JpaSmartNodeHandler
+            .toCountQuery("select s from SiteIndexBean s where s.id = :id"));
+    assertEquals("select count(s) FROM SiteIndexBean s", JpaSmartNodeHandler
+        .toCountQuery("SELECT s FROM SiteIndexBean s ORDER BY s.name"));
+    assertEquals("select count(distinct f.uuid) from FriendsIndexBean f",
+        JpaSmartNodeHandler
+            .toCountQuery("select distinct f.uuid from FriendsIndexBean f"));
+    assertNull(JpaSmartNodeHandler
+        .toCountQuery("select s.id, s.name from SiteIndexBean s"));
+    assertNull(JpaSmartNodeHandler
+        .toCountQuery("select count(s) from SiteIndexBean s"));
+    assertNull(JpaSmartNodeHandler
+        .toCountQuery("select s.type from SiteIndexBean s group by s.type"));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testCountInPages() {
+    JpaSmartNodeHandler handler = createHandler(null);
+    Query query = createMock(Query.class);
+    expect(query.setFirstResult(0)).andReturn(query);
+    expect(query.setMaxResults(500)).andReturn(query);
+    expect(query.getResultList()).andReturn(page(500));
+    expect(query.setFirstResult(500)).andReturn(query);
+    expect(query.setMaxResults(500)).andReturn(query);
+    expect(query.getResultList()).andReturn(page(20));
+    replay(query);
+    assertEquals(520, handler.countInPages(query));
+    verify(query);
+  }
+
+  @Test
+  public void testPagingParameters() {
+    HttpServletRequest request = createMock(HttpServletRequest.class);
+    expect(request.getParameter(SmartNodeHandler.OFFSET_PARAM)).andReturn("20");
+    expect(request.getParameter(SmartNodeHandler.LIMIT_PARAM)).andReturn("10");
+    expect(request.getParameter(SmartNodeHandler.OFFSET_PARAM)).andReturn("-1");
+    expect(request.getParameter(SmartNodeHandler.LIMIT_PARAM)).andReturn("ten");
+    replay(request);
+    JpaSmartNodeHandler handler = createHandler(null);
+    assertEquals(20, handler.getOffset(request));
+    assertEquals(10, handler.getLimit(request));
+    assertEquals(0, handler.getOffset(request));
+    assertEquals(-1, handler.getLimit(request));
+    verify(request);
+  }
+
+  private JpaSmartNodeHandler createHandler(EntityManager entityManager) {
+    return new JpaSmartNodeHandler(new RegistryServiceImpl(), entityManager);
+  }
+
+  private List<Object> page(int size) {
+    return new ArrayList<Object>(Collections.nCopies(size, new Object()));
+  }
+}
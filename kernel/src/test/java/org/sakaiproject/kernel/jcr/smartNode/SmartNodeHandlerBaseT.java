@@ -27,7 +27,10 @@ import org.junit.BeforeClass;
 import org.sakaiproject.kernel.api.Kernel;
 import org.sakaiproject.kernel.api.KernelManager;
 import org.sakaiproject.kernel.api.RegistryService;
+import org.sakaiproject.kernel.api.authz.AuthzResolverService;
+import org.sakaiproject.kernel.api.authz.PermissionQueryService;
 import org.sakaiproject.kernel.api.jcr.JCRService;
+import org.sakaiproject.kernel.api.jcr.SmartNodeHandler;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
 import org.sakaiproject.kernel.jcr.jackrabbit.sakai.SakaiJCRCredentials;
 import org.sakaiproject.kernel.test.KernelIntegrationBase;
@@ -50,6 +53,8 @@ public abstract class SmartNodeHandlerBaseT {
   protected static JCRNodeFactoryService nodeFactory;
   protected static RegistryService registryService;
   protected static JCRService jcrService;
+  protected static AuthzResolverService authzResolverService;
+  protected static PermissionQueryService permissionQueryService;
 
   protected final String prefix = "/userenv/test/";
   protected final String randomFolder = "randomFolder1/";
@@ -70,6 +75,8 @@ public abstract class SmartNodeHandlerBaseT {
 
     jcrService = kernel.getService(JCRService.class);
     registryService = kernel.getService(RegistryService.class);
+    authzResolverService = kernel.getService(AuthzResolverService.class);
+    permissionQueryService = kernel.getService(PermissionQueryService.class);
 
     // login to the repo with super admin
     SakaiJCRCredentials credentials = new SakaiJCRCredentials();
@@ -82,14 +89,28 @@ public abstract class SmartNodeHandlerBaseT {
   }
 
   public void setUp() throws Exception {
+    setUpMocks(null, null);
+  }
+
+  /**
+   * @param offset
+   *          the offset request parameter.
+   * @param limit
+   *          the limit request parameter.
+   */
+  protected void setUpMocks(String offset, String limit) {
     request = createMock(HttpServletRequest.class);
+    expect(request.getParameter(SmartNodeHandler.OFFSET_PARAM)).andReturn(offset)
+        .anyTimes();
+    expect(request.getParameter(SmartNodeHandler.LIMIT_PARAM)).andReturn(limit)
+        .anyTimes();
     response = createMock(HttpServletResponse.class);
     outputStream = new TestServletOutputStream();
-    expect(response.getOutputStream()).andReturn(outputStream);
+    expect(response.getOutputStream()).andReturn(outputStream).anyTimes();
     response.setContentType((String) EasyMock.anyObject());
-    expectLastCall();
+    expectLastCall().anyTimes();
     response.setContentLength(EasyMock.anyInt());
-    expectLastCall();
+    expectLastCall().anyTimes();
     replay(request, response);
   }
 
@@ -53,7 +53,8 @@ public class XpathSmartNodeHandlerT extends SmartNodeHandlerBaseT {
   public void setUp() throws Exception {
     super.setUp();
 
-    handler = new XpathSmartNodeHandler(registryService, jcrService);
+    handler = new XpathSmartNodeHandler(registryService, jcrService,
+        authzResolverService, permissionQueryService);
 
     baseFolder = nodeFactory.createFolder(prefix + randomFolder);
     for (String file : randomFiles) {
@@ -88,4 +89,24 @@ public class XpathSmartNodeHandlerT extends SmartNodeHandlerBaseT {
     JSONArray jsonArray = JSONArray.fromObject(json);
     Assert.assertEquals(3, jsonArray.size());
   }
+
+  @Test
+  public void getPageOfFilesAtPath() throws Exception {
+    String statement = "/" + prefix + randomFolder + "/element(*, "
+        + JCRConstants.NT_FILE + ")";
+    JcrUtils.makeSmartNode(baseFolder, Query.XPATH, statement);
+    session.save();
+
+    setUpMocks("1", "1");
+    handler.handle(request, response, baseFolder, baseFolder, statement);
+    Assert.assertEquals(1, JSONArray.fromObject(outputStream.toString()).size());
+
+    setUpMocks("1", null);
+    handler.handle(request, response, baseFolder, baseFolder, statement);
+    Assert.assertEquals(2, JSONArray.fromObject(outputStream.toString()).size());
+
+    setUpMocks("5", "10");
+    handler.handle(request, response, baseFolder, baseFolder, statement);
+    Assert.assertEquals(0, JSONArray.fromObject(outputStream.toString()).size());
+  }
 }
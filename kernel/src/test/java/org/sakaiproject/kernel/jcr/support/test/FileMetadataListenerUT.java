@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.jcr.support.test;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import org.junit.Test;
+import org.sakaiproject.kernel.api.jcr.support.FileMetadata;
+import org.sakaiproject.kernel.api.memory.Cache;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.memory.CacheScope;
+import org.sakaiproject.kernel.jcr.support.FileMetadataListener;
+
+import javax.jcr.observation.Event;
+
+/**
+ *
+ */
+public class FileMetadataListenerUT {
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testRemoveOnChange() {
+    CacheManagerService cacheManagerService = createMock(CacheManagerService.class);
+    Cache<FileMetadata> cache = createMock(Cache.class);
+    expect(
+        cacheManagerService.getCache(FileMetadata.FILE_METADATA_CACHE,
+            CacheScope.CLUSTERINVALIDATED)).andReturn(cache).times(2);
+    cache.remove("/sites/a/widget.js");
+    cache.remove("/sites/a/style.css");
+    replay(cacheManagerService, cache);
+
+    FileMetadataListener listener = new FileMetadataListener(cacheManagerService);
+    listener.onEvent(Event.PROPERTY_CHANGED, "ieb", "/sites/a/widget.js", "widget.js");
+    listener.onEvent(Event.PROPERTY_REMOVED, "ieb", "/sites/a/style.css", "style.css");
+
+    verify(cacheManagerService, cache);
+  }
+}
@@ -21,6 +21,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.google.common.collect.Lists;
 
@@ -33,6 +34,8 @@ import org.sakaiproject.kernel.api.memory.CacheScope;
 import org.sakaiproject.kernel.locking.LockManagerImpl;
 import org.sakaiproject.kernel.memory.CacheManagerServiceImpl;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
@@ -202,4 +205,152 @@ public class LockManagerTest {
     assertEquals(0,errors.size());
   }
 
+
+  @Test
+  public void testWaitIsWokenByUnlock() throws Exception {
+    Lock lock = lockManager.waitForLock("/a/b/c");
+    final long[] granted = new long[1];
+    final List<Throwable> errors = Lists.newArrayList();
+    Thread waiter = new Thread(new Runnable() {
+      public void run() {
+        try {
+          Lock l = lockManager.waitForLock("/a/b/c");
+          granted[0] = System.currentTimeMillis();
+          assertTrue(l.isOwner());
+          l.unlock();
+        } catch (Throwable t) {
+          errors.add(t);
+        } finally {
+          cacheManagerService.unbind(CacheScope.REQUEST);
+        }
+      }
+    });
+    waiter.start();
+    waitForWaiters(1);
+    long unlocked = System.currentTimeMillis();
+    lock.unlock();
+    waiter.join(5000);
+    assertEquals(0, errors.size());
+    assertTrue("Waiter was not woken by the unlock " + (granted[0] - unlocked),
+        granted[0] - unlocked < 100);
+    assertEquals(1, lockManager.getLocksContended());
+    assertEquals(0, lockManager.getLocksHeld());
+  }
+
+  @Test
+  public void testFifo() throws Exception {
+    Lock lock = lockManager.waitForLock("/fifo");
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    Thread[] waiters = new Thread[5];
+    for (int i = 0; i < waiters.length; i++) {
+      final int n = i;
+      waiters[i] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            Lock l = lockManager.waitForLock("/fifo");
+            order.add(n);
+            l.unlock();
+          } catch (LockTimeoutException e) {
+            e.printStackTrace();
+          } finally {
+            cacheManagerService.unbind(CacheScope.REQUEST);
+          }
+        }
+      });
+      waiters[i].start();
+      waitForWaiters(i + 1);
+    }
+    lock.unlock();
+    for (Thread t : waiters) {
+      t.join(5000);
+    }
+    assertEquals(Lists.newArrayList(0, 1, 2, 3, 4), order);
+  }
+
+  @Test
+  public void testLeaseExpiry() throws Exception {
+    lockManager = new LockManagerImpl(cacheManagerService, 5000L, 100L, false,
+        250L, 2);
+    final Object release = new Object();
+    Thread holder = new Thread(new Runnable() {
+      public void run() {
+        // take the lock and never release it.
+        lockManager.getLock("/lease");
+        synchronized (release) {
+          try {
+            release.wait(5000);
+          } catch (InterruptedException e) {
+          }
+        }
+      }
+    });
+    holder.start();
+    while (lockManager.getLocksHeld() == 0) {
+      Thread.sleep(10);
+    }
+    Lock lock = lockManager.waitForLock("/lease");
+    assertTrue(lock.isOwner());
+    assertEquals(1, lockManager.getLocksBroken());
+    synchronized (release) {
+      release.notifyAll();
+    }
+    holder.join(5000);
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    lockManager = new LockManagerImpl(cacheManagerService, 100L, 120000L,
+        false, 250L, 2);
+    final Object release = new Object();
+    Thread holder = new Thread(new Runnable() {
+      public void run() {
+        lockManager.getLock("/timeout");
+        synchronized (release) {
+          try {
+            release.wait(5000);
+          } catch (InterruptedException e) {
+          }
+        }
+        cacheManagerService.unbind(CacheScope.REQUEST);
+      }
+    });
+    holder.start();
+    while (lockManager.getLocksHeld() == 0) {
+      Thread.sleep(10);
+    }
+    try {
+      lockManager.waitForLock("/timeout");
+      fail("Should have timed out");
+    } catch (LockTimeoutException e) {
+    }
+    assertEquals(1, lockManager.getLockTimeouts());
+    assertEquals(0, lockManager.getThreadsWaiting());
+    synchronized (release) {
+      release.notifyAll();
+    }
+    holder.join(5000);
+  }
+
+  @Test
+  public void testPrefixStatistics() throws Exception {
+    assertEquals("/a/b", LockManagerImpl.getPrefix("/a/b/c", 2));
+    assertEquals("/a", LockManagerImpl.getPrefix("/a", 2));
+    assertEquals("*", LockManagerImpl.getPrefix("4f2a99", 2));
+    lockManager.waitForLock("/x/y/z").unlock();
+    lockManager.waitForLock("/x/y/w").unlock();
+    LockStatistics stats = lockManager.getPrefixStatistics("/x/y");
+    assertNotNull(stats);
+    assertEquals(2, stats.getGranted());
+    assertEquals(2, stats.getReleased());
+  }
+
+  private void waitForWaiters(int n) throws InterruptedException {
+    long timeout = System.currentTimeMillis() + 5000;
+    while (lockManager.getThreadsWaiting() < n
+        && System.currentTimeMillis() < timeout) {
+      Thread.sleep(10);
+    }
+    assertEquals(n, lockManager.getThreadsWaiting());
+  }
+
 }
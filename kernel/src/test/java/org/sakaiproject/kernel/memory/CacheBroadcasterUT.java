@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.kernel.api.memory.Cache;
+
+/**
+ * Tests cluster cache messages between two nodes on a loopback transport.
+ */
+public class CacheBroadcasterUT {
+
+  private CacheBroadcaster broadcasterA;
+  private CacheBroadcaster broadcasterB;
+  private MapCacheImpl<String> localA;
+  private MapCacheImpl<String> localB;
+
+  @Before
+  public void setUp() {
+    LoopbackCacheTransport.Group group = new LoopbackCacheTransport.Group();
+    // long flush interval, the tests flush explicitly.
+    broadcasterA = new CacheBroadcaster(new LoopbackCacheTransport(group),
+        600000, 100);
+    broadcasterB = new CacheBroadcaster(new LoopbackCacheTransport(group),
+        600000, 100);
+    localA = new MapCacheImpl<String>();
+    localB = new MapCacheImpl<String>();
+    broadcasterA.register("test", localA);
+    broadcasterB.register("test", localB);
+  }
+
+  @After
+  public void tearDown() {
+    broadcasterA.stop();
+    broadcasterB.stop();
+  }
+
+  @Test
+  public void testInvalidation() {
+    Cache<String> a = new ClusterCacheImpl<String>("test", localA,
+        broadcasterA, false);
+    Cache<String> b = new ClusterCacheImpl<String>("test", localB,
+        broadcasterB, false);
+    a.put("/x", "a");
+    b.put("/x", "b");
+    broadcasterA.flush();
+    // puts are not sent for invalidated caches
+    assertEquals(0, broadcasterA.getMessagesSent());
+    assertEquals("b", b.get("/x"));
+
+    a.remove("/x");
+    broadcasterA.flush();
+    assertEquals(1, broadcasterA.getMessagesSent());
+    assertEquals(1, broadcasterB.getMessagesReceived());
+    assertFalse(b.containsKey("/x"));
+  }
+
+  @Test
+  public void testReplication() {
+    Cache<String> a = new ClusterCacheImpl<String>("test", localA,
+        broadcasterA, true);
+    a.put("/x", "1");
+    a.put("/x", "2");
+    a.put("/y", "3");
+    broadcasterA.flush();
+    assertEquals(2, broadcasterA.getMessagesSent());
+    assertEquals(1, broadcasterA.getMessagesCoalesced());
+    assertEquals("2", localB.get("/x"));
+    assertEquals("3", localB.get("/y"));
+  }
+
+  @Test
+  public void testCoalesceByPrefix() {
+    localB.put("/a/b", "1");
+    localB.put("/a/b/c", "1");
+    localB.put("/a/bc", "1");
+    broadcasterA.remove("test", "/a/b/c");
+    broadcasterA.removeChildren("test", "/a/b/d");
+    broadcasterA.removeChildren("test", "/a/b");
+    broadcasterA.remove("test", "/a/b/e");
+    broadcasterA.flush();
+    assertEquals(1, broadcasterA.getMessagesSent());
+    assertEquals(3, broadcasterA.getMessagesCoalesced());
+    assertNull(localB.get("/a/b"));
+    assertNull(localB.get("/a/b/c"));
+    assertEquals("1", localB.get("/a/bc"));
+  }
+
+  @Test
+  public void testPutAfterRemoveChildren() {
+    broadcasterA.removeChildren("test", "/a");
+    broadcasterA.put("test", "/a/x", "2");
+    localB.put("/a/y", "1");
+    broadcasterA.flush();
+    assertEquals(2, broadcasterA.getMessagesSent());
+    assertNull(localB.get("/a/y"));
+    assertEquals("2", localB.get("/a/x"));
+  }
+
+  @Test
+  public void testClearAndOverflow() {
+    localB.put("/z", "1");
+    for (int i = 0; i < 200; i++) {
+      broadcasterA.remove("test", "/k" + i);
+    }
+    broadcasterA.flush();
+    assertEquals(1, broadcasterA.getMessagesSent());
+    assertTrue(broadcasterA.getMessagesCoalesced() > 100);
+    assertFalse(localB.containsKey("/z"));
+
+    broadcasterA.clear("test");
+    broadcasterA.clear("test");
+    broadcasterA.flush();
+    assertEquals(2, broadcasterA.getMessagesSent());
+    assertEquals(0, broadcasterA.getMessagesDropped());
+  }
+}
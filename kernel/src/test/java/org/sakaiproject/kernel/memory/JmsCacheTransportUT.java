@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.memory;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+import org.easymock.Capture;
+import org.junit.Test;
+import org.sakaiproject.kernel.api.memory.CacheMessage;
+import org.sakaiproject.kernel.api.memory.CacheTransportListener;
+import org.sakaiproject.kernel.messaging.JmsProducerPool;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+/**
+ * Tests cluster cache messages sent between two nodes over a JMS topic.
+ */
+public class JmsCacheTransportUT {
+
+  private static final String TOPIC = "kernel.cache";
+
+  /**
+   * Records the batches received from other nodes.
+   */
+  private static class RecordingListener implements CacheTransportListener {
+    private final List<List<CacheMessage>> batches = new ArrayList<List<CacheMessage>>();
+
+    public void receive(List<CacheMessage> messages) {
+      batches.add(messages);
+    }
+  }
+
+  /**
+   * @param listener
+   *          captures the listener that the transport subscribes with.
+   * @return a connection factory for the receiving side of a transport.
+   * @throws JMSException
+   */
+  private ConnectionFactory subscriber(Capture<MessageListener> listener)
+      throws JMSException {
+    ConnectionFactory factory = createMock(ConnectionFactory.class);
+    Connection connection = createNiceMock(Connection.class);
+    Session session = createNiceMock(Session.class);
+    Topic topic = createNiceMock(Topic.class);
+    MessageConsumer consumer = createMock(MessageConsumer.class);
+    expect(factory.createConnection()).andReturn(connection);
+    expect(connection.createSession(false, Session.AUTO_ACKNOWLEDGE))
+        .andReturn(session);
+    expect(session.createTopic(TOPIC)).andReturn(topic);
+    expect(session.createConsumer(topic)).andReturn(consumer);
+    consumer.setMessageListener(capture(listener));
+    expectLastCall();
+    replay(factory, connection, session, topic, consumer);
+    return factory;
+  }
+
+  @Test
+  public void testBatchReachesOtherNodesOnly() throws JMSException {
+    // the producer pool shared by both nodes.
+    ConnectionFactory poolFactory = createMock(ConnectionFactory.class);
+    Connection poolConnection = createMock(Connection.class);
+    Session poolSession = createMock(Session.class);
+    Topic topic = createMock(Topic.class);
+    MessageProducer producer = createMock(MessageProducer.class);
+    ObjectMessage sent = createMock(ObjectMessage.class);
+    expect(poolFactory.createConnection()).andReturn(poolConnection);
+    poolConnection.setExceptionListener(isA(ExceptionListener.class));
+    expectLastCall();
+    poolConnection.start();
+    expectLastCall();
+    expect(poolConnection.createSession(false, Session.AUTO_ACKNOWLEDGE))
+        .andReturn(poolSession);
+    expect(poolSession.createTopic(TOPIC)).andReturn(topic);
+    expect(poolSession.createProducer(topic)).andReturn(producer);
+    Capture<Serializable> batch = new Capture<Serializable>();
+    expect(poolSession.createObjectMessage(capture(batch))).andReturn(sent);
+    sent.setJMSType("kernel.cache");
+    expectLastCall();
+    producer.send(sent);
+    expectLastCall();
+    expect(poolSession.getTransacted()).andReturn(false);
+    poolSession.close();
+    expectLastCall();
+    poolConnection.close();
+    expectLastCall();
+    replay(poolFactory, poolConnection, poolSession, topic, producer, sent);
+    JmsProducerPool pool = new JmsProducerPool(poolFactory, 2, 1000L, 10);
+
+    Capture<MessageListener> subscriptionA = new Capture<MessageListener>();
+    Capture<MessageListener> subscriptionB = new Capture<MessageListener>();
+    JmsCacheTransport a = new JmsCacheTransport(subscriber(subscriptionA),
+        pool, TOPIC, "tcp://broker:61616");
+    JmsCacheTransport b = new JmsCacheTransport(subscriber(subscriptionB),
+        pool, TOPIC, "tcp://broker:61616");
+    RecordingListener listenerA = new RecordingListener();
+    RecordingListener listenerB = new RecordingListener();
+    a.bind(listenerA);
+    b.bind(listenerB);
+
+    List<CacheMessage> messages = new ArrayList<CacheMessage>();
+    messages.add(new CacheMessage("test", CacheMessage.Type.REMOVE, "/x", null));
+    a.send(messages);
+    pool.stop();
+    verify(poolFactory, poolConnection, poolSession, topic, producer, sent);
+
+    // the topic delivers the batch to every subscriber, including the sender.
+    ObjectMessage received = createMock(ObjectMessage.class);
+    expect(received.getObject()).andReturn(batch.getValue()).times(2);
+    replay(received);
+    subscriptionA.getValue().onMessage(received);
+    subscriptionB.getValue().onMessage(received);
+    verify(received);
+
+    assertEquals(0, listenerA.batches.size());
+    assertEquals(1, listenerB.batches.size());
+    assertEquals(1, listenerB.batches.get(0).size());
+    assertEquals("/x", listenerB.batches.get(0).get(0).getKey());
+    a.close();
+    b.close();
+  }
+}
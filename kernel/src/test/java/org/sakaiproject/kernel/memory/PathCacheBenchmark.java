@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.memory;
+
+import net.sf.ehcache.CacheManager;
+
+import org.sakaiproject.kernel.api.memory.Cache;
+
+/**
+ * Compares removeChildren on the scanning ehcache backed cache with the path
+ * indexed cache at 10k, 100k and 1M keys. This is not run as part of the unit
+ * tests, run it with a large heap, eg -Xmx1024m.
+ */
+public class PathCacheBenchmark {
+
+  private static final int[] SIZES = new int[] { 10000, 100000, 1000000 };
+  private static final int FANOUT = 10;
+  private static final int ITERATIONS = 20;
+
+  public static void main(String[] args) {
+    CacheManager cacheManager = new CacheManager();
+    try {
+      for (int size : SIZES) {
+        System.err.println("Keys " + size + " scan   "
+            + run(cacheManager, "scan" + size, size, false) + " ms per removeChildren");
+        System.err.println("Keys " + size + " index  "
+            + run(cacheManager, "index" + size, size, true) + " ms per removeChildren");
+      }
+    } finally {
+      cacheManager.shutdown();
+    }
+  }
+
+  /**
+   * Fill a cache with a tree of keys and time the removal of a leaf folder,
+   * which is what an acl change on a single folder does.
+   */
+  private static double run(CacheManager cacheManager, String name, int size,
+      boolean indexed) {
+    cacheManager.addCache(new net.sf.ehcache.Cache(name, size * 2, false, true,
+        0, 0));
+    Cache<Object> cache;
+    if (indexed) {
+      cache = new PathCacheImpl<Object>(cacheManager, name);
+    } else {
+      cache = new CacheImpl<Object>(cacheManager, name);
+    }
+    String[] paths = new String[size];
+    for (int i = 0; i < size; i++) {
+      paths[i] = toPath(i);
+      cache.put(paths[i], Boolean.TRUE);
+    }
+    long total = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      // a folder FANOUT^2 keys from the end, each iteration hits a new subtree
+      String folder = toPath((size / FANOUT / FANOUT) - 1 - i);
+      long start = System.nanoTime();
+      cache.removeChildren(folder);
+      total += System.nanoTime() - start;
+    }
+    cacheManager.removeCache(name);
+    return (total / ITERATIONS) / 1000000.0;
+  }
+
+  /**
+   * @return a path where key n is the parent of keys n*FANOUT+1 to
+   *         n*FANOUT+FANOUT.
+   */
+  private static String toPath(int n) {
+    StringBuilder sb = new StringBuilder();
+    while (n > 0) {
+      sb.insert(0, n);
+      sb.insert(0, '/');
+      n = (n - 1) / FANOUT;
+    }
+    if (sb.length() == 0) {
+      return "/";
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Tests the sorted path index used by the path cache.
+ */
+public class PathIndexUT {
+
+  @Test
+  public void testRemoveSubtree() {
+    PathIndex index = new PathIndex();
+    index.add("/a");
+    index.add("/a/b");
+    index.add("/a/b/c");
+    index.add("/a/bc");
+    index.add("/a0");
+    index.add("/a-b");
+    index.add("/ab");
+    index.add("/b/a");
+    List<String> removed = index.removeSubtree("/a/b");
+    assertEquals(2, removed.size());
+    assertTrue(removed.contains("/a/b"));
+    assertTrue(removed.contains("/a/b/c"));
+    assertTrue(index.contains("/a/bc"));
+    assertEquals(6, index.size());
+
+    removed = index.removeSubtree("/a/");
+    assertEquals(1, removed.size());
+    assertTrue(removed.contains("/a/bc"));
+    assertTrue(index.contains("/a"));
+    assertTrue(index.contains("/a0"));
+    assertTrue(index.contains("/a-b"));
+    assertTrue(index.contains("/ab"));
+
+    removed = index.removeSubtree("/a");
+    assertEquals(1, removed.size());
+    assertFalse(index.contains("/a"));
+    assertEquals(4, index.size());
+  }
+
+  @Test
+  public void testRemoveRoot() {
+    PathIndex index = new PathIndex();
+    index.add("/");
+    index.add("/x");
+    index.add("/x/y");
+    index.add("other");
+    List<String> removed = index.removeSubtree("/");
+    assertEquals(3, removed.size());
+    assertEquals(1, index.size());
+    assertTrue(index.contains("other"));
+  }
+
+  @Test
+  public void testAddRemove() {
+    PathIndex index = new PathIndex();
+    index.add("/a");
+    index.add("/a");
+    index.add(null);
+    assertEquals(1, index.size());
+    index.remove("/a");
+    index.remove(null);
+    assertEquals(0, index.size());
+    index.add("/a");
+    index.clear();
+    assertEquals(0, index.removeSubtree("/a").size());
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.memory;
+
+import org.sakaiproject.kernel.api.memory.Cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Simulates the request scoped cache use of a request that makes 50 authz
+ * checks, comparing the scoped cache map with a hash map of new caches per
+ * request, as request caches were held before. This is not run as part of the
+ * unit tests.
+ */
+public class RequestCacheBenchmark {
+
+  private static final int REQUESTS = 1000000;
+  private static final int CHECKS = 50;
+  private static final String[] TOKENS = new String[CHECKS];
+  static {
+    for (int i = 0; i < CHECKS; i++) {
+      TOKENS[i] = "/sites/site" + i + ":read";
+    }
+  }
+
+  public static void main(String[] args) {
+    for (int round = 0; round < 3; round++) {
+      System.err.println("HashMap per request  " + runHashMap() + " ns per request");
+      System.err.println("Scoped cache map     " + runScoped() + " ns per request");
+    }
+  }
+
+  private static double runHashMap() {
+    ThreadLocal<Map<String, Cache<?>>> holder = new ThreadLocal<Map<String, Cache<?>>>() {
+      @Override
+      protected Map<String, Cache<?>> initialValue() {
+        return new HashMap<String, Cache<?>>();
+      }
+    };
+    long start = System.nanoTime();
+    for (int r = 0; r < REQUESTS; r++) {
+      for (int i = 0; i < CHECKS; i++) {
+        Cache<Object> grants = hashMapCache(holder, "authz");
+        if (!grants.containsKey(TOKENS[i])) {
+          grants.put(TOKENS[i], Boolean.TRUE);
+        }
+        hashMapCache(holder, "request").get("user");
+      }
+      hashMapCache(holder, "jcr.rc").get("session");
+      for (Cache<?> c : holder.get().values()) {
+        c.clear();
+      }
+      holder.remove();
+    }
+    return (System.nanoTime() - start) / (double) REQUESTS;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V> Cache<V> hashMapCache(
+      ThreadLocal<Map<String, Cache<?>>> holder, String name) {
+    Map<String, Cache<?>> map = holder.get();
+    Cache<V> c = (Cache<V>) map.get(name);
+    if (c == null) {
+      c = new MapCacheImpl<V>();
+      map.put(name, c);
+    }
+    return c;
+  }
+
+  private static double runScoped() {
+    ThreadLocalCacheMap holder = new ThreadLocalCacheMap();
+    long start = System.nanoTime();
+    for (int r = 0; r < REQUESTS; r++) {
+      for (int i = 0; i < CHECKS; i++) {
+        Cache<Object> grants = holder.get().get("authz");
+        if (!grants.containsKey(TOKENS[i])) {
+          grants.put(TOKENS[i], Boolean.TRUE);
+        }
+        holder.get().get("request").get("user");
+      }
+      holder.get().get("jcr.rc").get("session");
+      holder.get().clear();
+    }
+    return (System.nanoTime() - start) / (double) REQUESTS;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.sakaiproject.kernel.api.memory.Cache;
+import org.sakaiproject.kernel.api.memory.ThreadBound;
+
+/**
+ * Tests the per thread scoped cache map.
+ */
+public class ScopedCacheMapUT {
+
+  @Test
+  public void testWellKnownSlots() {
+    ScopedCacheMap map = new ScopedCacheMap();
+    Cache<Object> authz = map.get("authz");
+    // a name built at runtime is not interned, but must find the same cache
+    String name = new StringBuilder("au").append("thz").toString();
+    Cache<Object> authz2 = map.get(name);
+    assertSame(authz, authz2);
+    assertSame(map.get("request"), map.get("request"));
+    assertFalse(map.get("request") == authz);
+  }
+
+  @Test
+  public void testGrowth() {
+    ScopedCacheMap map = new ScopedCacheMap();
+    for (int i = 0; i < 100; i++) {
+      Cache<String> c = map.get("cache" + i);
+      c.put("k", String.valueOf(i));
+    }
+    for (int i = 0; i < 100; i++) {
+      Cache<String> c = map.get("cache" + i);
+      assertEquals(String.valueOf(i), c.get("k"));
+    }
+    assertSame(map.get(null), map.get(null));
+  }
+
+  @Test
+  public void testClearReuses() {
+    ScopedCacheMap map = new ScopedCacheMap();
+    Cache<Object> request = map.get("request");
+    Cache<Object> other = map.get("other");
+    final boolean[] unbound = new boolean[1];
+    request.put("a", "b");
+    other.put("bound", new ThreadBound() {
+      public void unbind() {
+        unbound[0] = true;
+      }
+    });
+    map.clear();
+    assertTrue(unbound[0]);
+    assertNull(request.get("a"));
+    assertFalse(other.containsKey("bound"));
+    assertSame(request, map.get("request"));
+    assertSame(other, map.get("other"));
+  }
+}
@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.messaging;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.kernel.api.Registry;
+import org.sakaiproject.kernel.api.RegistryService;
+import org.sakaiproject.kernel.api.ShutdownService;
+import org.sakaiproject.kernel.api.jcr.JCRConstants;
+import org.sakaiproject.kernel.api.jcr.JCRService;
+import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.messaging.MessageHandler;
+import org.sakaiproject.kernel.api.user.UserFactoryService;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.Workspace;
+
+/**
+ * Unit tests for the batched delivery of internal messages.
+ */
+public class InternalMessageHandlerUT {
+
+  private static final String OUTBOX = "/outbox/";
+
+  private RegistryService registryService;
+  private Registry<String, MessageHandler> registry;
+  private ShutdownService shutdownService;
+  private CacheManagerService cacheManager;
+  private JCRService jcr;
+  private JCRNodeFactoryService nodeFactory;
+  private UserFactoryService userFactory;
+  private Session session;
+  private Workspace workspace;
+  private Node inbox;
+
+  @SuppressWarnings("unchecked")
+  @Before
+  public void setUp() throws RepositoryException {
+    registryService = createMock(RegistryService.class);
+    registry = createNiceMock(Registry.class);
+    shutdownService = createNiceMock(ShutdownService.class);
+    cacheManager = createNiceMock(CacheManagerService.class);
+    jcr = createMock(JCRService.class);
+    nodeFactory = createMock(JCRNodeFactoryService.class);
+    userFactory = createMock(UserFactoryService.class);
+    session = createNiceMock(Session.class);
+    workspace = createNiceMock(Workspace.class);
+
+    expect(registryService.<String, MessageHandler> getRegistry(
+        MessageHandler.REGISTRY)).andReturn(registry);
+
+    // every inbox copy is written to a new file node.
+    inbox = createNiceMock(Node.class);
+    Node inboxContent = createNiceMock(Node.class);
+    expect(inbox.getNode(JCRConstants.JCR_CONTENT)).andReturn(inboxContent)
+        .anyTimes();
+    expect(inbox.isNew()).andReturn(true).anyTimes();
+
+    expect(jcr.loginSystem()).andReturn(session).anyTimes();
+    expect(jcr.getSession()).andReturn(session).anyTimes();
+    expect(jcr.lock((Node) anyObject())).andReturn(null).anyTimes();
+    jcr.clearLocks();
+    expectLastCall().anyTimes();
+    jcr.logout();
+    expectLastCall().anyTimes();
+    expect(session.getWorkspace()).andReturn(workspace).anyTimes();
+  }
+
+  /**
+   * Expect a message with the recipients to be read from the outbox and moved
+   * to the sent folder of the sender once it has been delivered.
+   *
+   * @param fileName
+   *          the name of the message in the outbox.
+   * @param reads
+   *          the number of times the message is read.
+   * @param rcpts
+   *          the recipients.
+   * @throws Exception
+   */
+  private void expectMessage(String fileName, int reads, String... rcpts)
+      throws Exception {
+    Node message = createNiceMock(Node.class);
+    Property rcptsProp = createNiceMock(Property.class);
+    Property fromProp = createNiceMock(Property.class);
+    Node content = createNiceMock(Node.class);
+    Property data = createNiceMock(Property.class);
+    Value body = createNiceMock(Value.class);
+    Node sent = createNiceMock(Node.class);
+
+    StringBuilder sb = new StringBuilder();
+    for (String rcpt : rcpts) {
+      sb.append(rcpt).append(",");
+    }
+    expect(message.getProperty(JCRConstants.JCR_MESSAGE_RCPTS)).andReturn(
+        rcptsProp).anyTimes();
+    expect(rcptsProp.getString()).andReturn(sb.toString()).anyTimes();
+    expect(message.getNode(JCRConstants.JCR_CONTENT)).andReturn(content)
+        .anyTimes();
+    expect(content.getProperty(JCRConstants.JCR_DATA)).andReturn(data)
+        .anyTimes();
+    expect(data.getValue()).andReturn(body).anyTimes();
+    expect(message.getProperty(JCRConstants.JCR_MESSAGE_FROM)).andReturn(
+        fromProp).anyTimes();
+    expect(fromProp.getString()).andReturn("sender").anyTimes();
+
+    expect(nodeFactory.getNode(OUTBOX + fileName)).andReturn(message).times(
+        reads);
+    expect(userFactory.getNewMessagePath("sender")).andReturn("/sent");
+    expect(nodeFactory.getNode("/sent")).andReturn(sent);
+    workspace.move(OUTBOX + fileName, "/sent/" + fileName);
+    expectLastCall();
+    expect(nodeFactory.getNode("/sent/" + fileName)).andReturn(sent);
+    replay(message, rcptsProp, fromProp, content, data, body, sent);
+  }
+
+  /**
+   * Expect an inbox copy of the message to be created for each recipient.
+   *
+   * @param fileName
+   * @param times
+   *          the number of times each copy is created.
+   * @param rcpts
+   * @throws Exception
+   */
+  private void expectInbox(String fileName, int times, String... rcpts)
+      throws Exception {
+    for (String rcpt : rcpts) {
+      expect(userFactory.getNewMessagePath(rcpt)).andReturn("/inbox/" + rcpt)
+          .times(times);
+      expect(nodeFactory.createFile("/inbox/" + rcpt + "/" + fileName, null))
+          .andReturn(inbox).times(times);
+    }
+  }
+
+  private InternalMessageHandler newHandler(int queueSize, int batchSize,
+      int attempts) {
+    return new InternalMessageHandler(registryService, jcr, userFactory,
+        nodeFactory, cacheManager, shutdownService, 1, queueSize, batchSize,
+        attempts);
+  }
+
+  private void replayAll() {
+    replay(registryService, registry, shutdownService, cacheManager, jcr,
+        nodeFactory, userFactory, session, workspace, inbox);
+  }
+
+  private void verifyAll() {
+    verify(registryService, jcr, nodeFactory, userFactory, workspace);
+  }
+
+  @Test
+  public void testSavesOneBatchPerBatchSize() throws Exception {
+    expectMessage("msg", 1, "a", "b", "c", "d", "e");
+    expectInbox("msg", 1, "a", "b", "c", "d", "e");
+    // batches of 2, 2 and 1 then the move to the sent folder.
+    jcr.save();
+    expectLastCall().times(4);
+    replayAll();
+
+    InternalMessageHandler handler = newHandler(10, 2, 1);
+    handler.handle("sender", OUTBOX + "msg", "msg", null);
+    handler.stop();
+
+    verifyAll();
+    assertEquals(1, handler.getDelivered());
+    assertEquals(5, handler.getRecipients());
+    assertEquals(0, handler.getFailed());
+    assertEquals(0, handler.getRetries());
+    assertEquals(0, handler.getQueueDepth());
+    assertTrue(handler.getMaxDeliveryTime() >= handler.getMeanDeliveryTime());
+  }
+
+  @Test
+  public void testRetryOnlyDeliversUndeliveredRecipients() throws Exception {
+    expectMessage("msg", 2, "a", "b", "c", "d");
+    // the first batch is saved, so only the second is written again.
+    expectInbox("msg", 1, "a", "b");
+    expectInbox("msg", 2, "c", "d");
+    jcr.save();
+    expectLastCall();
+    jcr.save();
+    expectLastCall().andThrow(new RepositoryException("save failed"));
+    jcr.save();
+    expectLastCall().times(2);
+    replayAll();
+
+    InternalMessageHandler handler = newHandler(10, 2, 3);
+    handler.handle("sender", OUTBOX + "msg", "msg", null);
+    handler.stop();
+
+    verifyAll();
+    assertEquals(1, handler.getDelivered());
+    assertEquals(4, handler.getRecipients());
+    assertEquals(0, handler.getFailed());
+    assertEquals(1, handler.getRetries());
+  }
+
+  @Test
+  public void testGivesUpAfterAttempts() throws Exception {
+    Node message = createNiceMock(Node.class);
+    Property rcptsProp = createNiceMock(Property.class);
+    Node content = createNiceMock(Node.class);
+    Property data = createNiceMock(Property.class);
+    expect(message.getProperty(JCRConstants.JCR_MESSAGE_RCPTS)).andReturn(
+        rcptsProp).anyTimes();
+    expect(rcptsProp.getString()).andReturn("a").anyTimes();
+    expect(message.getNode(JCRConstants.JCR_CONTENT)).andReturn(content)
+        .anyTimes();
+    expect(content.getProperty(JCRConstants.JCR_DATA)).andReturn(data)
+        .anyTimes();
+    replay(message, rcptsProp, content, data);
+    expect(nodeFactory.getNode(OUTBOX + "msg")).andReturn(message).times(2);
+    expectInbox("msg", 2, "a");
+    jcr.save();
+    expectLastCall().andThrow(new RepositoryException("save failed")).times(2);
+    replayAll();
+
+    InternalMessageHandler handler = newHandler(10, 2, 2);
+    handler.handle("sender", OUTBOX + "msg", "msg", null);
+    handler.stop();
+
+    verifyAll();
+    assertEquals(0, handler.getDelivered());
+    assertEquals(0, handler.getRecipients());
+    assertEquals(1, handler.getFailed());
+    assertEquals(1, handler.getRetries());
+  }
+
+  @Test
+  public void testRetryLabelsMovedMessage() throws Exception {
+    expectMessage("msg", 1, "a");
+    expectInbox("msg", 1, "a");
+    // the move has been saved, so the retry finds the outbox empty.
+    expect(nodeFactory.getNode(OUTBOX + "msg")).andReturn(null);
+    Node sent = createNiceMock(Node.class);
+    replay(sent);
+    expect(nodeFactory.getNode("/sent/msg")).andReturn(sent);
+    jcr.save();
+    expectLastCall();
+    jcr.save();
+    expectLastCall().andThrow(new RepositoryException("save failed"));
+    jcr.save();
+    expectLastCall();
+    replayAll();
+
+    InternalMessageHandler handler = newHandler(10, 2, 2);
+    handler.handle("sender", OUTBOX + "msg", "msg", null);
+    handler.stop();
+
+    verifyAll();
+    assertEquals(1, handler.getDelivered());
+    assertEquals(1, handler.getRecipients());
+    assertEquals(0, handler.getFailed());
+    assertEquals(1, handler.getRetries());
+  }
+
+  @Test
+  public void testFullQueueBlocksCaller() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    // the first message holds the only delivery thread until released, the
+    // messages are no longer in the outbox so nothing is written.
+    expect(nodeFactory.getNode(OUTBOX + "msg0")).andAnswer(new IAnswer<Node>() {
+      public Node answer() throws Throwable {
+        started.countDown();
+        release.await(10, TimeUnit.SECONDS);
+        return null;
+      }
+    });
+    expect(nodeFactory.getNode(OUTBOX + "msg1")).andReturn(null);
+    expect(nodeFactory.getNode(OUTBOX + "msg2")).andReturn(null);
+    replayAll();
+
+    final InternalMessageHandler handler = newHandler(1, 2, 1);
+    handler.handle("sender", OUTBOX + "msg0", "msg0", null);
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    handler.handle("sender", OUTBOX + "msg1", "msg1", null);
+    assertEquals(1, handler.getQueueDepth());
+
+    Thread caller = new Thread() {
+      @Override
+      public void run() {
+        handler.handle("sender", OUTBOX + "msg2", "msg2", null);
+      }
+    };
+    caller.start();
+    caller.join(500L);
+    assertTrue(caller.isAlive());
+    assertEquals(1, handler.getQueueDepth());
+
+    release.countDown();
+    caller.join(10000L);
+    assertFalse(caller.isAlive());
+    handler.stop();
+
+    verifyAll();
+    // messages that were not in the outbox are not counted as delivered.
+    assertEquals(0, handler.getDelivered());
+    assertEquals(0, handler.getFailed());
+
+    handler.resetStatistics();
+    assertEquals(0, handler.getDelivered());
+    assertEquals(0.0, handler.getMeanDeliveryTime(), 0.0);
+    assertEquals(0, handler.getMaxDeliveryTime());
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.messaging;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.ExceptionListener;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+/**
+ * Unit tests for the JMS producer pool.
+ */
+public class JmsProducerPoolUT {
+
+  private ConnectionFactory connectionFactory;
+  private Connection connection;
+  private Session session;
+  private Topic topic;
+  private MessageProducer producer;
+  private ObjectMessage message;
+
+  @Before
+  public void setUp() throws JMSException {
+    connectionFactory = createMock(ConnectionFactory.class);
+    connection = createMock(Connection.class);
+    session = createMock(Session.class);
+    topic = createMock(Topic.class);
+    producer = createMock(MessageProducer.class);
+    message = createMock(ObjectMessage.class);
+
+    expect(connectionFactory.createConnection()).andReturn(connection);
+    connection.setExceptionListener(isA(ExceptionListener.class));
+    expectLastCall();
+    connection.start();
+    expectLastCall();
+  }
+
+  @Test
+  public void testSessionAndProducerAreReused() throws JMSException {
+    expect(connection.createSession(false, Session.AUTO_ACKNOWLEDGE))
+        .andReturn(session);
+    expect(session.createTopic("email")).andReturn(topic);
+    expect(session.createProducer(topic)).andReturn(producer);
+    for (int i = 0; i < 3; i++) {
+      expect(session.createObjectMessage("body" + i)).andReturn(message);
+    }
+    message.setJMSType("type");
+    expectLastCall().times(3);
+    producer.send(message);
+    expectLastCall().times(3);
+    expect(session.getTransacted()).andReturn(false).times(3);
+    session.close();
+    expectLastCall();
+    connection.close();
+    expectLastCall();
+    replay(connectionFactory, connection, session, topic, producer, message);
+
+    JmsProducerPool pool = new JmsProducerPool(connectionFactory, 2, 1000L,
+        100);
+    for (int i = 0; i < 3; i++) {
+      pool.send("email", "body" + i, "type");
+    }
+    pool.stop();
+
+    verify(connectionFactory, connection, session, topic, producer, message);
+  }
+
+  @Test
+  public void testSendAllCommitsInBatches() throws JMSException {
+    expect(connection.createSession(true, Session.SESSION_TRANSACTED))
+        .andReturn(session);
+    expect(session.createTopic("email")).andReturn(topic);
+    expect(session.createProducer(topic)).andReturn(producer);
+    List<Serializable> bodies = new ArrayList<Serializable>();
+    for (int i = 0; i < 5; i++) {
+      bodies.add("body" + i);
+      expect(session.createObjectMessage("body" + i)).andReturn(message);
+    }
+    message.setJMSType("type");
+    expectLastCall().times(5);
+    producer.send(message);
+    expectLastCall().times(5);
+    // two full batches of 2 and one of 1
+    session.commit();
+    expectLastCall().times(3);
+    expect(session.getTransacted()).andReturn(true);
+    session.close();
+    expectLastCall();
+    connection.close();
+    expectLastCall();
+    replay(connectionFactory, connection, session, topic, producer, message);
+
+    JmsProducerPool pool = new JmsProducerPool(connectionFactory, 2, 1000L, 2);
+    assertEquals(5, pool.sendAll("email", bodies, "type"));
+    pool.stop();
+
+    verify(connectionFactory, connection, session, topic, producer, message);
+  }
+
+  @Test
+  public void testFailedSendDiscardsSession() throws JMSException {
+    Session second = createMock(Session.class);
+    expect(connection.createSession(false, Session.AUTO_ACKNOWLEDGE))
+        .andReturn(session);
+    expect(session.createTopic("email")).andReturn(topic);
+    expect(session.createProducer(topic)).andReturn(producer);
+    expect(session.createObjectMessage("body")).andReturn(message);
+    message.setJMSType("type");
+    expectLastCall().times(2);
+    producer.send(message);
+    expectLastCall().andThrow(new JMSException("broken"));
+    session.close();
+    expectLastCall();
+
+    expect(connection.createSession(false, Session.AUTO_ACKNOWLEDGE))
+        .andReturn(second);
+    expect(second.createTopic("email")).andReturn(topic);
+    expect(second.createProducer(topic)).andReturn(producer);
+    expect(second.createObjectMessage("body")).andReturn(message);
+    producer.send(message);
+    expectLastCall();
+    expect(second.getTransacted()).andReturn(false);
+    replay(connectionFactory, connection, session, second, topic, producer,
+        message);
+
+    JmsProducerPool pool = new JmsProducerPool(connectionFactory, 2, 1000L,
+        100);
+    try {
+      pool.send("email", "body", "type");
+      fail("The send should have failed");
+    } catch (JMSException e) {
+      // expected
+    }
+    pool.send("email", "body", "type");
+
+    verify(connectionFactory, connection, session, second, topic, producer,
+        message);
+  }
+
+  @Test
+  public void testStoppedPoolRefusesSends() throws JMSException {
+    replay(connectionFactory, connection, session, topic, producer, message);
+    JmsProducerPool pool = new JmsProducerPool(connectionFactory, 2, 1000L,
+        100);
+    pool.stop();
+    try {
+      pool.send("email", "body", "type");
+      fail("The send should have been refused");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+}
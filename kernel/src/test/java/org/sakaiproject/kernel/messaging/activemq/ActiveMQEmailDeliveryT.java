@@ -30,6 +30,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.sakaiproject.kernel.KernelConstants;
 import org.sakaiproject.kernel.KernelModule;
+import org.sakaiproject.kernel.messaging.JmsProducerPool;
 import org.sakaiproject.kernel.messaging.email.EmailMessagingService;
 import org.sakaiproject.kernel.messaging.email.commons.HtmlEmail;
 import org.sakaiproject.kernel.messaging.email.commons.MultiPartEmail;
@@ -151,8 +152,10 @@ public class ActiveMQEmailDeliveryT {
     // occupy
     // the same varaible. SimpleEmail etc can each be used directly.
     List<Email> emails = new ArrayList<Email>();
+    JmsProducerPool producerPool = new JmsProducerPool(
+        new ActiveMQConnectionFactory(vmURL), 4, 5000L, 1);
     EmailMessagingService messagingService = new EmailMessagingService(vmURL,
-        emailQueueName, emailType, null, null, null, null);
+        emailQueueName, emailType, null, null, null, null, producerPool);
     emails.add(new SimpleEmail(messagingService));
     emails.add(new MultiPartEmail(messagingService));
     emails.add(new HtmlEmail(messagingService));
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.messaging.activemq;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.sakaiproject.kernel.messaging.JmsProducerPool;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+
+/**
+ * Compares email send throughput through an embedded ActiveMQ broker with a
+ * connection, session and producer per message, the producer pool, and the
+ * producer pool sending transacted batches. This is not run as part of the
+ * tests, the arguments are the number of messages and the number of sending
+ * threads, default 5000 and 4.
+ */
+public class JmsProducerPoolBenchmark {
+
+  private static final String BROKER_URL = "vm://benchmark?broker.persistent=false";
+  private static final String TOPIC = "kernel.email.benchmark";
+  private static final String TYPE = "kernel.jms.email";
+  private static final String BODY;
+  static {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 40; i++) {
+      sb.append("Subject: benchmark message line ").append(i).append("\r\n");
+    }
+    BODY = sb.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    int messages = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(
+        BROKER_URL);
+    // keeps the vm broker up between runs.
+    Connection broker = connectionFactory.createConnection();
+    broker.start();
+    try {
+      // warm up the broker and the JIT.
+      runPooled(connectionFactory, messages / 10, threads, false);
+
+      System.err.println("Connection per message "
+          + runUnpooled(connectionFactory, messages, threads) + " messages/s");
+      System.err.println("Pooled                 "
+          + runPooled(connectionFactory, messages, threads, false)
+          + " messages/s");
+      System.err.println("Pooled, batched        "
+          + runPooled(connectionFactory, messages, threads, true)
+          + " messages/s");
+    } finally {
+      broker.close();
+    }
+  }
+
+  /**
+   * Send each message with a new connection, session and producer, as the
+   * email handler used to, but closing the connection.
+   */
+  private static double runUnpooled(final ConnectionFactory connectionFactory,
+      int messages, int threads) throws Exception {
+    return run(connectionFactory, messages, threads, new Sender() {
+      public void send(int n) throws JMSException {
+        for (int i = 0; i < n; i++) {
+          Connection conn = connectionFactory.createConnection();
+          try {
+            Session session = conn.createSession(false,
+                Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(session
+                .createTopic(TOPIC));
+            ObjectMessage message = session.createObjectMessage(BODY);
+            message.setJMSType(TYPE);
+            producer.send(message);
+          } finally {
+            conn.close();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Send through a producer pool, one message at a time or in batches.
+   */
+  private static double runPooled(ConnectionFactory connectionFactory,
+      int messages, int threads, final boolean batched) throws Exception {
+    final JmsProducerPool pool = new JmsProducerPool(connectionFactory,
+        threads, 5000L, 100);
+    try {
+      return run(connectionFactory, messages, threads, new Sender() {
+        public void send(int n) throws JMSException {
+          if (batched) {
+            List<Serializable> bodies = new ArrayList<Serializable>();
+            for (int i = 0; i < n; i++) {
+              bodies.add(BODY);
+            }
+            pool.sendAll(TOPIC, bodies, TYPE);
+          } else {
+            for (int i = 0; i < n; i++) {
+              pool.send(TOPIC, BODY, TYPE);
+            }
+          }
+        }
+      });
+    } finally {
+      pool.stop();
+    }
+  }
+
+  /**
+   * Send the messages from a number of threads and time until a subscriber has
+   * received them all.
+   *
+   * @return the number of messages per second.
+   */
+  private static double run(ConnectionFactory connectionFactory, int messages,
+      int threads, final Sender sender) throws Exception {
+    final CountDownLatch received = new CountDownLatch(messages);
+    Connection consumerConnection = connectionFactory.createConnection();
+    try {
+      Session session = consumerConnection.createSession(false,
+          Session.AUTO_ACKNOWLEDGE);
+      MessageConsumer consumer = session.createConsumer(session
+          .createTopic(TOPIC));
+      consumer.setMessageListener(new MessageListener() {
+        public void onMessage(Message message) {
+          received.countDown();
+        }
+      });
+      consumerConnection.start();
+
+      final int perThread = messages / threads;
+      final int remainder = messages % threads;
+      Thread[] senders = new Thread[threads];
+      long start = System.nanoTime();
+      for (int t = 0; t < threads; t++) {
+        final int n = perThread + (t == 0 ? remainder : 0);
+        senders[t] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              sender.send(n);
+            } catch (JMSException e) {
+              e.printStackTrace();
+            }
+          }
+        };
+        senders[t].start();
+      }
+      for (Thread t : senders) {
+        t.join();
+      }
+      if (!received.await(120, TimeUnit.SECONDS)) {
+        System.err.println("Only " + (messages - received.getCount())
+            + " of " + messages + " messages were received");
+      }
+      long elapsed = System.nanoTime() - start;
+      return messages * 1000000000.0 / elapsed;
+    } finally {
+      consumerConnection.close();
+    }
+  }
+
+  /**
+   * Sends n messages.
+   */
+  private interface Sender {
+    void send(int n) throws JMSException;
+  }
+}
@@ -40,8 +40,8 @@ public class PresenceServiceImplTest {
 
   private CacheManagerService cacheManagerService;
   private PresenceServiceImpl presenceService;
-  private Cache<Object> presenceLocationCache;
   private Cache<Object> presenceStatusCache;
+  private long now = System.currentTimeMillis();
 
   /**
    * @throws java.lang.Exception
@@ -49,17 +49,18 @@ public class PresenceServiceImplTest {
   @Before
   public void setUp() throws Exception {
 
-    presenceLocationCache = new MapCacheImpl<Object>();
     presenceStatusCache = new MapCacheImpl<Object>();
 
     cacheManagerService = createMock(CacheManagerService.class);
-    expect(
-        cacheManagerService.getCache("presence.location", CacheScope.CLUSTERREPLICATED))
-        .andReturn(presenceLocationCache).anyTimes();
     expect(cacheManagerService.getCache("presence.status", CacheScope.CLUSTERREPLICATED))
         .andReturn(presenceStatusCache).anyTimes();
     replay(cacheManagerService);
-    presenceService = new PresenceServiceImpl(cacheManagerService);
+    presenceService = new PresenceServiceImpl(cacheManagerService) {
+      @Override
+      protected long currentTimeMillis() {
+        return now;
+      }
+    };
   }
 
   /**
@@ -131,4 +132,34 @@ public class PresenceServiceImplTest {
     }
   }
 
+  /**
+   * Test that presence expires, and that expired users leave their location.
+   */
+  @Test
+  public void testExpiry() {
+    presenceService.ping("user1", "locationA");
+    presenceService.ping("user2", "locationA");
+    presenceService.setStatus("user2", "busy");
+    assertEquals(2, presenceService.online("locationA").size());
+
+    // user2 keeps pinging, user1 goes away.
+    for (int i = 0; i < 16; i++) {
+      now += 30000L;
+      presenceService.ping("user2", "locationA");
+    }
+    Map<String, String> online = presenceService.online("locationA");
+    assertEquals(1, online.size());
+    assertEquals("busy", online.get("user2"));
+    assertEquals("offline", presenceService.getStatus("user1"));
+
+    // user2 moves
+    presenceService.ping("user2", "locationB");
+    assertEquals(0, presenceService.online("locationA").size());
+    assertEquals("busy", presenceService.online("locationB").get("user2"));
+
+    now += 6L * 60L * 1000L;
+    assertEquals(0, presenceService.online("locationB").size());
+    assertEquals("offline", presenceService.getStatus("user2"));
+  }
+
 }
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.rest.test;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.sakaiproject.kernel.api.Registry;
+import org.sakaiproject.kernel.api.RegistryService;
+import org.sakaiproject.kernel.api.rest.RestProvider;
+import org.sakaiproject.kernel.api.serialization.BeanConverter;
+import org.sakaiproject.kernel.api.session.Session;
+import org.sakaiproject.kernel.api.session.SessionManagerService;
+import org.sakaiproject.kernel.api.user.User;
+import org.sakaiproject.kernel.api.userenv.UserEnvironment;
+import org.sakaiproject.kernel.api.userenv.UserEnvironmentResolverService;
+import org.sakaiproject.kernel.rest.RestMetricsProvider;
+import org.sakaiproject.kernel.rest.RestMetricsServiceImpl;
+import org.sakaiproject.kernel.util.rest.RestProviderMetrics;
+import org.sakaiproject.kernel.util.user.AnonUser;
+import org.sakaiproject.kernel.webapp.RestServiceFaultException;
+
+import java.io.OutputStream;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ *
+ */
+public class RestMetricsServiceUT {
+
+  private static final long MS = 1000000L;
+
+  @Test
+  public void testRecord() {
+    RestProviderMetrics metrics = new RestProviderMetrics("test");
+    metrics.record(500000L, 10, false);
+    metrics.record(3 * MS, 20, false);
+    metrics.record(30 * MS, 30, true);
+    metrics.record(20000 * MS, 40, false);
+
+    assertEquals(4, metrics.getRequests());
+    assertEquals(1, metrics.getErrors());
+    assertEquals(100, metrics.getBytesWritten());
+    assertEquals(20000.0, metrics.getMaxTime(), 0.001);
+    assertEquals((0.5 + 3 + 30 + 20000) / 4, metrics.getMeanTime(), 0.001);
+
+    long[] histogram = metrics.getHistogram();
+    assertEquals(1, histogram[0]);
+    assertEquals(1, histogram[2]);
+    assertEquals(1, histogram[5]);
+    assertEquals(1, histogram[histogram.length - 1]);
+
+    assertEquals(1, metrics.getPercentile(25));
+    assertEquals(5, metrics.getPercentile(50));
+    assertEquals(50, metrics.getPercentile(75));
+    assertEquals(-1, metrics.getPercentile(99));
+
+    metrics.reset();
+    assertEquals(0, metrics.getRequests());
+    assertEquals(0, metrics.getPercentile(99));
+  }
+
+  @Test
+  public void testService() {
+    RestMetricsServiceImpl service = new RestMetricsServiceImpl();
+    RestProviderMetrics b = service.getProviderMetrics("b");
+    RestProviderMetrics a = service.getProviderMetrics("a");
+    assertSame(a, service.getProviderMetrics("a"));
+
+    a.record(MS, 10, false);
+    b.record(MS, 20, true);
+    b.record(MS, 30, false);
+    assertEquals(3, service.getRequests());
+    assertEquals(1, service.getErrors());
+    assertEquals(60, service.getBytesWritten());
+
+    Map<String, RestProviderMetrics> all = service.getProviderMetrics();
+    assertEquals("a", all.keySet().iterator().next());
+    String[] lines = service.getProviderStatistics();
+    assertEquals(2, lines.length);
+    assertEquals(0, lines[0].indexOf("a requests=1 errors=0 bytes=10"));
+
+    service.resetStatistics();
+    assertEquals(0, service.getRequests());
+  }
+
+  @Test
+  public void testProviderAnonymous() {
+    assertStatus(HttpServletResponse.SC_UNAUTHORIZED, new AnonUser());
+  }
+
+  @Test
+  public void testProviderNotSuperUser() {
+    assertStatus(HttpServletResponse.SC_FORBIDDEN, createNiceMock(User.class));
+  }
+
+  @Test
+  public void testProviderSuperUser() throws Exception {
+    BeanConverter beanConverter = createMock(BeanConverter.class);
+    beanConverter.writeTo(anyObject(), (OutputStream) anyObject());
+    expectLastCall();
+    HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+    expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    });
+    replay(beanConverter, response);
+
+    newProvider(createNiceMock(User.class), true, beanConverter).dispatch(
+        new String[] { "metrics" }, getRequest(), response);
+    verify(beanConverter);
+  }
+
+  /**
+   * Check that the metrics are refused to the user with the status.
+   */
+  private void assertStatus(int status, User user) {
+    BeanConverter beanConverter = createMock(BeanConverter.class);
+    replay(beanConverter);
+    try {
+      newProvider(user, false, beanConverter).dispatch(
+          new String[] { "metrics" }, getRequest(),
+          createMock(HttpServletResponse.class));
+      fail("The metrics should have been refused");
+    } catch (RestServiceFaultException e) {
+      assertEquals(status, e.getStatusCode());
+    }
+    verify(beanConverter);
+  }
+
+  private HttpServletRequest getRequest() {
+    HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+    expect(request.getMethod()).andReturn("GET").anyTimes();
+    replay(request);
+    return request;
+  }
+
+  @SuppressWarnings("unchecked")
+  private RestMetricsProvider newProvider(User user, boolean superUser,
+      BeanConverter beanConverter) {
+    RegistryService registryService = createNiceMock(RegistryService.class);
+    Registry<String, RestProvider> registry = createNiceMock(Registry.class);
+    expect(
+        registryService.<String, RestProvider> getRegistry(
+            RestProvider.REST_REGISTRY)).andReturn(registry).anyTimes();
+    Session session = createNiceMock(Session.class);
+    SessionManagerService sessionManagerService = createNiceMock(SessionManagerService.class);
+    expect(sessionManagerService.getCurrentSession()).andReturn(session)
+        .anyTimes();
+    UserEnvironment userEnvironment = createNiceMock(UserEnvironment.class);
+    expect(userEnvironment.getUser()).andReturn(user).anyTimes();
+    expect(userEnvironment.isSuperUser()).andReturn(superUser).anyTimes();
+    UserEnvironmentResolverService userEnvironmentResolverService = createNiceMock(UserEnvironmentResolverService.class);
+    expect(userEnvironmentResolverService.resolve(session)).andReturn(
+        userEnvironment).anyTimes();
+    replay(registryService, registry, session, sessionManagerService,
+        userEnvironment, userEnvironmentResolverService);
+    if (user != null && !(user instanceof AnonUser)) {
+      replay(user);
+    }
+    return new RestMetricsProvider(registryService,
+        new RestMetricsServiceImpl(), beanConverter, sessionManagerService,
+        userEnvironmentResolverService);
+  }
+}
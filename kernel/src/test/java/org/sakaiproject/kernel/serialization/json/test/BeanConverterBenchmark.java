@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.serialization.json.test;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import org.sakaiproject.kernel.api.serialization.BeanConverter;
+import org.sakaiproject.kernel.model.FriendsBean;
+import org.sakaiproject.kernel.model.SiteBean;
+import org.sakaiproject.kernel.model.UserEnvironmentBean;
+import org.sakaiproject.kernel.model.test.ModelModule;
+import org.sakaiproject.kernel.serialization.json.BeanJsonLibConverter;
+import org.sakaiproject.kernel.serialization.json.StreamingBeanJsonConverter;
+import org.sakaiproject.kernel.util.ResourceLoader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Compares the json-lib converter, serializing to a String which is then
+ * written out, with the streaming converter writing to the output stream, for
+ * the beans the REST providers serialize most. Reports the throughput and,
+ * where the JVM can measure it, the bytes allocated per conversion. This is not
+ * run as part of the tests, the argument is the number of conversions per
+ * bean, default 20000.
+ */
+public class BeanConverterBenchmark {
+
+  private static final ThreadMXBean THREADS = ManagementFactory
+      .getThreadMXBean();
+  /**
+   * The Sun JVM method that reports allocation per thread, null if the JVM
+   * does not have it.
+   */
+  private static final Method ALLOCATED_BYTES = findAllocatedBytes();
+
+  public static void main(String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    Injector injector = Guice.createInjector(new ModelModule());
+    BeanJsonLibConverter jsonLib = injector
+        .getInstance(BeanJsonLibConverter.class);
+    StreamingBeanJsonConverter streaming = injector
+        .getInstance(StreamingBeanJsonConverter.class);
+
+    ClassLoader classLoader = BeanConverterBenchmark.class.getClassLoader();
+    Object[] beans = new Object[] {
+        jsonLib.convertToObject(ResourceLoader.readResource(
+            "res://org/sakaiproject/kernel/test/sampleuserenv/admin.json",
+            classLoader), UserEnvironmentBean.class),
+        jsonLib.convertToObject(ResourceLoader.readResource(
+            "res://org/sakaiproject/kernel/test/samplesite/site1/groupdef.json",
+            classLoader), SiteBean.class),
+        jsonLib.convertToObject(ResourceLoader.readResource(
+            "res://org/sakaiproject/kernel/test/samplefriends/test1.json",
+            classLoader), FriendsBean.class) };
+
+    for (Object bean : beans) {
+      String name = bean.getClass().getSimpleName();
+      // warm up the JIT and the accessor cache.
+      run(jsonLib, bean, iterations / 10, false);
+      run(streaming, bean, iterations / 10, true);
+      System.err.println(name + " json-lib  "
+          + run(jsonLib, bean, iterations, false));
+      System.err.println(name + " streaming "
+          + run(streaming, bean, iterations, true));
+    }
+  }
+
+  /**
+   * Serialize the bean a number of times to a discarding stream.
+   *
+   * @param stream
+   *          if true use writeTo, otherwise convert to a String and write that,
+   *          as the providers used to.
+   * @return a description of the throughput and allocation.
+   */
+  private static String run(BeanConverter converter, Object bean,
+      int iterations, boolean stream) throws IOException {
+    NullOutputStream out = new NullOutputStream();
+    long threadId = Thread.currentThread().getId();
+    long allocatedBefore = getAllocatedBytes(threadId);
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      if (stream) {
+        converter.writeTo(bean, out);
+      } else {
+        out.write(converter.convertToString(bean).getBytes("UTF-8"));
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    long allocatedAfter = getAllocatedBytes(threadId);
+    StringBuilder sb = new StringBuilder();
+    sb.append((long) (iterations * 1000000000.0 / elapsed)).append(" ops/s, ");
+    sb.append(out.count / iterations).append(" bytes out/op");
+    if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+      sb.append(", ").append((allocatedAfter - allocatedBefore) / iterations)
+          .append(" bytes allocated/op");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return the bytes allocated by the thread so far, or -1 if the JVM does not
+   *         report it.
+   */
+  private static long getAllocatedBytes(long threadId) {
+    if (ALLOCATED_BYTES != null) {
+      try {
+        return (Long) ALLOCATED_BYTES.invoke(THREADS, threadId);
+      } catch (Exception e) {
+        // fall through
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the getThreadAllocatedBytes method, or null.
+   */
+  private static Method findAllocatedBytes() {
+    try {
+      Class<?> sunThreads = Class.forName("com.sun.management.ThreadMXBean");
+      if (sunThreads.isInstance(THREADS)) {
+        return sunThreads.getMethod("getThreadAllocatedBytes", long.class);
+      }
+    } catch (Exception e) {
+      // not available on this JVM
+    }
+    return null;
+  }
+
+  /**
+   * Counts and discards the output.
+   */
+  private static class NullOutputStream extends OutputStream {
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.serialization.json.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import net.sf.json.JSONException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.kernel.model.FriendsBean;
+import org.sakaiproject.kernel.model.SiteBean;
+import org.sakaiproject.kernel.model.UserEnvironmentBean;
+import org.sakaiproject.kernel.model.test.ModelModule;
+import org.sakaiproject.kernel.serialization.json.BeanJsonLibConverter;
+import org.sakaiproject.kernel.serialization.json.StreamingBeanJsonConverter;
+import org.sakaiproject.kernel.util.ResourceLoader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that the streaming converter produces the same json as json-lib.
+ */
+public class StreamingBeanJsonConverterUT {
+
+  private static final String TEST_USERENV = "res://org/sakaiproject/kernel/test/sampleuserenv/";
+  private static final String[] USERS = { "admin", "ib236" };
+  private static final String TEST_FRIENDS = "res://org/sakaiproject/kernel/test/samplefriends/";
+  private static final String[] FRIENDS = { "test1", "test2" };
+  private static final String TEST_SITE = "res://org/sakaiproject/kernel/test/samplesite/";
+  private static final String[] SITES = { "site1", "site2" };
+
+  private BeanJsonLibConverter jsonLibConverter;
+  private StreamingBeanJsonConverter streamingConverter;
+
+  /**
+   * @throws java.lang.Exception
+   */
+  @Before
+  public void setUp() throws Exception {
+    Injector injector = Guice.createInjector(new ModelModule());
+    jsonLibConverter = injector.getInstance(BeanJsonLibConverter.class);
+    streamingConverter = injector
+        .getInstance(StreamingBeanJsonConverter.class);
+  }
+
+  @Test
+  public void testMap() throws IOException {
+    Map<String, Object> m = new LinkedHashMap<String, Object>();
+    m.put("string", "value");
+    m.put("escaped", "quote \" backslash \\ tab \t newline \n </script> \u0001");
+    m.put("unicode", "caf\u00e9 \u4e2d\u6587");
+    m.put("empty", "");
+    m.put("null", null);
+    m.put("emptyList", new ArrayList<String>());
+    m.put("emptyArray", new String[0]);
+    m.put("int", 42);
+    m.put("long", 1234567890123L);
+    m.put("double", 1.5d);
+    m.put("float", 2.0f);
+    m.put("boolean", true);
+    m.put("char", 'c');
+    m.put("strings", new String[] { "a", "b" });
+    m.put("ints", new int[] { 1, 2, 3 });
+    List<Object> list = new ArrayList<Object>();
+    list.add("x");
+    list.add(null);
+    list.add(7);
+    m.put("list", list);
+    Map<String, Object> nested = new HashMap<String, Object>();
+    nested.put("key", "value");
+    nested.put("json", "{\"a\":1}");
+    nested.put("jsonArray", "[1,2]");
+    m.put("nested", nested);
+    checkSame(m);
+  }
+
+  @Test
+  public void testUserEnvironmentBean() throws IOException {
+    for (String user : USERS) {
+      String json = ResourceLoader.readResource(TEST_USERENV + user + ".json",
+          getClass().getClassLoader());
+      UserEnvironmentBean bean = jsonLibConverter.convertToObject(json,
+          UserEnvironmentBean.class);
+      checkSame(bean);
+    }
+  }
+
+  @Test
+  public void testFriendsBean() throws IOException {
+    for (String friends : FRIENDS) {
+      String json = ResourceLoader.readResource(TEST_FRIENDS + friends
+          + ".json", getClass().getClassLoader());
+      FriendsBean bean = jsonLibConverter.convertToObject(json,
+          FriendsBean.class);
+      checkSame(bean);
+    }
+  }
+
+  @Test
+  public void testSiteBean() throws IOException {
+    for (String site : SITES) {
+      String json = ResourceLoader.readResource(TEST_SITE + site
+          + "/groupdef.json", getClass().getClassLoader());
+      SiteBean bean = jsonLibConverter.convertToObject(json, SiteBean.class);
+      checkSame(bean);
+    }
+  }
+
+  @Test
+  public void testNotStreamed() throws IOException {
+    checkSame("");
+    checkSame("{\"a\":\"b\"}");
+    checkSame(new String[] { "element1", "element2" });
+  }
+
+  @Test
+  public void testCycle() {
+    Map<String, Object> m = new HashMap<String, Object>();
+    m.put("self", m);
+    try {
+      streamingConverter.convertToString(m);
+      fail("A cycle should be detected");
+    } catch (JSONException e) {
+      // expected
+    }
+  }
+
+  /**
+   * @param pojo
+   * @throws IOException
+   */
+  private void checkSame(Object pojo) throws IOException {
+    String expected = jsonLibConverter.convertToString(pojo);
+    assertEquals(expected, streamingConverter.convertToString(pojo));
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    streamingConverter.writeTo(pojo, baos);
+    assertEquals(expected, new String(baos.toByteArray(), "UTF-8"));
+  }
+}
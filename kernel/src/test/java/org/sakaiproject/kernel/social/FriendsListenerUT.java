@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.social;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.Lists;
+
+import org.easymock.Capture;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.kernel.KernelConstants;
+import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
+import org.sakaiproject.kernel.api.serialization.BeanConverter;
+import org.sakaiproject.kernel.api.user.ProfileResolverService;
+import org.sakaiproject.kernel.api.user.UserProfile;
+import org.sakaiproject.kernel.model.FriendBean;
+import org.sakaiproject.kernel.model.FriendStatus;
+import org.sakaiproject.kernel.model.FriendsBean;
+import org.sakaiproject.kernel.model.FriendsIndexBean;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+
+/**
+ * Unit tests for the reconciliation of the friends index with a friends file.
+ */
+public class FriendsListenerUT {
+
+  private static final String PRIVATE = "/_private";
+  private static final String FRIENDS_PATH = PRIVATE + "/aa/bb/ieb/"
+      + KernelConstants.FRIENDS_FILE;
+
+  private ProfileResolverService profileResolverService;
+  private JCRNodeFactoryService jcrNodeFactoryService;
+  private BeanConverter beanConverter;
+  private EntityManager entityManager;
+  private EntityTransaction transaction;
+  private Query query;
+  private FriendsBean friendsBean;
+
+  @Before
+  public void setUp() throws Exception {
+    profileResolverService = createMock(ProfileResolverService.class);
+    jcrNodeFactoryService = createMock(JCRNodeFactoryService.class);
+    beanConverter = createMock(BeanConverter.class);
+    entityManager = createMock(EntityManager.class);
+    transaction = createMock(EntityTransaction.class);
+    query = createMock(Query.class);
+
+    friendsBean = new FriendsBean(null, null, null, PRIVATE);
+    friendsBean.setUuid("ieb");
+    expect(jcrNodeFactoryService.getInputStream(FRIENDS_PATH)).andReturn(
+        new ByteArrayInputStream("{}".getBytes("UTF-8")));
+    expect(beanConverter.convertToObject("{}", FriendsBean.class)).andReturn(
+        friendsBean);
+  }
+
+  private FriendBean newFriend(String friendUuid, long lastUpdate) {
+    FriendBean friendBean = new FriendBean("ieb", friendUuid,
+        FriendStatus.ACCEPTED);
+    friendBean.setLastUpdate(lastUpdate);
+    return friendBean;
+  }
+
+  private FriendsIndexBean newRow(String friendUuid, long lastUpdate) {
+    return new FriendsIndexBean(newFriend(friendUuid, lastUpdate), null);
+  }
+
+  private void expectRows(FriendsIndexBean... rows) {
+    expect(entityManager.createNamedQuery(FriendsIndexBean.FINDBY_UUID))
+        .andReturn(query);
+    expect(query.setParameter(FriendsIndexBean.PARAM_UUID, "ieb")).andReturn(
+        query);
+    List<FriendsIndexBean> resultList = Lists.newArrayList(rows);
+    expect(query.getResultList()).andReturn(resultList);
+  }
+
+  private FriendsListener newListener() {
+    return new FriendsListener(profileResolverService, jcrNodeFactoryService,
+        PRIVATE, beanConverter, null, entityManager);
+  }
+
+  private void replayMocks(Object... moreMocks) {
+    replay(profileResolverService, jcrNodeFactoryService, beanConverter,
+        entityManager, transaction, query);
+    replay(moreMocks);
+  }
+
+  private void verifyMocks() {
+    verify(profileResolverService, jcrNodeFactoryService, beanConverter,
+        entityManager, transaction, query);
+  }
+
+  @Test
+  public void testUpdateIndex() throws Exception {
+    // a has changed, b has not, c is no longer a friend and e is new.
+    friendsBean.addFriend(newFriend("a", 200L));
+    friendsBean.addFriend(newFriend("b", 100L));
+    friendsBean.addFriend(newFriend("e", 100L));
+    FriendsIndexBean a = newRow("a", 100L);
+    FriendsIndexBean duplicateA = newRow("a", 100L);
+    FriendsIndexBean b = newRow("b", 100L);
+    FriendsIndexBean c = newRow("c", 100L);
+    expectRows(a, duplicateA, b, c);
+
+    UserProfile profile = createMock(UserProfile.class);
+    HashMap<String, Object> properties = new HashMap<String, Object>();
+    properties.put("firstName", "Ian");
+    properties.put("lastName", "Boston");
+    expect(profile.getProperties()).andReturn(properties).anyTimes();
+    Map<String, UserProfile> profiles = new HashMap<String, UserProfile>();
+    profiles.put("e", profile);
+    Capture<Collection<String>> resolved = new Capture<Collection<String>>();
+    expect(profileResolverService.resolve(capture(resolved))).andReturn(
+        profiles);
+
+    expect(entityManager.getTransaction()).andReturn(transaction);
+    transaction.begin();
+    expectLastCall();
+    entityManager.remove(duplicateA);
+    expectLastCall();
+    entityManager.remove(c);
+    expectLastCall();
+    entityManager.persist(a);
+    expectLastCall();
+    Capture<FriendsIndexBean> added = new Capture<FriendsIndexBean>();
+    entityManager.persist(capture(added));
+    expectLastCall();
+    transaction.commit();
+    expectLastCall();
+    expect(transaction.isActive()).andReturn(false);
+    replayMocks(profile);
+
+    newListener().onEvent(0, "ieb", FRIENDS_PATH, KernelConstants.FRIENDS_FILE);
+
+    verifyMocks();
+    assertEquals(2, resolved.getValue().size());
+    assertTrue(resolved.getValue().contains("a"));
+    assertTrue(resolved.getValue().contains("e"));
+    assertEquals(200L, a.getLastUpdate());
+    assertEquals(100L, b.getLastUpdate());
+    assertEquals("e", added.getValue().getFriendUuid());
+    assertEquals("ieb", added.getValue().getUuid());
+    assertEquals("Ian", added.getValue().getFirstName());
+  }
+
+  @Test
+  public void testUnchangedIndexIsNotWritten() throws Exception {
+    friendsBean.addFriend(newFriend("a", 100L));
+    expectRows(newRow("a", 100L));
+    replayMocks();
+
+    newListener().onEvent(0, "ieb", FRIENDS_PATH, KernelConstants.FRIENDS_FILE);
+
+    verifyMocks();
+  }
+
+  @Test
+  public void testRollbackOnFailedCommit() throws Exception {
+    friendsBean.addFriend(newFriend("a", 100L));
+    expectRows();
+    expect(
+        profileResolverService.resolve(capture(new Capture<Collection<String>>())))
+        .andReturn(new HashMap<String, UserProfile>());
+    expect(entityManager.getTransaction()).andReturn(transaction);
+    transaction.begin();
+    expectLastCall();
+    Capture<FriendsIndexBean> added = new Capture<FriendsIndexBean>();
+    entityManager.persist(capture(added));
+    expectLastCall();
+    transaction.commit();
+    expectLastCall().andThrow(new PersistenceException("commit failed"));
+    expect(transaction.isActive()).andReturn(true);
+    transaction.rollback();
+    expectLastCall();
+    replayMocks();
+
+    try {
+      newListener().onEvent(0, "ieb", FRIENDS_PATH,
+          KernelConstants.FRIENDS_FILE);
+      fail("The failed commit should not be hidden");
+    } catch (PersistenceException e) {
+      // expected
+    }
+
+    verifyMocks();
+    assertEquals("a", added.getValue().getFriendUuid());
+  }
+}
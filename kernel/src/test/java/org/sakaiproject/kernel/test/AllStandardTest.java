@@ -21,18 +21,41 @@ package org.sakaiproject.kernel.test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
+import org.sakaiproject.kernel.authz.simple.AclIndexDiffUT;
+import org.sakaiproject.kernel.jcr.jackrabbit.JCRSessionPoolUT;
+import org.sakaiproject.kernel.jcr.jackrabbit.JcrContentListenerQueueUT;
+import org.sakaiproject.kernel.jcr.jackrabbit.JcrContentRoutingTableUT;
+import org.sakaiproject.kernel.jcr.jackrabbit.JsonTextReaderUT;
+import org.sakaiproject.kernel.jcr.jackrabbit.sakai.test.AccessControlCacheUT;
 import org.sakaiproject.kernel.jcr.jackrabbit.sakai.test.JCRIdPwEvidenceUT;
 import org.sakaiproject.kernel.jcr.jackrabbit.sakai.test.SakaiUserPrincipalUT;
 import org.sakaiproject.kernel.jcr.jackrabbit.test.JCRAnonymousPrincipalUT;
+import org.sakaiproject.kernel.jcr.smartNode.JpaSmartNodeHandlerUT;
+import org.sakaiproject.kernel.jcr.support.test.FileMetadataListenerUT;
+import org.sakaiproject.kernel.memory.CacheBroadcasterUT;
+import org.sakaiproject.kernel.memory.JmsCacheTransportUT;
+import org.sakaiproject.kernel.memory.PathIndexUT;
+import org.sakaiproject.kernel.memory.ScopedCacheMapUT;
+import org.sakaiproject.kernel.messaging.InternalMessageHandlerUT;
+import org.sakaiproject.kernel.messaging.JmsProducerPoolUT;
 import org.sakaiproject.kernel.model.test.FriendsBeanUT;
 import org.sakaiproject.kernel.model.test.GroupBeanUT;
 import org.sakaiproject.kernel.model.test.UserEnvironmentBeanUT;
 import org.sakaiproject.kernel.persistence.DataSourceServiceUT;
 import org.sakaiproject.kernel.registry.test.RegistryServiceUT;
 import org.sakaiproject.kernel.rest.test.RestAuthenticationProviderUT;
+import org.sakaiproject.kernel.rest.test.RestMetricsServiceUT;
 import org.sakaiproject.kernel.rest.test.UserLocaleUT;
 import org.sakaiproject.kernel.serialization.json.test.BeanJsonLibConverterUT;
+import org.sakaiproject.kernel.serialization.json.test.StreamingBeanJsonConverterUT;
+import org.sakaiproject.kernel.social.FriendsListenerUT;
+import org.sakaiproject.kernel.user.test.AuthenticationCacheUT;
+import org.sakaiproject.kernel.user.test.PasswordHasherUT;
+import org.sakaiproject.kernel.user.test.ProfileCacheListenerUT;
+import org.sakaiproject.kernel.user.test.ProfileResolverServiceImplUT;
+import org.sakaiproject.kernel.user.test.TokenAuthenticationServiceUT;
 import org.sakaiproject.kernel.user.test.UserObjectUT;
+import org.sakaiproject.kernel.webapp.test.MeteredServletResponseUT;
 import org.sakaiproject.kernel.webapp.test.SakaiServletRequestUT;
 import org.sakaiproject.kernel.webapp.test.SakaiServletResponseUT;
 
@@ -46,6 +69,17 @@ import org.sakaiproject.kernel.webapp.test.SakaiServletResponseUT;
     UserEnvironmentBeanUT.class, JCRIdPwEvidenceUT.class,
     RegistryServiceUT.class, DataSourceServiceUT.class, UserLocaleUT.class,
     SakaiUserPrincipalUT.class, JCRAnonymousPrincipalUT.class,
-    RestAuthenticationProviderUT.class, FriendsBeanUT.class })
+    RestAuthenticationProviderUT.class, FriendsBeanUT.class,
+    PathIndexUT.class, CacheBroadcasterUT.class,
+    ScopedCacheMapUT.class, JCRSessionPoolUT.class,
+    FileMetadataListenerUT.class, JsonTextReaderUT.class, AccessControlCacheUT.class,
+    JpaSmartNodeHandlerUT.class, JmsProducerPoolUT.class,
+    StreamingBeanJsonConverterUT.class, RestMetricsServiceUT.class,
+    MeteredServletResponseUT.class, JcrContentRoutingTableUT.class,
+    JcrContentListenerQueueUT.class, AclIndexDiffUT.class,
+    ProfileCacheListenerUT.class, PasswordHasherUT.class,
+    AuthenticationCacheUT.class, TokenAuthenticationServiceUT.class,
+    InternalMessageHandlerUT.class, FriendsListenerUT.class,
+    ProfileResolverServiceImplUT.class, JmsCacheTransportUT.class })
 public class AllStandardTest {
 }
@@ -23,8 +23,11 @@ import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.reset;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import com.google.common.collect.Lists;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.easymock.EasyMock;
@@ -62,6 +65,8 @@ import org.sakaiproject.kernel.webapp.test.InternalUser;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Random;
 
 import javax.jcr.AccessDeniedException;
@@ -275,6 +280,123 @@ public class AuthZServiceKernelUnitT extends KernelIntegrationBase {
     reset(request, response, session);
   }
 
+  @Test
+  public void testCheckAll() {
+    LOG
+        .info("Starting Test ==================================================== testCheckAll ");
+    KernelManager km = new KernelManager();
+    AuthzResolverService authzResolver = km
+        .getService(AuthzResolverService.class);
+    PermissionQueryService pqs = km.getService(PermissionQueryService.class);
+    PermissionQuery pq = pqs.getPermission("GET");
+
+    UserResolverService userResolverService = km
+        .getService(UserResolverService.class);
+
+    HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+    HttpServletResponse response = EasyMock
+        .createMock(HttpServletResponse.class);
+    HttpSession session = EasyMock.createMock(HttpSession.class);
+
+    setupRequest(request, response, session, "ib236-testCheckAll");
+    replay(request, response, session);
+    startRequest(request, response, "JSESSION", userResolverService);
+
+    List<String> references = Lists.newArrayList("/x/y/z", "/x/y/w",
+        "/x/y/v");
+    // no AuthZ exists, so all should be denied, without an exception.
+    BitSet granted = authzResolver.checkAll(references, pq);
+    assertEquals(0, granted.cardinality());
+
+    authzResolver.setRequestGrant("Testing Request Grant");
+    granted = authzResolver.checkAll(references, pq);
+    assertEquals(references.size(), granted.cardinality());
+    authzResolver.clearRequestGrant();
+
+    endRequest();
+    verify(request, response, session);
+
+    reset(request, response, session);
+  }
+
+  @Test
+  public void testCheckAllSiblings() throws JCRNodeFactoryServiceException,
+      RepositoryException {
+    LOG
+        .info("Starting Test ==================================================== testCheckAllSiblings ");
+    KernelManager km = new KernelManager();
+    AuthzResolverService authzResolver = km
+        .getService(AuthzResolverService.class);
+    ReferenceResolverService referenceResolverService = km
+        .getService(ReferenceResolverService.class);
+    UserResolverService userResolverService = km
+        .getService(UserResolverService.class);
+    JCRNodeFactoryService jcrNodeFactory = km
+        .getService(JCRNodeFactoryService.class);
+
+    HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+    HttpServletResponse response = EasyMock
+        .createMock(HttpServletResponse.class);
+    HttpSession session = EasyMock.createMock(HttpSession.class);
+
+    setupRequest(request, response, session, "admin");
+    replay(request, response, session);
+    startRequest(request, response, "JSESSION", userResolverService);
+
+    String[] files = new String[] { "/test/siblings/a.txt",
+        "/test/siblings/b.txt", "/test/siblings/c.txt", "/test/siblings/d.txt" };
+    for (String file : files) {
+      Node n = jcrNodeFactory.createFile(file, RestProvider.CONTENT_TYPE);
+      n.getSession().save();
+    }
+
+    // grant the user httpget on the folder, and deny it on b.txt and d.txt
+    SubjectStatement subjectStatement = new JcrSubjectStatement(
+        SubjectType.US, "ib236-testCheckAllSiblings", null);
+    referenceResolverService.resolve("/test/siblings").addAccessControlStatement(
+        new JcrAccessControlStatementImpl(subjectStatement, "httpget", true,
+            true));
+    referenceResolverService.resolve(files[1]).addAccessControlStatement(
+        new JcrAccessControlStatementImpl(subjectStatement, "httpget", false,
+            false));
+    referenceResolverService.resolve(files[3]).addAccessControlStatement(
+        new JcrAccessControlStatementImpl(subjectStatement, "httpget", false,
+            false));
+
+    endRequest();
+    verify(request, response, session);
+    reset(request, response, session);
+
+    setupRequest(request, response, session, "ib236-testCheckAllSiblings");
+    replay(request, response, session);
+    startRequest(request, response, "JSESSION", userResolverService);
+
+    SimplePermissionQuery permissionQuery = new SimplePermissionQuery(
+        "checkhttpget");
+    permissionQuery.addQueryStatement(new SimpleQueryStatement("httpget"));
+
+    // the siblings are resolved against one parent, with the same outcome as a
+    // check on each.
+    BitSet granted = authzResolver.checkAll(Lists.newArrayList(files[0],
+        files[1], files[2]), permissionQuery);
+    assertEquals(2, granted.cardinality());
+    assertEquals(true, granted.get(0));
+    assertEquals(false, granted.get(1));
+    assertEquals(true, granted.get(2));
+
+    try {
+      authzResolver.check(files[3], permissionQuery);
+      fail();
+    } catch (PermissionDeniedException e) {
+      assertEquals(true, e.getMessage().startsWith(
+          "Permission Explicitly deinied on " + files[3]));
+    }
+
+    endRequest();
+    verify(request, response, session);
+    reset(request, response, session);
+  }
+
   /**
    * @param request
    * @param response
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.user;
+
+import org.apache.commons.codec.binary.Base64;
+import org.sakaiproject.kernel.api.memory.Cache;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.memory.CacheScope;
+import org.sakaiproject.kernel.api.user.Authentication;
+import org.sakaiproject.kernel.api.user.AuthenticationResolverService;
+import org.sakaiproject.kernel.api.user.IdPwPrincipal;
+import org.sakaiproject.kernel.api.user.TokenAuthenticationService;
+import org.sakaiproject.kernel.jcr.jackrabbit.sakai.JCRIdPwEvidence;
+import org.sakaiproject.kernel.memory.MapCacheImpl;
+import org.sakaiproject.kernel.util.user.AnonUser;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures Basic authentication throughput through the resolver, with every
+ * request checked against the stored PBKDF2 hash (cache ttl 0) and with
+ * verified credentials cached, and compares it with bearer token checks. Each
+ * request decodes an Authorization header as the DAV servlet does. This is not
+ * run as part of the tests, the arguments
+ * are the number of threads, the number of users and the number of seconds to
+ * run each case, defaults 8, 100 and 10.
+ */
+public class AuthenticationCacheBenchmark {
+
+  /**
+   * No tokens are revoked while the benchmark runs.
+   */
+  private static final Cache<Long> revocations = new MapCacheImpl<Long>();
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    int users = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    final PasswordHasher hasher = new PasswordHasher(10000);
+    final Map<String, String> stored = new HashMap<String, String>();
+    String[] headers = new String[users];
+    for (int i = 0; i < users; i++) {
+      stored.put("user" + i, hasher.hash("password" + i));
+      headers[i] = "Basic "
+          + new String(Base64.encodeBase64(("user" + i + ":password" + i)
+              .getBytes("UTF-8")), "US-ASCII");
+    }
+    AuthenticationResolverService store = new AuthenticationResolverService() {
+      public Authentication authenticate(Principal principal)
+          throws SecurityException {
+        IdPwPrincipal idPw = (IdPwPrincipal) principal;
+        if (hasher.verify(idPw.getPassword(), stored.get(idPw.getIdentifier()))) {
+          return new AuthenticationImpl(new AnonUser());
+        }
+        return null;
+      }
+    };
+
+    run("cold", new AuthenticationCache(0, 10000, 5, 60000, 1000), store, headers,
+        threads, seconds);
+    run("hot ", new AuthenticationCache(300000, 10000, 5, 60000, 1000), store,
+        headers, threads, seconds);
+
+    CacheManagerService caches = new CacheManagerService() {
+      @SuppressWarnings("unchecked")
+      public <T> Cache<T> getCache(String name, CacheScope scope) {
+        return (Cache<T>) revocations;
+      }
+
+      public void unbind(CacheScope scope) {
+      }
+    };
+    TokenAuthenticationService tokens = new TokenAuthenticationServiceImpl(
+        "1=MDEyMzQ1Njc4OWFiY2RlZg==", "1", 3600000, caches);
+    String[] bearers = new String[users];
+    for (int i = 0; i < users; i++) {
+      bearers[i] = "Bearer " + tokens.issue(new AuthenticationImpl("user" + i));
+    }
+    runTokens(tokens, bearers, threads, seconds);
+  }
+
+  private static void runTokens(final TokenAuthenticationService tokens,
+      final String[] bearers, int threads, int seconds)
+      throws InterruptedException {
+    final AtomicLong count = new AtomicLong();
+    final long end = System.currentTimeMillis() + seconds * 1000L;
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int offset = t;
+      workers[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = offset; System.currentTimeMillis() < end; i++) {
+              tokens.authenticate(bearers[i % bearers.length].substring(7));
+              count.incrementAndGet();
+            }
+          } catch (Exception e) {
+            e.printStackTrace();
+          }
+        }
+      };
+      workers[t].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    System.err.println("token " + threads + " threads " + (count.get() / seconds)
+        + " logins/s");
+  }
+
+  private static void run(String name, AuthenticationCache cache,
+      AuthenticationResolverService store, final String[] headers,
+      int threads, int seconds) throws InterruptedException {
+    final AuthenticationResolverServiceImpl resolver = new AuthenticationResolverServiceImpl(
+        store, null, cache, null, null);
+    final AtomicLong count = new AtomicLong();
+    final long end = System.currentTimeMillis() + seconds * 1000L;
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int offset = t;
+      workers[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = offset; System.currentTimeMillis() < end; i++) {
+              resolver.authenticate(decode(headers[i % headers.length]));
+              count.incrementAndGet();
+            }
+          } catch (Exception e) {
+            e.printStackTrace();
+          }
+        }
+      };
+      workers[t].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    System.err.println(name + " " + threads + " threads " + (count.get() / seconds)
+        + " logins/s, hits " + cache.getHits() + " misses " + cache.getMisses());
+  }
+
+  private static Principal decode(String header) throws Exception {
+    String userPass = new String(Base64.decodeBase64(header.substring(6)
+        .getBytes("US-ASCII")), "UTF-8");
+    int colon = userPass.indexOf(':');
+    return new JCRIdPwEvidence(userPass.substring(0, colon), userPass
+        .substring(colon + 1));
+  }
+}
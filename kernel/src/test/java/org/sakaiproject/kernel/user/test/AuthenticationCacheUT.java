@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.user.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.sakaiproject.kernel.api.user.Authentication;
+import org.sakaiproject.kernel.jcr.jackrabbit.sakai.JCRIdPwEvidence;
+import org.sakaiproject.kernel.user.AuthenticationCache;
+import org.sakaiproject.kernel.user.AuthenticationImpl;
+import org.sakaiproject.kernel.util.user.AnonUser;
+
+/**
+ *
+ */
+public class AuthenticationCacheUT {
+
+  private Authentication authentication = new AuthenticationImpl(new AnonUser());
+
+  @Test
+  public void testHit() {
+    AuthenticationCache cache = new AuthenticationCache(60000, 10, 5, 60000, 10);
+    assertNull(cache.getAuthentication(new JCRIdPwEvidence("ieb", "password")));
+    cache.putAuthentication(new JCRIdPwEvidence("ieb", "password"),
+        authentication);
+    assertSame(authentication, cache.getAuthentication(new JCRIdPwEvidence(
+        "ieb", "password")));
+    assertNull(cache.getAuthentication(new JCRIdPwEvidence("ieb", "other")));
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void testDisabled() {
+    AuthenticationCache cache = new AuthenticationCache(0, 10, 5, 60000, 10);
+    cache.putAuthentication(new JCRIdPwEvidence("ieb", "password"),
+        authentication);
+    assertNull(cache.getAuthentication(new JCRIdPwEvidence("ieb", "password")));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testBounded() {
+    AuthenticationCache cache = new AuthenticationCache(60000, 10, 5, 60000, 10);
+    for (int i = 0; i < 100; i++) {
+      cache.putAuthentication(new JCRIdPwEvidence("user" + i, "password"),
+          authentication);
+    }
+    assertEquals(true, cache.size() <= 10);
+    assertSame(authentication, cache.getAuthentication(new JCRIdPwEvidence(
+        "user99", "password")));
+  }
+
+  @Test
+  public void testFailureLimit() {
+    AuthenticationCache cache = new AuthenticationCache(60000, 10, 3, 60000, 10);
+    for (int i = 0; i < 3; i++) {
+      assertNull(cache.getAuthentication(new JCRIdPwEvidence("ieb", "bad" + i)));
+      cache.putAuthenticationFailure(new JCRIdPwEvidence("ieb", "bad" + i));
+    }
+    assertEquals(0, cache.getDelays());
+    // the login is delayed, not refused, so the real password is still checked
+    assertNull(cache.getAuthentication(new JCRIdPwEvidence("ieb", "password")));
+    assertEquals(1, cache.getDelays());
+    assertEquals(0, cache.getRefusals());
+    // other users are not affected
+    assertNull(cache.getAuthentication(new JCRIdPwEvidence("other", "password")));
+    assertEquals(1, cache.getDelays());
+  }
+
+  @Test
+  public void testVerifiedAfterFailures() {
+    AuthenticationCache cache = new AuthenticationCache(60000, 10, 3, 60000, 10);
+    cache.putAuthentication(new JCRIdPwEvidence("ieb", "password"),
+        authentication);
+    for (int i = 0; i < 5; i++) {
+      cache.putAuthenticationFailure(new JCRIdPwEvidence("ieb", "bad" + i));
+    }
+    assertSame(authentication, cache.getAuthentication(new JCRIdPwEvidence(
+        "ieb", "password")));
+    assertEquals(0, cache.getDelays());
+  }
+
+  @Test
+  public void testReplayedFailure() {
+    AuthenticationCache cache = new AuthenticationCache(60000, 10, 5, 60000, 10);
+    cache.putAuthenticationFailure(new JCRIdPwEvidence("ieb", "bad"));
+    try {
+      cache.getAuthentication(new JCRIdPwEvidence("ieb", "bad"));
+      fail("Should have refused the repeated password");
+    } catch (SecurityException e) {
+      // expected
+    }
+    assertNull(cache.getAuthentication(new JCRIdPwEvidence("ieb", "password")));
+    // a verified login clears the failures
+    cache.putAuthentication(new JCRIdPwEvidence("ieb", "password"),
+        authentication);
+    assertNull(cache.getAuthentication(new JCRIdPwEvidence("ieb", "bad")));
+  }
+
+  @Test
+  public void testFailureWindow() throws InterruptedException {
+    AuthenticationCache cache = new AuthenticationCache(60000, 10, 1, 50, 10);
+    cache.putAuthenticationFailure(new JCRIdPwEvidence("ieb", "bad"));
+    assertNull(cache.getAuthentication(new JCRIdPwEvidence("ieb", "password")));
+    assertEquals(1, cache.getDelays());
+    Thread.sleep(100);
+    assertNull(cache.getAuthentication(new JCRIdPwEvidence("ieb", "password")));
+    assertEquals(1, cache.getDelays());
+  }
+
+  @Test
+  public void testOpenFailuresKept() {
+    AuthenticationCache cache = new AuthenticationCache(60000, 10, 5, 60000, 10);
+    cache.putAuthenticationFailure(new JCRIdPwEvidence("ieb", "bad"));
+    for (int i = 0; i < 100; i++) {
+      cache.putAuthenticationFailure(new JCRIdPwEvidence("user" + i, "bad"));
+    }
+    try {
+      cache.getAuthentication(new JCRIdPwEvidence("ieb", "bad"));
+      fail("Should have kept the failure and refused the repeated password");
+    } catch (SecurityException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testExpire() {
+    AuthenticationCache cache = new AuthenticationCache(60000, 10, 5, 60000, 10);
+    cache.putAuthentication(new JCRIdPwEvidence("ieb", "password"),
+        authentication);
+    cache.expireCache(new JCRIdPwEvidence("ieb", "newpassword"));
+    assertNull(cache.getAuthentication(new JCRIdPwEvidence("ieb", "password")));
+  }
+}
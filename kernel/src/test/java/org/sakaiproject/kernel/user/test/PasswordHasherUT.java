@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.user.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.sakaiproject.kernel.user.PasswordHasher;
+import org.sakaiproject.kernel.util.StringUtils;
+
+/**
+ *
+ */
+public class PasswordHasherUT {
+
+  @Test
+  public void testRfc6070Vectors() throws Exception {
+    byte[] salt = "salt".getBytes("UTF-8");
+    assertEquals("0c60c80f961f0e71f3a9b524af6012062fe037a6", hex(PasswordHasher
+        .pbkdf2("password", salt, 1, 20)));
+    assertEquals("ea6c014dc72d6f8ccd1ed92ace1d41f0d8de8957", hex(PasswordHasher
+        .pbkdf2("password", salt, 2, 20)));
+    assertEquals("4b007901b765489abead49d926f721d065a429c1", hex(PasswordHasher
+        .pbkdf2("password", salt, 4096, 20)));
+  }
+
+  @Test
+  public void testHashAndVerify() {
+    PasswordHasher hasher = new PasswordHasher(100);
+    String hash = hasher.hash("password");
+    assertTrue(hash.startsWith("pbkdf2:100:"));
+    assertTrue(hasher.verify("password", hash));
+    assertFalse(hasher.verify("password2", hash));
+    assertFalse(hasher.verify(null, hash));
+    assertFalse(hasher.needsRehash(hash));
+    // salted, so the same password hashes differently each time
+    assertFalse(hash.equals(hasher.hash("password")));
+  }
+
+  @Test
+  public void testLegacyHash() throws Exception {
+    PasswordHasher hasher = new PasswordHasher(100);
+    String legacy = StringUtils.sha1Hash("password");
+    assertTrue(hasher.verify("password", legacy));
+    assertFalse(hasher.verify("password2", legacy));
+    assertTrue(hasher.needsRehash(legacy));
+  }
+
+  @Test
+  public void testIterationsRaised() {
+    String hash = new PasswordHasher(100).hash("password");
+    PasswordHasher stronger = new PasswordHasher(200);
+    assertTrue(stronger.verify("password", hash));
+    assertTrue(stronger.needsRehash(hash));
+  }
+
+  @Test
+  public void testMalformedHash() {
+    PasswordHasher hasher = new PasswordHasher(100);
+    assertFalse(hasher.verify("password", "pbkdf2:x:y"));
+    assertFalse(hasher.verify("password", "pbkdf2:x:y:z"));
+    assertTrue(hasher.needsRehash("pbkdf2:x:y:z"));
+  }
+
+  private String hex(byte[] b) {
+    StringBuilder sb = new StringBuilder();
+    for (byte v : b) {
+      sb.append(Integer.toHexString((v & 0xff) | 0x100).substring(1));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.user.test;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.sakaiproject.kernel.KernelConstants;
+import org.sakaiproject.kernel.api.memory.Cache;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.memory.CacheScope;
+import org.sakaiproject.kernel.api.user.ProfileResolverService;
+import org.sakaiproject.kernel.user.ProfileCacheListener;
+
+import javax.jcr.observation.Event;
+
+/**
+ *
+ */
+public class ProfileCacheListenerUT {
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testRemoveOnChange() {
+    CacheManagerService cacheManagerService = createMock(CacheManagerService.class);
+    Cache<String> cache = createMock(Cache.class);
+    expect(
+        cacheManagerService.getCache(ProfileResolverService.PROFILE_CACHE,
+            CacheScope.CLUSTERINVALIDATED)).andReturn(cache);
+    cache.remove("/_userprivate/aa/bb/ieb/profile.json");
+    replay(cacheManagerService, cache);
+
+    ProfileCacheListener listener = new ProfileCacheListener(cacheManagerService);
+    assertEquals(KernelConstants.PROFILE_JSON, listener.getFileNames()[0]);
+    listener.onEvent(Event.PROPERTY_CHANGED, "ieb",
+        "/_userprivate/aa/bb/ieb/profile.json", KernelConstants.PROFILE_JSON);
+
+    verify(cacheManagerService, cache);
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.user.test;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.kernel.api.authz.AuthzResolverService;
+import org.sakaiproject.kernel.api.authz.PermissionQuery;
+import org.sakaiproject.kernel.api.authz.PermissionQueryService;
+import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
+import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryServiceException;
+import org.sakaiproject.kernel.api.memory.Cache;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.memory.CacheScope;
+import org.sakaiproject.kernel.api.serialization.BeanConverter;
+import org.sakaiproject.kernel.api.user.ProfileResolverService;
+import org.sakaiproject.kernel.api.user.UserFactoryService;
+import org.sakaiproject.kernel.api.user.UserProfile;
+import org.sakaiproject.kernel.user.ProfileResolverServiceImpl;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.AccessDeniedException;
+
+/**
+ * Unit tests for the caching of profile bodies when resolving profiles.
+ */
+public class ProfileResolverServiceImplUT {
+
+  private static final String BODY = "{\"firstName\":\"Ian\"}";
+  private static final String PATH = PATH;
+
+  private BeanConverter beanConverter;
+  private JCRNodeFactoryService jcrNodeFactoryService;
+  private UserFactoryService userFactoryService;
+  private CacheManagerService cacheManagerService;
+  private Cache<String> cache;
+  private AuthzResolverService authzResolverService;
+  private PermissionQueryService permissionQueryService;
+  private PermissionQuery readPermission;
+  private Map<String, Object> profileMap;
+
+  @SuppressWarnings("unchecked")
+  @Before
+  public void setUp() {
+    beanConverter = createMock(BeanConverter.class);
+    jcrNodeFactoryService = createMock(JCRNodeFactoryService.class);
+    userFactoryService = createMock(UserFactoryService.class);
+    cacheManagerService = createMock(CacheManagerService.class);
+    cache = createMock(Cache.class);
+    authzResolverService = createMock(AuthzResolverService.class);
+    permissionQueryService = createMock(PermissionQueryService.class);
+    readPermission = createMock(PermissionQuery.class);
+    profileMap = new HashMap<String, Object>();
+    profileMap.put("firstName", "Ian");
+
+    expect(
+        cacheManagerService.getCache(ProfileResolverService.PROFILE_CACHE,
+            CacheScope.CLUSTERINVALIDATED)).andReturn(cache);
+    expect(userFactoryService.getUserProfilePath("ieb")).andReturn(PATH)
+        .anyTimes();
+    expect(permissionQueryService.getPermission(PermissionQuery.READ))
+        .andReturn(readPermission);
+  }
+
+  /**
+   * @param granted
+   *          the bits to set in the result of the check.
+   * @return the result of a permission check.
+   */
+  private BitSet granted(int... granted) {
+    BitSet bitSet = new BitSet();
+    for (int i : granted) {
+      bitSet.set(i);
+    }
+    return bitSet;
+  }
+
+  private ProfileResolverServiceImpl newService() {
+    replay(beanConverter, jcrNodeFactoryService, userFactoryService,
+        cacheManagerService, cache, authzResolverService,
+        permissionQueryService, readPermission);
+    return new ProfileResolverServiceImpl(beanConverter,
+        jcrNodeFactoryService, userFactoryService, cacheManagerService,
+        authzResolverService, permissionQueryService);
+  }
+
+  private void verifyMocks() {
+    verify(beanConverter, jcrNodeFactoryService, userFactoryService,
+        cacheManagerService, cache, authzResolverService,
+        permissionQueryService);
+  }
+
+  @Test
+  public void testCacheHit() {
+    expect(cache.get(PATH)).andReturn(BODY);
+    expect(
+        authzResolverService.checkAll(Arrays.asList(PATH), readPermission))
+        .andReturn(granted(0));
+    expect(beanConverter.convertToMap(BODY)).andReturn(profileMap);
+
+    UserProfile profile = newService().resolve("ieb");
+
+    verifyMocks();
+    assertNotNull(profile);
+    assertEquals("ieb", profile.getUuid());
+    assertEquals("Ian", profile.getProperties().get("firstName"));
+  }
+
+  @Test
+  public void testCacheMiss() throws Exception {
+    expect(cache.get(PATH)).andReturn(null);
+    expect(jcrNodeFactoryService.getInputStream(PATH))
+        .andReturn(new ByteArrayInputStream(BODY.getBytes("UTF-8")));
+    expect(cache.put(PATH, BODY)).andReturn(null);
+    expect(beanConverter.convertToMap(BODY)).andReturn(profileMap);
+
+    UserProfile profile = newService().resolve("ieb");
+
+    verifyMocks();
+    assertNotNull(profile);
+    assertEquals("Ian", profile.getProperties().get("firstName"));
+  }
+
+  @Test
+  public void testMissingProfileIsNotCached() throws Exception {
+    expect(cache.get(PATH)).andReturn(null);
+    expect(jcrNodeFactoryService.getInputStream(PATH))
+        .andThrow(new JCRNodeFactoryServiceException("no profile"));
+
+    UserProfile profile = newService().resolve("ieb");
+
+    verifyMocks();
+    assertNull(profile);
+  }
+
+  @Test
+  public void testCacheHitDeniedReadsThroughSession() throws Exception {
+    expect(cache.get(PATH)).andReturn(BODY);
+    expect(
+        authzResolverService.checkAll(Arrays.asList(PATH), readPermission))
+        .andReturn(granted());
+    // the session of the caller refuses the read, the cached body is not used.
+    expect(jcrNodeFactoryService.getInputStream(PATH)).andThrow(
+        new AccessDeniedException(PATH));
+
+    UserProfile profile = newService().resolve("ieb");
+
+    verifyMocks();
+    assertNull(profile);
+  }
+
+  @Test
+  public void testResolveManyUsesOneCache() {
+    expect(userFactoryService.getUserProfilePath("nico")).andReturn(
+        "/_private/nico/profile.json").anyTimes();
+    expect(cache.get(PATH)).andReturn(BODY);
+    expect(cache.get("/_private/nico/profile.json")).andReturn(BODY);
+    expect(
+        authzResolverService.checkAll(Arrays.asList(PATH,
+            "/_private/nico/profile.json"), readPermission)).andReturn(
+        granted(0, 1));
+    expect(beanConverter.convertToMap(BODY)).andReturn(profileMap).times(2);
+
+    Map<String, UserProfile> profiles = newService().resolve(
+        Arrays.asList("ieb", "nico", "ieb"));
+
+    verifyMocks();
+    assertEquals(2, profiles.size());
+    assertEquals("nico", profiles.get("nico").getUuid());
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.user.test;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.sakaiproject.kernel.api.memory.Cache;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.memory.CacheScope;
+import org.sakaiproject.kernel.api.user.TokenAuthenticationService;
+import org.sakaiproject.kernel.memory.MapCacheImpl;
+import org.sakaiproject.kernel.user.AuthenticationImpl;
+import org.sakaiproject.kernel.user.TokenAuthenticationServiceImpl;
+
+/**
+ *
+ */
+public class TokenAuthenticationServiceUT {
+
+  private static final String KEY1 = "1=MDEyMzQ1Njc4OWFiY2RlZg==";
+  private static final String KEY2 = "2=ZmVkY2JhOTg3NjU0MzIxMA==";
+
+  /**
+   * The revocations shared by the services of a test, as the replicated cache
+   * is shared by the nodes of a cluster.
+   */
+  private Cache<Long> revocations = new MapCacheImpl<Long>();
+
+  @Test
+  public void testIssueAndAuthenticate() {
+    TokenAuthenticationService service = newService(KEY1, "1", 60000);
+    String token = service.issue(new AuthenticationImpl("user.with.dots"));
+    assertTrue(token.startsWith("1."));
+    assertEquals("user.with.dots", service.authenticate(token).getUid());
+  }
+
+  @Test
+  public void testTampered() {
+    TokenAuthenticationService service = newService(KEY1, "1", 60000);
+    String token = service.issue(new AuthenticationImpl("ieb"));
+    assertRefused(service, token.replace(".ieb.", ".admin."));
+    assertRefused(service, token.substring(0, token.length() - 2));
+    assertRefused(service, "1.999999999999999.ieb.");
+    assertRefused(service, "garbage");
+    assertRefused(service, null);
+  }
+
+  @Test
+  public void testExpired() {
+    TokenAuthenticationService service = newService(KEY1, "1", -1);
+    assertRefused(service, service.issue(new AuthenticationImpl("ieb")));
+  }
+
+  @Test
+  public void testRotation() {
+    TokenAuthenticationService old = newService(KEY1, "1", 60000);
+    String oldToken = old.issue(new AuthenticationImpl("ieb"));
+
+    // the new key is current, the old one is still accepted
+    TokenAuthenticationService rotated = newService(KEY1 + ";" + KEY2, "2",
+        60000);
+    String newToken = rotated.issue(new AuthenticationImpl("ieb"));
+    assertTrue(newToken.startsWith("2."));
+    assertEquals("ieb", rotated.authenticate(oldToken).getUid());
+    assertEquals("ieb", rotated.authenticate(newToken).getUid());
+
+    // the old key is retired
+    TokenAuthenticationService retired = newService(KEY2, "2", 60000);
+    assertRefused(retired, oldToken);
+    assertEquals("ieb", retired.authenticate(newToken).getUid());
+  }
+
+  @Test
+  public void testLocalKey() {
+    TokenAuthenticationService service = newService("", "", 60000);
+    String token = service.issue(new AuthenticationImpl("ieb"));
+    assertEquals("ieb", service.authenticate(token).getUid());
+    // another node has a different random key
+    assertRefused(newService("", "", 60000), token);
+  }
+
+  @Test
+  public void testBadConfiguration() {
+    try {
+      newService(KEY1, "2", 60000);
+      fail("Current key must be configured");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      newService("1=c2hvcnQ=", "1", 60000);
+      fail("Short keys must be refused");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRevoke() throws InterruptedException {
+    TokenAuthenticationService service = newService(KEY1, "1", 60000);
+    TokenAuthenticationService other = newService(KEY1, "1", 60000);
+    String token = service.issue(new AuthenticationImpl("ieb"));
+    String otherUser = service.issue(new AuthenticationImpl("other"));
+    Thread.sleep(10);
+    service.revoke("ieb");
+    assertRefused(service, token);
+    // the revocation is seen by every node.
+    assertRefused(other, token);
+    assertEquals("other", other.authenticate(otherUser).getUid());
+    // a token issued after the revocation is accepted.
+    Thread.sleep(10);
+    String fresh = other.issue(new AuthenticationImpl("ieb"));
+    assertEquals("ieb", service.authenticate(fresh).getUid());
+  }
+
+  private TokenAuthenticationService newService(String keys, String current,
+      long ttl) {
+    CacheManagerService cacheManagerService = createNiceMock(CacheManagerService.class);
+    expect(
+        cacheManagerService.<Long> getCache(
+            TokenAuthenticationServiceImpl.REVOCATION_CACHE,
+            CacheScope.CLUSTERREPLICATED)).andReturn(revocations).anyTimes();
+    replay(cacheManagerService);
+    return new TokenAuthenticationServiceImpl(keys, current, ttl,
+        cacheManagerService);
+  }
+
+  private void assertRefused(TokenAuthenticationService service, String token) {
+    try {
+      service.authenticate(token);
+      fail("Token should have been refused " + token);
+    } catch (SecurityException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.webapp.test;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.sakaiproject.kernel.webapp.MeteredServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ *
+ */
+public class MeteredServletResponseUT {
+
+  @Test
+  public void testOutputStream() throws IOException {
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    HttpServletResponse response = createMock(HttpServletResponse.class);
+    expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        baos.write(b);
+      }
+    });
+    replay(response);
+
+    MeteredServletResponse metered = new MeteredServletResponse(response);
+    metered.getOutputStream().write(new byte[] { 1, 2, 3 });
+    metered.getOutputStream().write(4);
+    metered.getOutputStream().print("abc");
+    assertEquals(7, metered.getBytesWritten());
+    assertEquals(7, baos.size());
+    assertFalse(metered.isError());
+    verify(response);
+  }
+
+  @Test
+  public void testWriter() throws IOException {
+    StringWriter sw = new StringWriter();
+    HttpServletResponse response = createMock(HttpServletResponse.class);
+    expect(response.getWriter()).andReturn(new PrintWriter(sw));
+    response.sendError(404);
+    replay(response);
+
+    MeteredServletResponse metered = new MeteredServletResponse(response);
+    metered.getWriter().print("{ \"a\" : 1 }");
+    metered.getWriter().flush();
+    metered.sendError(404);
+    assertEquals("{ \"a\" : 1 }", sw.toString());
+    assertEquals(sw.toString().length(), metered.getBytesWritten());
+    assertTrue(metered.isError());
+    verify(response);
+  }
+}
@@ -19,6 +19,7 @@ package org.sakaiproject.kernel.webapp.test;
 
 import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.replay;
@@ -28,8 +29,11 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.sakaiproject.kernel.api.ComponentActivatorException;
+import org.sakaiproject.kernel.api.KernelManager;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryServiceException;
+import org.sakaiproject.kernel.api.user.TokenAuthenticationService;
 import org.sakaiproject.kernel.test.KernelIntegrationBase;
+import org.sakaiproject.kernel.user.AuthenticationImpl;
 import org.sakaiproject.kernel.webapp.filter.SakaiAuthenticationFilter;
 
 import java.io.IOException;
@@ -111,6 +115,9 @@ public class SakaiAuthenticationFilterKernelUnitT extends KernelIntegrationBase
 
     request.setAttribute((String) anyObject(), anyObject());
     expectLastCall().atLeastOnce();
+    response.setHeader(eq(TokenAuthenticationService.TOKEN_HEADER),
+        (String) anyObject());
+    expectLastCall().atLeastOnce();
     
     chain.doFilter(request, response);
     expectLastCall().atLeastOnce();
@@ -166,6 +173,9 @@ public class SakaiAuthenticationFilterKernelUnitT extends KernelIntegrationBase
     
     request.setAttribute((String) anyObject(), anyObject());
     expectLastCall().atLeastOnce();
+    response.setHeader(eq(TokenAuthenticationService.TOKEN_HEADER),
+        (String) anyObject());
+    expectLastCall().atLeastOnce();
     chain.doFilter(request, response);
     expectLastCall().atLeastOnce();
   
@@ -179,6 +189,85 @@ public class SakaiAuthenticationFilterKernelUnitT extends KernelIntegrationBase
     verify(filterConfig, request, response, chain);
   }
 
+  @Test
+  public void testAuthenticationFilterDoFilterTOKEN() throws ServletException,
+      IOException {
+    FilterConfig filterConfig = createMock(FilterConfig.class);
+    HttpServletRequest request = createMock(HttpServletRequest.class);
+    HttpServletResponse response = createMock(HttpServletResponse.class);
+    FilterChain chain = createMock(FilterChain.class);
+
+    TokenAuthenticationService tokenAuthenticationService = new KernelManager()
+        .getService(TokenAuthenticationService.class);
+    String token = tokenAuthenticationService.issue(new AuthenticationImpl(
+        "ieb"));
+    expect(request.getHeader("Authorization")).andReturn("Bearer " + token)
+        .anyTimes();
+
+    request.setAttribute((String) anyObject(), anyObject());
+    expectLastCall().atLeastOnce();
+
+    chain.doFilter(request, response);
+    expectLastCall().atLeastOnce();
+
+    replay(filterConfig, request, response, chain);
+    SakaiAuthenticationFilter filter = new SakaiAuthenticationFilter();
+    filter.init(filterConfig);
+
+    filter.doFilter(request, response, chain);
+
+    verify(filterConfig, request, response, chain);
+  }
+
+  @Test
+  public void testAuthenticationFilterDoFilterBadTOKEN()
+      throws ServletException, IOException {
+    FilterConfig filterConfig = createMock(FilterConfig.class);
+    HttpServletRequest request = createMock(HttpServletRequest.class);
+    HttpServletResponse response = createMock(HttpServletResponse.class);
+    FilterChain chain = createMock(FilterChain.class);
+
+    expect(request.getHeader("Authorization")).andReturn(
+        "Bearer local.9999999999999.ieb.forged").anyTimes();
+
+    response.reset();
+    expectLastCall().once();
+    response.sendError(eq(HttpServletResponse.SC_UNAUTHORIZED),
+        (String) anyObject());
+    expectLastCall().once();
+
+    replay(filterConfig, request, response, chain);
+    SakaiAuthenticationFilter filter = new SakaiAuthenticationFilter();
+    filter.init(filterConfig);
+
+    filter.doFilter(request, response, chain);
+
+    verify(filterConfig, request, response, chain);
+  }
+
+  @Test
+  public void testAuthenticationFilterDoFilterTokenParameterIgnored()
+      throws ServletException, IOException {
+    FilterConfig filterConfig = createMock(FilterConfig.class);
+    HttpServletRequest request = createMock(HttpServletRequest.class);
+    HttpServletResponse response = createMock(HttpServletResponse.class);
+    FilterChain chain = createMock(FilterChain.class);
+
+    // t is not expected, so reading the token from the url fails the test.
+    expect(request.getHeader("Authorization")).andReturn(null).anyTimes();
+    expect(request.getParameter("l")).andReturn("1").anyTimes();
+    expect(request.getParameter("a")).andReturn("TOKEN").anyTimes();
+    chain.doFilter(request, response);
+    expectLastCall().atLeastOnce();
+    replay(filterConfig, request, response, chain);
+
+    SakaiAuthenticationFilter filter = new SakaiAuthenticationFilter();
+    filter.init(filterConfig);
+    filter.doFilter(request, response, chain);
+
+    verify(filterConfig, request, response, chain);
+  }
+
   @Test
   public void testAuthenticationFilterDoFilterTRUSTED()
       throws ServletException, IOException {
@@ -272,9 +272,8 @@ public class RestFriendsProvider implements RestProvider, Initialisable {
       }
 
       if (map != null) {
-        String responseBody = beanConverter.convertToString(map);
         response.setContentType(RestProvider.CONTENT_TYPE);
-        response.getOutputStream().print(responseBody);
+        beanConverter.writeTo(map, response.getOutputStream());
       }
     } catch (SecurityException ex) {
       throw ex;
@@ -205,8 +205,8 @@ public class RestMeProvider implements RestProvider, Initialisable {
         }
         User user = userResolverService.resolveWithUUID(userId);
         if (user == null) {
-          outputStream.print(beanConverter.convertToString(ImmutableMap.of(
-              "statusCode", "404", "userId", userId)));
+          beanConverter.writeTo(ImmutableMap.of("statusCode", "404",
+              "userId", userId), outputStream);
         } else {
           outputStream.print("{ \"statusCode\": \"200\", \"restricted\": true");
           outputPathPrefix(user.getUuid(), outputStream);
@@ -267,12 +267,14 @@ public class RestMeProvider implements RestProvider, Initialisable {
     response.setContentType(RestProvider.CONTENT_TYPE);
     ServletOutputStream outputStream = response.getOutputStream();
     outputStream.print("{ \"locale\" :");
-    outputStream.print(beanConverter.convertToString(UserLocale.localeToMap(locale)));
+    beanConverter.writeTo(UserLocale.localeToMap(locale), outputStream);
     outputStream.print(", \"preferences\" :");
     userEnvironment.setProtected(true);
-    String json = beanConverter.convertToString(userEnvironment);
-    userEnvironment.setProtected(false);
-    outputStream.print(json);
+    try {
+      beanConverter.writeTo(userEnvironment, outputStream);
+    } finally {
+      userEnvironment.setProtected(false);
+    }
     outputPathPrefix(user.getUuid(), outputStream);
     outputUserProfile(user.getUuid(), outputStream);
     outputStream.print("}");
@@ -291,7 +293,7 @@ public class RestMeProvider implements RestProvider, Initialisable {
     response.setContentType(RestProvider.CONTENT_TYPE);
     ServletOutputStream outputStream = response.getOutputStream();
     outputStream.print("{ \"locale\" :");
-    outputStream.print(beanConverter.convertToString(UserLocale.localeToMap(locale)));
+    beanConverter.writeTo(UserLocale.localeToMap(locale), outputStream);
     sendFile("preferences", path, outputStream);
     outputPathPrefix(user.getUuid(), outputStream);
     outputStream.print(", \"profile\" : {}");
@@ -344,13 +346,13 @@ public class RestMeProvider implements RestProvider, Initialisable {
     response.setContentType(RestProvider.CONTENT_TYPE);
     ServletOutputStream outputStream = response.getOutputStream();
     outputStream.print("{ \"locale\" :");
-    outputStream.print(beanConverter.convertToString(UserLocale.localeToMap(locale)));
+    beanConverter.writeTo(UserLocale.localeToMap(locale), outputStream);
     outputStream.print(", \"preferences\" :");
     Map<String, Object> m = new HashMap<String, Object>();
     m.put("uuid", user.getUuid());
     m.put("superUser", false);
     m.put("subjects", new String[0]);
-    outputStream.print(beanConverter.convertToString(m));
+    beanConverter.writeTo(m, outputStream);
     outputPathPrefix(user.getUuid(), outputStream);
     outputUserProfile(user.getUuid(), outputStream);
     outputStream.print("}");
@@ -95,7 +95,6 @@ public class PresenceProvider implements Documentable, JaxRsSingletonProvider,
   @Produces(MediaType.TEXT_PLAIN)
   public String ping() {
     String userId = sessionManagerService.getCurrentUserId();
-    System.err.println("User ID is "+userId);
     if (!StringUtils.isEmpty(userId) && !"anon".equals(userId)) {
       presenceService.ping(userId, null);
       return OK;
@@ -26,12 +26,18 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.kernel.api.Registry;
 import org.sakaiproject.kernel.api.RegistryService;
+import org.sakaiproject.kernel.api.authz.AuthzResolverService;
+import org.sakaiproject.kernel.api.authz.PermissionQueryService;
 import org.sakaiproject.kernel.api.jcr.JCRConstants;
 import org.sakaiproject.kernel.api.jcr.JCRService;
+import org.sakaiproject.kernel.api.memory.Cache;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.memory.CacheScope;
 import org.sakaiproject.kernel.api.rest.RestProvider;
 import org.sakaiproject.kernel.api.serialization.BeanConverter;
 import org.sakaiproject.kernel.util.IOUtils;
 import org.sakaiproject.kernel.util.JCRNodeMap;
+import org.sakaiproject.kernel.util.ReadableNodes;
 import org.sakaiproject.kernel.util.rest.RestDescription;
 import org.sakaiproject.kernel.webapp.Initialisable;
 import org.sakaiproject.kernel.webapp.RestServiceFaultException;
@@ -39,30 +45,55 @@ import org.sakaiproject.kernel.webapp.RestServiceFaultException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.jcr.Item;
 import javax.jcr.LoginException;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
 import javax.jcr.Property;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.query.InvalidQueryException;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryManager;
-import javax.jcr.query.QueryResult;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
- *
+ * Searches the JCR. The paths of the hits of a query are cached for a short
+ * time per user, so that paging through a result does not re-run the query and
+ * walk all the earlier hits for every page.
  */
-public class RestSearchProvider implements RestProvider, Initialisable {
+public class RestSearchProvider implements RestProvider, Initialisable,
+    RestSearchProviderMBean {
 
   private static final Log LOG = LogFactory.getLog(RestSearchProvider.class);
+  private static final boolean debug = LOG.isDebugEnabled();
+  private static final String MBEAN_NAME = "org.sakaiproject.kernel:type=Search";
+  /**
+   * The cache of query hits, keyed by user and query.
+   */
+  public static final String SEARCH_CACHE = "search_results";
+  /**
+   * The number of pages past the requested page to collect when a query is run.
+   */
+  private static final int PREFETCH_PAGES = 4;
+  /**
+   * The number of hits to collect ahead of the requested page is limited to
+   * this.
+   */
+  private static final int MAX_PREFETCH_HITS = 1000;
   private static final RestDescription DESC = new RestDescription();
   private static final String KEY = "search";
   private static final String QUERY = "q";
@@ -72,6 +103,7 @@ public class RestSearchProvider implements RestProvider, Initialisable {
   private static final String PATH = "path";
   private static final String SQL = "sql";
   private static final String MIMETYPE = "mimetype";
+  private static final String CONTENT = "content";
 
   static {
     DESC.setTitle("Search");
@@ -86,6 +118,10 @@ public class RestSearchProvider implements RestProvider, Initialisable {
             "Performs a search operation, and returns  "
                 + HttpServletResponse.SC_OK
                 + " on sucess, the content of the response is of the form.... TDOD DOC ");
+    DESC.addSection(3, "Paging",
+        "The hits of a search are held for a short time, so that further pages of the "
+            + "same search are served without running it again. A new search may "
+            + "not see content that has changed within the last minute.");
     DESC.addURLTemplate("/rest/" + KEY, "Accepts GET to perform the search");
     DESC.addParameter(QUERY, "The query string");
     DESC.addParameter(NRESUTS_PER_PAGE, "the number of results per page");
@@ -97,6 +133,8 @@ public class RestSearchProvider implements RestProvider, Initialisable {
                 + "whole element and cant be partial. eg '/_priv' will select a path "
                 + "starting '/_priv/' and not '/_priv*' ");
     DESC.addParameter(MIMETYPE, "limit the search to a single mime type");
+    DESC.addParameter(CONTENT,
+        "if false, the content of small text files is not included in the results ");
 
     DESC.addParameter(SORT,
         "an array of fields to sort by eg sakai:firstName sakai:lastName ");
@@ -112,24 +150,42 @@ public class RestSearchProvider implements RestProvider, Initialisable {
 
   private JCRService jcrService;
   private BeanConverter beanConverter;
+  private CacheManagerService cacheManagerService;
   private Registry<String, RestProvider>  registry;
+  private ReadableNodes readableNodes;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong cacheHits = new AtomicLong();
+  private final AtomicLong queries = new AtomicLong();
+  private final AtomicLong queryTime = new AtomicLong();
 
   /**
    *
    */
   @Inject
   public RestSearchProvider(RegistryService registryService,
-      JCRService jcrService,
-      BeanConverter beanConverter) {
+      JCRService jcrService, BeanConverter beanConverter,
+      CacheManagerService cacheManagerService,
+      AuthzResolverService authzResolverService,
+      PermissionQueryService permissionQueryService) {
     registry = registryService
         .getRegistry(RestProvider.REST_REGISTRY);
     registry.add(this);
-    System.err
-        .println("ADDED "
-            + this
-            + " to registry ===================================================================================================================================================================================================================================================");
     this.jcrService = jcrService;
     this.beanConverter = beanConverter;
+    this.cacheManagerService = cacheManagerService;
+    this.readableNodes = new ReadableNodes(authzResolverService,
+        permissionQueryService);
+
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      if (!mBeanServer.isRegistered(name)) {
+        mBeanServer.registerMBean(this, name);
+      }
+    } catch (JMException e) {
+      LOG.warn("Failed to register search provider with JMX " + e.getMessage());
+    }
   }
 
   /**
@@ -160,16 +216,15 @@ public class RestSearchProvider implements RestProvider, Initialisable {
     try {
       Map<String, Object> map = doSearch(request, response);
       if (map != null) {
-        String responseBody = beanConverter.convertToString(map);
         response.setContentType(RestProvider.CONTENT_TYPE);
-        response.getOutputStream().print(responseBody);
+        beanConverter.writeTo(map, response.getOutputStream());
       }
     } catch (SecurityException ex) {
       throw ex;
     } catch (RestServiceFaultException ex) {
       throw ex;
     } catch (Exception ex) {
-      ex.printStackTrace();
+      LOG.error("Search failed: " + ex.getMessage(), ex);
       throw new RestServiceFaultException(ex.getMessage(), ex);
     }
   }
@@ -195,6 +250,7 @@ public class RestSearchProvider implements RestProvider, Initialisable {
     String[] sort = request.getParameterValues(SORT);
     String path = request.getParameter(PATH);
     String mimeTypeSearch = request.getParameter(MIMETYPE);
+    boolean inlineContent = !"false".equals(request.getParameter(CONTENT));
 
     if (StringUtils.isEmpty(query)) {
       throw new RestServiceFaultException(HttpServletResponse.SC_BAD_REQUEST,
@@ -207,18 +263,16 @@ public class RestSearchProvider implements RestProvider, Initialisable {
     }
     int np = 0;
     if (!StringUtils.isEmpty(page)) {
-      np = Integer.parseInt(page);
+      np = Math.max(0, Integer.parseInt(page));
     }
 
     int start = np * nr;
     int end = (np + 1) * nr;
 
+    // normalise white space so that equivalent queries share cached hits, and
     // escape the query
-    QueryManager queryManager = session.getWorkspace().getQueryManager();
-
-    Query q = null;
     String escapedQuery = org.sakaiproject.kernel.util.StringUtils
-        .escapeJCRSQL(query);
+        .escapeJCRSQL(query.trim().replaceAll("\\s+", " "));
     StringBuilder sb = new StringBuilder();
     sb.append("SELECT * FROM ").append(nodeType).append(" WHERE ");
     if (!StringUtils.isEmpty(path)) {
@@ -254,93 +308,222 @@ public class RestSearchProvider implements RestProvider, Initialisable {
       sqlQuery = sql;
     }
 
-    try {
-      q = queryManager.createQuery(sqlQuery, Query.SQL);
-
-    } catch (InvalidQueryException ex) {
-      throw new RestServiceFaultException(HttpServletResponse.SC_BAD_REQUEST,
-          "Invalid query presented to content system: " + sqlQuery + " "
-              + ex.getMessage(), ex);
+    // hits are filtered by the access of the session, so they are only shared
+    // between requests of the same user.
+    requests.incrementAndGet();
+    String cacheKey = session.getUserID() + ":" + sqlQuery;
+    Cache<SearchHits> cache = cacheManagerService.getCache(SEARCH_CACHE,
+        CacheScope.INSTANCE);
+    SearchHits hits = cache.get(cacheKey);
+    if (hits != null && hits.covers(end)) {
+      cacheHits.incrementAndGet();
+    } else {
+      int target = end + PREFETCH_PAGES * nr;
+      if (target > end + MAX_PREFETCH_HITS) {
+        target = end + MAX_PREFETCH_HITS;
+      }
+      hits = collectHits(session, sqlQuery, hits, target);
+      cache.put(cacheKey, hits);
     }
-    long startMs = System.currentTimeMillis();
 
-    QueryResult result = q.execute();
-    NodeIterator ni = result.getNodes();
-    long endMs = System.currentTimeMillis();
-    LOG.info("Executed " + sqlQuery + " in " + (endMs - startMs)
-        + " ms " + ni.getSize() + " hits");
     Map<String, Object> results = new HashMap<String, Object>();
     List<Map<String, Object>> resultList = Lists.newArrayList();
-    long size = ni.getSize();
-    long startPos = 0;
-    long endPos = 0;
-    try {
-      System.err.println("Skipping " + start + " going to " + end);
-      ni.skip(start);
-      startPos = ni.getPosition();
-      endPos = startPos;
-
-
-      for (int i = start; (i < end) && (ni.hasNext()); i++) {
-        Node n = ni.nextNode();
-
-        Node parentNode = n;
-        if ( !n.isNodeType(JCRConstants.NT_FILE) && !n.isNodeType(JCRConstants.NT_FOLDER) ) {
-          parentNode = n.getParent();
+    String[] paths = hits.getPaths();
+    long startPos = Math.min(start, paths.length);
+    long endPos = startPos;
+    for (int i = start; (i < end) && (i < paths.length); i++) {
+      Node n = null;
+      try {
+        Item item = session.getItem(paths[i]);
+        if (!item.isNode()) {
+          continue;
         }
-        Map<String, Object> itemResponse = new HashMap<String, Object>();
-        itemResponse.put("path", parentNode.getPath());
-        itemResponse.put("nodeproperties", new JCRNodeMap(parentNode, 1));
-        if (JCRConstants.NT_FILE.equals(parentNode.getPrimaryNodeType()
-            .getName())) {
-          String mimeType = "application/octet-stream";
-          String encoding = "UTF-8";
-          if (n.hasProperty(JCRConstants.JCR_MIMETYPE)) {
-            Property mimeTypeProperty = n
-                .getProperty(JCRConstants.JCR_MIMETYPE);
-            if (mimeTypeProperty != null) {
-              mimeType = mimeTypeProperty.getString();
-            }
+        n = (Node) item;
+      } catch (PathNotFoundException ex) {
+        // removed since the query was run.
+        continue;
+      }
+
+      Node parentNode = n;
+      if ( !n.isNodeType(JCRConstants.NT_FILE) && !n.isNodeType(JCRConstants.NT_FOLDER) ) {
+        parentNode = n.getParent();
+      }
+      Map<String, Object> itemResponse = new HashMap<String, Object>();
+      itemResponse.put("path", parentNode.getPath());
+      itemResponse.put("nodeproperties", new JCRNodeMap(parentNode, 1));
+      if (inlineContent
+          && JCRConstants.NT_FILE.equals(parentNode.getPrimaryNodeType()
+              .getName())) {
+        String mimeType = "application/octet-stream";
+        String encoding = "UTF-8";
+        if (n.hasProperty(JCRConstants.JCR_MIMETYPE)) {
+          Property mimeTypeProperty = n
+              .getProperty(JCRConstants.JCR_MIMETYPE);
+          if (mimeTypeProperty != null) {
+            mimeType = mimeTypeProperty.getString();
           }
-          if (n.hasProperty(JCRConstants.JCR_ENCODING)) {
-            Property contentEncoding = n.getProperty(JCRConstants.JCR_ENCODING);
-            if (contentEncoding != null) {
-              encoding = contentEncoding.getString();
-            }
+        }
+        if (n.hasProperty(JCRConstants.JCR_ENCODING)) {
+          Property contentEncoding = n.getProperty(JCRConstants.JCR_ENCODING);
+          if (contentEncoding != null) {
+            encoding = contentEncoding.getString();
           }
-          if (mimeType != null && mimeType.startsWith("text")
-              && n.hasProperty(JCRConstants.JCR_DATA)) {
-            Property p = n.getProperty(JCRConstants.JCR_DATA);
-            if (p.getLength() < 10240) {
-              InputStream in = null;
+        }
+        if (mimeType != null && mimeType.startsWith("text")
+            && n.hasProperty(JCRConstants.JCR_DATA)) {
+          Property p = n.getProperty(JCRConstants.JCR_DATA);
+          if (p.getLength() < 10240) {
+            InputStream in = null;
+            try {
+              in = p.getStream();
+              itemResponse.put("content", IOUtils.readFully(in, encoding));
+            } finally {
               try {
-                in = p.getStream();
-                itemResponse.put("content", IOUtils.readFully(in, encoding));
-              } finally {
-                try {
-                  in.close();
-                } catch (Exception ex) {
-                }
+                in.close();
+              } catch (Exception ex) {
               }
             }
           }
         }
-        resultList.add(itemResponse);
-        endPos = ni.getPosition();
       }
-
-    } catch (NoSuchElementException ex) {
-      // went over the end.
+      resultList.add(itemResponse);
+      endPos = i + 1;
     }
+
     results.put("page", np);
     results.put("pageSize", nr);
-    results.put("size", size);
+    results.put("size", hits.getSize());
     results.put("start", startPos);
     results.put("end", endPos);
     results.put("results", resultList);
     return results;
   }
 
+  /**
+   * Run the query and collect the paths of its hits, continuing from the hits
+   * collected by an earlier run if there are any. The hits are read in batches,
+   * and read access to each batch is checked with one call.
+   *
+   * @param session
+   *          the session to query with.
+   * @param sqlQuery
+   *          the query.
+   * @param previous
+   *          the hits collected by an earlier run of the same query, may be
+   *          null.
+   * @param target
+   *          the number of hits to collect.
+   * @return the hits.
+   * @throws RepositoryException
+   */
+  private SearchHits collectHits(Session session, String sqlQuery,
+      SearchHits previous, int target) throws RepositoryException {
+    QueryManager queryManager = session.getWorkspace().getQueryManager();
+    Query q = null;
+    try {
+      q = queryManager.createQuery(sqlQuery, Query.SQL);
+    } catch (InvalidQueryException ex) {
+      throw new RestServiceFaultException(HttpServletResponse.SC_BAD_REQUEST,
+          "Invalid query presented to content system: " + sqlQuery + " "
+              + ex.getMessage(), ex);
+    }
+    long startMs = System.currentTimeMillis();
+
+    NodeIterator ni = q.execute().getNodes();
+    long size = ni.getSize();
+    List<String> paths = Lists.newArrayList();
+    if (previous != null) {
+      paths.addAll(Arrays.asList(previous.getPaths()));
+    }
+    long position = previous == null ? 0 : previous.getPosition();
+    boolean complete = false;
+    try {
+      if (position > 0) {
+        ni.skip(position);
+      }
+      while (paths.size() < target && ni.hasNext()) {
+        int max = Math.min(ReadableNodes.BATCH, target - paths.size());
+        for (Node node : readableNodes.nextBatch(ni, max)) {
+          paths.add(node.getPath());
+        }
+      }
+      position = ni.getPosition();
+      complete = !ni.hasNext();
+    } catch (NoSuchElementException ex) {
+      // went over the end.
+      complete = true;
+    }
+
+    long time = System.currentTimeMillis() - startMs;
+    queries.incrementAndGet();
+    queryTime.addAndGet(time);
+    if (debug) {
+      LOG.debug("Executed " + sqlQuery + " in " + time + " ms " + size
+          + " hits, " + paths.size() + " collected");
+    }
+    return new SearchHits(paths.toArray(new String[paths.size()]), position,
+        size, complete);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.rest.search.RestSearchProviderMBean#getRequests()
+   */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.rest.search.RestSearchProviderMBean#getCacheHits()
+   */
+  public long getCacheHits() {
+    return cacheHits.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.rest.search.RestSearchProviderMBean#getCacheHitRatio()
+   */
+  public double getCacheHitRatio() {
+    long r = requests.get();
+    return r == 0 ? 0.0 : (double) cacheHits.get() / r;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.rest.search.RestSearchProviderMBean#getQueries()
+   */
+  public long getQueries() {
+    return queries.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.rest.search.RestSearchProviderMBean#getMeanQueryTime()
+   */
+  public double getMeanQueryTime() {
+    long q = queries.get();
+    return q == 0 ? 0.0 : (double) queryTime.get() / q;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see org.sakaiproject.kernel.rest.search.RestSearchProviderMBean#resetStatistics()
+   */
+  public void resetStatistics() {
+    requests.set(0);
+    cacheHits.set(0);
+    queries.set(0);
+    queryTime.set(0);
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.rest.search;
+
+/**
+ * JMX view of the search provider.
+ */
+public interface RestSearchProviderMBean {
+
+  /**
+   * @return the number of search requests served.
+   */
+  long getRequests();
+
+  /**
+   * @return the number of requests that were served from cached hits without
+   *         running the query.
+   */
+  long getCacheHits();
+
+  /**
+   * @return the proportion of requests served from cached hits, 0 to 1.
+   */
+  double getCacheHitRatio();
+
+  /**
+   * @return the number of queries executed against the repository.
+   */
+  long getQueries();
+
+  /**
+   * @return the mean time in ms to execute a query and collect its hits.
+   */
+  double getMeanQueryTime();
+
+  /**
+   * Reset the statistics.
+   */
+  void resetStatistics();
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.rest.search;
+
+import java.io.Serializable;
+
+/**
+ * The paths of the readable hits of a query, in order, as far as they have
+ * been read, together with the position reached in the result and the total
+ * size of the result. Immutable, so it can be shared between requests through
+ * a cache; a longer list replaces it when a page past the end of the collected
+ * hits is requested.
+ */
+public class SearchHits implements Serializable {
+
+  private static final long serialVersionUID = -2785541213040962711L;
+
+  private final String[] paths;
+  private final long position;
+  private final long size;
+  private final boolean complete;
+
+  /**
+   * @param paths
+   *          the paths of the hits read so far.
+   * @param position
+   *          the number of hits read from the result, including those that
+   *          could not be read by the user.
+   * @param size
+   *          the total number of hits reported by the query, -1 if unknown.
+   * @param complete
+   *          true if the paths contain every hit.
+   */
+  public SearchHits(String[] paths, long position, long size, boolean complete) {
+    this.paths = paths;
+    this.position = position;
+    this.size = size;
+    this.complete = complete;
+  }
+
+  /**
+   * @param end
+   *          the index after the last hit required.
+   * @return true if all the hits before end have been collected, or there are
+   *         no more hits to collect.
+   */
+  public boolean covers(int end) {
+    return complete || paths.length >= end;
+  }
+
+  /**
+   * @return the paths of the hits collected.
+   */
+  public String[] getPaths() {
+    return paths;
+  }
+
+  /**
+   * @return the number of hits read from the result, where a later run of the
+   *         query continues.
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  /**
+   * @return the total number of hits reported by the query.
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * @return true if every hit has been collected.
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+}
@@ -279,8 +279,7 @@ public class RestFriendsProviderTest extends BaseRestUT {
 
 
     Capture<Map<String, String>> mapCapture = new Capture<Map<String, String>>();
-    expect(beanConverter.convertToString(capture(mapCapture))).andReturn(
-        "{\"response\":\"OK\"}");
+    expectWriteTo(capture(mapCapture), "{\"response\":\"OK\"}");
 
     response.setContentType(RestProvider.CONTENT_TYPE);
     expectLastCall();
@@ -624,8 +623,7 @@ public class RestFriendsProviderTest extends BaseRestUT {
     }
 
     Capture<Map<String, String>> mapCapture = new Capture<Map<String, String>>();
-    expect(beanConverter.convertToString(capture(mapCapture))).andReturn(
-        "{\"response\":\"OK\"}");
+    expectWriteTo(capture(mapCapture), "{\"response\":\"OK\"}");
 
     response.setContentType(RestProvider.CONTENT_TYPE);
     expectLastCall();
@@ -692,8 +690,7 @@ public class RestFriendsProviderTest extends BaseRestUT {
     expect(query.getResultList()).andReturn(resultList);
 
     Capture<Map<String, String>> mapCapture = new Capture<Map<String, String>>();
-    expect(beanConverter.convertToString(capture(mapCapture))).andReturn(
-        "{\"response\":\"OK\"}");
+    expectWriteTo(capture(mapCapture), "{\"response\":\"OK\"}");
 
     response.setContentType(RestProvider.CONTENT_TYPE);
     expectLastCall();
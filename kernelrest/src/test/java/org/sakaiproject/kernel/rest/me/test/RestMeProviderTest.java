@@ -70,7 +70,7 @@ public class RestMeProviderTest extends BaseRestUT {
     expect(userEnvironment.getUser()).andReturn(user).anyTimes();
     
     Capture<Map<String,Object>> responseMap = new Capture<Map<String,Object>>();
-    expect(beanConverter.convertToString(capture(responseMap))).andReturn("OK").atLeastOnce();
+    expectWriteTo(capture(responseMap), "OK").atLeastOnce();
     
     userEnvironment.setProtected(true);
     expectLastCall();
@@ -123,7 +123,7 @@ public class RestMeProviderTest extends BaseRestUT {
     expectLastCall().atLeastOnce();
     Capture<Map<String,String>> responseMap = new Capture<Map<String,String>>();
     String testResponse = "{\"tested\":\"true\"}";
-    expect(beanConverter.convertToString(capture(responseMap))).andReturn(testResponse);
+    expectWriteTo(capture(responseMap), testResponse);
 
     replayMocks();
     createProvider();
@@ -159,7 +159,7 @@ public class RestMeProviderTest extends BaseRestUT {
     expectLastCall().atLeastOnce();
     
     Capture<Map<String,Object>> responseMap = new Capture<Map<String,Object>>();
-    expect(beanConverter.convertToString(capture(responseMap))).andReturn("OK").atLeastOnce();
+    expectWriteTo(capture(responseMap), "OK").atLeastOnce();
 
     expect(userFactoryService.getUserPathPrefix("user1")).andReturn("somepath1/").atLeastOnce();
     expect(userFactoryService.getUserProfilePath("user1")).andReturn("somepath2/").atLeastOnce();
@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.kernel.rest.presence.test;
+
+import net.sf.json.JSONObject;
+
+import org.sakaiproject.kernel.api.memory.Cache;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.memory.CacheScope;
+import org.sakaiproject.kernel.api.presence.PresenceService;
+import org.sakaiproject.kernel.api.serialization.BeanConverter;
+import org.sakaiproject.kernel.api.session.Session;
+import org.sakaiproject.kernel.api.session.SessionManagerService;
+import org.sakaiproject.kernel.api.social.FriendsResolverService;
+import org.sakaiproject.kernel.model.FriendBean;
+import org.sakaiproject.kernel.model.FriendStatus;
+import org.sakaiproject.kernel.model.FriendsBean;
+import org.sakaiproject.kernel.presence.PresenceServiceImpl;
+import org.sakaiproject.kernel.registry.RegistryServiceImpl;
+import org.sakaiproject.kernel.rest.presence.PresenceProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Load test for presence. Simulates a population of users each pinging every 30s,
+ * default 50000 users, while other threads fetch the online status of the friends of
+ * random users through {@link PresenceProvider#getFriendsStatus()}, and reports the
+ * latency of the friends status under that load. This is not run as part of the unit
+ * tests, the arguments are the number of users, the number of friends of each user, the
+ * ping interval in seconds, the length of the run in seconds and the number of reader
+ * threads.
+ */
+public class PresenceLoadBenchmark {
+
+  private static final int LOCATIONS = 500;
+
+  private static final int MAX_SAMPLES = 1000000;
+
+  public static void main(String[] args) throws Exception {
+    final int users = arg(args, 0, 50000);
+    int friends = arg(args, 1, 200);
+    final int interval = arg(args, 2, 30);
+    int duration = arg(args, 3, 60);
+    int readers = arg(args, 4, 4);
+
+    final PresenceService presenceService = new PresenceServiceImpl(
+        new LocalCacheManagerService());
+    final Map<String, FriendsBean> friendsBeans = new HashMap<String, FriendsBean>();
+    Random random = new Random(1);
+    for (int i = 0; i < users; i++) {
+      FriendsBean fb = new FriendsBean(null, null, null, null);
+      for (int j = 0; j < friends; j++) {
+        fb.addFriend(new FriendBean(user(i), user(random.nextInt(users)),
+            FriendStatus.ACCEPTED));
+      }
+      friendsBeans.put(user(i), fb);
+    }
+    final ThreadLocal<String> currentUser = new ThreadLocal<String>();
+    final PresenceProvider provider = new PresenceProvider(presenceService,
+        new ThreadSessionManagerService(currentUser), new FriendsResolverService() {
+          public FriendsBean resolve(String uuid) {
+            return friendsBeans.get(uuid);
+          }
+        }, new RegistryServiceImpl(), new JsonBeanConverter());
+
+    // everyone starts online.
+    for (int i = 0; i < users; i++) {
+      presenceService.ping(user(i), location(i));
+    }
+
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final AtomicLong pings = new AtomicLong();
+    Thread pinger = new Thread("pinger") {
+      @Override
+      public void run() {
+        long start = System.currentTimeMillis();
+        long perMs = 1000L * interval;
+        int next = 0;
+        while (running.get()) {
+          // the number of pings due by now, spread evenly over the interval.
+          long due = (System.currentTimeMillis() - start) * users / perMs;
+          while (pings.get() < due && running.get()) {
+            presenceService.ping(user(next), location(next));
+            next = (next + 1) % users;
+            pings.incrementAndGet();
+          }
+          try {
+            Thread.sleep(5);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+    };
+
+    final long[][] samples = new long[readers][];
+    final int[] counts = new int[readers];
+    Thread[] readerThreads = new Thread[readers];
+    for (int r = 0; r < readers; r++) {
+      final int reader = r;
+      samples[r] = new long[MAX_SAMPLES];
+      readerThreads[r] = new Thread("reader-" + r) {
+        @Override
+        public void run() {
+          Random random = new Random(reader);
+          long[] latencies = samples[reader];
+          int n = 0;
+          while (running.get()) {
+            currentUser.set(user(random.nextInt(users)));
+            long start = System.nanoTime();
+            provider.getFriendsStatus();
+            if (n < latencies.length) {
+              latencies[n++] = System.nanoTime() - start;
+            }
+          }
+          counts[reader] = n;
+        }
+      };
+    }
+
+    long start = System.currentTimeMillis();
+    pinger.start();
+    for (Thread t : readerThreads) {
+      t.start();
+    }
+    Thread.sleep(duration * 1000L);
+    running.set(false);
+    pinger.join();
+    for (Thread t : readerThreads) {
+      t.join();
+    }
+    long elapsed = System.currentTimeMillis() - start;
+
+    int total = 0;
+    for (int n : counts) {
+      total += n;
+    }
+    long[] all = new long[total];
+    int p = 0;
+    for (int r = 0; r < readers; r++) {
+      System.arraycopy(samples[r], 0, all, p, counts[r]);
+      p += counts[r];
+    }
+    Arrays.sort(all);
+    long sum = 0;
+    for (long l : all) {
+      sum += l;
+    }
+    System.out.println("users " + users + " friends " + friends + " interval " + interval
+        + "s readers " + readers + " run " + elapsed + "ms");
+    System.out.println("pings " + pings.get() + " (" + (pings.get() * 1000L / elapsed)
+        + "/s, target " + (users / interval) + "/s)");
+    if (total > 0) {
+      System.out.println("friends status " + total + " (" + (total * 1000L / elapsed)
+          + "/s) mean " + micros(sum / total) + " p50 " + micros(all[total / 2])
+          + " p99 " + micros(all[(int) (total * 99L / 100)]) + " max "
+          + micros(all[total - 1]));
+    }
+  }
+
+  private static String user(int i) {
+    return "user" + i;
+  }
+
+  private static String location(int i) {
+    return "/sites/site" + (i % LOCATIONS);
+  }
+
+  private static String micros(long nanos) {
+    return (nanos / 1000L) + "us";
+  }
+
+  private static int arg(String[] args, int i, int defaultValue) {
+    if (args.length > i) {
+      return Integer.parseInt(args[i]);
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Caches backed by concurrent maps, in place of the replicated caches.
+   */
+  private static class LocalCacheManagerService implements CacheManagerService {
+    private final Map<String, Cache<?>> caches = new ConcurrentHashMap<String, Cache<?>>();
+
+    @SuppressWarnings("unchecked")
+    public synchronized <T> Cache<T> getCache(String name, CacheScope scope) {
+      Cache<T> cache = (Cache<T>) caches.get(name);
+      if (cache == null) {
+        cache = new LocalCache<T>();
+        caches.put(name, cache);
+      }
+      return cache;
+    }
+
+    public void unbind(CacheScope scope) {
+    }
+  }
+
+  private static class LocalCache<V> implements Cache<V> {
+    private final ConcurrentHashMap<String, V> map = new ConcurrentHashMap<String, V>();
+
+    public V put(String key, V payload) {
+      return map.put(key, payload);
+    }
+
+    public boolean containsKey(String key) {
+      return map.containsKey(key);
+    }
+
+    public V get(String key) {
+      return map.get(key);
+    }
+
+    public void clear() {
+      map.clear();
+    }
+
+    public void remove(String key) {
+      map.remove(key);
+    }
+
+    public void removeChildren(String key) {
+      for (String k : map.keySet()) {
+        if (k.startsWith(key)) {
+          map.remove(k);
+        }
+      }
+    }
+  }
+
+  private static class ThreadSessionManagerService implements SessionManagerService {
+    private final ThreadLocal<String> currentUser;
+
+    ThreadSessionManagerService(ThreadLocal<String> currentUser) {
+      this.currentUser = currentUser;
+    }
+
+    public String getCurrentUserId() {
+      return currentUser.get();
+    }
+
+    public Session getCurrentSession() {
+      throw new UnsupportedOperationException();
+    }
+
+    public void bindRequest(ServletRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    public HttpSession getSession(HttpServletRequest request,
+        HttpServletResponse response, boolean create) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static class JsonBeanConverter implements BeanConverter {
+    public String convertToString(Object pojo) {
+      return JSONObject.fromObject(pojo).toString();
+    }
+
+    public void writeTo(Object pojo, OutputStream out) throws IOException {
+      out.write(convertToString(pojo).getBytes("UTF-8"));
+    }
+
+    public <T> T convertToObject(String string, Class<?> className) {
+      throw new UnsupportedOperationException();
+    }
+
+    public Map<String, Object> convertToMap(String json) {
+      throw new UnsupportedOperationException();
+    }
+
+    public String getContentType() {
+      return "application/json";
+    }
+  }
+}
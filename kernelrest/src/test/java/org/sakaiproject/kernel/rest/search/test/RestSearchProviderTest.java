@@ -17,11 +17,14 @@
  */
 package org.sakaiproject.kernel.rest.search.test;
 
+import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
 import com.google.common.collect.Maps;
@@ -30,16 +33,21 @@ import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 
 import org.easymock.Capture;
+import org.easymock.IAnswer;
 import org.junit.Test;
+import org.sakaiproject.kernel.api.authz.PermissionQuery;
 import org.sakaiproject.kernel.api.jcr.JCRConstants;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryServiceException;
+import org.sakaiproject.kernel.api.memory.CacheScope;
 import org.sakaiproject.kernel.api.rest.RestProvider;
+import org.sakaiproject.kernel.memory.MapCacheImpl;
 import org.sakaiproject.kernel.rest.search.RestSearchProvider;
 import org.sakaiproject.kernel.rest.test.BaseRestUT;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
@@ -179,11 +187,16 @@ public class RestSearchProviderTest extends BaseRestUT {
       Node node = createMock(Node.class);
       Node parentNode = createMock(Node.class);
       NodeType nodeType = createMock(NodeType.class);
+      NodeType contentType = createMock(NodeType.class);
       PropertyIterator propertyIterator = createMock(PropertyIterator.class);
       Node contentNode = createMock(Node.class);
       Property propertyValue = createMock(Property.class);
 
       expect(jcrService.getSession()).andReturn(jcrSession).anyTimes();
+      expect(jcrSession.getUserID()).andReturn("admin").anyTimes();
+      expect(
+          cacheManagerService.getCache(RestSearchProvider.SEARCH_CACHE,
+              CacheScope.INSTANCE)).andReturn(new MapCacheImpl<Object>());
       expect(jcrSession.getWorkspace()).andReturn(workspace).anyTimes();
       expect(workspace.getQueryManager()).andReturn(queryManager).anyTimes();
       expect(queryManager.createQuery(capture(queryString), capture(language)))
@@ -200,6 +213,7 @@ public class RestSearchProviderTest extends BaseRestUT {
       expect(request.getParameterValues("s")).andReturn(
           testQuery.getParameterValues("s"));
       expect(request.getParameter("sql")).andReturn(null).anyTimes();
+      expect(request.getParameter("content")).andReturn(null).anyTimes();
       expect(request.getParameter("path")).andReturn(
           testQuery.getParameter("path"));
       expect(request.getParameter("mimetype")).andReturn(
@@ -207,17 +221,23 @@ public class RestSearchProviderTest extends BaseRestUT {
 
 
       expect(nodeIterator.getSize()).andReturn(0L).anyTimes();
-      nodeIterator.skip(0L);
-      expect(nodeIterator.getPosition()).andReturn(0L);
+      expect(nodeIterator.getPosition()).andReturn(5L).anyTimes();
+      expect(node.getPrimaryNodeType()).andReturn(contentType).anyTimes();
+      expect(contentType.getName()).andReturn(JCRConstants.NT_RESOURCE).anyTimes();
+      expect(node.getDepth()).andReturn(2).anyTimes();
+      expect(node.getParent()).andReturn(parentNode).anyTimes();
+      expect(parentNode.getPath()).andReturn("path").anyTimes();
+      expectReadable();
+      // the hits are read in one batch after the first hasNext.
+      expect(nodeIterator.hasNext()).andReturn(true);
       for (int i = 0; i < 5; i++) {
         expect(nodeIterator.hasNext()).andReturn(true);
         expect(nodeIterator.nextNode()).andReturn(node);
+        expect(node.getPath()).andReturn("node" + i);
+        expect(jcrSession.getItem("node" + i)).andReturn(node);
+        expect(node.isNode()).andReturn(true);
         expect(node.isNodeType(JCRConstants.NT_FILE)).andReturn(false);
         expect(node.isNodeType(JCRConstants.NT_FOLDER)).andReturn(false);
-        expect(node.getParent()).andReturn(parentNode);
-        
-        expect(parentNode.getPath()).andReturn("path" + i);
-        
         expect(parentNode.getMixinNodeTypes()).andReturn(new NodeType[0]);
         expect(parentNode.getProperties()).andReturn(propertyIterator);
         expect(propertyIterator.hasNext()).andReturn(false);
@@ -238,34 +258,34 @@ public class RestSearchProviderTest extends BaseRestUT {
         expect(propertyValue.getLength()).andReturn(0L);
         expect(node.hasProperty(JCRConstants.JCR_MIMETYPE)).andReturn(false);
         expect(node.hasProperty(JCRConstants.JCR_ENCODING)).andReturn(false);
-        expect(nodeIterator.getPosition()).andReturn(1L*i);
          
       }
-      expect(nodeIterator.hasNext()).andReturn(false);
+      expect(nodeIterator.hasNext()).andReturn(false).times(3);
       
-      expect(beanConverter.convertToString(capture(finalResult))).andReturn("result");
+      expectWriteTo(capture(finalResult), "result");
 
       response.setContentType(RestProvider.CONTENT_TYPE);
       expectLastCall();
 
       replayMocks(jcrSession, workspace, queryManager, query, queryResult,
           nodeIterator, node, parentNode, propertyIterator, nodeType,
-          contentNode, propertyValue);
+          contentType, contentNode, propertyValue);
 
       String[] elements = new String[] { "search" };
 
       RestSearchProvider rsp = new RestSearchProvider(registryService,
-          jcrService, beanConverter);
+          jcrService, beanConverter, cacheManagerService, authzResolverService,
+          permissionQueryService);
       rsp.dispatch(elements, request, response);
 
 
       assertEquals(Query.SQL, language.getValue());
       verifyMocks(jcrSession, workspace, queryManager, query, queryResult,
           nodeIterator, node, parentNode, propertyIterator, nodeType,
-          contentNode, propertyValue);
+          contentType, contentNode, propertyValue);
       resetMocks(jcrSession, workspace, queryManager, query, queryResult,
           nodeIterator, node, parentNode, propertyIterator, nodeType,
-          contentNode, propertyValue);
+          contentType, contentNode, propertyValue);
     }
   }
 
@@ -292,11 +312,16 @@ public class RestSearchProviderTest extends BaseRestUT {
     Node node = createMock(Node.class);
     Node parentNode = createMock(Node.class);
     NodeType nodeType = createMock(NodeType.class);
+    NodeType contentType = createMock(NodeType.class);
     PropertyIterator propertyIterator = createMock(PropertyIterator.class);
     Node contentNode = createMock(Node.class);
     Property propertyValue = createMock(Property.class);
 
     expect(jcrService.getSession()).andReturn(jcrSession).anyTimes();
+    expect(jcrSession.getUserID()).andReturn("user1").anyTimes();
+    expect(
+        cacheManagerService.getCache(RestSearchProvider.SEARCH_CACHE,
+            CacheScope.INSTANCE)).andReturn(new MapCacheImpl<Object>());
     expect(jcrSession.getWorkspace()).andReturn(workspace).anyTimes();
     expect(workspace.getQueryManager()).andReturn(queryManager).anyTimes();
     expect(queryManager.createQuery(capture(queryString), capture(language)))
@@ -312,6 +337,7 @@ public class RestSearchProviderTest extends BaseRestUT {
     expect(request.getParameterValues("s")).andReturn(
         testQuery.getParameterValues("s"));
     expect(request.getParameter("sql")).andReturn(null).anyTimes();
+    expect(request.getParameter("content")).andReturn(null).anyTimes();
     expect(request.getParameter("path")).andReturn(
         testQuery.getParameter("path"));
     expect(request.getParameter("mimetype")).andReturn(
@@ -320,17 +346,23 @@ public class RestSearchProviderTest extends BaseRestUT {
     
     
     expect(nodeIterator.getSize()).andReturn(7L).anyTimes();
-    nodeIterator.skip(0L);
-    expect(nodeIterator.getPosition()).andReturn(0L);
+    expect(nodeIterator.getPosition()).andReturn(7L).anyTimes();
+    expect(node.getPrimaryNodeType()).andReturn(contentType).anyTimes();
+    expect(contentType.getName()).andReturn(JCRConstants.NT_RESOURCE).anyTimes();
+    expect(node.getDepth()).andReturn(2).anyTimes();
+    expect(node.getParent()).andReturn(parentNode).anyTimes();
+    expect(parentNode.getPath()).andReturn("path").anyTimes();
+    expectReadable();
+    // the hits are read in one batch after the first hasNext.
+    expect(nodeIterator.hasNext()).andReturn(true);
     for (int i = 0; i < 7; i++) {
       expect(nodeIterator.hasNext()).andReturn(true);
       expect(nodeIterator.nextNode()).andReturn(node);
+      expect(node.getPath()).andReturn("node" + i);
+      expect(jcrSession.getItem("node" + i)).andReturn(node);
+      expect(node.isNode()).andReturn(true);
       expect(node.isNodeType(JCRConstants.NT_FILE)).andReturn(false);
       expect(node.isNodeType(JCRConstants.NT_FOLDER)).andReturn(false);
-      expect(node.getParent()).andReturn(parentNode);
-      
-      expect(parentNode.getPath()).andReturn("path" + i);
-      
       expect(parentNode.getMixinNodeTypes()).andReturn(new NodeType[0]);
       expect(parentNode.getProperties()).andReturn(propertyIterator);
       expect(propertyIterator.hasNext()).andReturn(false);
@@ -351,24 +383,24 @@ public class RestSearchProviderTest extends BaseRestUT {
       expect(propertyValue.getLength()).andReturn(0L);
       expect(node.hasProperty(JCRConstants.JCR_MIMETYPE)).andReturn(false);
       expect(node.hasProperty(JCRConstants.JCR_ENCODING)).andReturn(false);
-      expect(nodeIterator.getPosition()).andReturn(1L*i);
        
     }
-    expect(nodeIterator.hasNext()).andReturn(false);
+    expect(nodeIterator.hasNext()).andReturn(false).times(3);
     
-    expect(beanConverter.convertToString(capture(finalResult))).andReturn("result");
+    expectWriteTo(capture(finalResult), "result");
 
     response.setContentType(RestProvider.CONTENT_TYPE);
     expectLastCall();
 
     replayMocks(jcrSession, workspace, queryManager, query, queryResult,
         nodeIterator, node, parentNode, propertyIterator, nodeType,
-        contentNode, propertyValue);
+        contentType, contentNode, propertyValue);
 
     String[] elements = new String[] { "search" };
 
     RestSearchProvider rsp = new RestSearchProvider(registryService,
-        jcrService, beanConverter);
+        jcrService, beanConverter, cacheManagerService, authzResolverService,
+        permissionQueryService);
     rsp.dispatch(elements, request, response);
 
 
@@ -406,10 +438,156 @@ public class RestSearchProviderTest extends BaseRestUT {
 
     verifyMocks(jcrSession, workspace, queryManager, query, queryResult,
         nodeIterator, node, parentNode, propertyIterator, nodeType,
-        contentNode, propertyValue);
+        contentType, contentNode, propertyValue);
     resetMocks(jcrSession, workspace, queryManager, query, queryResult,
         nodeIterator, node, parentNode, propertyIterator, nodeType,
-        contentNode, propertyValue);
+        contentType, contentNode, propertyValue);
+  }
+
+  @Test
+  public void testPagesFromCachedHits() throws ServletException, IOException,
+      RepositoryException, JCRNodeFactoryServiceException {
+    setupServices();
+    newSession();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    setupAnyTimes("admin", baos);
+    expect(request.getMethod()).andReturn("POST").anyTimes();
+
+    Session jcrSession = createMock(Session.class);
+    Workspace workspace = createMock(Workspace.class);
+    QueryManager queryManager = createMock(QueryManager.class);
+    Query query = createMock(Query.class);
+    Capture<String> queryString = new Capture<String>();
+    Capture<String> language = new Capture<String>();
+    Capture<Map<String, Object>> finalResult = new Capture<Map<String, Object>>();
+    QueryResult queryResult = createMock(QueryResult.class);
+    NodeIterator nodeIterator = createMock(NodeIterator.class);
+    NodeIterator childIterator = createMock(NodeIterator.class);
+    NodeType nodeType = createMock(NodeType.class);
+    PropertyIterator propertyIterator = createMock(PropertyIterator.class);
+
+    expect(jcrService.getSession()).andReturn(jcrSession).anyTimes();
+    expect(jcrSession.getUserID()).andReturn("admin").anyTimes();
+    expect(
+        cacheManagerService.getCache(RestSearchProvider.SEARCH_CACHE,
+            CacheScope.INSTANCE)).andReturn(new MapCacheImpl<Object>())
+        .anyTimes();
+
+    // the query is only run for the first page
+    expect(jcrSession.getWorkspace()).andReturn(workspace);
+    expect(workspace.getQueryManager()).andReturn(queryManager);
+    expect(queryManager.createQuery(capture(queryString), capture(language)))
+        .andReturn(query);
+    expect(query.execute()).andReturn(queryResult);
+    expect(queryResult.getNodes()).andReturn(nodeIterator);
+    expect(nodeIterator.getSize()).andReturn(5L);
+
+    expect(request.getParameter("q")).andReturn(" admin   user ").anyTimes();
+    expect(request.getParameter("n")).andReturn("2").anyTimes();
+    expect(request.getParameter("p")).andReturn(null).andReturn("2");
+    expect(request.getParameterValues("s")).andReturn(null).anyTimes();
+    expect(request.getParameter("sql")).andReturn(null).anyTimes();
+    expect(request.getParameter("path")).andReturn(null).anyTimes();
+    expect(request.getParameter("mimetype")).andReturn(null).anyTimes();
+    expect(request.getParameter("content")).andReturn("false").anyTimes();
+
+    expect(nodeType.getName()).andReturn(JCRConstants.NT_FOLDER).anyTimes();
+    expect(propertyIterator.hasNext()).andReturn(false).anyTimes();
+    expect(childIterator.hasNext()).andReturn(false).anyTimes();
+    expect(nodeIterator.getPosition()).andReturn(5L);
+    expectReadable();
+    List<Object> nodes = new ArrayList<Object>();
+    expect(nodeIterator.hasNext()).andReturn(true);
+    for (int i = 0; i < 5; i++) {
+      Node node = createMock(Node.class);
+      expect(nodeIterator.hasNext()).andReturn(true);
+      expect(nodeIterator.nextNode()).andReturn(node);
+      expect(node.getPath()).andReturn("node" + i).anyTimes();
+      expect(node.getPrimaryNodeType()).andReturn(nodeType).anyTimes();
+      if (i == 0 || i == 1 || i == 4) {
+        expect(jcrSession.getItem("node" + i)).andReturn(node);
+        expect(node.isNode()).andReturn(true);
+        expect(node.isNodeType(JCRConstants.NT_FILE)).andReturn(false);
+        expect(node.isNodeType(JCRConstants.NT_FOLDER)).andReturn(true);
+        expect(node.getMixinNodeTypes()).andReturn(new NodeType[0]);
+        expect(node.getProperties()).andReturn(propertyIterator);
+        expect(node.hasNode(JCRConstants.JCR_CONTENT)).andReturn(false);
+        expect(node.getName()).andReturn("name" + i);
+        expect(node.getNodes()).andReturn(childIterator);
+      }
+      nodes.add(node);
+    }
+    expect(nodeIterator.hasNext()).andReturn(false).times(3);
+
+    expectWriteTo(capture(finalResult), "result").times(2);
+    response.setContentType(RestProvider.CONTENT_TYPE);
+    expectLastCall().times(2);
+
+    nodes.add(jcrSession);
+    nodes.add(workspace);
+    nodes.add(queryManager);
+    nodes.add(query);
+    nodes.add(queryResult);
+    nodes.add(nodeIterator);
+    nodes.add(childIterator);
+    nodes.add(nodeType);
+    nodes.add(propertyIterator);
+    Object[] moreMocks = nodes.toArray();
+    replayMocks(moreMocks);
+
+    String[] elements = new String[] { "search" };
+    RestSearchProvider rsp = new RestSearchProvider(registryService,
+        jcrService, beanConverter, cacheManagerService, authzResolverService,
+        permissionQueryService);
+
+    rsp.dispatch(elements, request, response);
+    assertEquals("SELECT * FROM nt:base WHERE CONTAINS(.,'admin user' )",
+        queryString.getValue());
+    JSONObject jo = JSONObject.fromObject(finalResult.getValue());
+    assertEquals(5, jo.getInt("size"));
+    assertEquals(0, jo.getInt("start"));
+    assertEquals(2, jo.getInt("end"));
+    assertEquals(2, jo.getJSONArray("results").size());
+
+    rsp.dispatch(elements, request, response);
+    jo = JSONObject.fromObject(finalResult.getValue());
+    assertEquals(5, jo.getInt("size"));
+    assertEquals(4, jo.getInt("start"));
+    assertEquals(5, jo.getInt("end"));
+    JSONArray results = jo.getJSONArray("results");
+    assertEquals(1, results.size());
+    assertEquals("node4", results.getJSONObject(0).getString("path"));
+    assertFalse(results.getJSONObject(0).has("content"));
+
+    assertEquals(2, rsp.getRequests());
+    assertEquals(1, rsp.getCacheHits());
+    assertEquals(1, rsp.getQueries());
+
+    verifyMocks(moreMocks);
+  }
+
+  /**
+   * Expect the hits to be checked for read access in batches, granting all of
+   * them.
+   */
+  @SuppressWarnings("unchecked")
+  private void expectReadable() {
+    expect(permissionQueryService.getPermission(PermissionQuery.READ)).andReturn(
+        null).anyTimes();
+    authzResolverService.setReadGrant();
+    expectLastCall().anyTimes();
+    authzResolverService.clearReadGrant();
+    expectLastCall().anyTimes();
+    expect(
+        authzResolverService.checkAll((List<String>) anyObject(),
+            (PermissionQuery) anyObject())).andAnswer(new IAnswer<BitSet>() {
+      public BitSet answer() throws Throwable {
+        List<String> references = (List<String>) getCurrentArguments()[0];
+        BitSet granted = new BitSet(references.size());
+        granted.set(0, references.size());
+        return granted;
+      }
+    }).anyTimes();
   }
 
 }
@@ -21,10 +21,13 @@ import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.reset;
 import static org.easymock.EasyMock.verify;
 
+import org.easymock.IAnswer;
+import org.easymock.IExpectationSetters;
 import org.sakaiproject.kernel.api.RegistryService;
 import org.sakaiproject.kernel.api.authz.AuthzResolverService;
 import org.sakaiproject.kernel.api.authz.PermissionQueryService;
@@ -49,6 +52,7 @@ import org.sakaiproject.kernel.webapp.SakaiServletRequest;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.security.NoSuchAlgorithmException;
 
@@ -209,6 +213,29 @@ public class BaseRestUT {
 
   }
 
+  /**
+   * Expect the bean converter to stream a bean, and write json to the output
+   * stream in its place.
+   *
+   * @param bean
+   *          a matcher for the bean, eg capture(...).
+   * @param json
+   *          the json to write.
+   * @return the expectation, to set the number of calls.
+   * @throws IOException
+   */
+  protected IExpectationSetters<Object> expectWriteTo(Object bean,
+      final String json) throws IOException {
+    beanConverter.writeTo(bean, (OutputStream) anyObject());
+    return expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        OutputStream out = (OutputStream) getCurrentArguments()[1];
+        out.write(json.getBytes(StringUtils.UTF8));
+        return null;
+      }
+    });
+  }
+
   /**
    *
    */
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.sdata.tool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Parses an http Range header, as per rfc2616 section 14.35, into a list of
+ * byte ranges against an entity of known length. Each range is a long[2]
+ * holding the first and last byte positions, inclusive. Overlapping and
+ * adjacent ranges are coalesced, and the result is in ascending order so that
+ * the entity can be read in a single forward pass.
+ */
+public class ByteRanges {
+
+  private static final String BYTES_UNIT = "bytes";
+
+  /**
+   * Parse the range header.
+   *
+   * @param range
+   *          the value of the Range header, may be null.
+   * @param totalLength
+   *          the length of the entity in bytes.
+   * @return null if there is no range header, or the header should be ignored
+   *         (unknown unit or syntactically invalid), an empty list if the
+   *         header is valid but none of the ranges can be satisfied, otherwise
+   *         the ranges to be sent.
+   */
+  public static List<long[]> parse(String range, long totalLength) {
+    if (range == null) {
+      return null;
+    }
+    int eq = range.indexOf('=');
+    if (eq < 0 || !BYTES_UNIT.equalsIgnoreCase(range.substring(0, eq).trim())) {
+      return null;
+    }
+    List<long[]> ranges = new ArrayList<long[]>();
+    boolean specified = false;
+    for (String spec : range.substring(eq + 1).split(",")) {
+      spec = spec.trim();
+      if (spec.length() == 0) {
+        continue;
+      }
+      int dash = spec.indexOf('-');
+      if (dash < 0) {
+        return null;
+      }
+      long first;
+      long last;
+      try {
+        if (dash == 0) {
+          // suffix range, the last n bytes of the entity
+          long suffix = Long.parseLong(spec.substring(1).trim());
+          if (suffix < 0) {
+            return null;
+          }
+          first = Math.max(0, totalLength - suffix);
+          last = (suffix == 0) ? -1 : totalLength - 1;
+        } else {
+          first = Long.parseLong(spec.substring(0, dash).trim());
+          String end = spec.substring(dash + 1).trim();
+          if (end.length() == 0) {
+            last = totalLength - 1;
+          } else {
+            last = Long.parseLong(end);
+            if (last < first) {
+              return null;
+            }
+            last = Math.min(last, totalLength - 1);
+          }
+          if (first < 0) {
+            return null;
+          }
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      specified = true;
+      if (first < totalLength && first <= last) {
+        ranges.add(new long[] { first, last });
+      }
+    }
+    if (!specified) {
+      return null;
+    }
+    return coalesce(ranges);
+  }
+
+  /**
+   * @param ranges
+   *          a list of satisfiable ranges.
+   * @return the ranges sorted by first byte with overlapping or adjacent ranges
+   *         merged.
+   */
+  private static List<long[]> coalesce(List<long[]> ranges) {
+    if (ranges.size() < 2) {
+      return ranges;
+    }
+    Collections.sort(ranges, new Comparator<long[]>() {
+      public int compare(long[] o1, long[] o2) {
+        return (o1[0] < o2[0]) ? -1 : ((o1[0] == o2[0]) ? 0 : 1);
+      }
+    });
+    List<long[]> merged = new ArrayList<long[]>();
+    long[] current = ranges.get(0);
+    for (int i = 1; i < ranges.size(); i++) {
+      long[] next = ranges.get(i);
+      if (next[0] <= current[1] + 1) {
+        current[1] = Math.max(current[1], next[1]);
+      } else {
+        merged.add(current);
+        current = next;
+      }
+    }
+    merged.add(current);
+    return merged;
+  }
+
+  /**
+   * @param range
+   *          a range as returned by parse.
+   * @return the number of bytes in the range.
+   */
+  public static long length(long[] range) {
+    return range[1] - range[0] + 1;
+  }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.sdata.tool;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+
+/**
+ * Writes byte ranges of a binary property to an output stream. When the binary
+ * is backed by a file, as it is with the Jackrabbit file data store, the file
+ * channel is positioned directly at each range and the bytes are moved with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so nothing
+ * before the range is read and no heap buffer is needed. Other binaries (eg
+ * blobs held in a database persistence manager) fall back to skipping and
+ * copying the stream, the stream is only re-opened if a range starts before
+ * the current position.
+ */
+public class ContentRangeWriter {
+
+  private static final int BUFFER_SIZE = 32 * 1024;
+
+  private static final String CRLF = "\r\n";
+
+  private static final String HEADER_ENCODING = "ISO-8859-1";
+
+  private final Property content;
+
+  private InputStream in;
+
+  private FileChannel channel;
+
+  private WritableByteChannel target;
+
+  private OutputStream targetStream;
+
+  private long position;
+
+  /**
+   * @param content
+   *          the binary property to write.
+   */
+  public ContentRangeWriter(Property content) {
+    this.content = content;
+  }
+
+  /**
+   * Write the bytes from first to last inclusive to the output stream.
+   *
+   * @param out
+   * @param first
+   * @param last
+   * @throws IOException
+   * @throws RepositoryException
+   */
+  public void write(OutputStream out, long first, long last) throws IOException,
+      RepositoryException {
+    long length = last - first + 1;
+    if (length <= 0) {
+      return;
+    }
+    if (in == null || (channel == null && first < position)) {
+      open();
+    }
+    if (channel != null) {
+      if (targetStream != out) {
+        target = Channels.newChannel(out);
+        targetStream = out;
+      }
+      long offset = first;
+      while (length > 0) {
+        long n = channel.transferTo(offset, length, target);
+        if (n <= 0) {
+          throw new EOFException("Content ended at " + offset + " before " + (last + 1));
+        }
+        offset += n;
+        length -= n;
+      }
+      position = offset;
+    } else {
+      skipFully(first - position);
+      byte[] b = new byte[(int) Math.min(BUFFER_SIZE, length)];
+      while (length > 0) {
+        int nbytes = in.read(b, 0, (int) Math.min(b.length, length));
+        if (nbytes < 0) {
+          throw new EOFException("Content ended at " + position + " before "
+              + (last + 1));
+        }
+        out.write(b, 0, nbytes);
+        position += nbytes;
+        length -= nbytes;
+      }
+    }
+  }
+
+  /**
+   * Write the ranges as a multipart/byteranges body.
+   *
+   * @param out
+   * @param ranges
+   *          the ranges, as returned by {@link ByteRanges#parse(String, long)}.
+   * @param contentType
+   *          the content type of the entity.
+   * @param totalLength
+   *          the length of the entity.
+   * @param boundary
+   *          the multipart boundary.
+   * @throws IOException
+   * @throws RepositoryException
+   */
+  public void writeMultipart(OutputStream out, List<long[]> ranges, String contentType,
+      long totalLength, String boundary) throws IOException, RepositoryException {
+    for (long[] range : ranges) {
+      out.write(getPartHeader(range, contentType, totalLength, boundary));
+      write(out, range[0], range[1]);
+    }
+    out.write(getTrailer(boundary));
+  }
+
+  /**
+   * @param ranges
+   * @param contentType
+   * @param totalLength
+   * @param boundary
+   * @return the exact length of the body written by writeMultipart.
+   * @throws IOException
+   */
+  public static long getMultipartLength(List<long[]> ranges, String contentType,
+      long totalLength, String boundary) throws IOException {
+    long length = getTrailer(boundary).length;
+    for (long[] range : ranges) {
+      length += getPartHeader(range, contentType, totalLength, boundary).length;
+      length += ByteRanges.length(range);
+    }
+    return length;
+  }
+
+  /**
+   * Close the underlying stream, if open.
+   */
+  public void close() {
+    if (in != null) {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // nothing can be done, the response has been written
+      }
+    }
+    in = null;
+    channel = null;
+    position = 0;
+  }
+
+  /**
+   * Open, or re-open, the content stream.
+   *
+   * @throws RepositoryException
+   */
+  private void open() throws RepositoryException {
+    close();
+    in = content.getStream();
+    if (in instanceof FileInputStream) {
+      channel = ((FileInputStream) in).getChannel();
+    }
+  }
+
+  /**
+   * Skip forward, InputStream.skip may skip less than asked for without having
+   * reached the end of the stream.
+   *
+   * @param n
+   * @throws IOException
+   */
+  private void skipFully(long n) throws IOException {
+    while (n > 0) {
+      long skipped = in.skip(n);
+      if (skipped <= 0) {
+        if (in.read() < 0) {
+          throw new EOFException("Content ended at " + position);
+        }
+        skipped = 1;
+      }
+      position += skipped;
+      n -= skipped;
+    }
+  }
+
+  private static byte[] getPartHeader(long[] range, String contentType,
+      long totalLength, String boundary) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    sb.append(CRLF).append("--").append(boundary).append(CRLF);
+    if (contentType != null) {
+      sb.append("Content-Type: ").append(contentType).append(CRLF);
+    }
+    sb.append("Content-Range: bytes ").append(range[0]).append("-").append(range[1])
+        .append("/").append(totalLength).append(CRLF).append(CRLF);
+    return sb.toString().getBytes(HEADER_ENCODING);
+  }
+
+  private static byte[] getTrailer(String boundary) throws IOException {
+    return (CRLF + "--" + boundary + "--" + CRLF).getBytes(HEADER_ENCODING);
+  }
+
+}
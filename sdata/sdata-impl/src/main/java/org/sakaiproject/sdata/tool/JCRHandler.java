@@ -32,15 +32,22 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.kernel.api.Registry;
 import org.sakaiproject.kernel.api.RegistryService;
+import org.sakaiproject.kernel.api.authz.AuthzResolverService;
 import org.sakaiproject.kernel.api.authz.PermissionDeniedException;
+import org.sakaiproject.kernel.api.authz.PermissionQuery;
+import org.sakaiproject.kernel.api.authz.PermissionQueryService;
 import org.sakaiproject.kernel.api.authz.UnauthorizedException;
 import org.sakaiproject.kernel.api.jcr.JCRConstants;
 import org.sakaiproject.kernel.api.jcr.SmartNodeHandler;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
+import org.sakaiproject.kernel.api.jcr.support.FileMetadata;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryServiceException;
+import org.sakaiproject.kernel.api.memory.Cache;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
+import org.sakaiproject.kernel.api.memory.CacheScope;
 import org.sakaiproject.kernel.util.PathUtils;
+import org.sakaiproject.kernel.util.ReadableNodes;
 import org.sakaiproject.kernel.util.rest.RestDescription;
-import org.sakaiproject.kernel.webapp.RestServiceFaultException;
 import org.sakaiproject.sdata.tool.api.HandlerSerialzer;
 import org.sakaiproject.sdata.tool.api.ResourceDefinition;
 import org.sakaiproject.sdata.tool.api.ResourceDefinitionFactory;
@@ -51,8 +58,12 @@ import org.sakaiproject.sdata.tool.model.JCRNodeMap;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.GregorianCalendar;
@@ -60,6 +71,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.UUID;
 
 import javax.jcr.Node;
 import javax.jcr.Property;
@@ -188,6 +200,14 @@ public class JCRHandler extends AbstractHandler {
 
   private transient RegistryService registryService;
 
+  private transient CacheManagerService cacheManagerService;
+
+  private transient ReadableNodes readableNodes;
+
+  private transient AuthzResolverService authzResolverService;
+
+  private transient PermissionQueryService permissionQueryService;
+
   /**
    * Create a JCRHandler and give it a resource definition factory that will convert a URL
    * into a location in the repository.
@@ -202,12 +222,18 @@ public class JCRHandler extends AbstractHandler {
       @Named(RESOURCE_DEFINITION_FACTORY) ResourceDefinitionFactory resourceDefinitionFactory,
       @Named(RESOURCE_FUNCTION_FACTORY) Map<String, SDataFunction> resourceFunctionFactory,
       @Named(RESOURCE_SERIALIZER) HandlerSerialzer serializer,
-      RegistryService registryService) {
+      RegistryService registryService, CacheManagerService cacheManagerService,
+      AuthzResolverService authzResolverService,
+      PermissionQueryService permissionQueryService) {
     this.jcrNodeFactory = jcrNodeFactory;
     this.resourceDefinitionFactory = resourceDefinitionFactory;
     this.resourceFunctionFactory = resourceFunctionFactory;
     this.serializer = serializer;
     this.registryService = registryService;
+    this.cacheManagerService = cacheManagerService;
+    this.authzResolverService = authzResolverService;
+    this.permissionQueryService = permissionQueryService;
+    this.readableNodes = new ReadableNodes(authzResolverService, permissionQueryService);
 
     initDescription();
   }
@@ -259,8 +285,8 @@ public class JCRHandler extends AbstractHandler {
         Property lastModified = resource.getProperty(JCRConstants.JCR_LASTMODIFIED);
         lastModifiedTime = lastModified.getDate().getTimeInMillis();
 
-        if (!checkPreconditions(request, response, lastModifiedTime, String
-            .valueOf(lastModifiedTime))) {
+        if (!checkPreconditions(request, response, lastModifiedTime, getEtag(resource,
+            lastModifiedTime))) {
           return;
         }
       }
@@ -268,6 +294,7 @@ public class JCRHandler extends AbstractHandler {
       Session s = n.getSession();
       n.remove();
       s.save();
+      getFileMetadataCache().removeChildren(rp.getRepositoryPath());
       response.setStatus(HttpServletResponse.SC_NO_CONTENT);
 
     } catch (Exception e) {
@@ -351,8 +378,8 @@ public class JCRHandler extends AbstractHandler {
         }
       }
       response.setDateHeader(LAST_MODIFIED, lastModified.getDate().getTimeInMillis());
-      // we need to do something about huge files
-      response.setContentLength((int) content.getLength());
+      response.setHeader("Accept-Ranges", "bytes");
+      setContentLength(response, content.getLength());
       response.setStatus(HttpServletResponse.SC_OK);
 
     } catch (Exception e) {
@@ -460,11 +487,90 @@ public class JCRHandler extends AbstractHandler {
 
     Property content = resource.getProperty(JCRConstants.JCR_DATA);
 
+    // the value is spooled when it is set, so the digest is complete once
+    // setValue returns.
+    MessageDigest md = null;
+    try {
+      md = MessageDigest.getInstance("SHA-1");
+      in = new DigestInputStream(in, md);
+    } catch (NoSuchAlgorithmException e) {
+      LOG.warn("No SHA-1 digest, content will not have a strong etag " + e.getMessage());
+    }
+
     content.setValue(in);
 
+    if (md != null) {
+      resource.setProperty(JCRConstants.JCR_CONTENT_HASH,
+          org.sakaiproject.kernel.util.StringUtils.byteToHex(md.digest()));
+    } else if (resource.hasProperty(JCRConstants.JCR_CONTENT_HASH)) {
+      resource.getProperty(JCRConstants.JCR_CONTENT_HASH).remove();
+    }
+    getFileMetadataCache().remove(n.getPath());
+
     return content.getLength();
   }
 
+  /**
+   * The etag of a file, a strong etag from the content hash where the content was saved
+   * with one, otherwise the last modified time.
+   *
+   * @param resource
+   *          the jcr:content node of the file.
+   * @param lastModifiedTime
+   * @return the etag.
+   * @throws RepositoryException
+   */
+  private String getEtag(Node resource, long lastModifiedTime) throws RepositoryException {
+    if (resource.hasProperty(JCRConstants.JCR_CONTENT_HASH)) {
+      return "\"" + resource.getProperty(JCRConstants.JCR_CONTENT_HASH).getString() + "\"";
+    }
+    return String.valueOf(lastModifiedTime);
+  }
+
+  /**
+   * @return the cluster invalidated cache of file metadata keyed by repository path.
+   */
+  private Cache<FileMetadata> getFileMetadataCache() {
+    return cacheManagerService.getCache(FileMetadata.FILE_METADATA_CACHE,
+        CacheScope.CLUSTERINVALIDATED);
+  }
+
+  /**
+   * Answer a conditional GET from the file metadata cache, without reading the file from
+   * the repository. Only a request carrying a matching strong etag in If-None-Match, from
+   * a user who may read the file, is answered; anything else goes through the normal GET,
+   * which reports the denial. If-Modified-Since is ignored when If-None-Match is present
+   * (rfc2616 14.26), and requests that only carry If-Modified-Since go to the repository
+   * as before.
+   *
+   * @param request
+   * @param response
+   * @param rp
+   * @return true if a 304 has been sent.
+   */
+  private boolean sendCachedNotModified(HttpServletRequest request,
+      HttpServletResponse response, ResourceDefinition rp) {
+    String ifNoneMatch = request.getHeader("if-none-match");
+    if (ifNoneMatch == null || rp.getVersion() != null) {
+      return false;
+    }
+    Cache<FileMetadata> cache = getFileMetadataCache();
+    FileMetadata fileMetadata = cache.get(rp.getRepositoryPath());
+    if (fileMetadata == null || ifNoneMatch.indexOf(fileMetadata.getEtag()) < 0) {
+      return false;
+    }
+    if (!authzResolverService.checkAll(
+        Collections.singletonList(rp.getRepositoryPath()),
+        permissionQueryService.getPermission(PermissionQuery.READ)).get(0)) {
+      return false;
+    }
+    response.setDateHeader(LAST_MODIFIED, fileMetadata.getLastModified());
+    setGetCacheControl(response, rp.isPrivate());
+    response.setHeader("ETag", fileMetadata.getEtag());
+    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    return true;
+  }
+
   /*
    * private Map<String, Object> createProgressMap(String progressID) { if (progressID ==
    * null) { return null; } Map<String, Object> progressMap =
@@ -486,7 +592,7 @@ public class JCRHandler extends AbstractHandler {
       throws ServletException, IOException {
 
     OutputStream out = null;
-    InputStream in = null;
+    ContentRangeWriter contentWriter = null;
     try {
       snoopRequest(request);
 
@@ -497,6 +603,10 @@ public class JCRHandler extends AbstractHandler {
         return;
       }
 
+      if (m == null && sendCachedNotModified(request, response, rp)) {
+        return;
+      }
+
       Node n = jcrNodeFactory.getNode(rp.getRepositoryPath());
       if (n == null) {
         response.reset();
@@ -529,66 +639,70 @@ public class JCRHandler extends AbstractHandler {
           Property mimeType = resource.getProperty(JCRConstants.JCR_MIMETYPE);
           Property content = resource.getProperty(JCRConstants.JCR_DATA);
 
-          response.setContentType(mimeType.getString());
-          if (mimeType.getString().startsWith("text")) {
+          String contentType = mimeType.getString();
+          String characterEncoding = null;
+          if (contentType.startsWith("text")) {
             if (resource.hasProperty(JCRConstants.JCR_ENCODING)) {
               Property encoding = resource.getProperty(JCRConstants.JCR_ENCODING);
-              response.setCharacterEncoding(encoding.getString());
+              characterEncoding = encoding.getString();
             }
           }
           response.setDateHeader(LAST_MODIFIED, lastModified.getDate().getTimeInMillis());
           setGetCacheControl(response, rp.isPrivate());
 
-          String currentEtag = String.valueOf(lastModified.getDate().getTimeInMillis());
-          response.setHeader("ETag", currentEtag);
-
           long lastModifiedTime = lastModified.getDate().getTimeInMillis();
+          String currentEtag = getEtag(resource, lastModifiedTime);
+          response.setHeader("ETag", currentEtag);
+          long totallength = content.getLength();
+          if (version == null && resource.hasProperty(JCRConstants.JCR_CONTENT_HASH)) {
+            getFileMetadataCache().put(rp.getRepositoryPath(),
+                new FileMetadata(currentEtag, lastModifiedTime, contentType, totallength));
+          }
 
           if (!checkPreconditions(request, response, lastModifiedTime, currentEtag)) {
             return;
           }
-          long totallength = content.getLength();
-          long[] ranges = new long[2];
-          ranges[0] = 0;
-          ranges[1] = totallength;
-          if (!checkRanges(request, response, lastModifiedTime, currentEtag, ranges)) {
+          List<long[]> ranges = checkRanges(request, response, lastModifiedTime,
+              currentEtag, totallength);
+          if (ranges != null && ranges.size() == 0) {
             return;
           }
+          response.setHeader("Accept-Ranges", "bytes");
+          contentWriter = new ContentRangeWriter(content);
 
-          long length = ranges[1] - ranges[0];
-
-          if (totallength != length) {
-            response.setHeader("Accept-Ranges", "bytes");
-            response.setDateHeader("Last-Modified", lastModifiedTime);
-            response.setHeader("Content-Range", "bytes " + ranges[0] + "-"
-                + (ranges[1] - 1) + "/" + totallength);
+          if (ranges == null) {
+            response.setContentType(contentType);
+            if (characterEncoding != null) {
+              response.setCharacterEncoding(characterEncoding);
+            }
+            response.setStatus(HttpServletResponse.SC_OK);
+            setContentLength(response, totallength);
+            out = response.getOutputStream();
+            contentWriter.write(out, 0, totallength - 1);
+          } else if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response.setContentType(contentType);
+            if (characterEncoding != null) {
+              response.setCharacterEncoding(characterEncoding);
+            }
+            response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/"
+                + totallength);
             response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-
-            LOG.info("Partial Content Sent " + HttpServletResponse.SC_PARTIAL_CONTENT);
+            setContentLength(response, ByteRanges.length(range));
+            out = response.getOutputStream();
+            contentWriter.write(out, range[0], range[1]);
           } else {
-            response.setStatus(HttpServletResponse.SC_OK);
-          }
-
-          response.setContentLength((int) length);
-
-          out = response.getOutputStream();
-
-          in = content.getStream();
-          long loc = in.skip(ranges[0]);
-          if (loc != ranges[0]) {
-            throw new RestServiceFaultException(HttpServletResponse.SC_BAD_REQUEST,
-                "Range specified is invalid asked for " + ranges[0] + " got " + loc);
-          }
-          byte[] b = new byte[10240];
-          int nbytes = 0;
-          while ((nbytes = in.read(b)) > 0 && length > 0) {
-            if (nbytes < length) {
-              out.write(b, 0, nbytes);
-              length = length - nbytes;
-            } else {
-              out.write(b, 0, (int) length);
-              length = 0;
+            String partType = contentType;
+            if (characterEncoding != null) {
+              partType = contentType + "; charset=" + characterEncoding;
             }
+            String boundary = UUID.randomUUID().toString();
+            response.setContentType("multipart/byteranges; boundary=" + boundary);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            setContentLength(response, ContentRangeWriter.getMultipartLength(ranges,
+                partType, totallength, boundary));
+            out = response.getOutputStream();
+            contentWriter.writeMultipart(out, ranges, partType, totallength, boundary);
           }
         } else {
           boolean handled = handleSmartNode(request, response, rp, n);
@@ -620,9 +734,8 @@ public class JCRHandler extends AbstractHandler {
         out.close();
       } catch (Exception ex) {
       }
-      try {
-        in.close();
-      } catch (Exception ex) {
+      if (contentWriter != null) {
+        contentWriter.close();
       }
     }
   }
@@ -693,15 +806,19 @@ public class JCRHandler extends AbstractHandler {
     // String.valueOf(lastModified.getDate()
     // .getTimeInMillis()));
 
+    // check the listing with one call rather than one check per child.
+    if (rp.getDepth() > 0
+        && !JCRConstants.NT_FILE.equals(n.getPrimaryNodeType().getName())) {
+      readableNodes.checkChildren(n);
+    }
     JCRNodeMap outputMap = new JCRNodeMap(n, rp.getDepth(), rp);
     sendMap(request, response, outputMap);
   }
 
   /**
    * Check the ranges requested in the request headers, this conforms to the RFC on the
-   * range, if-range headers. On return, it the request is to be processed, true will be
-   * returned, and ranges[0] will the the start byte of the response stream and ranges[1]
-   * will be the end byte.
+   * range, if-range headers. If none of the ranges requested can be satisfied a 416 is
+   * sent.
    *
    * @param request
    *          the request object from the Servlet Container.
@@ -711,54 +828,61 @@ public class JCRHandler extends AbstractHandler {
    *          the last modified time from target object
    * @param currentEtag
    *          the Etag
-   * @param ranges
-   *          ranges setup to contain the start and end byte offsets
-   * @return true if the response is to contain data, false if not.
+   * @param totalLength
+   *          the length of the entity
+   * @return null if the whole entity is to be sent, an empty list if the response has
+   *         been sent, otherwise the ranges of the entity to send, in ascending order,
+   *         as first and last byte positions.
    * @throws IOException
    */
-  private boolean checkRanges(HttpServletRequest request, HttpServletResponse response,
-      long lastModifiedTime, String currentEtag, long[] ranges) throws IOException {
+  private List<long[]> checkRanges(HttpServletRequest request,
+      HttpServletResponse response, long lastModifiedTime, String currentEtag,
+      long totalLength) throws IOException {
 
     String range = request.getHeader("range");
-    long ifRangeDate = request.getDateHeader("if-range");
-    String ifRangeEtag = request.getHeader("if-range");
-
-    if (ifRangeDate != -1 && lastModifiedTime > ifRangeDate) {
-      // the entity has been modified, ignore and send the whole lot
-      return true;
+    if (range == null) {
+      return null;
     }
-    if (ifRangeEtag != null && !currentEtag.equals(ifRangeEtag)) {
-      // the entity has been modified, ignore and send the whole lot
-      return true;
-    }
-
-    if (range != null) {
-      String[] s = range.split("=");
-      if (!"bytes".equals(s[0])) {
-        response.reset();
-        response.sendError(416,
-            "System only supports single range responses, specified in bytes");
-        return false;
-      }
-      range = s[1];
-      String[] r = range.split(",");
-      if (r.length > 1) {
-        response.reset();
-        response.sendError(416, "System only supports single range responses");
-        return false;
+    String ifRange = request.getHeader("if-range");
+    if (ifRange != null) {
+      long ifRangeDate = -1;
+      try {
+        ifRangeDate = request.getDateHeader("if-range");
+      } catch (IllegalArgumentException e) {
+        // not a date, so an etag
       }
-      range = range.trim();
-      if (range.startsWith("-")) {
-        ranges[1] = Long.parseLong(range.substring(1));
-      } else if (range.endsWith("-")) {
-        ranges[0] = Long.parseLong(range.substring(0, range.length() - 1));
-      } else {
-        r = range.split("-");
-        ranges[0] = Long.parseLong(r[0]);
-        ranges[1] = Long.parseLong(r[1]);
+      if (ifRangeDate != -1) {
+        if (lastModifiedTime > ifRangeDate) {
+          // the entity has been modified, ignore and send the whole lot
+          return null;
+        }
+      } else if (!currentEtag.equals(ifRange)) {
+        // the entity has been modified, ignore and send the whole lot
+        return null;
       }
     }
-    return true;
+
+    List<long[]> ranges = ByteRanges.parse(range, totalLength);
+    if (ranges != null && ranges.size() == 0) {
+      response.reset();
+      response.setHeader("Content-Range", "bytes */" + totalLength);
+      response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+    }
+    return ranges;
+  }
+
+  /**
+   * Set the content length, without truncating entities over 2GB.
+   *
+   * @param response
+   * @param length
+   */
+  private void setContentLength(HttpServletResponse response, long length) {
+    if (length <= Integer.MAX_VALUE) {
+      response.setContentLength((int) length);
+    } else {
+      response.setHeader("Content-Length", String.valueOf(length));
+    }
   }
 
   /**
@@ -858,6 +982,8 @@ public class JCRHandler extends AbstractHandler {
           SDataFunction m = resourceFunctionFactory.get(rp.getFunctionDefinition());
           if (m != null) {
             m.call(this, request, response, n, rp);
+            // functions may move, remove or change files below this point.
+            getFileMetadataCache().removeChildren(rp.getRepositoryPath());
           } else {
             LOG.info("NOP Post performed");
             throw new SDataException(HttpServletResponse.SC_NOT_FOUND,
@@ -24,7 +24,10 @@ import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
 import org.sakaiproject.kernel.api.RegistryService;
+import org.sakaiproject.kernel.api.authz.AuthzResolverService;
+import org.sakaiproject.kernel.api.authz.PermissionQueryService;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
 import org.sakaiproject.kernel.util.rest.RestDescription;
 import org.sakaiproject.sdata.tool.api.HandlerSerialzer;
 import org.sakaiproject.sdata.tool.api.ResourceDefinitionFactory;
@@ -120,9 +123,12 @@ public class JCRUserStorageHandler extends JCRHandler {
       @Named(RESOURCE_DEFINITION_FACTORY) ResourceDefinitionFactory resourceDefinitionFactory,
       @Named(RESOURCE_FUNCTION_FACTORY) Map<String, SDataFunction> resourceFunctionFactory,
       @Named(RESOURCE_SERIALIZER) HandlerSerialzer serializer,
-      RegistryService registryService) {
+      RegistryService registryService, CacheManagerService cacheManagerService,
+      AuthzResolverService authzResolverService,
+      PermissionQueryService permissionQueryService) {
     super(jcrNodeFactory, resourceDefinitionFactory, resourceFunctionFactory,
-        serializer, registryService);
+        serializer, registryService, cacheManagerService, authzResolverService,
+        permissionQueryService);
     System.err.println(this + " Resource Defintion Factory is "
         + resourceDefinitionFactory);
   }
@@ -34,6 +34,7 @@ import org.sakaiproject.kernel.api.authz.PermissionQueryService;
 import org.sakaiproject.kernel.api.authz.ReferenceResolverService;
 import org.sakaiproject.kernel.api.jcr.JCRService;
 import org.sakaiproject.kernel.api.jcr.support.JCRNodeFactoryService;
+import org.sakaiproject.kernel.api.memory.CacheManagerService;
 import org.sakaiproject.kernel.component.core.guice.ServiceProvider;
 import org.sakaiproject.kernel.util.ResourceLoader;
 import org.sakaiproject.sdata.tool.JCRHandler;
@@ -162,6 +163,9 @@ public class SDataModule extends AbstractModule {
     bind(ReferenceResolverService.class).toProvider(
         new ServiceProvider<ReferenceResolverService>(sm,
             ReferenceResolverService.class));
+    bind(CacheManagerService.class).toProvider(
+        new ServiceProvider<CacheManagerService>(sm,
+            CacheManagerService.class));
 
     bind(RegistryService.class).toProvider(
         new ServiceProvider<RegistryService>(kernel.getServiceManager(),
@@ -29,7 +29,8 @@ import org.junit.runners.Suite.SuiteClasses;
     PathSecurityAssertionTest.class, RFC1123DateTest.class,
     SnoopHandlerTest.class, ContentTypeTest.class,
     ResourceDefinitionFactoryTest.class,
-    UserResourceDefinitionFactoryTest.class, JsonHandlerSerializerTest.class
+    UserResourceDefinitionFactoryTest.class, JsonHandlerSerializerTest.class,
+    ByteRangesTest.class, ContentRangeWriterTest.class
 
 })
 public class AllUnitSuite {
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.sdata.tool.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.sakaiproject.sdata.tool.ByteRanges;
+
+import java.util.List;
+
+/**
+ * Unit tests for the Range header parser.
+ */
+public class ByteRangesTest {
+
+  @Test
+  public void testNoRange() {
+    assertNull(ByteRanges.parse(null, 100));
+    assertNull(ByteRanges.parse("items=0-10", 100));
+    assertNull(ByteRanges.parse("bytes=10-5", 100));
+    assertNull(ByteRanges.parse("bytes=a-b", 100));
+    assertNull(ByteRanges.parse("bytes=", 100));
+  }
+
+  @Test
+  public void testSingleRanges() {
+    assertRanges(ByteRanges.parse("bytes=0-99", 1000), 0, 99);
+    assertRanges(ByteRanges.parse("bytes=500-", 1000), 500, 999);
+    assertRanges(ByteRanges.parse("bytes=-100", 1000), 900, 999);
+    assertRanges(ByteRanges.parse("bytes=-2000", 1000), 0, 999);
+    assertRanges(ByteRanges.parse("bytes=990-2000", 1000), 990, 999);
+    assertRanges(ByteRanges.parse("Bytes = 10 - 20", 1000), 10, 20);
+  }
+
+  @Test
+  public void testUnsatisfiable() {
+    assertEquals(0, ByteRanges.parse("bytes=1000-", 1000).size());
+    assertEquals(0, ByteRanges.parse("bytes=-0", 1000).size());
+    assertEquals(0, ByteRanges.parse("bytes=0-10", 0).size());
+    assertRanges(ByteRanges.parse("bytes=2000-,0-0", 1000), 0, 0);
+  }
+
+  @Test
+  public void testMultipleRanges() {
+    assertRanges(ByteRanges.parse("bytes=500-599,0-99", 1000), 0, 99, 500, 599);
+    // overlapping and adjacent ranges are coalesced
+    assertRanges(ByteRanges.parse("bytes=0-99,50-149,150-199,-100", 1000), 0, 199,
+        900, 999);
+    assertRanges(ByteRanges.parse("bytes=0-0,-1", 1), 0, 0);
+  }
+
+  @Test
+  public void testLargeEntity() {
+    long total = 5L * 1024 * 1024 * 1024;
+    List<long[]> ranges = ByteRanges.parse("bytes=4294967296-", total);
+    assertRanges(ranges, 4294967296L, total - 1);
+    assertEquals(total - 4294967296L, ByteRanges.length(ranges.get(0)));
+  }
+
+  private void assertRanges(List<long[]> ranges, long... expected) {
+    assertEquals(expected.length / 2, ranges.size());
+    for (int i = 0; i < ranges.size(); i++) {
+      assertEquals(expected[2 * i], ranges.get(i)[0]);
+      assertEquals(expected[2 * i + 1], ranges.get(i)[1]);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Sakai Foundation (SF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.sakaiproject.sdata.tool.test;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.sakaiproject.sdata.tool.ContentRangeWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.Property;
+
+/**
+ * Unit tests for writing ranges of content, both from file backed and plain
+ * streams.
+ */
+public class ContentRangeWriterTest {
+
+  private static final byte[] DATA = new byte[100000];
+  static {
+    for (int i = 0; i < DATA.length; i++) {
+      DATA[i] = (byte) (i % 251);
+    }
+  }
+
+  @Test
+  public void testStreamRanges() throws Exception {
+    checkRanges(new ByteArrayInputStream(DATA));
+  }
+
+  @Test
+  public void testFileRanges() throws Exception {
+    File f = File.createTempFile("contentrange", ".bin");
+    f.deleteOnExit();
+    FileOutputStream fout = new FileOutputStream(f);
+    fout.write(DATA);
+    fout.close();
+    FileInputStream in = new FileInputStream(f);
+    try {
+      checkRanges(in);
+    } finally {
+      in.close();
+      f.delete();
+    }
+  }
+
+  @Test
+  public void testMultipart() throws Exception {
+    Property content = createMock(Property.class);
+    expect(content.getStream()).andReturn(new ByteArrayInputStream(DATA));
+    replay(content);
+
+    List<long[]> ranges = new ArrayList<long[]>();
+    ranges.add(new long[] { 0, 9 });
+    ranges.add(new long[] { 99990, 99999 });
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ContentRangeWriter writer = new ContentRangeWriter(content);
+    writer.writeMultipart(out, ranges, "text/plain", DATA.length, "BOUNDARY");
+    writer.close();
+
+    assertEquals(ContentRangeWriter.getMultipartLength(ranges, "text/plain",
+        DATA.length, "BOUNDARY"), out.size());
+    String body = new String(out.toByteArray(), "ISO-8859-1");
+    assertEquals(true, body.startsWith("\r\n--BOUNDARY\r\nContent-Type: text/plain\r\n"
+        + "Content-Range: bytes 0-9/100000\r\n\r\n"));
+    assertEquals(true, body.indexOf("Content-Range: bytes 99990-99999/100000\r\n") > 0);
+    assertEquals(true, body.endsWith("\r\n--BOUNDARY--\r\n"));
+    verify(content);
+  }
+
+  private void checkRanges(InputStream in) throws Exception {
+    Property content = createMock(Property.class);
+    expect(content.getStream()).andReturn(in);
+    replay(content);
+
+    ContentRangeWriter writer = new ContentRangeWriter(content);
+    assertRange(writer, 0, 99);
+    assertRange(writer, 500, 40999);
+    assertRange(writer, 99999, 99999);
+    writer.close();
+    verify(content);
+  }
+
+  private void assertRange(ContentRangeWriter writer, long first, long last)
+      throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.write(out, first, last);
+    byte[] b = out.toByteArray();
+    assertEquals(last - first + 1, b.length);
+    for (int i = 0; i < b.length; i++) {
+      assertEquals(DATA[(int) first + i], b[i]);
+    }
+  }
+}